@@ -0,0 +1,27 @@
+#!/bin/sh
+
+##   Licensed to the Apache Software Foundation (ASF) under one or more
+##   contributor license agreements.  See the NOTICE file distributed with
+##   this work for additional information regarding copyright ownership.
+##   The ASF licenses this file to You under the Apache License, Version 2.0
+##   (the "License"); you may not use this file except in compliance with
+##   the License.  You may obtain a copy of the License at
+## 
+##       http://www.apache.org/licenses/LICENSE-2.0
+## 
+##   Unless required by applicable law or agreed to in writing, software
+##   distributed under the License is distributed on an "AS IS" BASIS,
+##   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+##   See the License for the specific language governing permissions and
+##   limitations under the License.
+
+#   Merge the agg files of several load generators into cluster-wide rows
+#   P1 = -p followed by comma separated percentiles to add as columns (version 2 layout), optional
+#   P2 = merged text agg file to write, - for the standard output
+#   P3... = text or binary agg files to merge
+
+DIRNAME=`dirname $0`
+
+CP=${DIRNAME}/../lib/ext/ApacheJMeter_core.jar:${DIRNAME}/../lib/*
+
+java -cp "$CP" org.apache.jmeter.reporters.PtpAggregateMerge "$@"
@@ -0,0 +1,28 @@
+#!/bin/sh
+
+##   Licensed to the Apache Software Foundation (ASF) under one or more
+##   contributor license agreements.  See the NOTICE file distributed with
+##   this work for additional information regarding copyright ownership.
+##   The ASF licenses this file to You under the Apache License, Version 2.0
+##   (the "License"); you may not use this file except in compliance with
+##   the License.  You may obtain a copy of the License at
+## 
+##       http://www.apache.org/licenses/LICENSE-2.0
+## 
+##   Unless required by applicable law or agreed to in writing, software
+##   distributed under the License is distributed on an "AS IS" BASIS,
+##   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+##   See the License for the specific language governing permissions and
+##   limitations under the License.
+
+#   Rebuild an agg file from the CSV result files (JTL) of a load generator
+#   P1... = options, optional: -r<round id> -m<machine id> -h<histogram precision>
+#           -t<threads> -p<comma separated percentiles> (version 2 layout)
+#   P2 = agg file to write, - for the standard output
+#   P3... = CSV result files
+
+DIRNAME=`dirname $0`
+
+CP=${DIRNAME}/../lib/ext/ApacheJMeter_core.jar:${DIRNAME}/../lib/*
+
+java -cp "$CP" org.apache.jmeter.reporters.PtpAggregateRebuild "$@"
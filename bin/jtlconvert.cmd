@@ -0,0 +1,28 @@
+@echo off
+
+rem   Licensed to the Apache Software Foundation (ASF) under one or more
+rem   contributor license agreements.  See the NOTICE file distributed with
+rem   this work for additional information regarding copyright ownership.
+rem   The ASF licenses this file to You under the Apache License, Version 2.0
+rem   (the "License"); you may not use this file except in compliance with
+rem   the License.  You may obtain a copy of the License at
+rem 
+rem       http://www.apache.org/licenses/LICENSE-2.0
+rem 
+rem   Unless required by applicable law or agreed to in writing, software
+rem   distributed under the License is distributed on an "AS IS" BASIS,
+rem   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+rem   See the License for the specific language governing permissions and
+rem   limitations under the License.
+
+rem   Convert a binary result file (jmeter.save.saveservice.output_format=binary) to CSV
+rem   P1 = binary result file
+rem   P2 = CSV result file to write, standard output if omitted or -
+rem   P3 = delimiter of the fields, comma if omitted
+
+setlocal
+
+set CP=%~dp0..\lib\ext\ApacheJMeter_core.jar;%~dp0..\lib\*
+
+java -cp "%CP%" org.apache.jmeter.save.PtpBinaryResultConverter %*
+pause
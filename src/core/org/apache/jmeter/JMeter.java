@@ -42,7 +42,6 @@ import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.JTree;
 import javax.swing.UIManager;
@@ -160,7 +159,6 @@ public class JMeter implements JMeterPlugin {
     private static final int REMOTE_OPT_PARAM   = 'R';// $NON-NLS-1$
     private static final int SYSTEM_PROPFILE    = 'S';// $NON-NLS-1$
     private static final int REMOTE_STOP        = 'X';// $NON-NLS-1$
-    private static final long JVM_WAIT_AGGREGATE = 3000000000L;
 
     /**
      * Define the understood options. Each CLOptionDescriptor contains:
@@ -1175,8 +1173,6 @@ public class JMeter implements JMeterPlugin {
                     @Override
                     public void run(){
                         try {
-                            //wait for ptpClear()
-                            LockSupport.parkNanos(JVM_WAIT_AGGREGATE);
                             TimeUnit.MILLISECONDS.sleep(REMAIN_THREAD_PAUSE); // Allow enough time for JVM to exit
                         } catch (InterruptedException ignored) {
                         }
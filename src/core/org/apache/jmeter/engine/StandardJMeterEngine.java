@@ -28,6 +28,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.jmeter.JMeter;
+import org.apache.jmeter.reporters.PtpNodeIdentity;
 import org.apache.jmeter.samplers.SampleEvent;
 import org.apache.jmeter.testbeans.TestBean;
 import org.apache.jmeter.testbeans.TestBeanHelper;
@@ -174,6 +175,8 @@ public class StandardJMeterEngine implements JMeterEngine, Runnable {
             long now=System.currentTimeMillis();
             System.out.println("Starting the test on host " + host + " @ "+new Date(now)+" ("+now+")");
         }
+        // Once per test, so that samples never look the identity up
+        PtpNodeIdentity.resolve();
         try {
             Thread runningThread = new Thread(this, "StandardJMeterEngine");
             runningThread.start();
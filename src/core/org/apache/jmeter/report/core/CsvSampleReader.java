@@ -20,15 +20,17 @@ package org.apache.jmeter.report.core;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.jmeter.samplers.SampleSaveConfiguration;
 import org.apache.jmeter.save.CSVSaveService;
+import org.apache.jmeter.save.PtpBinaryResultReader;
+import org.apache.jmeter.save.PtpGzipBlockInputStream;
+import org.apache.jmeter.save.PtpResultShards;
 import org.apache.jmeter.save.SaveService;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
@@ -40,6 +42,19 @@ import org.apache.log.Logger;
  * <p>
  * Handles {@link SampleMetadata} reading and sample extraction.
  * </p>
+ * <p>
+ * If the input file does not exist but was written in shards (see
+ * {@link PtpResultShards}), the shards are read as a single file: their
+ * samples are merged on their time stamps, keeping their row numbers in
+ * their shard.
+ * </p>
+ * <p>
+ * Gzip compressed files are decompressed, see {@link PtpGzipBlockInputStream}.
+ * </p>
+ * <p>
+ * Binary result files are read without parsing any text, their metadata
+ * being the columns of their schema, see {@link PtpBinaryResultReader}.
+ * </p>
  * 
  * @since 3.0
  */
@@ -69,6 +84,14 @@ public class CsvSampleReader implements Closeable{
 
     private Sample lastSampleRead;
 
+    // Readers of the shards merged, null when reading a single file
+    private CsvSampleReader[] shardReaders;
+
+    private PtpResultShards.Merge<Sample> shardMerge;
+
+    // Reader of a binary result file, null when reading a CSV file
+    private PtpBinaryResultReader binaryReader;
+
     /**
      * Instantiates a new csv sample reader.
      *
@@ -98,15 +121,25 @@ public class CsvSampleReader implements Closeable{
 
     private CsvSampleReader(File inputFile, SampleMetadata metadata,
             char separator, boolean useSaveSampleCfg) {
+        this.file = inputFile;
         if (!(inputFile.isFile() && inputFile.canRead())) {
-            throw new IllegalArgumentException(inputFile.getAbsolutePath()
-                    + " does not exist or is not readable");
+            File[] shards = inputFile.exists() ? new File[0] : PtpResultShards.listShards(inputFile);
+            if (shards.length == 0) {
+                throw new IllegalArgumentException(inputFile.getAbsolutePath()
+                        + " does not exist or is not readable");
+            }
+            openShards(shards, metadata, separator, useSaveSampleCfg);
+            return;
         }
-        this.file = inputFile;
         try {
+            if (PtpBinaryResultReader.isBinary(file)) {
+                openBinary(metadata);
+                return;
+            }
+            // Compressed files are read whatever their name
             this.reader = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(file), CHARSET), BUF_SIZE);
-        } catch (FileNotFoundException | UnsupportedEncodingException ex) {
+                    PtpGzipBlockInputStream.open(file), CHARSET), BUF_SIZE);
+        } catch (IOException ex) {
             throw new SampleException("Could not create file reader !", ex);
         }
         if (metadata == null) {
@@ -120,6 +153,69 @@ public class CsvSampleReader implements Closeable{
         this.lastSampleRead = nextSample();
     }
 
+    private void openBinary(SampleMetadata metadata) throws IOException {
+        this.binaryReader = PtpBinaryResultReader.open(file);
+        SampleMetadata fileMetadata = new SampleMetadata(
+                metadata == null ? DEFAULT_SEPARATOR : metadata.getSeparator(),
+                binaryReader.getColumnNames());
+        if (metadata != null && metadata.getColumnCount() != fileMetadata.getColumnCount()) {
+            close();
+            throw new SampleException("Mismatch between expected number of columns:" + metadata.getColumnCount()
+                    + " and columns in binary file:" + fileMetadata.getColumnCount());
+        }
+        this.metadata = metadata == null ? fileMetadata : metadata;
+        this.columnCount = this.metadata.getColumnCount();
+        this.separator = this.metadata.getSeparator();
+        this.row = 0;
+        this.lastSampleRead = nextSample();
+    }
+
+    private void openShards(File[] shards, SampleMetadata metadata,
+            char separator, boolean useSaveSampleCfg) {
+        List<File> nonEmpty = new ArrayList<>(shards.length);
+        for (File shard : shards) {
+            if (shard.length() > 0) {
+                nonEmpty.add(shard);
+            }
+        }
+        if (nonEmpty.isEmpty()) {
+            // fails as an empty file
+            nonEmpty.add(shards[0]);
+        }
+        shardReaders = new CsvSampleReader[nonEmpty.size()];
+        try {
+            for (int i = 0; i < shardReaders.length; i++) {
+                shardReaders[i] = new CsvSampleReader(nonEmpty.get(i), metadata, separator, useSaveSampleCfg);
+            }
+            this.metadata = shardReaders[0].getMetadata();
+            for (CsvSampleReader shard : shardReaders) {
+                if (shard.getMetadata().getColumnCount() != this.metadata.getColumnCount()) {
+                    throw new SampleException("Mismatch between the columns of the shards "
+                            + nonEmpty.get(0) + " and " + shard.file);
+                }
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        final CsvSampleReader[] readers = shardReaders;
+        shardMerge = new PtpResultShards.Merge<Sample>(readers.length) {
+            @Override
+            protected Sample read(int shard) {
+                return readers[shard].readSample();
+            }
+
+            @Override
+            protected long timeStampOf(Sample sample) {
+                return sample.getTimestamp();
+            }
+        };
+        this.columnCount = this.metadata.getColumnCount();
+        this.separator = this.metadata.getSeparator();
+        this.row = 0;
+        this.lastSampleRead = nextSample();
+    }
+
     private SampleMetadata readMetadata(char separator, boolean useSaveSampleCfg) {
         try {
             SampleMetadata result;
@@ -161,6 +257,12 @@ public class CsvSampleReader implements Closeable{
     }
 
     private Sample nextSample() {
+        if (shardReaders != null) {
+            return nextShardSample();
+        }
+        if (binaryReader != null) {
+            return nextBinarySample();
+        }
         String[] data;
         try {
             data = CSVSaveService.csvReadFile(reader, separator);
@@ -178,6 +280,44 @@ public class CsvSampleReader implements Closeable{
         }
     }
 
+    // The numeric fields of the samples are not formatted nor parsed
+    private Sample nextBinarySample() {
+        try {
+            if (!binaryReader.nextSample()) {
+                return null;
+            }
+            if (binaryReader.getColumnCount() != columnCount) {
+                // a later segment written with another save configuration
+                throw new SampleException("Mismatch between expected number of columns:" + columnCount
+                        + " and columns in binary file:" + binaryReader.getColumnCount());
+            }
+            String[] data = new String[columnCount];
+            long[] values = new long[Sample.NUMERIC_FIELDS];
+            int parsed = 0;
+            for (int i = 0; i < columnCount; i++) {
+                int field = metadata.getColumnField(i);
+                if (field >= 0 && field < Sample.NUMERIC_FIELDS && binaryReader.isNumeric(i)) {
+                    values[field] = binaryReader.getLong(i);
+                    parsed |= 1 << field;
+                } else {
+                    data[i] = binaryReader.getField(i);
+                }
+            }
+            return new Sample(row, metadata, data, values, parsed);
+        } catch (IOException e) {
+            throw new SampleException("Could not read sample <" + row + ">", e);
+        }
+    }
+
+    private Sample nextShardSample() {
+        try {
+            return shardMerge.next();
+        } catch (IOException e) {
+            // not thrown, the shard readers wrap their errors in SampleException
+            throw new SampleException("Could not read the shards of " + file, e);
+        }
+    }
+
     /**
      * Gets next sample from the file.
      *
@@ -213,5 +353,13 @@ public class CsvSampleReader implements Closeable{
     @Override
     public void close() {
         JOrphanUtils.closeQuietly(reader);
+        JOrphanUtils.closeQuietly(binaryReader);
+        if (shardReaders != null) {
+            for (CsvSampleReader shard : shardReaders) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+        }
     }
 }
@@ -27,6 +27,12 @@ import org.apache.jmeter.util.JMeterUtils;
  * Getters with a string parameter are implemented for convenience but should be
  * avoided as they are inefficient
  * </p>
+ * <p>
+ * The numeric columns read by the getters (time stamp, elapsed time, latency,
+ * ...) are parsed once when the sample is built, the getters returning the
+ * parsed values. A value that cannot be parsed is reported when read, as if
+ * parsed on demand.
+ * </p>
  * 
  * @since 3.0
  */
@@ -38,10 +44,52 @@ public class Sample {
     
     private static final String EMPTY_CONTROLLER_PATTERN = "Number of samples in transaction : 0";
 
-    private final boolean storesStartTimeStamp;
+    private static final boolean STORES_START_TIMESTAMP =
+            JMeterUtils.getPropDefault("sampleresult.timestamp.start", false); // $NON-NLS-1$
+
+    // Fields read by the getters, the numeric ones first; their column indexes
+    // are resolved once by the metadata
+    static final int TIMESTAMP = 0;
+    static final int ELAPSED = 1;
+    static final int LATENCY = 2;
+    static final int CONNECT_TIME = 3;
+    static final int RECEIVED_BYTES = 4;
+    static final int SENT_BYTES = 5;
+    static final int GROUP_THREADS = 6;
+    static final int ALL_THREADS = 7;
+    static final int SUCCESS = 8;
+    static final int NUMERIC_FIELDS = 9;
+    static final int NAME = 9;
+    static final int RESPONSE_CODE = 10;
+    static final int RESPONSE_MESSAGE = 11;
+    static final int FAILURE_MESSAGE = 12;
+    static final int THREAD_NAME = 13;
+
+    static final String[] FIELDS = {
+        CSVSaveService.TIME_STAMP,
+        CSVSaveService.CSV_ELAPSED,
+        CSVSaveService.CSV_LATENCY,
+        CSVSaveService.CSV_CONNECT_TIME,
+        CSVSaveService.CSV_BYTES,
+        CSVSaveService.CSV_SENT_BYTES,
+        CSVSaveService.CSV_THREAD_COUNT1,
+        CSVSaveService.CSV_THREAD_COUNT2,
+        CSVSaveService.SUCCESSFUL,
+        CSVSaveService.LABEL,
+        CSVSaveService.RESPONSE_CODE,
+        CSVSaveService.RESPONSE_MESSAGE,
+        CSVSaveService.FAILURE_MESSAGE,
+        CSVSaveService.THREAD_NAME,
+    };
+
     private final SampleMetadata metadata;
+    // null for the numeric columns of a sample built from their values, until formatted
     private final String[] data;
     private final long row;
+    // Numeric fields, success being 1 or 0
+    private final long[] values;
+    // Bit of each numeric field parsed in values
+    private final int parsed;
 
     /**
      * Build a sample from a string array
@@ -58,7 +106,69 @@ public class Sample {
         this.row = row;
         this.metadata = metadata;
         this.data = data;
-        this.storesStartTimeStamp = JMeterUtils.getPropDefault("sampleresult.timestamp.start", false);
+        this.values = new long[NUMERIC_FIELDS];
+        int parsedFields = 0;
+        for (int field = 0; field < NUMERIC_FIELDS; field++) {
+            int index = metadata.getFieldIndex(field);
+            if (index >= 0 && index < data.length) {
+                String value = data[index];
+                if (field == SUCCESS) {
+                    values[field] = Boolean.parseBoolean(value) ? 1L : 0L;
+                    parsedFields |= 1 << field;
+                } else if (isLong(value)) {
+                    try {
+                        values[field] = Long.parseLong(value);
+                        parsedFields |= 1 << field;
+                    } catch (NumberFormatException e) {
+                        // out of range, reported when read
+                    }
+                }
+            }
+        }
+        this.parsed = parsedFields;
+    }
+
+    /**
+     * Build a sample from the values of its numeric fields, their columns
+     * being formatted only if read as strings.
+     *
+     * @param row
+     *            the row number in the source from which this sample is built
+     * @param metadata
+     *            The sample metadata (contains column names)
+     * @param data
+     *            The sample data, <code>null</code> for the columns of the
+     *            numeric fields in <code>parsed</code>
+     * @param values
+     *            The values of the numeric fields, by field
+     * @param parsed
+     *            Bit of each field given in <code>values</code>
+     */
+    Sample(long row, SampleMetadata metadata, String[] data, long[] values, int parsed) {
+        this.row = row;
+        this.metadata = metadata;
+        this.data = data;
+        this.values = values;
+        this.parsed = parsed;
+    }
+
+    // Long.parseLong accepts the same strings, this only avoids its exception
+    // on the values that are obviously not numbers, such as formatted dates
+    private static boolean isLong(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        int start = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+        if (start == value.length()) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -77,7 +187,29 @@ public class Sample {
      * @return the data of the column
      */
     public String getData(int index) {
-        return data[index];
+        String value = data[index];
+        if (value == null) {
+            value = format(index);
+        }
+        return value;
+    }
+
+    // Formats the column of a numeric field of a sample built from its value,
+    // racing threads format the same string
+    private String format(int index) {
+        int field = metadata.getColumnField(index);
+        if (field < 0 || field >= NUMERIC_FIELDS || !isParsed(field)) {
+            return null;
+        }
+        String value = field == SUCCESS
+                ? Boolean.toString(values[field] != 0L)
+                : Long.toString(values[field]);
+        data[index] = value;
+        return value;
+    }
+
+    private boolean isParsed(int field) {
+        return (parsed & (1 << field)) != 0;
     }
 
     /**
@@ -88,7 +220,7 @@ public class Sample {
      * @return the data of the column
      */
     public String getData(String name) {
-        return data[metadata.ensureIndexOf(name)];
+        return getData(metadata.ensureIndexOf(name));
     }
 
     /**
@@ -103,11 +235,55 @@ public class Sample {
      * @return the converted value of the data
      */
     public <TData> TData getData(Class<TData> clazz, int index, String fieldName) {
+        String value = getData(index);
         try {
-            return Converters.convert(clazz, data[index]);
+            return Converters.convert(clazz, value);
         } catch (ConvertException ex) {
-            throw new SampleException(ERROR_ON_SAMPLE + (row+1) + " converting field:"+fieldName+" at column:"+index+" to:"+clazz.getName()+", fieldValue:'"+data[index]+"'", ex);
+            throw new SampleException(ERROR_ON_SAMPLE + (row+1) + " converting field:"+fieldName+" at column:"+index+" to:"+clazz.getName()+", fieldValue:'"+value+"'", ex);
+        }
+    }
+
+    /**
+     * Gets the data of the column matching the specified rank as a long,
+     * without parsing it again if it is a numeric field of the getters.
+     *
+     * @param index
+     *            the rank of the column
+     * @param fieldName
+     *            Field name
+     * @return the value of the data
+     */
+    public long getLong(int index, String fieldName) {
+        int field = metadata.getColumnField(index);
+        if (field >= 0 && field < NUMERIC_FIELDS && field != SUCCESS && isParsed(field)) {
+            return values[field];
+        }
+        return getData(long.class, index, fieldName).longValue();
+    }
+
+    // Value of a numeric field, parsed again if missing or unparsed to report why
+    private long getLong(int field) {
+        if (isParsed(field)) {
+            return values[field];
         }
+        return getData(long.class, FIELDS[field]).longValue();
+    }
+
+    // Value of a numeric field, 0 if its column is missing
+    private long getOptionalLong(int field) {
+        if (isParsed(field)) {
+            return values[field];
+        }
+        if (metadata.getFieldIndex(field) < 0) {
+            return 0L;
+        }
+        return getData(long.class, FIELDS[field]).longValue();
+    }
+
+    // Value of a string field
+    private String getString(int field) {
+        int index = metadata.getFieldIndex(field);
+        return index < 0 ? getData(FIELDS[field]) : getData(index);
     }
 
     /**
@@ -131,6 +307,9 @@ public class Sample {
      */
     @Override
     public String toString() {
+        for (int i = 0; i < data.length; i++) {
+            getData(i);
+        }
         return StringUtils.join(data, metadata.getSeparator());
     }
 
@@ -140,7 +319,7 @@ public class Sample {
      * @return the time stamp
      */
     public long getTimestamp() {
-        return getData(long.class, CSVSaveService.TIME_STAMP).longValue();
+        return getLong(TIMESTAMP);
     }
 
     /**
@@ -149,7 +328,7 @@ public class Sample {
      * @return the elapsed time stored in the sample
      */
     public long getElapsedTime() {
-        return getData(long.class, CSVSaveService.CSV_ELAPSED).longValue();
+        return getLong(ELAPSED);
     }
 
     /**
@@ -169,7 +348,7 @@ public class Sample {
      * @return the start time
      */
     public long getStartTime() {
-        return storesStartTimeStamp ? getTimestamp() : getTimestamp() - getElapsedTime();
+        return STORES_START_TIMESTAMP ? getTimestamp() : getTimestamp() - getElapsedTime();
     }
 
     /**
@@ -189,7 +368,7 @@ public class Sample {
      * @return the end time
      */
     public long getEndTime() {
-        return storesStartTimeStamp ? getTimestamp() + getElapsedTime() : getTimestamp();
+        return STORES_START_TIMESTAMP ? getTimestamp() + getElapsedTime() : getTimestamp();
     }
 
     /**
@@ -198,7 +377,7 @@ public class Sample {
      * @return the response code stored in the sample
      */
     public String getResponseCode() {
-        return getData(CSVSaveService.RESPONSE_CODE);
+        return getString(RESPONSE_CODE);
     }
 
     /**
@@ -207,7 +386,7 @@ public class Sample {
      * @return the failure message stored in the sample
      */
     public String getFailureMessage() {
-        return getData(CSVSaveService.FAILURE_MESSAGE);
+        return getString(FAILURE_MESSAGE);
     }
 
     /**
@@ -216,7 +395,7 @@ public class Sample {
      * @return the name stored in the sample
      */
     public String getName() {
-        return getData(CSVSaveService.LABEL);
+        return getString(NAME);
     }
 
     /**
@@ -225,7 +404,7 @@ public class Sample {
      * @return the response message stored in the sample
      */
     public String getResponseMessage() {
-        return getData(CSVSaveService.RESPONSE_MESSAGE);
+        return getString(RESPONSE_MESSAGE);
     }
 
     /**
@@ -234,7 +413,7 @@ public class Sample {
      * @return the latency stored in the sample
      */
     public long getLatency() {
-        return getData(long.class, CSVSaveService.CSV_LATENCY).longValue();
+        return getLong(LATENCY);
     }
     
     /**
@@ -243,11 +422,7 @@ public class Sample {
      * @return the connect time stored in the sample or 0 is column is not in results
      */
     public long getConnectTime() {
-        if(metadata.indexOf(CSVSaveService.CSV_CONNECT_TIME) >= 0) {
-            return getData(long.class, CSVSaveService.CSV_CONNECT_TIME).longValue();
-        } else {
-            return 0L;
-        }
+        return getOptionalLong(CONNECT_TIME);
     }
 
     /**
@@ -256,6 +431,9 @@ public class Sample {
      * @return the success status stored in the sample
      */
     public boolean getSuccess() {
+        if (isParsed(SUCCESS)) {
+            return values[SUCCESS] != 0L;
+        }
         return getData(boolean.class, CSVSaveService.SUCCESSFUL).booleanValue();
     }
 
@@ -265,7 +443,7 @@ public class Sample {
      * @return the number of received bytes stored in the sample
      */
     public long getReceivedBytes() {
-        return getData(long.class, CSVSaveService.CSV_BYTES).longValue();
+        return getLong(RECEIVED_BYTES);
     }
 
     /**
@@ -274,11 +452,7 @@ public class Sample {
      * @return the number of sent bytes stored in the sample
      */
     public long getSentBytes() {
-        if(metadata.indexOf(CSVSaveService.CSV_SENT_BYTES) >= 0) {
-            return getData(long.class, CSVSaveService.CSV_SENT_BYTES).longValue();
-        } else {
-            return 0L;
-        }
+        return getOptionalLong(SENT_BYTES);
     }
 
     /**
@@ -287,7 +461,7 @@ public class Sample {
      * @return the number of threads in the group of this sample
      */
     public int getGroupThreads() {
-        return getData(int.class, CSVSaveService.CSV_THREAD_COUNT1).intValue();
+        return (int) getLong(GROUP_THREADS);
     }
 
     /**
@@ -296,7 +470,7 @@ public class Sample {
      * @return the overall number of threads
      */
     public int getAllThreads() {
-        return getData(int.class, CSVSaveService.CSV_THREAD_COUNT2).intValue();
+        return (int) getLong(ALL_THREADS);
     }
 
     /**
@@ -305,7 +479,7 @@ public class Sample {
      * @return the thread name stored in the sample
      */
     public String getThreadName() {
-        return getData(CSVSaveService.THREAD_NAME);
+        return getString(THREAD_NAME);
     }
 
     /**
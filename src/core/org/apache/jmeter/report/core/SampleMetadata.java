@@ -49,6 +49,12 @@ public class SampleMetadata {
     /** character separator used for separating columns */
     private char separator;
 
+    /** Indexes of the columns read by the getters of {@link Sample}, -1 if missing */
+    private int[] fieldIndexes;
+
+    /** Getter field of each column, -1 if none */
+    private int[] columnFields;
+
     /**
      * Builds metadata from separator character and a list of column names
      * 
@@ -143,6 +149,34 @@ public class SampleMetadata {
         for (int i = 0; i < size; i++) {
             index.put(this.columns.get(i).trim(), Integer.valueOf(i));
         }
+        fieldIndexes = new int[Sample.FIELDS.length];
+        columnFields = new int[size];
+        Arrays.fill(columnFields, -1);
+        for (int field = 0; field < fieldIndexes.length; field++) {
+            int i = indexOf(Sample.FIELDS[field]);
+            fieldIndexes[field] = i;
+            if (i >= 0) {
+                columnFields[i] = field;
+            }
+        }
+    }
+
+    /**
+     * @param field
+     *            a field of {@link Sample#FIELDS}
+     * @return the index of its column, -1 if missing
+     */
+    int getFieldIndex(int field) {
+        return fieldIndexes[field];
+    }
+
+    /**
+     * @param i
+     *            the index of a column
+     * @return its field in {@link Sample#FIELDS}, -1 if none
+     */
+    int getColumnField(int i) {
+        return columnFields[i];
     }
 
     /**
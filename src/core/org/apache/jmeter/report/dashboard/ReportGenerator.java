@@ -60,6 +60,7 @@ import org.apache.jmeter.report.processor.Top5ErrorsBySamplerConsumer;
 import org.apache.jmeter.report.processor.graph.AbstractGraphConsumer;
 import org.apache.jmeter.reporters.ResultCollector;
 import org.apache.jmeter.samplers.SampleSaveConfiguration;
+import org.apache.jmeter.save.PtpResultShards;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
@@ -130,14 +131,15 @@ public class ReportGenerator {
 
         File file = new File(resultsFile);
         if (resultCollector == null) {
-            if (!(file.isFile() && file.canRead())) {
+            // a result file written in shards is read from its shards
+            if (!(file.isFile() && file.canRead()) && PtpResultShards.listShards(file).length == 0) {
                 throw new IllegalArgumentException(String.format(
                         "Cannot read test results file : %s", file));
             }
             LOG.info("Will only generate report from results file:"
                     + resultsFile);
         } else {
-            if (file.exists() && file.length() > 0) {
+            if (file.exists() && file.length() > 0 || PtpResultShards.listShards(file).length > 0) {
                 throw new IllegalArgumentException("Results file:"
                         + resultsFile + " is not empty");
             }
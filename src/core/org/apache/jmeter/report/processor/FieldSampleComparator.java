@@ -48,6 +48,6 @@ public class FieldSampleComparator implements SampleComparator {
      */
     @Override
     public long compare(Sample s1, Sample s2) {
-        return s1.getData(long.class, index, fieldName).compareTo(s2.getData(long.class, index, fieldName));
+        return Long.compare(s1.getLong(index, fieldName), s2.getLong(index, fieldName));
     }
 }
@@ -93,18 +93,22 @@ public class NormalizerSampleConsumer extends AbstractSampleConsumer {
 
     @Override
     public void consume(Sample s, int channel) {
+        if (isMillisFormat) {
+            // The sample already holds its time stamp in milliseconds
+            try {
+                s.getTimestamp();
+            } catch (Exception e) {
+                throw parseException(s, e);
+            }
+            super.produce(s, 0);
+            return;
+        }
         Date date = null;
         try {
             String tStr = s.getData(timestamp);
-            if(isMillisFormat) {
-                date = new Date(Long.parseLong(tStr));
-            } else {
-                date = dateFormat.parse(tStr);                    
-            }
+            date = dateFormat.parse(tStr);
         } catch (Exception e) {
-            throw new SampleException(String.format(
-                    PARSE_TIMESTAMP_EXCEPTION_MESSAGE, s.getData(timestamp),
-                    TIMESTAMP_FORMAT, s.toString()), e);
+            throw parseException(s, e);
         }
         long time = date.getTime();
         int cc = sampleMetadata.getColumnCount();
@@ -120,6 +124,12 @@ public class NormalizerSampleConsumer extends AbstractSampleConsumer {
         super.produce(rewritten, 0);
     }
 
+    private SampleException parseException(Sample s, Exception e) {
+        return new SampleException(String.format(
+                PARSE_TIMESTAMP_EXCEPTION_MESSAGE, s.getData(timestamp),
+                TIMESTAMP_FORMAT, s.toString()), e);
+    }
+
     @Override
     public void stopConsuming() {
         super.stopProducing();
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Command line converter of a binary agg file to the text layout written by
+ * default, so that existing consumers can read it:
+ * <pre>
+ * aggconvert.sh agg.bin [agg.csv [50,90,99]]
+ * </pre>
+ * Rows go to the standard output when no output file (or <code>-</code>) is
+ * given. Listing percentiles selects the version 2 layout, see
+ * {@link PtpAggregateRowFormat}.
+ */
+public class PtpAggregateConverter {
+
+    private PtpAggregateConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            throw new IllegalArgumentException("Usage: aggconvert <binary agg file> [<text agg file>|- [<percentiles>]]");
+        }
+        PtpAggregateRowFormat rowFormat = new PtpAggregateRowFormat(
+                PtpAggregateRowFormat.parsePercentiles(args.length > 2 ? args[2] : "")); //$NON-NLS-1$
+        boolean toFile = args.length > 1 && !"-".equals(args[1]); //$NON-NLS-1$
+        try (InputStream in = new FileInputStream(args[0]);
+                OutputStream out = toFile ? new FileOutputStream(args[1]) : System.out) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            long rows = convert(in, writer, rowFormat);
+            writer.flush();
+            if (toFile) {
+                System.out.println("Converted " + rows + " rows to " + args[1]);
+            }
+        }
+    }
+
+    /**
+     * Converts a binary agg file to the text layout.
+     *
+     * @param in binary agg file content
+     * @param out where to write the text rows, flushed but not closed
+     * @param rowFormat layout of the text rows
+     * @return the number of rows converted
+     * @throws IOException if reading or writing fails
+     */
+    public static long convert(InputStream in, Writer out, PtpAggregateRowFormat rowFormat) throws IOException {
+        PtpBinaryAggregateReader reader = new PtpBinaryAggregateReader(in);
+        PrintWriter writer = new PrintWriter(out);
+        String header = rowFormat.getHeader();
+        if (header != null) {
+            writer.println(header);
+        }
+        StringBuilder sb = new StringBuilder();
+        long rows = 0;
+        PtpBinaryAggregateReader.Row row;
+        while ((row = reader.next()) != null) {
+            rowFormat.appendRow(sb, row.getRound(), row.getMachine(), row.getLabel(), row.getSecond(), row.getStatistics());
+            writer.println(sb.toString());
+            sb.setLength(0);
+            rows++;
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw new IOException("Error writing the text agg rows");
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead journal of the samples held by the open per-second buckets,
+ * kept in a memory-mapped file so that it survives the loss of the JVM
+ * (<code>kill -9</code>, OOM killer): the pages of a mapped file belong to the
+ * OS page cache, which writes them back whatever happens to the process.
+ * <p>
+ * Every sample added to the {@link PtpStripedAccumulator} is appended as a
+ * fixed size record to a ring of slots. After each printing round the printer
+ * commits the slot and the second it has closed up to: a record below both
+ * has been written to the agg file. When the journal is opened again and was
+ * not closed cleanly, the records above the last commit are the samples of
+ * the buckets that were lost, they are aggregated again and handed out by
+ * {@link #takeRecovered()}. A bucket rebuilt this way may be incomplete, or
+ * overlap a row written just before the crash, so it must be reported as
+ * partial.
+ * <p>
+ * Layout: a header page, then the label area (<code>[length:short][utf8]</code>
+ * per label, in label id order), then the ring of {@value #RECORD_SIZE} byte
+ * records. A record starts with its sequence number plus one, written last,
+ * so that a record being written when the process died is not mistaken for a
+ * complete one. Each opening starts a new epoch and ignores the records of the
+ * previous ones.
+ * <p>
+ * Appending is lock free apart from the first sample of each label.
+ * Committing is meant for the single printing thread.
+ */
+public class PtpAggregateJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpAggregateJournal.class);
+
+    private static final int MAGIC = 0x50545057; // PTPW
+
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 4096;
+
+    static final int RECORD_SIZE = 48;
+
+    private static final int MAX_LABEL_AREA_SIZE = 1024 * 1024;
+
+    private static final int MAX_ID_LENGTH = 1000;
+
+    private static final String UNKNOWN_ID = "-1"; //$NON-NLS-1$
+
+    // Header offsets
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int EPOCH_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int LABEL_AREA_SIZE_OFFSET = 16;
+    private static final int LABEL_COUNT_OFFSET = 20;
+    private static final int LABEL_AREA_USED_OFFSET = 24;
+    private static final int COMMITTED_SLOT_OFFSET = 32;
+    private static final int COMMITTED_SECOND_OFFSET = 40;
+    private static final int ROUND_OFFSET = 48;
+    private static final int MACHINE_OFFSET = ROUND_OFFSET + 2 + MAX_ID_LENGTH;
+
+    // Record offsets
+    private static final int SEQUENCE = 0;
+    private static final int EPOCH = 8;
+    private static final int LABEL_ID = 12;
+    private static final int SECOND = 16;
+    private static final int ELAPSED = 24;
+    private static final int LATENCY = 28;
+    private static final int CONNECT = 32;
+    private static final int CODE = 36;
+    private static final int ERRORS = 38;
+    private static final int BYTES = 40;
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final MappedByteBuffer buffer;
+
+    private final int epoch;
+
+    private final int capacity;
+
+    private final int labelAreaSize;
+
+    private final int recordOffset;
+
+    private final int histogramPrecision;
+
+    private final long commitDelayMillis;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private final List<PtpBinaryAggregateReader.Row> recovered;
+
+    //@GuardedBy("this")
+    private int labelAreaUsed;
+
+    // number of labels written in the label area, guarded by this for writes
+    private volatile int journaledLabels;
+
+    private volatile boolean labelAreaFull;
+
+    private volatile long committedSlot;
+
+    private volatile boolean overrunWarned;
+
+    // commits waiting for the rows they cover to reach the agg file
+    //@GuardedBy("this")
+    private final Deque<long[]> pendingCommits = new ArrayDeque<>();
+
+    //@GuardedBy("this")
+    private String round = UNKNOWN_ID;
+
+    //@GuardedBy("this")
+    private String machine = UNKNOWN_ID;
+
+    private boolean closed;
+
+    /**
+     * Opens the journal, recovering the samples of a previous run that was
+     * not closed cleanly, and starts a new epoch.
+     *
+     * @param file the journal file, created if needed
+     * @param size size of the file in bytes, bounds the number of samples
+     *            that can be journaled between two commits
+     * @param histogramPrecision precision of the RT detail of the recovered
+     *            buckets, 0 to count each distinct RT value
+     * @param commitDelayMillis how long a commit is held back, so that it only
+     *            takes effect once the rows it covers have left the writer
+     *            buffers
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public PtpAggregateJournal(File file, long size, int histogramPrecision, long commitDelayMillis) throws IOException {
+        if (size < HEADER_SIZE + 2L * RECORD_SIZE || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal size must be between " + (HEADER_SIZE + 2 * RECORD_SIZE)
+                    + " and " + Integer.MAX_VALUE + " bytes, got " + size);
+        }
+        this.file = file;
+        this.histogramPrecision = histogramPrecision;
+        this.commitDelayMillis = commitDelayMillis;
+        int previousEpoch = 0;
+        List<PtpBinaryAggregateReader.Row> rows = new ArrayList<>();
+        if (file.length() >= HEADER_SIZE) {
+            try (RandomAccessFile previous = new RandomAccessFile(file, "r")) { //$NON-NLS-1$
+                ByteBuffer header = read(previous.getChannel(), 0, HEADER_SIZE);
+                if (header.getInt(MAGIC_OFFSET) == MAGIC && header.getInt(VERSION_OFFSET) == VERSION) {
+                    previousEpoch = header.getInt(EPOCH_OFFSET);
+                    rows = recover(previous.getChannel(), header);
+                } else {
+                    log.warn("Ignoring {}, not an aggregate journal", file);
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable aggregate journal " + file, e);
+            }
+        }
+        this.recovered = rows;
+        this.epoch = previousEpoch + 1;
+        this.labelAreaSize = (int) Math.min(MAX_LABEL_AREA_SIZE, (size - HEADER_SIZE) / 4);
+        this.recordOffset = HEADER_SIZE + labelAreaSize;
+        this.capacity = (int) ((size - recordOffset) / RECORD_SIZE);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && parent.mkdirs()) {
+            log.info("Folder {} was created", parent);
+        }
+        this.raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            if (raf.length() != size) {
+                raf.setLength(size);
+            }
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        // Not a journal until the magic is written, last
+        buffer.putInt(MAGIC_OFFSET, 0);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(EPOCH_OFFSET, epoch);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(LABEL_AREA_SIZE_OFFSET, labelAreaSize);
+        buffer.putInt(LABEL_COUNT_OFFSET, 0);
+        buffer.putInt(LABEL_AREA_USED_OFFSET, 0);
+        buffer.putLong(COMMITTED_SLOT_OFFSET, 0L);
+        buffer.putLong(COMMITTED_SECOND_OFFSET, Long.MIN_VALUE);
+        putString(ROUND_OFFSET, round);
+        putString(MACHINE_OFFSET, machine);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    /**
+     * @return the buckets rebuilt from the records of the previous run that
+     *         were not committed, by second then label; empty after the first call
+     */
+    public synchronized List<PtpBinaryAggregateReader.Row> takeRecovered() {
+        List<PtpBinaryAggregateReader.Row> rows = new ArrayList<>(recovered);
+        recovered.clear();
+        return rows;
+    }
+
+    /**
+     * Appends a sample. Called by the sampler threads once the sample is in
+     * its bucket.
+     *
+     * @param labelId id of the label in <code>labels</code>
+     * @param labels table resolving <code>labelId</code>
+     * @param second the second (epoch seconds) the sample belongs to
+     * @param record the sample
+     */
+    public void append(int labelId, PtpLabelTable labels, long second, PtpSampleRecord record) {
+        if (labelId >= journaledLabels && !journalLabels(labels, labelId)) {
+            return;
+        }
+        final long sequence = nextSequence.getAndIncrement();
+        if (sequence - capacity >= committedSlot && !overrunWarned) {
+            overrunWarned = true;
+            log.warn("Aggregate journal {} overwrites samples not yet written to the agg file, raise ptp.aggregate.wal.size_mb", file);
+        }
+        final int position = recordOffset + (int) (sequence % capacity) * RECORD_SIZE;
+        buffer.putLong(position + SEQUENCE, 0L);
+        buffer.putInt(position + EPOCH, epoch);
+        buffer.putInt(position + LABEL_ID, labelId);
+        buffer.putLong(position + SECOND, second);
+        buffer.putInt(position + ELAPSED, clampToInt(record.getElapsed()));
+        buffer.putInt(position + LATENCY, clampToInt(record.getLatency()));
+        buffer.putInt(position + CONNECT, clampToInt(record.getConnectTime()));
+        buffer.putShort(position + CODE, (short) Math.max(0L, Math.min(Short.MAX_VALUE, record.getResponseCode())));
+        buffer.put(position + ERRORS, (byte) record.getErrors());
+        buffer.putLong(position + BYTES, record.getBytes());
+        buffer.putLong(position + SEQUENCE, sequence + 1L);
+    }
+
+    /**
+     * @return the sequence number of the next record; read it before closing
+     *         seconds and pass it to {@link #commit(long, long, String, String, long)}
+     */
+    public long nextSlot() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Records that the samples appended before <code>slot</code> and belonging
+     * to a second before <code>second</code> have been written to the agg
+     * file. The commit takes effect once it is older than the commit delay.
+     *
+     * @param slot value of {@link #nextSlot()} read before closing the seconds
+     * @param second first second left open
+     * @param roundId round id of the rows written
+     * @param machineId machine id of the rows written
+     * @param now current time in milliseconds
+     */
+    public synchronized void commit(long slot, long second, String roundId, String machineId, long now) {
+        if (closed) {
+            return;
+        }
+        pendingCommits.addLast(new long[] { slot, second, now });
+        long[] latest = null;
+        while (!pendingCommits.isEmpty() && now - pendingCommits.peekFirst()[2] >= commitDelayMillis) {
+            latest = pendingCommits.pollFirst();
+        }
+        if (!String.valueOf(roundId).equals(round)) {
+            round = String.valueOf(roundId);
+            putString(ROUND_OFFSET, round);
+        }
+        if (!String.valueOf(machineId).equals(machine)) {
+            machine = String.valueOf(machineId);
+            putString(MACHINE_OFFSET, machine);
+        }
+        if (latest != null) {
+            // Either order is safe if the process dies in between, both only grow
+            buffer.putLong(COMMITTED_SLOT_OFFSET, latest[0]);
+            buffer.putLong(COMMITTED_SECOND_OFFSET, latest[1]);
+            committedSlot = latest[0];
+        }
+    }
+
+    /**
+     * Marks every record as written, once the agg files have been flushed at
+     * the end of the test, so the next run has nothing to recover.
+     */
+    public synchronized void markClean() {
+        if (closed) {
+            return;
+        }
+        pendingCommits.clear();
+        buffer.putLong(COMMITTED_SLOT_OFFSET, Long.MAX_VALUE);
+        buffer.putLong(COMMITTED_SECOND_OFFSET, Long.MAX_VALUE);
+        committedSlot = Long.MAX_VALUE;
+        buffer.force();
+    }
+
+    /**
+     * Closes the file, without marking it clean.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private synchronized boolean journalLabels(PtpLabelTable labels, int labelId) {
+        if (labelAreaFull) {
+            return false;
+        }
+        while (journaledLabels <= labelId) {
+            byte[] utf8 = labels.getLabel(journaledLabels).getBytes(StandardCharsets.UTF_8);
+            if (utf8.length > Short.MAX_VALUE || labelAreaUsed + 2 + utf8.length > labelAreaSize) {
+                labelAreaFull = true;
+                log.warn("Aggregate journal {} is out of label space, samples of new labels are not journaled", file);
+                return false;
+            }
+            ByteBuffer area = buffer.duplicate();
+            area.position(HEADER_SIZE + labelAreaUsed);
+            area.putShort((short) utf8.length);
+            area.put(utf8);
+            labelAreaUsed += 2 + utf8.length;
+            buffer.putInt(LABEL_AREA_USED_OFFSET, labelAreaUsed);
+            // Published after the label, records of this id can follow
+            buffer.putInt(LABEL_COUNT_OFFSET, journaledLabels + 1);
+            journaledLabels++;
+        }
+        return true;
+    }
+
+    private void putString(int offset, String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(utf8.length, MAX_ID_LENGTH);
+        ByteBuffer area = buffer.duplicate();
+        area.position(offset);
+        area.putShort((short) length);
+        area.put(utf8, 0, length);
+    }
+
+    private static String getString(ByteBuffer header, int offset) {
+        int length = Math.min(header.getShort(offset) & 0xFFFF, MAX_ID_LENGTH);
+        if (length == 0) {
+            return UNKNOWN_ID;
+        }
+        byte[] utf8 = new byte[length];
+        ByteBuffer area = header.duplicate();
+        area.position(offset + 2);
+        area.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private List<PtpBinaryAggregateReader.Row> recover(FileChannel channel, ByteBuffer header) throws IOException {
+        final int previousEpoch = header.getInt(EPOCH_OFFSET);
+        final int previousCapacity = header.getInt(CAPACITY_OFFSET);
+        final int previousLabelAreaSize = header.getInt(LABEL_AREA_SIZE_OFFSET);
+        final long doneSlot = header.getLong(COMMITTED_SLOT_OFFSET);
+        final long doneSecond = header.getLong(COMMITTED_SECOND_OFFSET);
+        if (doneSlot == Long.MAX_VALUE && doneSecond == Long.MAX_VALUE) {
+            return new ArrayList<>();
+        }
+        final long previousRecordOffset = (long) HEADER_SIZE + previousLabelAreaSize;
+        final int previousLabelAreaUsed = header.getInt(LABEL_AREA_USED_OFFSET);
+        if (previousCapacity <= 0 || previousLabelAreaSize < 0
+                || previousLabelAreaUsed < 0 || previousLabelAreaUsed > previousLabelAreaSize
+                || previousRecordOffset + (long) previousCapacity * RECORD_SIZE > channel.size()) {
+            log.warn("Ignoring truncated aggregate journal {}", file);
+            return new ArrayList<>();
+        }
+        final String[] labels = readLabels(read(channel, HEADER_SIZE, previousLabelAreaUsed),
+                header.getInt(LABEL_COUNT_OFFSET));
+        final String previousRound = getString(header, ROUND_OFFSET);
+        final String previousMachine = getString(header, MACHINE_OFFSET);
+
+        Map<Long, TestTimeSequenceStatistics[]> seconds = new HashMap<>();
+        long samples = 0;
+        final int chunkRecords = 8192;
+        for (int first = 0; first < previousCapacity; first += chunkRecords) {
+            int count = Math.min(chunkRecords, previousCapacity - first);
+            ByteBuffer chunk = read(channel, previousRecordOffset + (long) first * RECORD_SIZE, count * RECORD_SIZE);
+            for (int i = 0; i < count; i++) {
+                int position = i * RECORD_SIZE;
+                long sequence = chunk.getLong(position + SEQUENCE) - 1L;
+                int labelId = chunk.getInt(position + LABEL_ID);
+                long second = chunk.getLong(position + SECOND);
+                if (sequence < 0 || chunk.getInt(position + EPOCH) != previousEpoch
+                        || sequence % previousCapacity != first + i
+                        || labelId < 0 || labelId >= labels.length
+                        || (sequence < doneSlot && second < doneSecond)) {
+                    continue;
+                }
+                PtpSampleRecord record = new PtpSampleRecord(second * 1000L, chunk.getInt(position + ELAPSED),
+                        chunk.getShort(position + CODE), chunk.get(position + ERRORS) == 0,
+                        chunk.getLong(position + BYTES), chunk.getInt(position + LATENCY), chunk.getInt(position + CONNECT));
+                Long key = Long.valueOf(second);
+                TestTimeSequenceStatistics[] buckets = seconds.get(key);
+                if (buckets == null) {
+                    buckets = new TestTimeSequenceStatistics[labels.length];
+                    seconds.put(key, buckets);
+                }
+                if (buckets[labelId] == null) {
+                    buckets[labelId] = new TestTimeSequenceStatistics(histogramPrecision);
+                }
+                buckets[labelId].combine(record);
+                samples++;
+            }
+        }
+        List<PtpBinaryAggregateReader.Row> rows = new ArrayList<>();
+        for (Map.Entry<Long, TestTimeSequenceStatistics[]> entry : seconds.entrySet()) {
+            TestTimeSequenceStatistics[] buckets = entry.getValue();
+            for (int labelId = 0; labelId < buckets.length; labelId++) {
+                if (buckets[labelId] != null) {
+                    rows.add(new PtpBinaryAggregateReader.Row(previousRound, previousMachine, labels[labelId],
+                            entry.getKey().longValue(), buckets[labelId]));
+                }
+            }
+        }
+        Collections.sort(rows, new Comparator<PtpBinaryAggregateReader.Row>() {
+            @Override
+            public int compare(PtpBinaryAggregateReader.Row a, PtpBinaryAggregateReader.Row b) {
+                int bySecond = Long.compare(a.getSecond(), b.getSecond());
+                return bySecond != 0 ? bySecond : a.getLabel().compareTo(b.getLabel());
+            }
+        });
+        if (samples > 0) {
+            log.warn("Recovered " + samples + " samples in " + rows.size() + " partial buckets from aggregate journal " + file);
+        }
+        return rows;
+    }
+
+    private static String[] readLabels(ByteBuffer area, int count) {
+        List<String> labels = new ArrayList<>(Math.max(0, count));
+        while (labels.size() < count && area.remaining() >= 2) {
+            int length = area.getShort() & 0xFFFF;
+            if (length > area.remaining()) {
+                break;
+            }
+            byte[] utf8 = new byte[length];
+            area.get(utf8);
+            labels.add(new String(utf8, StandardCharsets.UTF_8));
+        }
+        return labels.toArray(new String[labels.size()]);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(Math.max(0, length));
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0) {
+                throw new IOException("Unexpected end of aggregate journal");
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    private static int clampToInt(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+}
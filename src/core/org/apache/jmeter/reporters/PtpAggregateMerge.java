@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Command line merge of the agg files of several load generators into
+ * cluster-wide rows, see {@link PtpClusterMerger}:
+ * <pre>
+ * aggmerge.sh [-p50,90,99] merged.csv|- agg1.csv agg2.bin ...
+ * </pre>
+ * Inputs may be text or binary agg files, the format is detected. The files
+ * are read side by side in second order, so memory does not depend on their
+ * length. Listing percentiles selects the version 2 layout of the output.
+ * The <code>__ptp_internal__.</code> metric rows of the inputs are dropped.
+ */
+public class PtpAggregateMerge {
+
+    private static final long NO_ROW = Long.MAX_VALUE;
+
+    private PtpAggregateMerge() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        String percentiles = "";
+        if (!arguments.isEmpty() && arguments.get(0).startsWith("-p")) { //$NON-NLS-1$
+            percentiles = arguments.remove(0).substring(2);
+        }
+        if (arguments.size() < 2) {
+            throw new IllegalArgumentException("Usage: aggmerge [-p<percentiles>] <merged agg file>|- <agg file>...");
+        }
+        PtpAggregateRowFormat rowFormat = new PtpAggregateRowFormat(PtpAggregateRowFormat.parsePercentiles(percentiles));
+        String output = arguments.remove(0);
+        boolean toFile = !"-".equals(output); //$NON-NLS-1$
+        try (OutputStream out = toFile ? new FileOutputStream(output) : System.out) {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            String header = rowFormat.getHeader();
+            if (header != null) {
+                writer.println(header);
+            }
+            long rows = merge(arguments, new PtpCsvAggregateSink(writer, rowFormat), PtpLatencyHistogram.DEFAULT_PRECISION);
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("Error writing " + output);
+            }
+            if (toFile) {
+                System.out.println("Merged " + rows + " rows to " + output);
+            }
+        }
+    }
+
+    /**
+     * Merges agg files, reading them side by side in second order.
+     *
+     * @param filenames text or binary agg files
+     * @param sink where to write the merged rows
+     * @param histogramPrecision precision of the merged RT histograms
+     * @return the number of rows read
+     * @throws IOException if a file cannot be read
+     */
+    public static long merge(List<String> filenames, PtpAggregateSink sink, int histogramPrecision) throws IOException {
+        PtpClusterMerger merger = new PtpClusterMerger(sink, histogramPrecision, Long.MAX_VALUE, Long.MAX_VALUE);
+        List<Input> inputs = new ArrayList<>(filenames.size());
+        try {
+            for (String filename : filenames) {
+                inputs.add(new Input(filename));
+            }
+            long rows = 0;
+            while (true) {
+                long second = NO_ROW;
+                for (Input input : inputs) {
+                    second = Math.min(second, input.pendingSecond());
+                }
+                if (second == NO_ROW) {
+                    break;
+                }
+                for (Input input : inputs) {
+                    while (input.pendingSecond() <= second) {
+                        merger.add(input.filename, Collections.singletonList(input.pending), 0L);
+                        rows++;
+                        if (!input.read()) {
+                            merger.sourceEnded(input.filename);
+                        }
+                    }
+                }
+                merger.advance(0L);
+            }
+            merger.flush();
+            return rows;
+        } finally {
+            for (Input input : inputs) {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * One input file with its next row.
+     */
+    private static final class Input implements Closeable {
+        final String filename;
+        private final Closeable file;
+        private final PtpBinaryAggregateReader binary;
+        private final PtpCsvAggregateReader text;
+        PtpBinaryAggregateReader.Row pending;
+
+        Input(String filename) throws IOException {
+            this.filename = filename;
+            InputStream in = new BufferedInputStream(new FileInputStream(filename));
+            this.file = in;
+            in.mark(PtpBinaryAggregateFormat.MAGIC.length);
+            byte[] magic = new byte[PtpBinaryAggregateFormat.MAGIC.length];
+            int length = in.read(magic);
+            in.reset();
+            if (length == magic.length && Arrays.equals(magic, PtpBinaryAggregateFormat.MAGIC)) {
+                binary = new PtpBinaryAggregateReader(in);
+                text = null;
+            } else {
+                binary = null;
+                text = new PtpCsvAggregateReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+            read();
+        }
+
+        long pendingSecond() {
+            return pending == null ? NO_ROW : pending.getSecond();
+        }
+
+        boolean read() throws IOException {
+            pending = binary != null ? binary.next() : text.next();
+            return pending != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
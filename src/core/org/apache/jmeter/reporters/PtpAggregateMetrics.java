@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of a {@link PtpAggregateSession}, sampled every second by its
+ * scheduler and registered as an MXBean, see {@link PtpAggregateMetricsMXBean}.
+ * <p>
+ * When <code>ptp.aggregate.internal_metrics</code> is set, they are also
+ * written to the agg file every second as rows labelled
+ * <code>__ptp_internal__.&lt;metric&gt;</code>, see
+ * {@link PtpPrintResultlogTask#printMetrics(String, long, Map)}. Otherwise
+ * only the counters of the samples the aggregation lost or altered, see
+ * {@link #lossCounters(long, long, long, long)}, are written, in the seconds they
+ * change. These rows are not traffic: consumers tell them apart with
+ * {@link #isInternal(String)}, the request counts and the cluster merge
+ * leave them out.
+ */
+public class PtpAggregateMetrics implements PtpAggregateMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpAggregateMetrics.class);
+
+    /** Label prefix of the metric rows */
+    public static final String INTERNAL_LABEL = "__ptp_internal__"; //$NON-NLS-1$
+
+    private static final String INTERNAL_PREFIX = INTERNAL_LABEL + '.';
+
+    static final boolean INTERNAL_ROWS = JMeterUtils.getPropDefault("ptp.aggregate.internal_metrics", false); //$NON-NLS-1$
+
+    private static final String DOMAIN = "org.apache.jmeter.reporters"; //$NON-NLS-1$
+
+    private final PtpAggregateSession session;
+
+    private final boolean internalRows;
+
+    private volatile PtpAsyncFileWriter writer;
+
+    private final CopyOnWriteArrayList<PtpAsyncFileWriter> resultWriters = new CopyOnWriteArrayList<>();
+
+    private ObjectName objectName;
+
+    // ingested count and time of the previous update
+    private long lastIngested;
+
+    private long lastNanos;
+
+    private volatile double samplesPerSecond;
+
+    // loss counters of the last rows written
+    private Map<String, Long> lastLosses = lossCounters(0L, 0L, 0L, 0L);
+
+    PtpAggregateMetrics(PtpAggregateSession session, boolean internalRows) {
+        this.session = session;
+        this.internalRows = internalRows;
+        this.lastNanos = System.nanoTime();
+    }
+
+    /**
+     * @param label label of an agg row
+     * @return <code>true</code> if the row holds a metric of the aggregation, not samples
+     */
+    public static boolean isInternal(String label) {
+        return label != null && label.startsWith(INTERNAL_PREFIX);
+    }
+
+    /**
+     * @param writer asynchronous writer of the agg file, <code>null</code> if none
+     */
+    void setWriter(PtpAsyncFileWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @param writers asynchronous writers of the result files written during the session
+     */
+    void addResultWriters(Collection<PtpAsyncFileWriter> writers) {
+        resultWriters.addAllAbsent(writers);
+    }
+
+    /**
+     * Registers the MXBean, a failure is only logged.
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=PtpAggregate,name=" + ObjectName.quote(session.getName())); //$NON-NLS-1$
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(this, PtpAggregateMetricsMXBean.class, true), name);
+            objectName = name;
+        } catch (JMException | RuntimeException e) {
+            log.warn("Could not register the aggregation metrics of " + session.getName(), e);
+        }
+    }
+
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException | RuntimeException e) {
+            log.warn("Could not unregister " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Computes the ingestion rate and writes the metric rows if enabled, or
+     * else the loss counters if they changed. Called every second by the
+     * scheduler of the session, then once when it closes.
+     *
+     * @param now current time in ms
+     */
+    void update(long now) {
+        final long nanos = System.nanoTime();
+        final long ingested = getSamplesIngested();
+        if (nanos > lastNanos) {
+            samplesPerSecond = (ingested - lastIngested) * (double) TimeUnit.SECONDS.toNanos(1) / (nanos - lastNanos);
+        }
+        lastIngested = ingested;
+        lastNanos = nanos;
+        final PtpPrintResultlogTask printer = session.getPrinter();
+        if (printer == null) {
+            return;
+        }
+        if (internalRows) {
+            printer.printMetrics(INTERNAL_LABEL, now / 1000L, toMap(now));
+            return;
+        }
+        final Map<String, Long> losses = lossCounters(getLateSampleCount(), getOverflowSampleCount(),
+                getDroppedSampleCount(), getDroppedResultLineCount());
+        if (!losses.equals(lastLosses)) {
+            printer.printMetrics(INTERNAL_LABEL, now / 1000L, losses);
+            lastLosses = losses;
+        }
+    }
+
+    /**
+     * @param late samples written as correction rows after their second was closed
+     * @param overflow samples folded into {@link PtpLabelTable#OTHER_LABEL} by the caps
+     * @param dropped samples not aggregated
+     * @param droppedResultLines lines of the result files dropped by a full writer
+     * @return the counters written as <code>late</code>, <code>overflow</code>,
+     *         <code>dropped</code> and <code>droppedResultLines</code> metric
+     *         rows, they are always written together
+     */
+    public static Map<String, Long> lossCounters(long late, long overflow, long dropped, long droppedResultLines) {
+        Map<String, Long> losses = new LinkedHashMap<>();
+        losses.put("late", Long.valueOf(late)); //$NON-NLS-1$
+        losses.put("overflow", Long.valueOf(overflow)); //$NON-NLS-1$
+        losses.put("dropped", Long.valueOf(dropped)); //$NON-NLS-1$
+        losses.put("droppedResultLines", Long.valueOf(droppedResultLines)); //$NON-NLS-1$
+        return losses;
+    }
+
+    /**
+     * @param now current time in ms
+     * @return the counters and gauges by name, as written in the metric rows
+     */
+    Map<String, Long> toMap(long now) {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("ingested", Long.valueOf(getSamplesIngested())); //$NON-NLS-1$
+        metrics.put("ingestRate", Long.valueOf(Math.round(samplesPerSecond))); //$NON-NLS-1$
+        metrics.put("closeLagMs", Long.valueOf(closeLag(now))); //$NON-NLS-1$
+        metrics.put("openBuckets", Long.valueOf(getOpenBucketCount())); //$NON-NLS-1$
+        metrics.put("closeUs", Long.valueOf(getLastCloseMicros())); //$NON-NLS-1$
+        metrics.put("writerQueue", Long.valueOf(getWriterQueueDepth())); //$NON-NLS-1$
+        metrics.put("bytesWritten", Long.valueOf(getBytesWritten())); //$NON-NLS-1$
+        metrics.putAll(lossCounters(getLateSampleCount(), getOverflowSampleCount(), getDroppedSampleCount(),
+                getDroppedResultLineCount()));
+        return metrics;
+    }
+
+    private long closeLag(long now) {
+        final PtpPrintResultlogTask printer = session.getPrinter();
+        final long lastClosed = printer == null ? Long.MIN_VALUE : printer.getLastClosedSecond();
+        return lastClosed == Long.MIN_VALUE ? 0L : Math.max(0L, now - (lastClosed + 1L) * 1000L);
+    }
+
+    @Override
+    public String getName() {
+        return session.getName();
+    }
+
+    @Override
+    public String getRoundId() {
+        return session.getRoundId();
+    }
+
+    @Override
+    public long getSamplesIngested() {
+        return session.getAccumulator().getAddedCount() + session.getRemoteSampleCount();
+    }
+
+    @Override
+    public double getSamplesPerSecond() {
+        return samplesPerSecond;
+    }
+
+    @Override
+    public long getCloseLagMillis() {
+        return closeLag(System.currentTimeMillis());
+    }
+
+    @Override
+    public int getOpenBucketCount() {
+        return session.getAccumulator().getLiveBucketCount();
+    }
+
+    @Override
+    public long getLastCloseMicros() {
+        final PtpPrintResultlogTask printer = session.getPrinter();
+        return printer == null ? 0L : TimeUnit.NANOSECONDS.toMicros(printer.getLastRoundNanos());
+    }
+
+    @Override
+    public long getMaxCloseMicros() {
+        final PtpPrintResultlogTask printer = session.getPrinter();
+        return printer == null ? 0L : TimeUnit.NANOSECONDS.toMicros(printer.getMaxRoundNanos());
+    }
+
+    @Override
+    public long getCloseCount() {
+        final PtpPrintResultlogTask printer = session.getPrinter();
+        return printer == null ? 0L : printer.getRoundCount();
+    }
+
+    @Override
+    public int getWriterQueueDepth() {
+        final PtpAsyncFileWriter current = writer;
+        return current == null ? 0 : current.getQueueDepth();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        final PtpAsyncFileWriter current = writer;
+        return current == null ? 0L : current.getBytesWritten();
+    }
+
+    @Override
+    public long getLateSampleCount() {
+        final PtpPrintResultlogTask printer = session.getPrinter();
+        return printer == null ? 0L : printer.getLateSampleCount();
+    }
+
+    @Override
+    public long getOverflowSampleCount() {
+        return session.getAccumulator().getOverflowCount();
+    }
+
+    @Override
+    public long getDroppedSampleCount() {
+        return session.getUnflushedCount();
+    }
+
+    @Override
+    public long getDroppedResultLineCount() {
+        long dropped = 0L;
+        for (PtpAsyncFileWriter resultWriter : resultWriters) {
+            dropped += resultWriter.getDroppedLines();
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+/**
+ * Health of the per-second aggregation of one agg file, registered as
+ * <code>org.apache.jmeter.reporters:type=PtpAggregate,name=&lt;agg file&gt;</code>
+ * while its test runs. Tells whether the aggregation of a load generator is
+ * its bottleneck.
+ */
+public interface PtpAggregateMetricsMXBean {
+
+    /**
+     * @return the agg file
+     */
+    String getName();
+
+    String getRoundId();
+
+    /**
+     * @return the samples received, locally and from remote engines
+     */
+    long getSamplesIngested();
+
+    /**
+     * @return the samples received per second, over the last second
+     */
+    double getSamplesPerSecond();
+
+    /**
+     * @return how far behind the current time the last second closed on time ends, in ms
+     */
+    long getCloseLagMillis();
+
+    /**
+     * @return the label-second buckets in memory
+     */
+    int getOpenBucketCount();
+
+    /**
+     * @return the time spent closing and writing the seconds in the last printing round, in µs
+     */
+    long getLastCloseMicros();
+
+    /**
+     * @return the longest time spent in a printing round, in µs
+     */
+    long getMaxCloseMicros();
+
+    /**
+     * @return the number of printing rounds
+     */
+    long getCloseCount();
+
+    /**
+     * @return the chunks waiting for the I/O thread of the agg file, 0 without asynchronous writer
+     */
+    int getWriterQueueDepth();
+
+    /**
+     * @return the bytes written to the agg file, 0 without asynchronous writer
+     */
+    long getBytesWritten();
+
+    /**
+     * @return the samples written as correction rows
+     */
+    long getLateSampleCount();
+
+    /**
+     * @return the samples folded into {@link PtpLabelTable#OTHER_LABEL} by the caps
+     */
+    long getOverflowSampleCount();
+
+    /**
+     * @return the samples not aggregated because they ended after the aggregation closed
+     */
+    long getDroppedSampleCount();
+
+    /**
+     * @return the lines of the result files dropped because their asynchronous
+     *         writer was full, see <code>ptp.writer.drop_when_full</code>
+     */
+    long getDroppedResultLineCount();
+}
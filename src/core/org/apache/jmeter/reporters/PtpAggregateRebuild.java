@@ -0,0 +1,579 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.save.CSVSaveService;
+import org.apache.jorphan.util.JOrphanUtils;
+
+/**
+ * Command line rebuild of an agg file from the CSV result files (JTL) of a
+ * load generator, e.g. after the aggregation settings changed or the agg file
+ * was lost:
+ * <pre>
+ * aggrebuild.sh [-r&lt;round&gt;] [-m&lt;machine&gt;] [-h&lt;precision&gt;] [-t&lt;threads&gt;] [-p50,90,99] agg.csv|- result.jtl ...
+ * </pre>
+ * The result files are memory mapped and cut into byte ranges, each range
+ * starting at the first line that begins in it. Worker threads, one per
+ * processor by default, take the ranges in turn and aggregate their lines
+ * into local per-second buckets with {@link TestTimeSequenceStatistics#combine(PtpSampleRecord)},
+ * as {@link ResultCollector} does; the buckets of the workers are merged at
+ * the end and written in second order.
+ * <p>
+ * The columns are located by the header line when the result files have one
+ * (<code>jmeter.save.saveservice.print_field_names=true</code>), otherwise the
+ * eight columns aggregated by {@link ResultCollector} are expected:
+ * <code>timeStamp,elapsed,label,responseCode,success,bytes,Latency,Connect</code>.
+ * Time stamps must be saved in milliseconds. Lines that cannot be parsed, and
+ * quoted fields spanning several lines, are skipped and counted.
+ * <p>
+ * <code>-h</code> selects a histogram RT detail of the given precision instead
+ * of the exact one, listing percentiles selects the version 2 layout.
+ */
+public class PtpAggregateRebuild {
+
+    /** Id written when no round or machine is given, as by {@link ResultCollector} */
+    static final String UNKNOWN_ID = "-1"; //$NON-NLS-1$
+
+    private static final int DEFAULT_RANGE_SIZE = 32 * 1024 * 1024;
+
+    // Longest line a range may read past its end
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    private static final String[] DEFAULT_COLUMNS = {
+        CSVSaveService.TIME_STAMP, CSVSaveService.CSV_ELAPSED, CSVSaveService.LABEL, CSVSaveService.RESPONSE_CODE,
+        CSVSaveService.SUCCESSFUL, CSVSaveService.CSV_BYTES, CSVSaveService.CSV_LATENCY, CSVSaveService.CSV_CONNECT_TIME,
+    };
+
+    // Indexes in Columns.indexes
+    private static final int TIME_STAMP = 0;
+    private static final int ELAPSED = 1;
+    private static final int LABEL = 2;
+    private static final int RESPONSE_CODE = 3;
+    private static final int SUCCESS = 4;
+    private static final int BYTES = 5;
+    private static final int LATENCY = 6;
+    private static final int CONNECT = 7;
+
+    private static final String BYTE_ORDER_MARK = "\uFEFF"; //$NON-NLS-1$
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+
+    private PtpAggregateRebuild() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        String round = UNKNOWN_ID;
+        String machine = UNKNOWN_ID;
+        String percentiles = "";
+        int precision = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        while (!arguments.isEmpty() && arguments.get(0).length() > 2 && arguments.get(0).charAt(0) == '-') {
+            String option = arguments.remove(0);
+            String value = option.substring(2);
+            switch (option.charAt(1)) {
+            case 'r':
+                round = value;
+                break;
+            case 'm':
+                machine = value;
+                break;
+            case 'p':
+                percentiles = value;
+                break;
+            case 'h':
+                precision = Integer.parseInt(value);
+                break;
+            case 't':
+                threads = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (arguments.size() < 2) {
+            throw new IllegalArgumentException("Usage: aggrebuild [-r<round>] [-m<machine>] [-h<precision>] [-t<threads>]"
+                    + " [-p<percentiles>] <agg file>|- <result file>...");
+        }
+        PtpAggregateRowFormat rowFormat = new PtpAggregateRowFormat(PtpAggregateRowFormat.parsePercentiles(percentiles));
+        String output = arguments.remove(0);
+        List<File> files = new ArrayList<>(arguments.size());
+        for (String filename : arguments) {
+            files.add(new File(filename));
+        }
+        boolean toFile = !"-".equals(output); //$NON-NLS-1$
+        try (OutputStream out = toFile ? new FileOutputStream(output) : System.out) {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            String header = rowFormat.getHeader();
+            if (header != null) {
+                writer.println(header);
+            }
+            Result result = rebuild(files, new PtpCsvAggregateSink(writer, rowFormat), round, machine, precision,
+                    threads, DEFAULT_RANGE_SIZE);
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("Error writing " + output);
+            }
+            if (toFile) {
+                System.out.println("Aggregated " + result.getSamples() + " samples into " + result.getRows()
+                        + " rows of " + output + ", skipped " + result.getSkippedLines() + " lines");
+            }
+        }
+    }
+
+    /**
+     * Counts of a rebuild.
+     */
+    public static final class Result {
+        private final long samples;
+        private final long skippedLines;
+        private final long rows;
+
+        Result(long samples, long skippedLines, long rows) {
+            this.samples = samples;
+            this.skippedLines = skippedLines;
+            this.rows = rows;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getSkippedLines() {
+            return skippedLines;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+    }
+
+    /**
+     * Aggregates result files into per-second rows.
+     *
+     * @param files CSV result files
+     * @param sink where to write the rows, in second order
+     * @param round round id of the rows
+     * @param machine machine id of the rows
+     * @param histogramPrecision precision of the RT histogram, 0 to count each distinct RT value
+     * @param threads number of worker threads
+     * @param rangeSize bytes of a range handed to a worker
+     * @return the counts of the rebuild
+     * @throws IOException if a file cannot be read
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public static Result rebuild(List<File> files, PtpAggregateSink sink, String round, String machine,
+            int histogramPrecision, int threads, int rangeSize) throws IOException, InterruptedException {
+        if (histogramPrecision < 0 || histogramPrecision > PtpLatencyHistogram.MAX_PRECISION) {
+            throw new IllegalArgumentException("Histogram precision must be between 0 and "
+                    + PtpLatencyHistogram.MAX_PRECISION + ", got " + histogramPrecision);
+        }
+        List<RandomAccessFile> opened = new ArrayList<>(files.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            final List<Range> ranges = new ArrayList<>();
+            for (File file : files) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+                opened.add(raf);
+                Columns columns = readColumns(file);
+                FileChannel channel = raf.getChannel();
+                long size = channel.size();
+                for (long start = columns.dataStart; start < size; start += rangeSize) {
+                    ranges.add(new Range(channel, columns, size, start, Math.min(size, start + rangeSize)));
+                }
+            }
+            final AtomicInteger next = new AtomicInteger();
+            List<Future<Worker>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < Math.max(1, threads); i++) {
+                final Worker worker = new Worker(histogramPrecision);
+                futures.add(executor.submit(new Callable<Worker>() {
+                    @Override
+                    public Worker call() throws IOException {
+                        int index;
+                        while ((index = next.getAndIncrement()) < ranges.size()) {
+                            worker.aggregate(ranges.get(index));
+                        }
+                        return worker;
+                    }
+                }));
+            }
+            TreeMap<Long, TreeMap<String, TestTimeSequenceStatistics>> seconds = new TreeMap<>();
+            long samples = 0;
+            long skipped = 0;
+            for (Future<Worker> future : futures) {
+                Worker worker = getResult(future);
+                samples += worker.samples;
+                skipped += worker.skippedLines;
+                for (Map.Entry<String, Map<Long, TestTimeSequenceStatistics>> label : worker.buckets.entrySet()) {
+                    for (Map.Entry<Long, TestTimeSequenceStatistics> bucket : label.getValue().entrySet()) {
+                        TreeMap<String, TestTimeSequenceStatistics> labels = seconds.get(bucket.getKey());
+                        if (labels == null) {
+                            labels = new TreeMap<>();
+                            seconds.put(bucket.getKey(), labels);
+                        }
+                        TestTimeSequenceStatistics merged = labels.get(label.getKey());
+                        if (merged == null) {
+                            labels.put(label.getKey(), bucket.getValue());
+                        } else {
+                            merged.merge(bucket.getValue());
+                        }
+                    }
+                }
+            }
+            long rows = 0;
+            for (Map.Entry<Long, TreeMap<String, TestTimeSequenceStatistics>> second : seconds.entrySet()) {
+                for (Map.Entry<String, TestTimeSequenceStatistics> label : second.getValue().entrySet()) {
+                    sink.write(round, machine, label.getKey(), second.getKey().longValue(), label.getValue());
+                    rows++;
+                }
+            }
+            sink.flush();
+            return new Result(samples, skipped, rows);
+        } finally {
+            executor.shutdownNow();
+            for (RandomAccessFile raf : opened) {
+                JOrphanUtils.closeQuietly(raf);
+            }
+        }
+    }
+
+    private static Worker getResult(Future<Worker> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Aggregation failed", e.getCause());
+        }
+    }
+
+    /**
+     * Locates the aggregated columns from the header line, if any.
+     */
+    private static Columns readColumns(File file) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            int b;
+            while ((b = in.read()) >= 0 && b != '\n') {
+                line.write(b);
+            }
+        }
+        String first = StringUtils.stripEnd(new String(line.toByteArray(), StandardCharsets.UTF_8), "\r"); //$NON-NLS-1$
+        if (first.startsWith(BYTE_ORDER_MARK)) {
+            first = first.substring(BYTE_ORDER_MARK.length());
+        }
+        if (first.isEmpty() || Character.isDigit(first.charAt(0))) {
+            return new Columns(DEFAULT_COLUMNS, 0L);
+        }
+        return new Columns(first.split(ResultCollector.COMMA_DELIMITER, -1), line.size() + 1L);
+    }
+
+    /**
+     * Position of the aggregated columns in the lines of a file.
+     */
+    private static final class Columns {
+        final int[] indexes = new int[DEFAULT_COLUMNS.length];
+        final int count;
+        final long dataStart;
+
+        Columns(String[] names, long dataStart) throws IOException {
+            Arrays.fill(indexes, -1);
+            int last = -1;
+            for (int i = 0; i < DEFAULT_COLUMNS.length; i++) {
+                for (int j = 0; j < names.length; j++) {
+                    if (DEFAULT_COLUMNS[i].equals(names[j].trim())) {
+                        indexes[i] = j;
+                        last = Math.max(last, j);
+                        break;
+                    }
+                }
+            }
+            if (indexes[TIME_STAMP] < 0 || indexes[ELAPSED] < 0 || indexes[LABEL] < 0) {
+                throw new IOException("Result file without timeStamp, elapsed and label columns: "
+                        + Arrays.toString(names));
+            }
+            this.count = last + 1;
+            this.dataStart = dataStart;
+        }
+    }
+
+    /**
+     * Byte range of a file, owning the lines that start in it.
+     */
+    private static final class Range {
+        final FileChannel channel;
+        final Columns columns;
+        final long fileSize;
+        final long start;
+        final long end;
+
+        Range(FileChannel channel, Columns columns, long fileSize, long start, long end) {
+            this.channel = channel;
+            this.columns = columns;
+            this.fileSize = fileSize;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Aggregates ranges into its own buckets, used by one thread.
+     */
+    private static final class Worker {
+        final int histogramPrecision;
+        final Map<String, Map<Long, TestTimeSequenceStatistics>> buckets = new HashMap<>();
+        long samples;
+        long skippedLines;
+        // start and end offsets of the fields of the current line, by column
+        private final int[] fieldStarts = new int[DEFAULT_COLUMNS.length];
+        private final int[] fieldEnds = new int[DEFAULT_COLUMNS.length];
+        private final byte[] labelBytes = new byte[256];
+
+        Worker(int histogramPrecision) {
+            this.histogramPrecision = histogramPrecision;
+        }
+
+        void aggregate(Range range) throws IOException {
+            // Map from the byte before the range to know whether it starts a line
+            long base = range.start == range.columns.dataStart ? range.start : range.start - 1;
+            long limit = Math.min(range.fileSize, range.end + MAX_LINE_LENGTH);
+            MappedByteBuffer buffer = range.channel.map(FileChannel.MapMode.READ_ONLY, base, limit - base);
+            int size = buffer.limit();
+            int owned = (int) (range.end - base);
+            int position = 0;
+            if (base != range.start) {
+                position = indexOf(buffer, (byte) '\n', 0, size) + 1;
+                if (position == 0) {
+                    return;
+                }
+            }
+            while (position < owned) {
+                int newLine = indexOf(buffer, (byte) '\n', position, size);
+                if (newLine < 0) {
+                    if (limit < range.fileSize) {
+                        throw new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes at offset " + (base + position));
+                    }
+                    newLine = size;
+                }
+                int lineEnd = newLine > position && buffer.get(newLine - 1) == '\r' ? newLine - 1 : newLine;
+                if (lineEnd > position) {
+                    if (parseLine(buffer, position, lineEnd, range.columns)) {
+                        samples++;
+                    } else {
+                        skippedLines++;
+                    }
+                }
+                position = newLine + 1;
+            }
+        }
+
+        private boolean parseLine(MappedByteBuffer buffer, int start, int end, Columns columns) {
+            Arrays.fill(fieldStarts, -1);
+            int column = 0;
+            int position = start;
+            while (column < columns.count && position <= end) {
+                int fieldStart = position;
+                int fieldEnd;
+                if (position < end && buffer.get(position) == '"') {
+                    // quoted field, "" stands for a quote
+                    position++;
+                    while (true) {
+                        if (position >= end) {
+                            return false;
+                        }
+                        if (buffer.get(position) == '"') {
+                            if (position + 1 < end && buffer.get(position + 1) == '"') {
+                                position += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        position++;
+                    }
+                    fieldEnd = ++position;
+                    if (position < end && buffer.get(position) != ',') {
+                        return false;
+                    }
+                } else {
+                    fieldEnd = indexOf(buffer, (byte) ',', position, end);
+                    if (fieldEnd < 0) {
+                        fieldEnd = end;
+                    }
+                    position = fieldEnd;
+                }
+                for (int i = 0; i < columns.indexes.length; i++) {
+                    if (columns.indexes[i] == column) {
+                        fieldStarts[i] = fieldStart;
+                        fieldEnds[i] = fieldEnd;
+                    }
+                }
+                column++;
+                position++;
+            }
+            if (column < columns.count) {
+                return false;
+            }
+            long timeStamp = parseLong(buffer, TIME_STAMP);
+            long elapsed = parseLong(buffer, ELAPSED);
+            long bytes = parseLong(buffer, BYTES);
+            long latency = parseLong(buffer, LATENCY);
+            long connect = parseLong(buffer, CONNECT);
+            if (timeStamp == Long.MIN_VALUE || elapsed == Long.MIN_VALUE || bytes == Long.MIN_VALUE
+                    || latency == Long.MIN_VALUE || connect == Long.MIN_VALUE) {
+                return false;
+            }
+            PtpSampleRecord record = new PtpSampleRecord(timeStamp, elapsed, parseResponseCode(buffer),
+                    parseSuccess(buffer), bytes, latency, connect);
+            String label = decodeLabel(buffer);
+            Map<Long, TestTimeSequenceStatistics> seconds = buckets.get(label);
+            if (seconds == null) {
+                seconds = new HashMap<>();
+                buckets.put(label, seconds);
+            }
+            Long second = Long.valueOf(timeStamp / 1000L);
+            TestTimeSequenceStatistics bucket = seconds.get(second);
+            if (bucket == null) {
+                bucket = new TestTimeSequenceStatistics(histogramPrecision);
+                seconds.put(second, bucket);
+            }
+            bucket.combine(record);
+            return true;
+        }
+
+        /**
+         * @return the value of a numeric column, 0 if the column is absent,
+         *         {@link Long#MIN_VALUE} if it is not a number
+         */
+        private long parseLong(MappedByteBuffer buffer, int field) {
+            int start = fieldStarts[field];
+            if (start < 0) {
+                return 0L;
+            }
+            int end = fieldEnds[field];
+            while (start < end && buffer.get(start) == ' ') {
+                start++;
+            }
+            while (end > start && buffer.get(end - 1) == ' ') {
+                end--;
+            }
+            boolean negative = start < end && buffer.get(start) == '-';
+            if (negative) {
+                start++;
+            }
+            if (start == end || end - start > 18) {
+                return Long.MIN_VALUE;
+            }
+            long value = 0L;
+            for (int i = start; i < end; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return Long.MIN_VALUE;
+                }
+                value = value * 10L + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        // Same mapping as PtpSampleRecord.parseResponseCode
+        private long parseResponseCode(MappedByteBuffer buffer) {
+            if (fieldStarts[RESPONSE_CODE] < 0) {
+                return PtpSampleRecord.NON_NUMERIC_RESPONSE_CODE;
+            }
+            long code = parseLong(buffer, RESPONSE_CODE);
+            return code < 0L ? PtpSampleRecord.NON_NUMERIC_RESPONSE_CODE : code;
+        }
+
+        // Same as Boolean.parseBoolean, a missing column counts as success
+        private boolean parseSuccess(MappedByteBuffer buffer) {
+            int start = fieldStarts[SUCCESS];
+            if (start < 0) {
+                return true;
+            }
+            int end = fieldEnds[SUCCESS];
+            if (end - start != TRUE.length) {
+                return false;
+            }
+            for (int i = 0; i < TRUE.length; i++) {
+                if ((buffer.get(start + i) | 0x20) != TRUE[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String decodeLabel(MappedByteBuffer buffer) {
+            int start = fieldStarts[LABEL];
+            int end = fieldEnds[LABEL];
+            boolean quoted = end - start >= 2 && buffer.get(start) == '"';
+            if (quoted) {
+                start++;
+                end--;
+            }
+            byte[] bytes = end - start <= labelBytes.length ? labelBytes : new byte[end - start];
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                byte b = buffer.get(i);
+                bytes[length++] = b;
+                if (quoted && b == '"') {
+                    i++; // skip the second quote of ""
+                }
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private static int indexOf(MappedByteBuffer buffer, byte value, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer.get(i) == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.apache.jmeter.reporters.ResultCollector.COMMA_DELIMITER;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Layout of the rows of the agg file.
+ * <p>
+ * Version 1, the default, is the historical layout:
+ * <pre>
+ * round,machine,label,second,sumRt,maxRt,rtDetail,errors,requests
+ *   [,1xx,2xx,3xx,4xx,5xx,bytes,byteErrors,dns,maxDns,connect,maxConnect,latency,maxLatency,newConnections]
+ * </pre>
+ * where the bracketed columns are only present when some bytes were received.
+ * <p>
+ * Version 2 is used when <code>ptp.aggregate.percentiles</code> lists at least
+ * one percentile. The bracketed columns are then always present, followed by
+ * the standard deviation of the RT and one column per configured percentile
+ * (e.g. <code>stddev,p50,p90,p95,p99,p99.9</code>), so consumers do not need to
+ * rebuild them from the RT detail. A new version 2 file starts with a header
+ * line beginning with <code>#v2</code> naming the columns.
+ * <p>
+ * A run appending to a file which already holds a header line first writes
+ * the header of its own layout, <code>#v1</code> alone for version 1, so
+ * readers switch layouts at each header.
+ */
+public class PtpAggregateRowFormat {
+
+    public static final int VERSION_1 = 1;
+
+    public static final int VERSION_2 = 2;
+
+    public static final String HEADER_PREFIX = "#v"; //$NON-NLS-1$
+
+    private static final String[] BASE_COLUMNS = {
+        "round", "machine", "label", "second", "sumRt", "maxRt", "rtDetail", "errors", "requests", //$NON-NLS-1$
+    };
+
+    private static final String[] HTTP_COLUMNS = {
+        "1xx", "2xx", "3xx", "4xx", "5xx", "bytes", "byteErrors", "dns", "maxDns", //$NON-NLS-1$
+        "connect", "maxConnect", "latency", "maxLatency", "newConnections", //$NON-NLS-1$
+    };
+
+    private static final String STDDEV_COLUMN = "stddev"; //$NON-NLS-1$
+
+    private static final PtpAggregateRowFormat DEFAULT =
+            new PtpAggregateRowFormat(parsePercentiles(JMeterUtils.getPropDefault("ptp.aggregate.percentiles", ""))); //$NON-NLS-1$
+
+    private final double[] percentiles;
+
+    /**
+     * @param percentiles percentiles to add as columns, between 0 (exclusive)
+     *            and 100 (inclusive); none to use the version 1 layout
+     */
+    public PtpAggregateRowFormat(double... percentiles) {
+        this.percentiles = percentiles.clone();
+        Arrays.sort(this.percentiles);
+        for (double percentile : this.percentiles) {
+            if (!(percentile > 0d && percentile <= 100d)) {
+                throw new IllegalArgumentException("Percentile must be in ]0,100], got " + percentile);
+            }
+        }
+    }
+
+    /**
+     * @return the format configured by <code>ptp.aggregate.percentiles</code>
+     */
+    public static PtpAggregateRowFormat getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param list comma separated percentiles, e.g. <code>50,90,99.9</code>
+     * @return the parsed percentiles, empty if <code>list</code> is blank
+     */
+    static double[] parsePercentiles(String list) {
+        List<Double> values = new ArrayList<>();
+        for (String value : StringUtils.split(StringUtils.defaultString(list), ',')) {
+            if (StringUtils.isNotBlank(value)) {
+                values.add(Double.valueOf(value.trim()));
+            }
+        }
+        double[] result = new double[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i).doubleValue();
+        }
+        return result;
+    }
+
+    public int getVersion() {
+        return percentiles.length == 0 ? VERSION_1 : VERSION_2;
+    }
+
+    public double[] getPercentiles() {
+        return percentiles.clone();
+    }
+
+    /**
+     * @return the header line naming the columns, <code>null</code> for version 1
+     *         which has no header
+     */
+    public String getHeader() {
+        if (getVersion() == VERSION_1) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(HEADER_PREFIX).append(getVersion());
+        for (String column : BASE_COLUMNS) {
+            sb.append(COMMA_DELIMITER).append(column);
+        }
+        for (String column : HTTP_COLUMNS) {
+            sb.append(COMMA_DELIMITER).append(column);
+        }
+        sb.append(COMMA_DELIMITER).append(STDDEV_COLUMN);
+        for (double percentile : percentiles) {
+            sb.append(COMMA_DELIMITER).append('p').append(formatPercentile(percentile));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the header line starting a section of rows in this layout within
+     *         a file holding several, <code>#v1</code> for version 1
+     */
+    public String getSectionHeader() {
+        String header = getHeader();
+        return header != null ? header : HEADER_PREFIX + VERSION_1;
+    }
+
+    /**
+     * Appends one row, without line terminator.
+     *
+     * @param sb where to append
+     * @param round round id
+     * @param machine machine id
+     * @param label sample label
+     * @param second epoch second of the row
+     * @param statistics statistics of <code>label</code> during <code>second</code>
+     */
+    public void appendRow(StringBuilder sb, String round, String machine, String label, long second,
+            TestTimeSequenceStatistics statistics) {
+        sb.append(round).append(COMMA_DELIMITER).append(machine).append(COMMA_DELIMITER).append(label).append(COMMA_DELIMITER).append(second).append(COMMA_DELIMITER);
+        sb.append(statistics.getTestTime()).append(COMMA_DELIMITER).append(statistics.getMaxTestTime()).append(COMMA_DELIMITER)
+          .append(statistics.getTestTimes()).append(COMMA_DELIMITER).append(statistics.getErrors()).append(COMMA_DELIMITER).append(statistics.getRequestCount());
+        boolean version1 = getVersion() == VERSION_1;
+        if(!version1 || statistics.getHttpResponseLen() > 0) {
+            sb.append(COMMA_DELIMITER);
+            sb.append(statistics.getStatus1xx()).append(COMMA_DELIMITER).append(statistics.getStatus2xx()).append(COMMA_DELIMITER).append(statistics.getStatus3xx()).append(COMMA_DELIMITER).append(statistics.getStatus4xx()).append(COMMA_DELIMITER).append(statistics.getStatus5xx()).append(COMMA_DELIMITER).append(statistics.getHttpResponseLen()).append(COMMA_DELIMITER).append(statistics.getHttpResponseErrors()).append(COMMA_DELIMITER).append(statistics.getTimeToResolveHost()).append(COMMA_DELIMITER).append(statistics.getMaxTimeToResolveHost()).append(COMMA_DELIMITER).append(statistics.getTimeToEstabishConn()).append(COMMA_DELIMITER).append(statistics.getMaxTimeToEstabishConn()).append(COMMA_DELIMITER).append(statistics.getTimeToFirstByte()).append(COMMA_DELIMITER).append(statistics.getMaxTimeToFirstByte()).append(COMMA_DELIMITER).append(statistics.getNewConnections());
+        }
+        if (version1) {
+            return;
+        }
+        sb.append(COMMA_DELIMITER);
+        appendHundredths(sb, statistics.getStandardDeviation());
+        for (long value : statistics.getPercentiles(percentiles)) {
+            sb.append(COMMA_DELIMITER).append(value);
+        }
+    }
+
+    private static String formatPercentile(double percentile) {
+        if (percentile == Math.rint(percentile)) {
+            return Long.toString((long) percentile);
+        }
+        return Double.toString(percentile);
+    }
+
+    // Avoids both String.format and the exponent notation of Double.toString
+    private static void appendHundredths(StringBuilder sb, double value) {
+        long hundredths = Math.round(value * 100d);
+        sb.append(hundredths / 100L).append('.');
+        long decimals = hundredths % 100L;
+        if (decimals < 10L) {
+            sb.append('0');
+        }
+        sb.append(decimals);
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-second aggregation state of one test of an agg file: the accumulator,
+ * the watermark, the printing schedule, the journal, the cluster merge and
+ * the counters.
+ * <p>
+ * The {@link ResultCollector}s writing to the same agg file share a session,
+ * created by the first <code>testStarted</code> and closed by the matching
+ * last <code>testEnded</code>. A JVM kept running between tests therefore
+ * starts each round empty, with the round id read at its start, and tests
+ * running at the same time with different agg files share nothing.
+ * <p>
+ * Starting and ending are guarded by the lock of {@link ResultCollector},
+ * the other methods are called by the sampler threads.
+ * <p>
+ * {@link #close()} shuts the aggregation down in order: new samples are no
+ * longer published to the watermark, the samples in flight are drained (for
+ * at most the allowed lateness), samples are no longer accepted, the open
+ * seconds are closed, the sinks flushed and the journal marked clean. The
+ * drain time and the samples which did not make it to the agg file are
+ * reported.
+ */
+final class PtpAggregateSession {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpAggregateSession.class);
+
+    private static final long MAX_LATENESS_MS = JMeterUtils.getPropDefault("ptp.aggregate.max_lateness_ms", 5000L); //$NON-NLS-1$
+
+    private final String name;
+
+    private final String roundId;
+
+    private final PtpStripedAccumulator accumulator;
+
+    private final PtpWatermark watermark;
+
+    // Only runs the per-second printing and the cluster merge, samples are aggregated by the sampler threads
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+
+    // requests of the rows received from remote engines
+    private final AtomicLong remoteSampleCount = new AtomicLong(0);
+
+    private final PtpAggregateMetrics metrics;
+
+    // samples refused once closed or still in flight when the drain timed out
+    private final AtomicLong unflushedCount = new AtomicLong(0);
+
+    // number of threads between the check of accepting and the end of their recording
+    private final AtomicInteger recording = new AtomicInteger(0);
+
+    private volatile boolean closing;
+
+    private volatile boolean accepting = true;
+
+    private volatile long drainMillis;
+
+    private volatile PtpPrintResultlogTask printer;
+
+    private volatile PtpAggregateJournal journal;
+
+    private volatile PtpClusterMerger clusterMerger;
+
+    private volatile PtpAggregateSocketReceiver clusterReceiver;
+
+    //@GuardedBy("ResultCollector.LOCK")
+    private int references;
+
+    /**
+     * @param name agg file of the session, names the scheduler thread
+     * @param roundId round id of the rows
+     */
+    PtpAggregateSession(String name, String roundId) {
+        this(name, roundId, new PtpStripedAccumulator(), new PtpWatermark(MAX_LATENESS_MS));
+    }
+
+    PtpAggregateSession(final String name, String roundId, PtpStripedAccumulator accumulator, PtpWatermark watermark) {
+        this.name = name;
+        this.roundId = roundId;
+        this.accumulator = accumulator;
+        this.watermark = watermark;
+        this.metrics = new PtpAggregateMetrics(this, PtpAggregateMetrics.INTERNAL_ROWS);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ptp-aggregate " + name); // $NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Journals the samples recorded from now on, must be called before {@link #startPrinting}.
+     *
+     * @param journal the journal, closed with the session
+     */
+    void setJournal(PtpAggregateJournal journal) {
+        this.journal = journal;
+        accumulator.setJournal(journal);
+    }
+
+    /**
+     * Prints the closed seconds every second, after a first delay of 3 seconds.
+     *
+     * @param sink where to write the per-second rows
+     * @param rollups coarser resolutions fed with the closed seconds
+     */
+    void startPrinting(PtpAggregateSink sink, List<PtpRollupLevel> rollups) {
+        printer = new PtpPrintResultlogTask(accumulator, sink, rollups, watermark, journal, roundId);
+        scheduler.scheduleAtFixedRate(printer, 3, 1, TimeUnit.SECONDS);
+        metrics.register();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    metrics.update(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    // Don't let the exception cancel the scheduled metrics
+                    log.error("Aggregation metrics failed", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Advances the cluster merge every second.
+     *
+     * @param merger merges the buckets of the load generators
+     * @param receiver receives the agg streams of the load generators, may be <code>null</code>
+     */
+    void startClusterMerge(final PtpClusterMerger merger, PtpAggregateSocketReceiver receiver) {
+        clusterMerger = merger;
+        clusterReceiver = receiver;
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    merger.advance(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    // Don't let the exception cancel the scheduled merge
+                    log.error("Cluster merge failed", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Publishes the start of a sample to the watermark.
+     */
+    void sampleStarting() {
+        if (!closing) {
+            watermark.sampleStarting(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Ends the sample in flight of the calling thread without recording it,
+     * e.g. when it is filtered out or not aggregated, so it does not hold the
+     * watermark back.
+     */
+    void sampleSkipped() {
+        watermark.sampleRecorded();
+    }
+
+    /**
+     * Records a sample in the second of its time stamp.
+     *
+     * @param label the label of the sample
+     * @param record the sample
+     */
+    void record(String label, PtpSampleRecord record) {
+        recording.incrementAndGet();
+        try {
+            if (!accepting) {
+                unflushedCount.incrementAndGet();
+                return;
+            }
+            accumulator.add(label, record.getTimeStamp() / 1000L, record);
+        } catch (RuntimeException e) {
+            log.error("ptp aggregate occur exception:" + e);
+        } finally {
+            recording.decrementAndGet();
+            watermark.sampleRecorded();
+        }
+    }
+
+    /**
+     * Counts a request written to the result file, compared at the end with
+     * the requests written to the agg file.
+     */
+    void requestCounted() {
+        requestCount.incrementAndGet();
+    }
+
+    /**
+     * Writes the buckets closed by a remote engine and merges them into the
+     * cluster-wide rows.
+     *
+     * @param source machine id of the remote engine
+     * @param rows the buckets
+     */
+    void remoteRowsReceived(String source, List<PtpBinaryAggregateReader.Row> rows) {
+        final PtpPrintResultlogTask task = printer;
+        if (task == null) {
+            return;
+        }
+        recording.incrementAndGet();
+        try {
+            if (!accepting) {
+                for (PtpBinaryAggregateReader.Row row : rows) {
+                    if (!row.isInternal()) {
+                        unflushedCount.addAndGet(row.getStatistics().getRequestCount());
+                    }
+                }
+                return;
+            }
+            final long requests = task.printRemoteRows(rows, roundId);
+            requestCount.addAndGet(requests);
+            remoteSampleCount.addAndGet(requests);
+            final PtpClusterMerger merger = clusterMerger;
+            if (merger != null) {
+                merger.add(source, rows, System.currentTimeMillis());
+            }
+        } finally {
+            recording.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param source machine id of a remote engine which ended its test
+     */
+    void sourceEnded(String source) {
+        final PtpClusterMerger merger = clusterMerger;
+        if (merger != null) {
+            merger.sourceEnded(source);
+        }
+    }
+
+    /**
+     * Prints the open seconds, the session goes on.
+     */
+    void printLast() {
+        final PtpPrintResultlogTask task = printer;
+        if (task != null) {
+            task.printLastResultLog();
+        }
+    }
+
+    void acquire() {
+        references++;
+    }
+
+    /**
+     * @return <code>true</code> if this was the last reference and the session must be closed
+     */
+    boolean release() {
+        return --references <= 0;
+    }
+
+    /**
+     * Shuts the aggregation down as described in the class comment and
+     * reports the drain time and the unflushed samples.
+     */
+    void close() {
+        final long start = System.nanoTime();
+        closing = true;
+        scheduler.shutdown();
+        try {
+            if (!watermark.awaitIdle()) {
+                log.warn("Samples still running after " + watermark.getMaxLatenessMillis()
+                        + " ms, closing all the seconds of " + name + " anyway");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        accepting = false;
+        while (recording.get() != 0) {
+            // a recording which saw accepting still set is ending
+            Thread.yield();
+        }
+        unflushedCount.addAndGet(watermark.getInFlightCount());
+        drainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        final PtpPrintResultlogTask task = printer;
+        if (task != null) {
+            // the samples in flight were waited for above
+            task.printLastResultLog(false);
+        }
+        final PtpAggregateSocketReceiver receiver = clusterReceiver;
+        clusterReceiver = null;
+        if (receiver != null) {
+            try {
+                receiver.close();
+            } catch (IOException e) {
+                log.warn("Problem detected closing the agg stream receiver", e);
+            }
+        }
+        final PtpClusterMerger merger = clusterMerger;
+        clusterMerger = null;
+        if (merger != null) {
+            merger.flush();
+        }
+        closeJournal();
+        if (task != null) {
+            // last metric rows, with the counts of the drain
+            metrics.update(System.currentTimeMillis());
+        }
+        metrics.unregister();
+        log.info("Aggregation of " + name + " drained in " + drainMillis + " ms and closed in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms: "
+                + requestCount.get() + " requests, "
+                + (task == null ? 0L : task.getAggregateCount()) + " aggregated, "
+                + (task == null ? 0L : task.getLateSampleCount()) + " late, "
+                + unflushedCount.get() + " unflushed, "
+                + accumulator.getOverflowCount() + " overflowed");
+        if (metrics.getDroppedResultLineCount() > 0) {
+            log.warn(metrics.getDroppedResultLineCount() + " result lines of " + name
+                    + " were dropped by a full writer, see ptp.writer.drop_when_full");
+        }
+    }
+
+    /**
+     * Marks the journal clean once the agg files have been flushed, then closes it.
+     */
+    void closeJournal() {
+        final PtpAggregateJournal current = journal;
+        if (current == null) {
+            return;
+        }
+        accumulator.setJournal(null);
+        journal = null;
+        current.markClean();
+        try {
+            current.close();
+        } catch (IOException e) {
+            log.warn("Problem detected closing " + current.getFile(), e);
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getRoundId() {
+        return roundId;
+    }
+
+    PtpStripedAccumulator getAccumulator() {
+        return accumulator;
+    }
+
+    PtpWatermark getWatermark() {
+        return watermark;
+    }
+
+    long getRemoteSampleCount() {
+        return remoteSampleCount.get();
+    }
+
+    PtpAggregateMetrics getMetrics() {
+        return metrics;
+    }
+
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the samples refused once closed or still in flight when the drain timed out
+     */
+    long getUnflushedCount() {
+        return unflushedCount.get();
+    }
+
+    /**
+     * @return the time {@link #close()} waited for the samples in flight, in ms
+     */
+    long getDrainMillis() {
+        return drainMillis;
+    }
+
+    PtpPrintResultlogTask getPrinter() {
+        return printer;
+    }
+}
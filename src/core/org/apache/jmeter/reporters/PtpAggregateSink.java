@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+/**
+ * Destination of closed aggregate buckets, one per resolution
+ * (the per-second rows and every rollup level).
+ * Implementations are only called from the aggregate printing thread.
+ */
+public interface PtpAggregateSink {
+
+    /**
+     * Writes the statistics of a closed bucket.
+     *
+     * @param round round id
+     * @param machine machine id
+     * @param label sample label
+     * @param second epoch second of the bucket, the first second of the window for rollups
+     * @param statistics statistics of the bucket
+     */
+    void write(String round, String machine, String label, long second, TestTimeSequenceStatistics statistics);
+
+    /**
+     * Called once the buckets closed by a printing round have been written.
+     */
+    void flush();
+}
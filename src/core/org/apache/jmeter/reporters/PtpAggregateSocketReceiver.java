@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jorphan.util.JOrphanUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds a {@link PtpClusterMerger} with the binary agg streams that load
+ * generators write to <code>tcp://host:port</code>, one source per
+ * connection. A source ends when its connection is closed.
+ */
+public class PtpAggregateSocketReceiver implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpAggregateSocketReceiver.class);
+
+    private final ServerSocket serverSocket;
+
+    private final PtpClusterMerger merger;
+
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private volatile boolean closed;
+
+    /**
+     * Starts accepting connections.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @param merger where to add the received buckets
+     * @throws IOException if the port cannot be bound
+     */
+    public PtpAggregateSocketReceiver(int port, PtpClusterMerger merger) throws IOException {
+        this.merger = merger;
+        this.serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "ptp-merge-accept-" + serverSocket.getLocalPort()); //$NON-NLS-1$
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Receiving agg streams on port {}", serverSocket.getLocalPort());
+    }
+
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.add(socket);
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        receive(socket);
+                    }
+                }, "ptp-merge-" + socket.getRemoteSocketAddress()); //$NON-NLS-1$
+                reader.setDaemon(true);
+                reader.start();
+            } catch (SocketException e) {
+                if (!closed) {
+                    log.error("Stopped receiving agg streams", e);
+                }
+                return;
+            } catch (IOException e) {
+                log.warn("Could not accept agg stream", e);
+            }
+        }
+    }
+
+    private void receive(Socket socket) {
+        final String source = String.valueOf(socket.getRemoteSocketAddress());
+        try (PtpBinaryAggregateReader reader = new PtpBinaryAggregateReader(socket.getInputStream())) {
+            PtpBinaryAggregateReader.Row row;
+            while ((row = reader.next()) != null) {
+                merger.add(source, Collections.singletonList(row), System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.warn("Agg stream of " + source + " interrupted", e);
+            }
+        } finally {
+            merger.sourceEnded(source);
+            connections.remove(socket);
+            JOrphanUtils.closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            JOrphanUtils.closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,823 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.jmeter.save.PtpGzipBlockOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File writer whose writes are only copied: the writing threads encode them
+ * into pooled chunks of {@link #CHUNK_SIZE} bytes handed to a single I/O
+ * thread, which copies them into a large direct buffer and writes it to the
+ * file once it is full or once its oldest byte has waited for the maximum lag.
+ * Many small writes end up in a few large <code>write</code> calls, the
+ * writing threads never wait for the disk and nothing is allocated per write.
+ * <p>
+ * The chunks are bounded: when the disk cannot keep up, writing threads
+ * either wait for a free chunk (counted by {@link #getProducerWaits()}) or,
+ * if the writer drops when full, discard the lines they write until one is
+ * free (counted by {@link #getDroppedLines()}), whole lines only so the file
+ * stays readable. Memory never grows. Bytes written through
+ * {@link #getOutputStream()} have no lines and always wait, as do the rest of
+ * a line longer than a chunk. {@link #flush()} waits until everything written before
+ * has reached the file, {@link #close()} also stops the I/O thread. An I/O
+ * error is logged once, the following data is discarded and the error is
+ * thrown by the next {@link #flush()} or {@link #close()}.
+ * <p>
+ * The file can be gzip compressed by the I/O thread, each write of the buffer
+ * becoming a block of {@link PtpGzipBlockOutputStream}.
+ */
+public class PtpAsyncFileWriter extends Writer {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpAsyncFileWriter.class);
+
+    /** Size in bytes of the chunks handed to the I/O thread */
+    public static final int CHUNK_SIZE = 8 * 1024;
+
+    private static final Object CLOSE = new Object();
+
+    private static final int DRAIN_BATCH = 1024;
+
+    // room in the queue for the flush and close requests
+    private static final int CONTROL_SLOTS = 16;
+
+    // the writing threads have no pending chunk
+    private static final long NOT_PENDING = Long.MAX_VALUE;
+
+    /** Compression level of a file written as is */
+    public static final int UNCOMPRESSED = Integer.MIN_VALUE;
+
+    private final String name;
+
+    private final FileChannel channel;
+
+    // full chunks, flush and close requests, in order
+    private final BlockingQueue<Object> queue;
+
+    // chunks written by the I/O thread
+    private final BlockingQueue<Chunk> free;
+
+    private final int maxChunks;
+
+    private final boolean dropWhenFull;
+
+    private final ByteBuffer buffer;
+
+    // Compresses the buffer to the channel, null if not compressed
+    private final PtpGzipBlockOutputStream gzip;
+
+    private final long maxLagNanos;
+
+    private final Thread ioThread;
+
+    // Held by the writing threads, only tried by the I/O thread
+    private final ReentrantLock chunkLock = new ReentrantLock();
+
+    //@GuardedBy("chunkLock") chunk being filled, null if none
+    private Chunk current;
+
+    //@GuardedBy("chunkLock")
+    private int allocatedChunks;
+
+    //@GuardedBy("chunkLock") position in the chunk where the line being written starts
+    private int lineStart;
+
+    //@GuardedBy("chunkLock") whether the line being written began in a chunk already handed off
+    private boolean lineSpans;
+
+    //@GuardedBy("chunkLock") whether the rest of the line being written is discarded
+    private boolean dropping;
+
+    //@GuardedBy("chunkLock") characters waiting to be encoded into the chunk
+    private final CharBuffer chars = CharBuffer.allocate(1024);
+
+    //@GuardedBy("chunkLock")
+    private final CharsetEncoder encoder;
+
+    // when the chunk being filled got its first byte, read by the I/O thread
+    private volatile long currentSinceNanos = NOT_PENDING;
+
+    private volatile boolean closed;
+
+    private volatile IOException failure;
+
+    // Only used by the I/O thread
+    private long oldestPendingNanos;
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final AtomicLong writeCount = new AtomicLong();
+
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+
+    private final AtomicLong producerWaits = new AtomicLong();
+
+    private final AtomicLong droppedLines = new AtomicLong();
+
+    /** Bytes handed to the I/O thread, reused once written */
+    private static final class Chunk {
+        final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+
+        // when the first byte was written
+        long sinceNanos;
+    }
+
+    /** Asks the I/O thread to write its buffer and tell when done */
+    private static final class FlushRequest {
+        final CountDownLatch done = new CountDownLatch(1);
+    }
+
+    /**
+     * Opens the file, written as is, and starts the I/O thread.
+     *
+     * @param filename file to write
+     * @param append whether to append to an existing file
+     * @param charset encoding of the characters written
+     * @param queueSize maximum number of chunks waiting for the I/O thread
+     * @param bufferSize size in bytes of the direct buffer
+     * @param maxLagMillis maximum time in ms a byte stays in memory,
+     *            0 to hand every write to the I/O thread at once
+     * @throws IOException if the file cannot be opened
+     */
+    public PtpAsyncFileWriter(String filename, boolean append, Charset charset, int queueSize, int bufferSize,
+            long maxLagMillis) throws IOException {
+        this(filename, append, charset, queueSize, bufferSize, maxLagMillis, UNCOMPRESSED);
+    }
+
+    /**
+     * Opens the file and starts the I/O thread.
+     *
+     * @param filename file to write
+     * @param append whether to append to an existing file
+     * @param charset encoding of the characters written
+     * @param queueSize maximum number of chunks waiting for the I/O thread
+     * @param bufferSize size in bytes of the buffer, and of the compressed blocks
+     * @param maxLagMillis maximum time in ms a byte stays in memory,
+     *            0 to hand every write to the I/O thread at once
+     * @param gzipLevel compression level (see {@link java.util.zip.Deflater}),
+     *            {@link #UNCOMPRESSED} to write the file as is
+     * @throws IOException if the file cannot be opened
+     */
+    public PtpAsyncFileWriter(String filename, boolean append, Charset charset, int queueSize, int bufferSize,
+            long maxLagMillis, int gzipLevel) throws IOException {
+        this(filename, append, charset, queueSize, bufferSize, maxLagMillis, gzipLevel, false);
+    }
+
+    /**
+     * Opens the file and starts the I/O thread.
+     *
+     * @param filename file to write
+     * @param append whether to append to an existing file
+     * @param charset encoding of the characters written
+     * @param queueSize maximum number of chunks waiting for the I/O thread
+     * @param bufferSize size in bytes of the buffer, and of the compressed blocks
+     * @param maxLagMillis maximum time in ms a byte stays in memory,
+     *            0 to hand every line to the I/O thread at once
+     * @param gzipLevel compression level (see {@link java.util.zip.Deflater}),
+     *            {@link #UNCOMPRESSED} to write the file as is
+     * @param dropWhenFull whether to drop the lines written while no chunk is
+     *            free rather than wait for one
+     * @throws IOException if the file cannot be opened
+     */
+    @SuppressWarnings("resource") // the channel closes the stream
+    public PtpAsyncFileWriter(String filename, boolean append, Charset charset, int queueSize, int bufferSize,
+            long maxLagMillis, int gzipLevel, boolean dropWhenFull) throws IOException {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Queue size must be positive, got " + queueSize);
+        }
+        this.name = filename;
+        this.channel = new FileOutputStream(filename, append).getChannel();
+        this.maxChunks = queueSize;
+        this.dropWhenFull = dropWhenFull;
+        this.queue = new ArrayBlockingQueue<>(queueSize + CONTROL_SLOTS);
+        this.free = new ArrayBlockingQueue<>(queueSize);
+        if (gzipLevel == UNCOMPRESSED) {
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+            this.gzip = null;
+        } else {
+            // the Deflater needs an array
+            this.buffer = ByteBuffer.allocate(bufferSize);
+            this.gzip = new PtpGzipBlockOutputStream(new BufferedOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    ByteBuffer bytes = ByteBuffer.wrap(b, off, len);
+                    while (bytes.hasRemaining()) {
+                        bytesWritten.addAndGet(channel.write(bytes));
+                    }
+                }
+            }, 64 * 1024), bufferSize, gzipLevel);
+        }
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        this.ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "ptp-writer-" + filename); //$NON-NLS-1$
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        chunkLock.lock();
+        try {
+            checkOpen();
+            int offset = off;
+            int remaining = dropping ? 0 : len;
+            while (remaining > 0) {
+                int length = Math.min(remaining, chars.remaining());
+                chars.put(cbuf, offset, length);
+                offset += length;
+                remaining -= length;
+                if (!encode(false)) {
+                    dropLine();
+                    break;
+                }
+            }
+            written(len > 0 && cbuf[off + len - 1] == '\n');
+        } finally {
+            chunkLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        chunkLock.lock();
+        try {
+            checkOpen();
+            int offset = off;
+            int remaining = dropping ? 0 : len;
+            while (remaining > 0) {
+                int length = Math.min(remaining, chars.remaining());
+                str.getChars(offset, offset + length, chars.array(), chars.arrayOffset() + chars.position());
+                chars.position(chars.position() + length);
+                offset += length;
+                remaining -= length;
+                if (!encode(false)) {
+                    dropLine();
+                    break;
+                }
+            }
+            written(len > 0 && str.charAt(off + len - 1) == '\n');
+        } finally {
+            chunkLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        chunkLock.lock();
+        try {
+            checkOpen();
+            if (!dropping) {
+                chars.put((char) c);
+                if (!encode(false)) {
+                    dropLine();
+                }
+            }
+            written(c == '\n');
+        } finally {
+            chunkLock.unlock();
+        }
+    }
+
+    /**
+     * @return a stream queuing bytes to this writer, closing it closes the writer;
+     *         flushing it does not wait for the disk, the maximum lag applies
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                chunkLock.lock();
+                try {
+                    checkOpen();
+                    ByteBuffer chunk = chunk(false);
+                    chunk.put((byte) b);
+                    if (!chunk.hasRemaining()) {
+                        handOff();
+                    }
+                    written(true);
+                } finally {
+                    chunkLock.unlock();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                chunkLock.lock();
+                try {
+                    checkOpen();
+                    int offset = off;
+                    int remaining = len;
+                    while (remaining > 0) {
+                        ByteBuffer chunk = chunk(false);
+                        int length = Math.min(remaining, chunk.remaining());
+                        chunk.put(b, offset, length);
+                        offset += length;
+                        remaining -= length;
+                        if (!chunk.hasRemaining()) {
+                            handOff();
+                        }
+                    }
+                    written(true);
+                } finally {
+                    chunkLock.unlock();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                PtpAsyncFileWriter.this.close();
+            }
+        };
+    }
+
+    /**
+     * Waits until everything written before has been written to the file.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        FlushRequest request = new FlushRequest();
+        chunkLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            handOff();
+            enqueue(request);
+        } finally {
+            chunkLock.unlock();
+        }
+        try {
+            while (!request.done.await(100, TimeUnit.MILLISECONDS)) {
+                if (!ioThread.isAlive()) {
+                    // closed concurrently
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing " + name);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes everything queued, then stops the I/O thread and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        chunkLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            try {
+                dropping = false;
+                encode(true);
+                while (encoder.flush(chunk(false)).isOverflow()) {
+                    handOff();
+                }
+                handOff();
+            } finally {
+                enqueue(CLOSE);
+                closed = true;
+            }
+        } finally {
+            chunkLock.unlock();
+        }
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing " + name);
+        }
+        if (droppedLines.get() > 0) {
+            log.warn("{} lines were dropped writing {}", Long.valueOf(droppedLines.get()), name);
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return number of chunks waiting for the I/O thread
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of bytes written to the file
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return number of writes of the buffer to the file
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * @return total time in ns spent writing the buffer to the file
+     */
+    public long getWriteNanos() {
+        return writeNanos.get();
+    }
+
+    /**
+     * @return longest time in ns spent writing the buffer once
+     */
+    public long getMaxWriteNanos() {
+        return maxWriteNanos.get();
+    }
+
+    /**
+     * @return number of times a writing thread had to wait for a free chunk
+     */
+    public long getProducerWaits() {
+        return producerWaits.get();
+    }
+
+    /**
+     * @return number of lines dropped because no chunk was free
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed: " + name);
+        }
+    }
+
+    /**
+     * Encodes the pending characters, keeping a trailing high surrogate for the next write.
+     *
+     * @return false if no chunk was free for them and the line must be dropped
+     */
+    private boolean encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        try {
+            while (true) {
+                ByteBuffer chunk = chunk(!endOfInput);
+                if (chunk == null) {
+                    return false;
+                }
+                if (!encoder.encode(chars, chunk, endOfInput).isOverflow()) {
+                    return true;
+                }
+                if (!nextChunk()) {
+                    return false;
+                }
+            }
+        } finally {
+            chars.compact();
+        }
+    }
+
+    // Discards the line being written, up to and including its end
+    private void dropLine() {
+        chars.clear();
+        encoder.reset();
+        if (current != null) {
+            current.bytes.position(lineStart);
+        }
+        dropping = true;
+        if (droppedLines.getAndIncrement() == 0) {
+            log.warn("Writer of {} is full, dropping lines, see ptp.writer.drop_when_full", name);
+        }
+    }
+
+    // Ends a write, which ends a line or not
+    private void written(boolean endsLine) throws IOException {
+        if (endsLine) {
+            dropping = false;
+            lineSpans = false;
+            lineStart = current == null ? 0 : current.bytes.position();
+        }
+        if (maxLagNanos == 0 && endsLine) {
+            // every line reaches the I/O thread at once
+            handOff();
+        }
+    }
+
+    /**
+     * @param mayDrop whether to return <code>null</code> rather than wait when
+     *            no chunk is free, in which case the line being written is dropped
+     * @return the bytes of the chunk being filled, taking one if needed
+     */
+    private ByteBuffer chunk(boolean mayDrop) throws IOException {
+        if (current == null) {
+            // the start of a line already handed off cannot be dropped anymore
+            Chunk chunk = mayDrop && dropWhenFull && !lineSpans ? pollChunk() : takeChunk();
+            if (chunk == null) {
+                return null;
+            }
+            current = chunk;
+            current.sinceNanos = System.nanoTime();
+            currentSinceNanos = current.sinceNanos;
+        }
+        return current.bytes;
+    }
+
+    // Moves to a new chunk once the current one is full, false if the line must be dropped
+    private boolean nextChunk() throws IOException {
+        if (!dropWhenFull || lineSpans || lineStart == 0) {
+            // the line continues in the next chunk
+            handOff();
+            return true;
+        }
+        Chunk next = pollChunk();
+        if (next == null) {
+            return false;
+        }
+        // the start of the line moves to the next chunk with it
+        Chunk full = current;
+        int end = full.bytes.position();
+        full.bytes.position(lineStart);
+        full.bytes.limit(end);
+        next.bytes.put(full.bytes);
+        full.bytes.position(lineStart);
+        full.bytes.limit(full.bytes.capacity());
+        handOff();
+        current = next;
+        current.sinceNanos = System.nanoTime();
+        currentSinceNanos = current.sinceNanos;
+        lineStart = 0;
+        return true;
+    }
+
+    // A free chunk, null if none
+    private Chunk pollChunk() {
+        Chunk chunk = free.poll();
+        if (chunk == null && allocatedChunks < maxChunks) {
+            allocatedChunks++;
+            chunk = new Chunk();
+        }
+        return chunk;
+    }
+
+    private Chunk takeChunk() throws IOException {
+        Chunk chunk = pollChunk();
+        if (chunk != null) {
+            return chunk;
+        }
+        producerWaits.incrementAndGet();
+        try {
+            while ((chunk = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                if (!ioThread.isAlive()) {
+                    throw new IOException("Writer stopped: " + name);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + name);
+        }
+        return chunk;
+    }
+
+    // Gives the chunk being filled to the I/O thread
+    private void handOff() throws IOException {
+        Chunk chunk = current;
+        if (chunk == null || chunk.bytes.position() == 0) {
+            return;
+        }
+        current = null;
+        currentSinceNanos = NOT_PENDING;
+        lineSpans |= chunk.bytes.position() > lineStart;
+        lineStart = 0;
+        chunk.bytes.flip();
+        enqueue(chunk);
+    }
+
+    private void enqueue(Object item) throws IOException {
+        try {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (!ioThread.isAlive()) {
+                    throw new IOException("Writer stopped: " + name);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + name);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Error writing " + name, e);
+        }
+    }
+
+    private void drain() {
+        List<Object> batch = new ArrayList<>(DRAIN_BATCH);
+        boolean running = true;
+        boolean contended = false;
+        try {
+            while (running) {
+                long oldest = Math.min(buffer.position() > 0 ? oldestPendingNanos : NOT_PENDING, currentSinceNanos);
+                Object item;
+                if (oldest == NOT_PENDING) {
+                    // a writing thread may start a chunk meanwhile, look again after the lag
+                    item = maxLagNanos > 0 ? queue.poll(maxLagNanos, TimeUnit.NANOSECONDS) : queue.take();
+                } else {
+                    long wait = Math.max(maxLagNanos - (System.nanoTime() - oldest),
+                            contended ? TimeUnit.MILLISECONDS.toNanos(1) : 0L);
+                    item = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                }
+                if (item != null) {
+                    batch.add(item);
+                    queue.drainTo(batch, DRAIN_BATCH - 1);
+                    for (Object queued : batch) {
+                        running &= process(queued);
+                    }
+                    batch.clear();
+                }
+                contended = running && !takeLateChunk();
+                if (buffer.position() > 0 && System.nanoTime() - oldestPendingNanos >= maxLagNanos) {
+                    writeBuffer();
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("Writer thread of {} interrupted, queued data is lost", name);
+            Thread.currentThread().interrupt();
+        } finally {
+            // The writing threads racing with close fail once the thread is gone
+            queue.clear();
+            try {
+                if (gzip != null) {
+                    gzip.close();
+                }
+                channel.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    // Takes the chunk being filled once its first byte has waited for the maximum lag,
+    // returns false if it could not as a writing thread holds it
+    private boolean takeLateChunk() {
+        final long since = currentSinceNanos;
+        if (since == NOT_PENDING || System.nanoTime() - since < maxLagNanos) {
+            return true;
+        }
+        Chunk chunk;
+        if (!chunkLock.tryLock()) {
+            return false;
+        }
+        try {
+            chunk = current;
+            if (chunk == null || chunk.bytes.position() == 0) {
+                return true;
+            }
+            current = null;
+            currentSinceNanos = NOT_PENDING;
+            lineSpans |= chunk.bytes.position() > lineStart;
+            lineStart = 0;
+        } finally {
+            chunkLock.unlock();
+        }
+        chunk.bytes.flip();
+        process(chunk);
+        return true;
+    }
+
+    // Returns false once the writer is closed
+    private boolean process(Object item) {
+        if (item instanceof Chunk) {
+            copy((Chunk) item);
+        } else if (item instanceof FlushRequest) {
+            writeBuffer();
+            ((FlushRequest) item).done.countDown();
+        } else if (item == CLOSE) {
+            writeBuffer();
+            return false;
+        }
+        return true;
+    }
+
+    // Copies a chunk to the buffer and gives it back to the writing threads
+    private void copy(Chunk pending) {
+        ByteBuffer chunk = pending.bytes;
+        markPending(pending.sinceNanos);
+        while (chunk.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+                markPending(pending.sinceNanos);
+            }
+            if (chunk.remaining() <= buffer.remaining()) {
+                buffer.put(chunk);
+            } else {
+                int limit = chunk.limit();
+                chunk.limit(chunk.position() + buffer.remaining());
+                buffer.put(chunk);
+                chunk.limit(limit);
+            }
+        }
+        chunk.clear();
+        free.offer(pending);
+    }
+
+    private void markPending(long sinceNanos) {
+        if (buffer.position() == 0) {
+            oldestPendingNanos = sinceNanos;
+        }
+    }
+
+    private void writeBuffer() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        if (failure == null) {
+            long start = System.nanoTime();
+            try {
+                if (gzip != null) {
+                    gzip.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+                    gzip.flush();
+                } else {
+                    int written = 0;
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer);
+                    }
+                    bytesWritten.addAndGet(written);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            long elapsed = System.nanoTime() - start;
+            writeCount.incrementAndGet();
+            writeNanos.addAndGet(elapsed);
+            if (elapsed > maxWriteNanos.get()) {
+                maxWriteNanos.set(elapsed);
+            }
+        }
+        buffer.clear();
+        oldestPendingNanos = System.nanoTime();
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            log.error("Error writing " + name + ", following data is discarded", e);
+        }
+    }
+}
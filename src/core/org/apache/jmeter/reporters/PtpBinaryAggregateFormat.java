@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+/**
+ * Constants of the binary agg file format, selected with
+ * <code>ptp.aggregate.format=binary</code>.
+ * <p>
+ * The file is a sequence of segments, a new one being started every time the
+ * file is opened for writing. A segment starts with the {@link #MAGIC} bytes
+ * and the format {@link #VERSION} and is followed by records, each starting
+ * with a tag byte:
+ * <pre>
+ * {@link #TAG_STRING} utf                    next entry of the string dictionary
+ * {@link #TAG_ROW} round machine label delta statistics
+ * </pre>
+ * where <code>round</code>, <code>machine</code> and <code>label</code> are
+ * indexes in the string dictionary of the segment, <code>delta</code> is the
+ * second of the row minus the second of the previous row of the segment (0 for
+ * the first one) and <code>statistics</code> is the form written by
+ * {@link TestTimeSequenceStatistics#writeTo(java.io.DataOutput)}.
+ * Integers are variable length longs, see {@link PtpVarInts}, signed ones
+ * zigzag encoded; strings are written with {@link java.io.DataOutput#writeUTF(String)},
+ * those over its 65535 bytes being truncated.
+ * <p>
+ * Use {@link PtpBinaryAggregateReader} to read a file and
+ * {@link PtpAggregateConverter} to convert it to the text layout.
+ */
+public final class PtpBinaryAggregateFormat {
+
+    /** Value of ptp.aggregate.format selecting this format */
+    public static final String NAME = "binary"; //$NON-NLS-1$
+
+    static final byte[] MAGIC = { 'P', 'T', 'P', 'A' };
+
+    static final int VERSION = 1;
+
+    static final int TAG_STRING = 1;
+
+    static final int TAG_ROW = 2;
+
+    private PtpBinaryAggregateFormat() {
+    }
+}
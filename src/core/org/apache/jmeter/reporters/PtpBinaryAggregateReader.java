@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader of the binary agg format described in
+ * {@link PtpBinaryAggregateFormat}, one row at a time, whatever the size of
+ * the file.
+ * <pre>
+ * try (PtpBinaryAggregateReader reader = new PtpBinaryAggregateReader(new FileInputStream(file))) {
+ *     PtpBinaryAggregateReader.Row row;
+ *     while ((row = reader.next()) != null) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class PtpBinaryAggregateReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private final List<String> dictionary = new ArrayList<>();
+
+    private long previousSecond;
+
+    /**
+     * One row of the agg file.
+     */
+    public static final class Row {
+        private final String round;
+        private final String machine;
+        private final String label;
+        private final long second;
+        private final TestTimeSequenceStatistics statistics;
+
+        Row(String round, String machine, String label, long second, TestTimeSequenceStatistics statistics) {
+            this.round = round;
+            this.machine = machine;
+            this.label = label;
+            this.second = second;
+            this.statistics = statistics;
+        }
+
+        public String getRound() {
+            return round;
+        }
+
+        public String getMachine() {
+            return machine;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return epoch second of the row, first second of the window for rollups
+         */
+        public long getSecond() {
+            return second;
+        }
+
+        public TestTimeSequenceStatistics getStatistics() {
+            return statistics;
+        }
+
+        /**
+         * @return <code>true</code> for a metric row of the aggregation, see
+         *         {@link PtpAggregateMetrics#isInternal(String)}
+         */
+        public boolean isInternal() {
+            return PtpAggregateMetrics.isInternal(label);
+        }
+    }
+
+    /**
+     * @param stream binary agg file content, closed by {@link #close()}
+     * @throws IOException if the content does not start with a segment header
+     */
+    public PtpBinaryAggregateReader(InputStream stream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(stream));
+        int first = in.read();
+        if (first < 0 || !readSegmentHeader(first)) {
+            throw new IOException("Not a binary agg file");
+        }
+    }
+
+    /**
+     * @return the next row, <code>null</code> at end of input
+     * @throws IOException if reading fails or the content is corrupted
+     */
+    public Row next() throws IOException {
+        while (true) {
+            int tag = in.read();
+            if (tag < 0) {
+                return null;
+            }
+            try {
+                if (tag == PtpBinaryAggregateFormat.TAG_ROW) {
+                    return readRow();
+                } else if (tag == PtpBinaryAggregateFormat.TAG_STRING) {
+                    dictionary.add(in.readUTF());
+                } else if (!readSegmentHeader(tag)) {
+                    throw new IOException("Unknown record tag: " + tag);
+                }
+            } catch (EOFException e) {
+                throw new IOException("Truncated binary agg file", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private Row readRow() throws IOException {
+        String round = string(PtpVarInts.readVarInt(in));
+        String machine = string(PtpVarInts.readVarInt(in));
+        String label = string(PtpVarInts.readVarInt(in));
+        long second = previousSecond + PtpVarInts.readSignedVarLong(in);
+        TestTimeSequenceStatistics statistics = TestTimeSequenceStatistics.readFrom(in);
+        previousSecond = second;
+        return new Row(round, machine, label, second, statistics);
+    }
+
+    private String string(int index) throws IOException {
+        if (index >= dictionary.size()) {
+            throw new IOException("Unknown string index: " + index);
+        }
+        return dictionary.get(index);
+    }
+
+    // A new segment starts with its own dictionary and second base
+    private boolean readSegmentHeader(int first) throws IOException {
+        if (first != PtpBinaryAggregateFormat.MAGIC[0]) {
+            return false;
+        }
+        for (int i = 1; i < PtpBinaryAggregateFormat.MAGIC.length; i++) {
+            if (in.read() != PtpBinaryAggregateFormat.MAGIC[i]) {
+                return false;
+            }
+        }
+        int version = in.read();
+        if (version != PtpBinaryAggregateFormat.VERSION) {
+            throw new IOException("Unsupported binary agg file version: " + version);
+        }
+        dictionary.clear();
+        previousSecond = 0L;
+        return true;
+    }
+}
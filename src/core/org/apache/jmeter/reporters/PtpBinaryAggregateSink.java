@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes closed buckets in the binary agg format described in
+ * {@link PtpBinaryAggregateFormat}. Round, machine and label are written once
+ * per segment and referenced by index, the seconds as deltas and the counters
+ * as variable length longs. Output is only flushed once per printing round.
+ */
+public class PtpBinaryAggregateSink implements PtpAggregateSink, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpBinaryAggregateSink.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_UTF_LENGTH = 65535;
+
+    private final DataOutputStream out;
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+
+    private long previousSecond;
+
+    private boolean failed;
+
+    /**
+     * Starts a new segment.
+     *
+     * @param stream where to write, closed by {@link #close()}
+     * @throws IOException if the segment header cannot be written
+     */
+    public PtpBinaryAggregateSink(OutputStream stream) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+        out.write(PtpBinaryAggregateFormat.MAGIC);
+        out.writeByte(PtpBinaryAggregateFormat.VERSION);
+    }
+
+    @Override
+    public void write(String round, String machine, String label, long second, TestTimeSequenceStatistics statistics) {
+        try {
+            int roundIndex = stringIndex(String.valueOf(round));
+            int machineIndex = stringIndex(String.valueOf(machine));
+            int labelIndex = stringIndex(label);
+            out.writeByte(PtpBinaryAggregateFormat.TAG_ROW);
+            PtpVarInts.writeVarLong(out, roundIndex);
+            PtpVarInts.writeVarLong(out, machineIndex);
+            PtpVarInts.writeVarLong(out, labelIndex);
+            PtpVarInts.writeSignedVarLong(out, second - previousSecond);
+            statistics.writeTo(out);
+            previousSecond = second;
+        } catch (IOException e) {
+            error(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            error(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private int stringIndex(String value) throws IOException {
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = Integer.valueOf(dictionary.size());
+            // Checked before the tag, writeUTF would fail after it
+            String encodable = truncateUtf(value);
+            out.writeByte(PtpBinaryAggregateFormat.TAG_STRING);
+            out.writeUTF(encodable);
+            dictionary.put(value, index);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * @return the longest prefix of <code>value</code> whose modified UTF-8
+     *         form fits the 65535 bytes of {@link java.io.DataOutput#writeUTF(String)}
+     */
+    static String truncateUtf(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+            if (length > MAX_UTF_LENGTH) {
+                // don't split a surrogate pair
+                int end = i > 0 && Character.isHighSurrogate(value.charAt(i - 1)) ? i - 1 : i;
+                log.warn("Truncated a string of " + value.length() + " chars to " + end
+                        + " to fit the binary agg format: " + value.substring(0, 64) + "...");
+                return value.substring(0, end);
+            }
+        }
+        return value;
+    }
+
+    private void error(IOException e) {
+        // PrintWriter like: keep going, but tell once
+        if (!failed) {
+            failed = true;
+            log.error("Error writing binary aggregate rows", e);
+        }
+    }
+}
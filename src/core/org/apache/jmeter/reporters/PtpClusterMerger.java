@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the per-second buckets of many load generators into cluster-wide
+ * rows, one per label and second, written with the machine id
+ * {@value #CLUSTER_MACHINE}.
+ * <p>
+ * Buckets come from sources: a remote engine over RMI, a socket connection or
+ * an agg file. Counters are added up, so they are exact. The RT detail of the
+ * merged rows is a {@link PtpLatencyHistogram} whose percentiles are within
+ * a relative error of <code>2^-p</code>, <code>p</code> being the smallest of
+ * the merger precision and the precisions received; exact RT details are
+ * merged without further loss.
+ * <p>
+ * A second is written once every active source has sent a later second, or
+ * once it is <code>maxDelayMillis</code> old, whichever comes first. A source
+ * joins with its first bucket and leaves when it ends or has been silent for
+ * <code>sourceTimeoutMillis</code>, so generators can be added or removed
+ * during a round without blocking the others. Buckets arriving for a second
+ * already written are written as correction rows, which add up with the rows
+ * already written for the same label and second.
+ * <p>
+ * The metric rows of the aggregation of each source, see
+ * {@link PtpAggregateMetrics#isInternal(String)}, are not merged: they
+ * describe one engine, not the traffic.
+ */
+public class PtpClusterMerger {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpClusterMerger.class);
+
+    /** Machine id of the merged rows */
+    public static final String CLUSTER_MACHINE = "cluster"; //$NON-NLS-1$
+
+    private final PtpAggregateSink sink;
+
+    private final int histogramPrecision;
+
+    private final long maxDelayMillis;
+
+    private final long sourceTimeoutMillis;
+
+    //@GuardedBy("this") seconds not written yet, by label
+    private final TreeMap<Long, Map<String, Bucket>> openSeconds = new TreeMap<>();
+
+    //@GuardedBy("this")
+    private final Map<String, Source> sources = new HashMap<>();
+
+    //@GuardedBy("this")
+    private long lastWrittenSecond = Long.MIN_VALUE;
+
+    //@GuardedBy("this")
+    private long lateRequests;
+
+    private static final class Source {
+        long lastSecond = Long.MIN_VALUE;
+        long lastSeenMillis;
+    }
+
+    private static final class Bucket {
+        final String round;
+        final TestTimeSequenceStatistics statistics;
+
+        Bucket(String round, TestTimeSequenceStatistics statistics) {
+            this.round = round;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * @param sink where to write the merged rows
+     * @param histogramPrecision precision of the merged RT histograms
+     * @param maxDelayMillis longest a second waits for silent sources
+     * @param sourceTimeoutMillis silence after which a source is considered gone
+     */
+    public PtpClusterMerger(PtpAggregateSink sink, int histogramPrecision, long maxDelayMillis, long sourceTimeoutMillis) {
+        if (histogramPrecision < 1 || histogramPrecision > PtpLatencyHistogram.MAX_PRECISION) {
+            throw new IllegalArgumentException("Histogram precision must be between 1 and "
+                    + PtpLatencyHistogram.MAX_PRECISION + ", got " + histogramPrecision);
+        }
+        this.sink = sink;
+        this.histogramPrecision = histogramPrecision;
+        this.maxDelayMillis = maxDelayMillis;
+        this.sourceTimeoutMillis = sourceTimeoutMillis;
+    }
+
+    /**
+     * Adds the buckets of a source. The buckets of a source are expected in
+     * ascending second order, apart from correction rows.
+     *
+     * @param source identifies the sender, e.g. its host
+     * @param rows closed buckets of the source
+     * @param now current time in milliseconds
+     */
+    public synchronized void add(String source, List<PtpBinaryAggregateReader.Row> rows, long now) {
+        Source state = sources.get(source);
+        if (state == null) {
+            state = new Source();
+            sources.put(source, state);
+            log.info("Source {} joined the cluster merge", source);
+        }
+        state.lastSeenMillis = now;
+        for (PtpBinaryAggregateReader.Row row : rows) {
+            if (row.isInternal()) {
+                continue;
+            }
+            state.lastSecond = Math.max(state.lastSecond, row.getSecond());
+            if (row.getSecond() <= lastWrittenSecond) {
+                sink.write(row.getRound(), CLUSTER_MACHINE, row.getLabel(), row.getSecond(), copy(row.getStatistics()));
+                lateRequests += row.getStatistics().getRequestCount();
+                continue;
+            }
+            Long key = Long.valueOf(row.getSecond());
+            Map<String, Bucket> labels = openSeconds.get(key);
+            if (labels == null) {
+                labels = new HashMap<>();
+                openSeconds.put(key, labels);
+            }
+            Bucket bucket = labels.get(row.getLabel());
+            if (bucket == null) {
+                labels.put(row.getLabel(), new Bucket(row.getRound(), copy(row.getStatistics())));
+            } else {
+                bucket.statistics.merge(row.getStatistics());
+            }
+        }
+    }
+
+    /**
+     * The source will not send any more bucket, its seconds no longer wait for it.
+     *
+     * @param source identifies the sender
+     */
+    public synchronized void sourceEnded(String source) {
+        if (sources.remove(source) != null) {
+            log.info("Source {} left the cluster merge", source);
+        }
+    }
+
+    /**
+     * Writes the seconds that no active source can still contribute to.
+     *
+     * @param now current time in milliseconds
+     */
+    public synchronized void advance(long now) {
+        for (Iterator<Map.Entry<String, Source>> it = sources.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Source> entry = it.next();
+            if (now - entry.getValue().lastSeenMillis > sourceTimeoutMillis) {
+                it.remove();
+                log.warn("Source {} timed out, removed from the cluster merge", entry.getKey());
+            }
+        }
+        long complete = Long.MAX_VALUE;
+        for (Source source : sources.values()) {
+            complete = Math.min(complete, source.lastSecond);
+        }
+        while (!openSeconds.isEmpty()) {
+            long second = openSeconds.firstKey().longValue();
+            // elapsed time compared to the delay so that Long.MAX_VALUE does not overflow
+            if (second >= complete && now - (second + 1L) * 1000L < maxDelayMillis) {
+                break;
+            }
+            write(second);
+        }
+        flushLateRequests();
+        sink.flush();
+    }
+
+    /**
+     * Writes every second still open, at test end.
+     */
+    public synchronized void flush() {
+        while (!openSeconds.isEmpty()) {
+            write(openSeconds.firstKey().longValue());
+        }
+        flushLateRequests();
+        sink.flush();
+    }
+
+    /**
+     * @return the number of sources currently taking part in the merge
+     */
+    public synchronized int getSourceCount() {
+        return sources.size();
+    }
+
+    private void write(long second) {
+        Map<String, Bucket> labels = openSeconds.remove(Long.valueOf(second));
+        for (Map.Entry<String, Bucket> entry : labels.entrySet()) {
+            sink.write(entry.getValue().round, CLUSTER_MACHINE, entry.getKey(), second, entry.getValue().statistics);
+        }
+        lastWrittenSecond = Math.max(lastWrittenSecond, second);
+    }
+
+    private void flushLateRequests() {
+        if (lateRequests > 0) {
+            log.warn("{} requests received after their second was merged, written as correction rows", lateRequests);
+            lateRequests = 0;
+        }
+    }
+
+    private TestTimeSequenceStatistics copy(TestTimeSequenceStatistics statistics) {
+        TestTimeSequenceStatistics copy = new TestTimeSequenceStatistics(histogramPrecision);
+        copy.merge(statistics);
+        return copy;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Streaming reader of the text agg layouts described in
+ * {@link PtpAggregateRowFormat}, the counterpart of
+ * {@link PtpBinaryAggregateReader} for the default format. The percentile
+ * columns of version 2 rows are ignored, the RT detail column holds all the
+ * information they are computed from.
+ */
+public class PtpCsvAggregateReader implements Closeable {
+
+    // sumRt,maxRt,rtDetail,errors,requests
+    private static final int BASE_STATISTICS_COLUMNS = 5;
+
+    // the same followed by 1xx...newConnections
+    private static final int HTTP_STATISTICS_COLUMNS = 19;
+
+    private final BufferedReader in;
+
+    // columns after the label in version 2 rows, 0 until a header is read
+    private int version2Columns;
+
+    private long lineNumber;
+
+    public PtpCsvAggregateReader(Reader reader) {
+        this.in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * @return the next row, <code>null</code> at end of input
+     * @throws IOException if reading fails or a row is not valid
+     */
+    public PtpBinaryAggregateReader.Row next() throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.startsWith(PtpAggregateRowFormat.HEADER_PREFIX)) {
+                // #v2,round,machine,label,second,... : the columns after the label
+                // #v1 : back to the variable layout of version 1
+                version2Columns = line.startsWith(PtpAggregateRowFormat.HEADER_PREFIX + PtpAggregateRowFormat.VERSION_1)
+                        ? 0 : line.split(ResultCollector.COMMA_DELIMITER, -1).length - 4;
+                continue;
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                return parse(line.split(ResultCollector.COMMA_DELIMITER, -1));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IOException("Invalid agg row at line " + lineNumber + ": " + line, e);
+            }
+        }
+        return null;
+    }
+
+    private PtpBinaryAggregateReader.Row parse(String[] columns) {
+        // Labels may contain the delimiter, the number of columns after them is known
+        int after;
+        if (version2Columns > 0) {
+            after = version2Columns;
+        } else if (columns.length >= 3 + 1 + HTTP_STATISTICS_COLUMNS) {
+            after = 1 + HTTP_STATISTICS_COLUMNS;
+        } else {
+            after = 1 + BASE_STATISTICS_COLUMNS;
+        }
+        int secondIndex = columns.length - after;
+        if (secondIndex < 3) {
+            throw new IllegalArgumentException("Expected at least " + (after + 3) + " columns, got " + columns.length);
+        }
+        String label = StringUtils.join(columns, ResultCollector.COMMA_DELIMITER, 2, secondIndex);
+        return new PtpBinaryAggregateReader.Row(columns[0], columns[1], label, Long.parseLong(columns[secondIndex]),
+                TestTimeSequenceStatistics.parseColumns(columns, secondIndex + 1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes closed buckets as text rows laid out by {@link PtpAggregateRowFormat}.
+ */
+public class PtpCsvAggregateSink implements PtpAggregateSink {
+
+    private final PrintWriter out;
+
+    private final PtpAggregateRowFormat rowFormat;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    public PtpCsvAggregateSink(PrintWriter out, PtpAggregateRowFormat rowFormat) {
+        this.out = out;
+        this.rowFormat = rowFormat;
+    }
+
+    @Override
+    public void write(String round, String machine, String label, long second, TestTimeSequenceStatistics statistics) {
+        rowFormat.appendRow(buffer, round, machine, label, second, statistics);
+        out.println(buffer.toString());
+        buffer.setLength(0);
+    }
+
+    @Override
+    public void flush() {
+        // the writer flushes according to its own policy
+    }
+}
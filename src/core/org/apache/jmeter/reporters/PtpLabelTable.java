@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns sample labels into dense int ids, so the per-second statistics can
+ * be indexed by label id instead of by String keys.
+ * <p>
+ * Looking up a known label is a single lock free map read, only the first
+ * occurrence of a label takes the table monitor.
+ * <p>
+ * The number of distinct labels can be capped: once the cap is reached, new
+ * labels are not interned but share the id of {@link #OTHER_LABEL}, so
+ * dynamic labels (URLs with ids, per user transaction names) cannot make the
+ * table and the per-label statistics grow without bound.
+ */
+public class PtpLabelTable {
+
+    /** Label of the statistics of the labels over the cap */
+    public static final String OTHER_LABEL = "__other__"; //$NON-NLS-1$
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private final int maxLabels;
+
+    // id of OTHER_LABEL, -1 until interned
+    private volatile int otherId = -1;
+
+    //@GuardedBy("this") for writes
+    private volatile String[] labels = new String[16];
+
+    //@GuardedBy("this") for writes
+    private volatile int size;
+
+    public PtpLabelTable() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxLabels maximum number of distinct labels, not counting {@link #OTHER_LABEL}
+     */
+    public PtpLabelTable(int maxLabels) {
+        if (maxLabels < 1) {
+            throw new IllegalArgumentException("Maximum number of labels must be positive, got " + maxLabels);
+        }
+        this.maxLabels = maxLabels;
+    }
+
+    /**
+     * Returns the id of a label, allocating the next free id the first time
+     * the label is seen, or the id of {@link #OTHER_LABEL} if the table is full.
+     *
+     * @param label the sample label
+     * @return the id of <code>label</code>
+     */
+    public int idOf(String label) {
+        Integer id = ids.get(label);
+        if (id != null) {
+            return id.intValue();
+        }
+        final int other = otherId;
+        if (other >= 0 && size - 1 >= maxLabels) {
+            // full, don't take the monitor for each sample of the labels over the cap
+            return other;
+        }
+        synchronized (this) {
+            id = ids.get(label);
+            if (id != null) {
+                return id.intValue();
+            }
+            if (size - (otherId >= 0 ? 1 : 0) >= maxLabels) {
+                return otherId();
+            }
+            return intern(label);
+        }
+    }
+
+    /**
+     * @return the id of {@link #OTHER_LABEL}, interned if needed even when the table is full
+     */
+    public int otherId() {
+        final int id = otherId;
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (this) {
+            if (otherId < 0) {
+                Integer existing = ids.get(OTHER_LABEL);
+                otherId = existing != null ? existing.intValue() : intern(OTHER_LABEL);
+            }
+            return otherId;
+        }
+    }
+
+    //@GuardedBy("this")
+    private int intern(String label) {
+        int newId = size;
+        String[] current = labels;
+        if (newId == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[newId] = label;
+        labels = current;
+        size = newId + 1;
+        ids.put(label, Integer.valueOf(newId));
+        if (OTHER_LABEL.equals(label)) {
+            // samples labelled __other__ share the bucket of the labels over the cap
+            otherId = newId;
+        }
+        return newId;
+    }
+
+    /**
+     * @param id a label id returned by {@link #idOf(String)}
+     * @return <code>true</code> if <code>id</code> is the id of {@link #OTHER_LABEL}
+     */
+    public boolean isOther(int id) {
+        return id == otherId;
+    }
+
+    /**
+     * @param id a label id returned by {@link #idOf(String)}
+     * @return the label of <code>id</code>
+     */
+    public String getLabel(int id) {
+        return labels[id];
+    }
+
+    /**
+     * @return the number of interned labels, ids range from 0 to size - 1
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of response times (milliseconds) with bounded
+ * relative error and bounded memory.
+ * <p>
+ * With a precision of <code>p</code> bits, values below <code>2^p</code> are
+ * counted exactly; above, every power of two range <code>[2^e, 2^(e+1))</code>
+ * is split into <code>2^p</code> buckets of equal width, so a value is known
+ * within a relative error of <code>2^-p</code> (3.1% for the default
+ * precision of 5). Values of <code>2^{@value #MAX_EXPONENT}</code> ms or more
+ * are counted in the last bucket. The bucket array only grows up to the
+ * largest value seen and never exceeds
+ * <code>2^p * ({@value #MAX_EXPONENT} - p + 1)</code> ints, however many
+ * distinct values are recorded.
+ * <p>
+ * Compact serialization, used for the RT detail column of the agg file:
+ * <pre>
+ * histogram := 'H' precision ( '|' delta [ ':' count ] )*
+ * </pre>
+ * where <code>delta</code> is the bucket index minus the index of the previous
+ * non empty bucket (the first one is relative to 0) and <code>count</code>,
+ * omitted when 1, is the number of values in the bucket. For example
+ * <code>H5|3|2:4</code> means one value of 3 ms and four values of 5 ms.
+ * Use {@link #lowestValueAt(int)} and {@link #highestValueAt(int)} to
+ * convert a bucket index back to milliseconds.
+ * <p>
+ * Not thread-safe.
+ */
+public class PtpLatencyHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Values at or above 2^MAX_EXPONENT ms (about 24 days) share the last bucket */
+    public static final int MAX_EXPONENT = 31;
+
+    public static final int DEFAULT_PRECISION = 5;
+
+    public static final int MAX_PRECISION = 10;
+
+    private static final char PREFIX = 'H';
+
+    private static final char PAIR_SEPARATOR = '|';
+
+    private static final char COUNT_SEPARATOR = ':';
+
+    private final int precision;
+
+    private final int subBuckets;
+
+    private final int maxIndex;
+
+    private int[] counts = new int[0];
+
+    private long totalCount;
+
+    public PtpLatencyHistogram() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision number of bits of precision, between 1 and {@value #MAX_PRECISION}
+     */
+    public PtpLatencyHistogram(int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Histogram precision must be between 1 and "
+                    + MAX_PRECISION + ", got " + precision);
+        }
+        this.precision = precision;
+        this.subBuckets = 1 << precision;
+        this.maxIndex = indexOf((1L << MAX_EXPONENT) - 1);
+    }
+
+    /**
+     * @param value response time in ms, negative values are counted as 0
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * @param value response time in ms, negative values are counted as 0
+     * @param count number of occurrences of <code>value</code>
+     */
+    public void record(long value, int count) {
+        int index = value <= 0 ? 0 : Math.min(indexOf(value), maxIndex);
+        ensureCapacity(index);
+        counts[index] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Adds all the values of another histogram of the same precision.
+     *
+     * @param other histogram to add, left unchanged
+     */
+    public void merge(PtpLatencyHistogram other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge histograms of precision "
+                    + other.precision + " into precision " + precision);
+        }
+        ensureCapacity(other.counts.length - 1);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Adds all the values of a histogram of any precision, each counted at
+     * the lowest value of its bucket. The relative error of the result is the
+     * one of the coarser of both precisions.
+     *
+     * @param other histogram to add, left unchanged
+     */
+    public void mergeRebinned(PtpLatencyHistogram other) {
+        if (other.precision == precision) {
+            merge(other);
+            return;
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] != 0) {
+                record(other.lowestValueAt(i), other.counts[i]);
+            }
+        }
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return number of buckets currently allocated
+     */
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    /**
+     * @param index bucket index
+     * @return number of values in the bucket
+     */
+    public int getCountAt(int index) {
+        return index < counts.length ? counts[index] : 0;
+    }
+
+    /**
+     * @param index bucket index
+     * @return the smallest value counted in the bucket
+     */
+    public long lowestValueAt(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int exponent = (index >> precision) - 1 + precision;
+        long subBucket = subBuckets + (index & (subBuckets - 1));
+        return subBucket << (exponent - precision);
+    }
+
+    /**
+     * @param index bucket index
+     * @return the largest value counted in the bucket
+     */
+    public long highestValueAt(int index) {
+        return lowestValueAt(index + 1) - 1;
+    }
+
+    /**
+     * Index of the bucket holding a value:
+     * the value itself below 2^p, otherwise
+     * <code>2^p * (e - p + 1) + (value &gt;&gt; (e - p)) - 2^p</code>
+     * where <code>e</code> is the exponent of the highest bit of the value.
+     */
+    int indexOf(long value) {
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - precision;
+        return ((shift + 1) << precision) + (int) (value >>> shift) - subBuckets;
+    }
+
+    private void ensureCapacity(int index) {
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.min(maxIndex + 1, Math.max(index + 1, counts.length * 2)));
+        }
+    }
+
+    /**
+     * @return the compact serialization described in the class comment
+     */
+    public String toCompactString() {
+        StringBuilder sb = new StringBuilder(8 + counts.length);
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the compact serialization described in the class comment.
+     *
+     * @param sb where to append
+     */
+    public void appendTo(StringBuilder sb) {
+        sb.append(PREFIX).append(precision);
+        int previous = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            sb.append(PAIR_SEPARATOR).append(i - previous);
+            if (counts[i] != 1) {
+                sb.append(COUNT_SEPARATOR).append(counts[i]);
+            }
+            previous = i;
+        }
+    }
+
+    /**
+     * @param text a value of the RT detail column
+     * @return <code>true</code> if <code>text</code> is a serialized histogram
+     *         rather than the legacy <code>rt:count|rt:count</code> detail
+     */
+    public static boolean isCompactString(String text) {
+        return text != null && text.length() > 1 && text.charAt(0) == PREFIX;
+    }
+
+    /**
+     * Parses the compact serialization described in the class comment.
+     *
+     * @param text serialized histogram
+     * @return the histogram
+     * @throws IllegalArgumentException if <code>text</code> is not a serialized histogram
+     */
+    public static PtpLatencyHistogram fromCompactString(String text) {
+        if (!isCompactString(text)) {
+            throw new IllegalArgumentException("Not a serialized histogram: " + text);
+        }
+        int end = text.indexOf(PAIR_SEPARATOR);
+        if (end < 0) {
+            end = text.length();
+        }
+        try {
+            PtpLatencyHistogram histogram = new PtpLatencyHistogram(Integer.parseInt(text.substring(1, end)));
+            int index = 0;
+            int start = end + 1;
+            while (start < text.length()) {
+                end = text.indexOf(PAIR_SEPARATOR, start);
+                if (end < 0) {
+                    end = text.length();
+                }
+                int colon = text.indexOf(COUNT_SEPARATOR, start);
+                int count = 1;
+                if (colon >= 0 && colon < end) {
+                    index += Integer.parseInt(text.substring(start, colon));
+                    count = Integer.parseInt(text.substring(colon + 1, end));
+                } else {
+                    index += Integer.parseInt(text.substring(start, end));
+                }
+                histogram.ensureCapacity(index);
+                histogram.counts[index] += count;
+                histogram.totalCount += count;
+                start = end + 1;
+            }
+            return histogram;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid serialized histogram: " + text, e);
+        }
+    }
+
+    /**
+     * Writes the binary form: the precision followed by
+     * {@link #writeBucketsTo(DataOutput)}.
+     *
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        PtpVarInts.writeVarLong(out, precision);
+        writeBucketsTo(out);
+    }
+
+    /**
+     * Writes the buckets as the number of non empty buckets followed by the
+     * same index deltas and counts as the compact serialization, all as
+     * variable length longs.
+     *
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    void writeBucketsTo(DataOutput out) throws IOException {
+        int nonEmpty = 0;
+        for (int count : counts) {
+            if (count != 0) {
+                nonEmpty++;
+            }
+        }
+        PtpVarInts.writeVarLong(out, nonEmpty);
+        int previous = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                PtpVarInts.writeVarLong(out, i - previous);
+                PtpVarInts.writeVarLong(out, counts[i]);
+                previous = i;
+            }
+        }
+    }
+
+    /**
+     * Reads the binary form written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in where to read
+     * @return the histogram
+     * @throws IOException if reading fails or the data is not a histogram
+     */
+    public static PtpLatencyHistogram readFrom(DataInput in) throws IOException {
+        PtpLatencyHistogram histogram = newHistogram(PtpVarInts.readVarInt(in));
+        histogram.readBucketsFrom(in);
+        return histogram;
+    }
+
+    /**
+     * @param precision precision read from a binary form
+     * @return an empty histogram of this precision
+     * @throws IOException if the precision is out of range
+     */
+    static PtpLatencyHistogram newHistogram(int precision) throws IOException {
+        try {
+            return new PtpLatencyHistogram(precision);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid histogram", e);
+        }
+    }
+
+    /**
+     * Adds the buckets written by {@link #writeBucketsTo(DataOutput)}.
+     *
+     * @param in where to read
+     * @throws IOException if reading fails or a bucket is out of range
+     */
+    void readBucketsFrom(DataInput in) throws IOException {
+        int nonEmpty = PtpVarInts.readVarInt(in);
+        int index = 0;
+        for (int i = 0; i < nonEmpty; i++) {
+            index += PtpVarInts.readVarInt(in);
+            int count = PtpVarInts.readVarInt(in);
+            if (index > maxIndex) {
+                throw new IOException("Histogram bucket out of range: " + index);
+            }
+            ensureCapacity(index);
+            counts[index] += count;
+            totalCount += count;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toCompactString();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Identity of this node, written as the machine id of the agg rows.
+ * <p>
+ * The identity is resolved when the engine starts, by asking the sources
+ * listed in <code>ptp.node.id.sources</code> in turn until one knows it:
+ * <ul>
+ * <li><code>property</code>: the <code>ptp.node.id</code> property</li>
+ * <li><code>file</code>: the first line of <code>ptp.node.id.file</code>,
+ * <code>/etc/nagent_sn</code> by default</li>
+ * <li><code>env</code>: the environment variable named by
+ * <code>ptp.node.id.env</code>, <code>PTP_NODE_ID</code> by default</li>
+ * <li><code>hostname</code>: the local host name</li>
+ * <li>the class name of a {@link Source} implementation</li>
+ * </ul>
+ * The result is cached until the next engine start, including
+ * {@link #UNKNOWN} when no source knows the identity, so the samples never
+ * pay for the lookup.
+ * <p>
+ * Remote engines announce their identity to the controller when their test
+ * starts, see {@link #remoteNodeIdentified(String, String)}.
+ */
+public final class PtpNodeIdentity {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpNodeIdentity.class);
+
+    /** Identity of a node none of the sources could identify */
+    public static final String UNKNOWN = "-1"; //$NON-NLS-1$
+
+    private static final String DEFAULT_SOURCES = "property,file,env"; //$NON-NLS-1$
+
+    /**
+     * A way of finding the identity of this node.
+     */
+    public interface Source {
+        /**
+         * @return the identity of this node, <code>null</code> or blank if unknown
+         */
+        String getNodeId();
+    }
+
+    private static volatile String nodeId;
+
+    // identities announced by remote engines, by host
+    private static final ConcurrentMap<String, String> remoteNodeIds = new ConcurrentHashMap<>();
+
+    private PtpNodeIdentity() {
+    }
+
+    /**
+     * Resolves the identity of this node again from the configured sources,
+     * called when the engine starts.
+     *
+     * @return the identity, {@link #UNKNOWN} if no source knows it
+     */
+    public static synchronized String resolve() {
+        String sources = JMeterUtils.getPropDefault("ptp.node.id.sources", DEFAULT_SOURCES); //$NON-NLS-1$
+        String resolved = resolve(StringUtils.split(sources, ", ")); //$NON-NLS-1$
+        if (!resolved.equals(nodeId)) {
+            log.info("Node identity: {}", resolved);
+        }
+        nodeId = resolved;
+        return resolved;
+    }
+
+    /**
+     * @return the identity resolved at engine start, resolved now if the
+     *         engine has not started yet
+     */
+    public static String get() {
+        String current = nodeId;
+        return current != null ? current : resolve();
+    }
+
+    static String resolve(String[] sources) {
+        for (String source : sources) {
+            String id = null;
+            try {
+                id = createSource(source).getNodeId();
+            } catch (RuntimeException e) {
+                log.warn("Node identity source " + source + " failed", e);
+            }
+            if (StringUtils.isNotBlank(id)) {
+                return id.trim();
+            }
+        }
+        return UNKNOWN;
+    }
+
+    static Source createSource(String name) {
+        switch (name) {
+        case "property": //$NON-NLS-1$
+            return new Source() {
+                @Override
+                public String getNodeId() {
+                    return JMeterUtils.getProperty("ptp.node.id"); //$NON-NLS-1$
+                }
+            };
+        case "file": //$NON-NLS-1$
+            return new Source() {
+                @Override
+                public String getNodeId() {
+                    return readFirstLine(new File(JMeterUtils.getPropDefault("ptp.node.id.file", "/etc/nagent_sn"))); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            };
+        case "env": //$NON-NLS-1$
+            return new Source() {
+                @Override
+                public String getNodeId() {
+                    return System.getenv(JMeterUtils.getPropDefault("ptp.node.id.env", "PTP_NODE_ID")); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            };
+        case "hostname": //$NON-NLS-1$
+            return new Source() {
+                @Override
+                public String getNodeId() {
+                    return JMeterUtils.getLocalHostName();
+                }
+            };
+        default:
+            try {
+                return (Source) Class.forName(name).newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Unknown node identity source " + name, e);
+            }
+        }
+    }
+
+    private static String readFirstLine(File file) {
+        if (!file.canRead()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            return reader.readLine();
+        } catch (IOException e) {
+            log.warn("Could not read the node identity from " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Records the identity announced by a remote engine.
+     *
+     * @param host the host name of the engine
+     * @param id its identity
+     */
+    public static void remoteNodeIdentified(String host, String id) {
+        String previous = remoteNodeIds.put(host, id);
+        if (!id.equals(previous)) {
+            log.info("Engine " + host + " identified as node " + id);
+        }
+    }
+
+    /**
+     * @param host the host name of a remote engine
+     * @return the identity announced by the engine, <code>host</code> if it
+     *         did not announce a known one
+     */
+    public static String getRemoteNodeId(String host) {
+        String id = remoteNodeIds.get(host);
+        return id != null && !UNKNOWN.equals(id) ? id : host;
+    }
+}
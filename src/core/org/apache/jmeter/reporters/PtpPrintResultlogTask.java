@@ -1,20 +1,14 @@
 package org.apache.jmeter.reporters;
 
 import java.io.PrintWriter;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicStampedReference;
-import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-
-import static org.apache.jmeter.reporters.ResultCollector.COMMA_DELIMITER;
-
 /**
  * 
  * PtpPrintResultlogTask.
@@ -23,70 +17,277 @@ import static org.apache.jmeter.reporters.ResultCollector.COMMA_DELIMITER;
  */
 public class PtpPrintResultlogTask implements Runnable{
     private static final Logger logger = LoggerFactory.getLogger(PtpPrintResultlogTask.class);
-    private final Lock lock;
-    private static final AtomicLong startTimestamp = new AtomicLong(System.currentTimeMillis()/1000L);
-//    private AtomicLong startTimestamp;
-    private final Map<String, AtomicStampedReference<TestTimeSequenceStatistics>> m_testTimeSeqStatistics;
-    private transient volatile PrintWriter m_agg_out;
-    private final StringBuffer m_buffer_aggregate = new StringBuffer();
-    public static AtomicInteger aggregateCount = new AtomicInteger(0);
-    
-//    public PtpPrintResultlogTask(final Map<String, AtomicStampedReference<TestTimeSequenceStatistics>> m_testTimeSeqStatistics, final PrintWriter agg_out, final Lock lock, AtomicLong startTimestamp) {
-    public PtpPrintResultlogTask(final Map<String, AtomicStampedReference<TestTimeSequenceStatistics>> m_testTimeSeqStatistics, final PrintWriter agg_out, final Lock lock) {
-        this.m_testTimeSeqStatistics = m_testTimeSeqStatistics;
-        this.m_agg_out = agg_out;
-        this.lock = lock;
-//        this.startTimestamp = startTimestamp;
+    private final PtpStripedAccumulator m_accumulator;
+    private final PtpAggregateSink m_sink;
+    private final List<PtpRollupLevel> m_rollups;
+    private final PtpWatermark m_watermark;
+    private final PtpAggregateJournal m_journal;
+    private final String m_roundId;
+    // last second closed on time, closing an older second writes correction rows
+    private volatile long m_lastClosedSecond = Long.MIN_VALUE;
+    // duration of the printing rounds
+    private volatile long lastRoundNanos;
+    private volatile long maxRoundNanos;
+    private volatile long roundCount;
+    private final AtomicLong aggregateCount = new AtomicLong(0);
+    /** Samples recorded after their second was closed, written as correction rows */
+    private final AtomicLong lateSampleCount = new AtomicLong(0);
+    
+    /** Round id of the rows when none is given */
+    public static final String UNKNOWN_ROUND = "-1";
+    
+    public PtpPrintResultlogTask(final PtpStripedAccumulator m_accumulator, final PrintWriter agg_out) {
+        this(m_accumulator, agg_out, PtpAggregateRowFormat.getDefault());
+    }
+    
+    public PtpPrintResultlogTask(final PtpStripedAccumulator m_accumulator, final PrintWriter agg_out, final PtpAggregateRowFormat rowFormat) {
+        this(m_accumulator, agg_out == null ? null : new PtpCsvAggregateSink(agg_out, rowFormat),
+                Collections.<PtpRollupLevel>emptyList(), new PtpWatermark(0L));
+    }
+    
+    /**
+     * @param m_accumulator accumulator to close the seconds of
+     * @param sink where to write the per-second rows
+     * @param rollups coarser resolutions fed with the closed seconds
+     * @param watermark tells which seconds can be closed
+     */
+    public PtpPrintResultlogTask(final PtpStripedAccumulator m_accumulator, final PtpAggregateSink sink,
+            final List<PtpRollupLevel> rollups, final PtpWatermark watermark) {
+        this(m_accumulator, sink, rollups, watermark, null);
+    }
+    
+    /**
+     * @param m_accumulator accumulator to close the seconds of
+     * @param sink where to write the per-second rows
+     * @param rollups coarser resolutions fed with the closed seconds
+     * @param watermark tells which seconds can be closed
+     * @param journal journal of the samples to commit after each round, may be <code>null</code>
+     */
+    public PtpPrintResultlogTask(final PtpStripedAccumulator m_accumulator, final PtpAggregateSink sink,
+            final List<PtpRollupLevel> rollups, final PtpWatermark watermark, final PtpAggregateJournal journal) {
+        this(m_accumulator, sink, rollups, watermark, journal, UNKNOWN_ROUND);
+    }
+    
+    /**
+     * @param m_accumulator accumulator to close the seconds of
+     * @param sink where to write the per-second rows
+     * @param rollups coarser resolutions fed with the closed seconds
+     * @param watermark tells which seconds can be closed
+     * @param journal journal of the samples to commit after each round, may be <code>null</code>
+     * @param roundId round id of the rows
+     */
+    public PtpPrintResultlogTask(final PtpStripedAccumulator m_accumulator, final PtpAggregateSink sink,
+            final List<PtpRollupLevel> rollups, final PtpWatermark watermark, final PtpAggregateJournal journal,
+            final String roundId) {
+        this.m_accumulator = m_accumulator;
+        this.m_sink = sink;
+        this.m_rollups = rollups;
+        this.m_watermark = watermark;
+        this.m_journal = journal;
+        this.m_roundId = roundId;
     }
     
     @Override
     public void run() {
         try {
-            lock.lockInterruptibly();
-            printResultLog(m_testTimeSeqStatistics);
-        } catch (final InterruptedException e) {
-            logger.error("get PtpPrintResultlogTask lock fail", e);
-        } finally {
-            lock.unlock();
+            printResultLog(m_watermark.getWatermark(System.currentTimeMillis())/1000L);
+        } catch (final RuntimeException e) {
+            // Don't let the exception cancel the scheduled printing
+            logger.error("PtpPrintResultlogTask fail", e);
         }
     }
     
-    private synchronized void printResultLog(final Map<String, AtomicStampedReference<TestTimeSequenceStatistics>> m_testTimeSeqStatistics) {
-        if(m_testTimeSeqStatistics == null || m_agg_out == null || m_testTimeSeqStatistics.size() < 1) {
+    /**
+     * Prints the remaining seconds and the incomplete rollup windows, at test end.
+     * Waits at most the allowed lateness for the samples still in flight.
+     */
+    public void printLastResultLog() {
+        printLastResultLog(true);
+    }
+
+    /**
+     * Prints the remaining seconds and the incomplete rollup windows.
+     *
+     * @param awaitIdle <code>false</code> if the caller already waited for
+     *            the samples in flight
+     */
+    public synchronized void printLastResultLog(final boolean awaitIdle) {
+        if (awaitIdle) {
+            try {
+                if (!m_watermark.awaitIdle()) {
+                    logger.warn("Samples still running after {} ms, closing all the seconds anyway", m_watermark.getMaxLatenessMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            printResultLog(Long.MAX_VALUE);
+            if (m_accumulator != null) {
+                for (PtpRollupLevel rollup : m_rollups) {
+                    rollup.flush(m_accumulator.getLabelTable());
+                }
+            }
+        } catch (final RuntimeException e) {
+            logger.error("PtpPrintResultlogTask fail", e);
+        }
+    }
+    
+    /**
+     * Closes and prints every open second before <code>watermarkSecond</code>,
+     * oldest first. Seconds at or before the last second already closed only
+     * hold late samples, they are printed as correction rows which add up with
+     * the rows already printed for the same label and second.
+     * 
+     * @param watermarkSecond first second that may still receive samples
+     */
+    synchronized void printResultLog(final long watermarkSecond) {
+        if(m_accumulator == null || m_sink == null) {
             return;
         }
-//        for(long printTime=startTimestamp.get(); printTime<(System.currentTimeMillis()/1000L); printTime=printTime+10) {
-        for(long printTime=startTimestamp.get(); printTime<(System.currentTimeMillis()/1000L); printTime=printTime+1) {
-            final Iterator<Entry<String, AtomicStampedReference<TestTimeSequenceStatistics>>> iterator = m_testTimeSeqStatistics.entrySet().iterator();
-            while (iterator.hasNext()) {
-                final Entry<String, AtomicStampedReference<TestTimeSequenceStatistics>> entry=iterator.next();  
-                if(doPrintWork(entry, printTime)) {
-                    iterator.remove();
-                } else {
-                    logger.error("printResultLog occurs a error! entry="+entry);
-                    continue;
+        final long start = System.nanoTime();
+        final PtpLabelTable labelTable = m_accumulator.getLabelTable();
+        // Samples journaled before this point are in the buckets closed below
+        final long journalSlot = m_journal == null ? 0L : m_journal.nextSlot();
+        long lateSamples = 0;
+        long printTime;
+        while((printTime = m_accumulator.oldestOpenSecond()) < watermarkSecond) {
+            final TestTimeSequenceStatistics[] closed = m_accumulator.closeSecond(printTime);
+            final boolean correction = printTime <= m_lastClosedSecond;
+            for (int labelId = 0; labelId < closed.length; labelId++) {
+                if (closed[labelId] != null) {
+                    doPrintWork(labelTable.getLabel(labelId), closed[labelId], printTime);
+                    if (correction) {
+                        lateSamples += closed[labelId].getRequestCount();
+                    }
                 }
-            } 
+            }
+            for (PtpRollupLevel rollup : m_rollups) {
+                rollup.secondClosed(printTime, closed, labelTable);
+            }
+            m_lastClosedSecond = Math.max(m_lastClosedSecond, printTime);
+        }
+        if (lateSamples > 0) {
+            lateSampleCount.addAndGet(lateSamples);
+            logger.warn("{} late samples written as correction rows, consider raising ptp.aggregate.max_lateness_ms", lateSamples);
+        }
+        m_sink.flush();
+        if (m_journal != null) {
+            m_journal.commit(journalSlot, watermarkSecond, m_roundId, ResultCollector.getMachineId(),
+                    System.currentTimeMillis());
         }
+        for (PtpRollupLevel rollup : m_rollups) {
+            rollup.advance(watermarkSecond, labelTable);
+        }
+        final long elapsed = System.nanoTime() - start;
+        lastRoundNanos = elapsed;
+        maxRoundNanos = Math.max(maxRoundNanos, elapsed);
+        roundCount++;
+    }
+    
+    /**
+     * Prints rows closed by a remote engine as they are, between two rounds
+     * of this printer.
+     * 
+     * @param rows the rows to print
+     * @param roundId round id replacing the one of the rows, unless blank
+     * @return the number of requests in <code>rows</code>
+     */
+    synchronized long printRemoteRows(final List<PtpBinaryAggregateReader.Row> rows, final String roundId) {
+        if (m_sink == null) {
+            return 0;
+        }
+        long requests = 0;
+        for (PtpBinaryAggregateReader.Row row : rows) {
+            final String round = roundId == null || roundId.isEmpty() ? row.getRound() : roundId;
+            m_sink.write(round, row.getMachine(), row.getLabel(), row.getSecond(), row.getStatistics());
+            if (row.isInternal()) {
+                // the health of the remote aggregation, not its samples
+                continue;
+            }
+            aggregateCount.addAndGet(row.getStatistics().getRequestCount());
+            requests += row.getStatistics().getRequestCount();
+        }
+        m_sink.flush();
+        return requests;
     }
     
-    private synchronized boolean doPrintWork(final Entry<String, AtomicStampedReference<TestTimeSequenceStatistics>> entry, final long printTime) {
-        if (entry == null || !entry.getKey().endsWith(String.valueOf(printTime)) || entry.getKey().split("\\|").length != 4 || entry.getValue() == null) {
-            return false;
+    /**
+     * Prints one row per metric of the aggregation itself, labelled
+     * <code>&lt;prefix&gt;.&lt;metric&gt;</code>. The value is the RT of a
+     * single successful sample, so it is found in the sumRt and maxRt columns.
+     * Such rows look like traffic and must be excluded by the consumers
+     * counting requests, see {@link PtpAggregateMetrics#isInternal(String)}.
+     * 
+     * @param prefix label prefix of the rows
+     * @param second epoch second of the rows
+     * @param metrics values by metric name
+     */
+    public synchronized void printMetrics(final String prefix, final long second, final Map<String, Long> metrics) {
+        if (m_sink == null) {
+            return;
         }
-        final String meta[] = entry.getKey().split("\\|");
-        m_buffer_aggregate.append(meta[0]).append(COMMA_DELIMITER).append(meta[1]).append(COMMA_DELIMITER).append(meta[2]).append(COMMA_DELIMITER).append(meta[3]).append(COMMA_DELIMITER);
-        m_buffer_aggregate.append(entry.getValue().getReference().getTestTime().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getMaxTestTime().get()).append(COMMA_DELIMITER)
-                          .append(entry.getValue().getReference().getTestTimes()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getErrors().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getRequestCount().get()).append(COMMA_DELIMITER);
-        if(entry.getValue().getReference().getHttpResponseLen().get() > 0) {
-            m_buffer_aggregate.append(entry.getValue().getReference().getStatus1xx().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getStatus2xx().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getStatus3xx().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getStatus4xx().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getStatus5xx().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getHttpResponseLen().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getHttpResponseErrors().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getTimeToResolveHost().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getMaxTimeToResolveHost().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getTimeToEstabishConn().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getMaxTimeToEstabishConn().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getTimeToFirstByte().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getMaxTimeToFirstByte().get()).append(COMMA_DELIMITER).append(entry.getValue().getReference().getNewConnections().get());
+        for (Map.Entry<String, Long> metric : metrics.entrySet()) {
+            final TestTimeSequenceStatistics statistics = new TestTimeSequenceStatistics(
+                    new PtpSampleRecord(second * 1000L, metric.getValue().longValue(), 0L, true, 0L, 0L, 0L));
+            m_sink.write(m_roundId, ResultCollector.getMachineId(), prefix + '.' + metric.getKey(), second, statistics);
         }
-        m_agg_out.println(m_buffer_aggregate.toString());
-        //for compare with org.apache.jmeter.reporters.ResultCollector.requestCount
-        aggregateCount.addAndGet(entry.getValue().getReference().getRequestCount().get());
-        //show thread pool status
-        m_buffer_aggregate.delete(0, m_buffer_aggregate.length());
-        return true;
+        m_sink.flush();
+    }
+    
+    /**
+     * @return the last second closed on time, {@link Long#MIN_VALUE} if none
+     */
+    public long getLastClosedSecond() {
+        return m_lastClosedSecond;
+    }
+    
+    /**
+     * @return the time spent in the last printing round, in ns
+     */
+    public long getLastRoundNanos() {
+        return lastRoundNanos;
+    }
+    
+    /**
+     * @return the longest time spent in a printing round, in ns
+     */
+    public long getMaxRoundNanos() {
+        return maxRoundNanos;
+    }
+    
+    /**
+     * @return the number of printing rounds
+     */
+    public long getRoundCount() {
+        return roundCount;
+    }
+    
+    /**
+     * @return the number of requests written by this printer
+     */
+    public long getAggregateCount() {
+        return aggregateCount.get();
+    }
+    
+    /**
+     * @return the number of requests written as correction rows by this printer
+     */
+    public long getLateSampleCount() {
+        return lateSampleCount.get();
+    }
+    
+    /**
+     * @return the round id of the rows
+     */
+    public String getRoundId() {
+        return m_roundId;
+    }
+    
+    private void doPrintWork(final String label, final TestTimeSequenceStatistics statistics, final long printTime) {
+        m_sink.write(m_roundId, ResultCollector.getMachineId(), label, printTime, statistics);
+        //for compare with the requests counted by org.apache.jmeter.reporters.ResultCollector
+        aggregateCount.addAndGet(statistics.getRequestCount());
     }
 
 }
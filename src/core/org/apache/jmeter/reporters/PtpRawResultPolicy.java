@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Selects the samples written to the raw result file of a collector which
+ * also aggregates them per second, so the agg file stays exact while the raw
+ * file only keeps the samples worth looking at.
+ * <p>
+ * A policy is a comma separated list of the following, a sample is written if
+ * any of them selects it:
+ * <ul>
+ * <li><code>all</code> - every sample, the default</li>
+ * <li><code>errors</code> - the failed samples</li>
+ * <li><code>slow[:ms]</code> - the samples with an elapsed time above the
+ * threshold, 1000 ms by default</li>
+ * <li><code>sample[:n]</code> - one sample out of n picked at random, 100 by default</li>
+ * <li><code>exemplars</code> - for each label and second, the fastest, the
+ * slowest and one picked at random; they are written once the label moves to
+ * a later second, or at test end</li>
+ * </ul>
+ * For example <code>errors,slow:2000,exemplars</code>.
+ */
+public abstract class PtpRawResultPolicy {
+
+    public static final String ALL = "all"; //$NON-NLS-1$
+
+    public static final String ERRORS = "errors"; //$NON-NLS-1$
+
+    public static final String SLOW = "slow"; //$NON-NLS-1$
+
+    public static final String SAMPLE = "sample"; //$NON-NLS-1$
+
+    public static final String EXEMPLARS = "exemplars"; //$NON-NLS-1$
+
+    private static final long DEFAULT_SLOW_MS = 1000L;
+
+    private static final int DEFAULT_SAMPLE_RATE = 100;
+
+    /**
+     * Where the selected samples are written.
+     */
+    public interface Output {
+        void write(SampleEvent event);
+    }
+
+    /**
+     * @param spec the policy, see the class comment
+     * @return the policy, <code>null</code> if every sample must be written
+     * @throws IllegalArgumentException if <code>spec</code> is not a valid policy
+     */
+    public static PtpRawResultPolicy parse(String spec) {
+        List<PtpRawResultPolicy> policies = new ArrayList<>();
+        for (String item : StringUtils.split(StringUtils.defaultString(spec), ',')) {
+            String name = StringUtils.substringBefore(item, ":").trim(); //$NON-NLS-1$
+            String parameter = item.indexOf(':') < 0 ? null : StringUtils.substringAfter(item, ":").trim(); //$NON-NLS-1$
+            try {
+                if (name.isEmpty()) {
+                    continue;
+                } else if (ALL.equals(name)) {
+                    return null;
+                } else if (ERRORS.equals(name)) {
+                    policies.add(new Errors());
+                } else if (SLOW.equals(name)) {
+                    policies.add(new Slow(parameter == null ? DEFAULT_SLOW_MS : Long.parseLong(parameter)));
+                } else if (SAMPLE.equals(name)) {
+                    policies.add(new Sample(parameter == null ? DEFAULT_SAMPLE_RATE : Integer.parseInt(parameter)));
+                } else if (EXEMPLARS.equals(name)) {
+                    policies.add(new Exemplars());
+                } else {
+                    throw new IllegalArgumentException("Unknown raw result policy '" + name + "' in " + spec);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid parameter of raw result policy '" + item + "'", e);
+            }
+        }
+        if (policies.isEmpty()) {
+            return null;
+        }
+        return policies.size() == 1 ? policies.get(0) : new AnyOf(policies);
+    }
+
+    /**
+     * Writes the sample now, later or never.
+     *
+     * @param event the sample
+     * @param output where to write the selected samples
+     */
+    public abstract void offer(SampleEvent event, Output output);
+
+    /**
+     * Writes the samples still held, at test end.
+     *
+     * @param output where to write them
+     */
+    public void flush(Output output) {
+    }
+
+    /**
+     * Policy deciding on each sample alone.
+     */
+    private abstract static class Filter extends PtpRawResultPolicy {
+        abstract boolean accept(SampleResult result);
+
+        @Override
+        public void offer(SampleEvent event, Output output) {
+            if (accept(event.getResult())) {
+                output.write(event);
+            }
+        }
+    }
+
+    private static final class Errors extends Filter {
+        @Override
+        boolean accept(SampleResult result) {
+            return !result.isSuccessful();
+        }
+    }
+
+    private static final class Slow extends Filter {
+        private final long thresholdMillis;
+
+        Slow(long thresholdMillis) {
+            this.thresholdMillis = thresholdMillis;
+        }
+
+        @Override
+        boolean accept(SampleResult result) {
+            return result.getTime() > thresholdMillis;
+        }
+    }
+
+    private static final class Sample extends Filter {
+        private final int rate;
+
+        Sample(int rate) {
+            if (rate < 1) {
+                throw new IllegalArgumentException("Sample rate must be positive, got " + rate);
+            }
+            this.rate = rate;
+        }
+
+        @Override
+        boolean accept(SampleResult result) {
+            return ThreadLocalRandom.current().nextInt(rate) == 0;
+        }
+    }
+
+    /**
+     * Writes a sample once if any policy selects it. The filters are asked
+     * first, so a sample they write is not held as an exemplar too.
+     */
+    private static final class AnyOf extends PtpRawResultPolicy {
+        private final List<Filter> filters = new ArrayList<>();
+
+        private final List<PtpRawResultPolicy> others = new ArrayList<>();
+
+        AnyOf(List<PtpRawResultPolicy> policies) {
+            for (PtpRawResultPolicy policy : policies) {
+                if (policy instanceof Filter) {
+                    filters.add((Filter) policy);
+                } else {
+                    others.add(policy);
+                }
+            }
+        }
+
+        @Override
+        public void offer(SampleEvent event, Output output) {
+            for (Filter filter : filters) {
+                if (filter.accept(event.getResult())) {
+                    output.write(event);
+                    return;
+                }
+            }
+            for (PtpRawResultPolicy other : others) {
+                other.offer(event, output);
+            }
+        }
+
+        @Override
+        public void flush(Output output) {
+            for (PtpRawResultPolicy other : others) {
+                other.flush(output);
+            }
+        }
+    }
+
+    /**
+     * Holds the exemplars of the current second of each label.
+     */
+    private static final class Exemplars extends PtpRawResultPolicy {
+
+        private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+        //@GuardedBy("this")
+        private static final class Window {
+            long second = Long.MIN_VALUE;
+            long count;
+            SampleEvent fastest;
+            SampleEvent slowest;
+            SampleEvent random;
+
+            void writeTo(Output output) {
+                if (fastest != null) {
+                    output.write(fastest);
+                }
+                if (slowest != null && slowest != fastest) {
+                    output.write(slowest);
+                }
+                if (random != null && random != fastest && random != slowest) {
+                    output.write(random);
+                }
+                count = 0;
+                fastest = null;
+                slowest = null;
+                random = null;
+            }
+        }
+
+        @Override
+        public void offer(SampleEvent event, Output output) {
+            final SampleResult result = event.getResult();
+            final String label = result.getSampleLabel();
+            Window window = windows.get(label);
+            if (window == null) {
+                if (windows.size() >= PtpStripedAccumulator.MAX_LABELS) {
+                    // as many labels as the aggregation keeps, the others have no exemplar
+                    return;
+                }
+                Window created = new Window();
+                window = windows.putIfAbsent(label, created);
+                if (window == null) {
+                    window = created;
+                }
+            }
+            final long second = result.getTimeStamp() / 1000L;
+            synchronized (window) {
+                if (second > window.second) {
+                    window.writeTo(output);
+                    window.second = second;
+                }
+                // samples of an earlier second join the current one
+                window.count++;
+                final long elapsed = result.getTime();
+                if (window.fastest == null || elapsed < window.fastest.getResult().getTime()) {
+                    window.fastest = event;
+                }
+                if (window.slowest == null || elapsed > window.slowest.getResult().getTime()) {
+                    window.slowest = event;
+                }
+                // reservoir of one: each sample of the second is kept with the same probability
+                if (ThreadLocalRandom.current().nextLong(window.count) == 0) {
+                    window.random = event;
+                }
+            }
+        }
+
+        @Override
+        public void flush(Output output) {
+            for (Window window : windows.values()) {
+                synchronized (window) {
+                    window.writeTo(output);
+                }
+            }
+        }
+    }
+}
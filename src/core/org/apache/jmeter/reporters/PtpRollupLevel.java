@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coarser resolution computed from the closed seconds, e.g. 10s or 60s windows.
+ * <p>
+ * Each closed second is merged into the window it belongs to, windows start on
+ * multiples of their size in epoch seconds. A window is written to the sink of
+ * the level as soon as all its seconds are closed, so no sample is read twice.
+ * A late second of a window already written is written as is, as a correction
+ * row of that window. Only used from the aggregate printing thread.
+ */
+public class PtpRollupLevel {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpRollupLevel.class);
+
+    private static final long NO_WINDOW = Long.MIN_VALUE;
+
+    private final int windowSeconds;
+
+    private final PtpAggregateSink sink;
+
+    private final String roundId;
+
+    private long windowStart = NO_WINDOW;
+
+    private long lastWrittenStart = NO_WINDOW;
+
+    // indexed by label id
+    private TestTimeSequenceStatistics[] window = new TestTimeSequenceStatistics[16];
+
+    /**
+     * @param windowSeconds size of the windows in seconds, at least 2
+     * @param sink where to write the closed windows
+     */
+    public PtpRollupLevel(int windowSeconds, PtpAggregateSink sink) {
+        this(windowSeconds, sink, PtpPrintResultlogTask.UNKNOWN_ROUND);
+    }
+
+    /**
+     * @param windowSeconds size of the windows in seconds, at least 2
+     * @param sink where to write the closed windows
+     * @param roundId round id of the rows
+     */
+    public PtpRollupLevel(int windowSeconds, PtpAggregateSink sink, String roundId) {
+        if (windowSeconds < 2) {
+            throw new IllegalArgumentException("Rollup windows must be at least 2 seconds, got " + windowSeconds);
+        }
+        this.windowSeconds = windowSeconds;
+        this.sink = sink;
+        this.roundId = roundId;
+    }
+
+    /**
+     * Parses the <code>ptp.aggregate.rollups</code> property. Sizes which are
+     * not numbers or are below 2 seconds are logged and skipped, so a typo
+     * never stops the listeners from loading.
+     *
+     * @param list comma separated window sizes in seconds, e.g. <code>10,60</code>
+     * @return the distinct valid sizes in ascending order, empty if <code>list</code> is blank
+     */
+    public static int[] parseWindows(String list) {
+        List<Integer> values = new ArrayList<>();
+        for (String value : StringUtils.split(StringUtils.defaultString(list), ',')) {
+            if (StringUtils.isBlank(value)) {
+                continue;
+            }
+            final Integer size;
+            try {
+                size = Integer.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring rollup window '{}' of ptp.aggregate.rollups, not a number of seconds", value.trim());
+                continue;
+            }
+            if (size.intValue() < 2) {
+                log.warn("Ignoring rollup window {} of ptp.aggregate.rollups, windows must be at least 2 seconds", size);
+                continue;
+            }
+            if (!values.contains(size)) {
+                values.add(size);
+            }
+        }
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i).intValue();
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    /**
+     * Merges a closed second into its window, writing the previous window
+     * first if the second belongs to a later one.
+     *
+     * @param second the closed epoch second
+     * @param closed statistics of the second indexed by label id
+     * @param labels table resolving the label ids
+     */
+    public void secondClosed(long second, TestTimeSequenceStatistics[] closed, PtpLabelTable labels) {
+        long start = second - mod(second);
+        if (start <= lastWrittenStart || (windowStart != NO_WINDOW && start < windowStart)) {
+            writeCorrection(start, closed, labels);
+            return;
+        }
+        if (start != windowStart) {
+            writeWindow(labels);
+            windowStart = start;
+        }
+        if (closed.length > window.length) {
+            window = Arrays.copyOf(window, Math.max(closed.length, window.length * 2));
+        }
+        for (int labelId = 0; labelId < closed.length; labelId++) {
+            TestTimeSequenceStatistics statistics = closed[labelId];
+            if (statistics == null) {
+                continue;
+            }
+            if (window[labelId] == null) {
+                window[labelId] = new TestTimeSequenceStatistics(statistics.getHistogramPrecision());
+            }
+            window[labelId].merge(statistics);
+        }
+    }
+
+    /**
+     * Writes the current window if every second before <code>currentSecond</code> is closed
+     * and the window ends before it.
+     *
+     * @param currentSecond first second that is not closed yet
+     * @param labels table resolving the label ids
+     */
+    public void advance(long currentSecond, PtpLabelTable labels) {
+        if (windowStart != NO_WINDOW && windowStart + windowSeconds <= currentSecond) {
+            writeWindow(labels);
+            windowStart = NO_WINDOW;
+        }
+        sink.flush();
+    }
+
+    /**
+     * Writes the current window even if not all its seconds are closed, at test end.
+     *
+     * @param labels table resolving the label ids
+     */
+    public void flush(PtpLabelTable labels) {
+        writeWindow(labels);
+        windowStart = NO_WINDOW;
+        sink.flush();
+    }
+
+    private void writeCorrection(long start, TestTimeSequenceStatistics[] closed, PtpLabelTable labels) {
+        for (int labelId = 0; labelId < closed.length; labelId++) {
+            if (closed[labelId] != null) {
+                sink.write(roundId, ResultCollector.getMachineId(), labels.getLabel(labelId), start, closed[labelId]);
+            }
+        }
+    }
+
+    private void writeWindow(PtpLabelTable labels) {
+        if (windowStart == NO_WINDOW) {
+            return;
+        }
+        lastWrittenStart = Math.max(lastWrittenStart, windowStart);
+        for (int labelId = 0; labelId < window.length; labelId++) {
+            if (window[labelId] != null) {
+                sink.write(roundId, ResultCollector.getMachineId(), labels.getLabel(labelId), windowStart, window[labelId]);
+                window[labelId] = null;
+            }
+        }
+    }
+
+    private long mod(long second) {
+        long mod = second % windowSeconds;
+        return mod < 0 ? mod + windowSeconds : mod;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * The fields of one sample that take part in the per-second aggregation,
+ * held as primitives.
+ * <p>
+ * Instances are either read straight from a {@link SampleResult} or parsed
+ * from a CSV result line, so both aggregation modes of
+ * {@link ResultCollector} feed the same statistics code.
+ */
+public final class PtpSampleRecord {
+
+    /** Response code used when the sampler did not return a numeric one */
+    static final long NON_NUMERIC_RESPONSE_CODE = 504L;
+
+    // Longest digit string that always fits into a long
+    private static final int MAX_CODE_DIGITS = 18;
+
+    private final long timeStamp;
+    private final long elapsed;
+    private final long responseCode;
+    private final long errors;
+    private final long bytes;
+    private final long latency;
+    private final long connectTime;
+
+    public PtpSampleRecord(long timeStamp, long elapsed, long responseCode, boolean success,
+            long bytes, long latency, long connectTime) {
+        this.timeStamp = timeStamp;
+        this.elapsed = elapsed;
+        this.responseCode = responseCode;
+        this.errors = success ? 0L : 1L;
+        this.bytes = bytes;
+        this.latency = latency;
+        this.connectTime = connectTime;
+    }
+
+    /**
+     * Reads the aggregated fields directly from a sample, without going
+     * through its CSV representation.
+     *
+     * @param result the sample to read
+     * @return the record holding the fields of <code>result</code>
+     */
+    public static PtpSampleRecord fromSampleResult(SampleResult result) {
+        return new PtpSampleRecord(result.getTimeStamp(), result.getTime(),
+                parseResponseCode(result.getResponseCode()), result.isSuccessful(),
+                result.getBytesAsLong(), result.getLatency(), result.getConnectTime());
+    }
+
+    /**
+     * Converts a response code to a number without allocating.
+     * Codes that are not purely numeric (e.g. "Non HTTP response code: ...")
+     * are mapped to {@link #NON_NUMERIC_RESPONSE_CODE}, as the CSV mode does.
+     *
+     * @param code the response code, may be <code>null</code>
+     * @return the numeric code
+     */
+    static long parseResponseCode(String code) {
+        if (code == null) {
+            return NON_NUMERIC_RESPONSE_CODE;
+        }
+        int start = 0;
+        int end = code.length();
+        while (start < end && code.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && code.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end || end - start > MAX_CODE_DIGITS) {
+            return NON_NUMERIC_RESPONSE_CODE;
+        }
+        long value = 0L;
+        for (int i = start; i < end; i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') {
+                return NON_NUMERIC_RESPONSE_CODE;
+            }
+            value = value * 10L + (c - '0');
+        }
+        return value;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public long getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return 0 for a successful sample, 1 otherwise
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    @Override
+    public String toString() {
+        return "PtpSampleRecord [timeStamp=" + timeStamp + ", elapsed=" + elapsed + ", responseCode="
+                + responseCode + ", errors=" + errors + ", bytes=" + bytes + ", latency=" + latency
+                + ", connectTime=" + connectTime + "]";
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+/**
+ * Ring buffer of the open seconds of one label, indexed by the second itself
+ * (modulo the capacity).
+ * <p>
+ * The capacity doubles when two open seconds would share a slot, which only
+ * happens if samples arrive for seconds further apart than the current
+ * capacity, so no bucket is ever overwritten.
+ * Not thread-safe, guarded by the owning stripe of {@link PtpStripedAccumulator}.
+ */
+final class PtpSecondRing {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] seconds;
+
+    private TestTimeSequenceStatistics[] buckets;
+
+    private int open;
+
+    private final int histogramPrecision;
+
+    /**
+     * @param capacity initial number of slots, must be a power of two
+     * @param histogramPrecision RT histogram precision of the buckets,
+     *            0 to count each distinct RT value
+     */
+    PtpSecondRing(int capacity, int histogramPrecision) {
+        this.histogramPrecision = histogramPrecision;
+        allocate(capacity);
+    }
+
+    /**
+     * Returns the bucket of a second, creating it if the second is not open yet.
+     *
+     * @param second epoch second
+     * @return the bucket of <code>second</code>
+     */
+    TestTimeSequenceStatistics bucket(long second) {
+        int index = indexOf(second);
+        if (seconds[index] == second) {
+            return buckets[index];
+        }
+        if (seconds[index] != EMPTY) {
+            grow(second);
+            index = indexOf(second);
+        }
+        seconds[index] = second;
+        TestTimeSequenceStatistics bucket = new TestTimeSequenceStatistics(histogramPrecision);
+        buckets[index] = bucket;
+        open++;
+        return bucket;
+    }
+
+    /**
+     * @param second epoch second
+     * @return the bucket of <code>second</code>, <code>null</code> if the second is not open
+     */
+    TestTimeSequenceStatistics get(long second) {
+        int index = indexOf(second);
+        return seconds[index] == second ? buckets[index] : null;
+    }
+
+    /**
+     * Removes the bucket of a second.
+     *
+     * @param second epoch second
+     * @return the bucket or <code>null</code> if the second is not open
+     */
+    TestTimeSequenceStatistics take(long second) {
+        int index = indexOf(second);
+        if (seconds[index] != second) {
+            return null;
+        }
+        TestTimeSequenceStatistics bucket = buckets[index];
+        seconds[index] = EMPTY;
+        buckets[index] = null;
+        open--;
+        return bucket;
+    }
+
+    /**
+     * @return the oldest open second, {@link Long#MAX_VALUE} if none is open
+     */
+    long oldestSecond() {
+        long oldest = Long.MAX_VALUE;
+        if (open == 0) {
+            return oldest;
+        }
+        for (long second : seconds) {
+            if (second != EMPTY && second < oldest) {
+                oldest = second;
+            }
+        }
+        return oldest;
+    }
+
+    int openCount() {
+        return open;
+    }
+
+    int capacity() {
+        return seconds.length;
+    }
+
+    private int indexOf(long second) {
+        return (int) (second & (seconds.length - 1));
+    }
+
+    private void allocate(int capacity) {
+        seconds = new long[capacity];
+        buckets = new TestTimeSequenceStatistics[capacity];
+        for (int i = 0; i < capacity; i++) {
+            seconds[i] = EMPTY;
+        }
+    }
+
+    // Stops once the capacity exceeds the span of the open seconds, which the
+    // accumulator bounds with its skew window
+    private void grow(long incoming) {
+        final long[] oldSeconds = seconds;
+        final TestTimeSequenceStatistics[] oldBuckets = buckets;
+        int capacity = oldSeconds.length;
+        boolean collides = true;
+        while (collides) {
+            capacity <<= 1;
+            collides = collides(oldSeconds, incoming, capacity);
+        }
+        allocate(capacity);
+        for (int i = 0; i < oldSeconds.length; i++) {
+            if (oldSeconds[i] != EMPTY) {
+                int index = indexOf(oldSeconds[i]);
+                seconds[index] = oldSeconds[i];
+                buckets[index] = oldBuckets[i];
+            }
+        }
+    }
+
+    private static boolean collides(long[] live, long incoming, int capacity) {
+        final int mask = capacity - 1;
+        final boolean[] used = new boolean[capacity];
+        used[(int) (incoming & mask)] = true;
+        for (long second : live) {
+            if (second == EMPTY) {
+                continue;
+            }
+            int index = (int) (second & mask);
+            if (used[index]) {
+                return true;
+            }
+            used[index] = true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Per-second accumulator split into one stripe per recording thread.
+ * <p>
+ * Each sampler thread records into its own stripe, found through a
+ * {@link ThreadLocal}, so no two sampler threads ever share a monitor and no
+ * task is handed over to another thread. The monitor of a stripe is only
+ * taken by the printer besides its owner, once per closed second, so the cost
+ * of recording does not depend on the number of threads. The per-second
+ * reporter merges the stripes of a second when it closes it, and drops the
+ * stripes of the threads which ended once they are empty.
+ * <p>
+ * Labels are interned in a {@link PtpLabelTable} and every stripe keeps one
+ * {@link PtpSecondRing} per label id, so recording a sample and closing a
+ * second need neither String keys nor map scans: closing a second costs one
+ * slot lookup per label and stripe.
+ * <p>
+ * The initial ring size is read from <code>ptp.aggregate.ring_seconds</code>.
+ * <p>
+ * The RT detail of the buckets is selected by <code>ptp.aggregate.rt_detail</code>:
+ * <code>kv</code> counts every distinct RT value, <code>histogram</code> uses a
+ * {@link PtpLatencyHistogram} of precision <code>ptp.aggregate.histogram.precision</code>.
+ * <p>
+ * Memory is bounded by two caps, whatever the test plan does:
+ * <code>ptp.aggregate.max_labels</code> distinct labels, the samples of the
+ * labels over it are folded into {@link PtpLabelTable#OTHER_LABEL}, and
+ * <code>ptp.aggregate.max_buckets</code> live label-second buckets over all
+ * the stripes. The {@link PtpLabelTable#OTHER_LABEL} buckets are reserved
+ * outside the bucket cap, at most one per thread and open second, so once
+ * the cap is reached a sample needing a new bucket is folded into the
+ * {@link PtpLabelTable#OTHER_LABEL} bucket of its second and no sample is
+ * ever dropped. Neither cap bounds the RT detail of a bucket in
+ * <code>kv</code> mode, use <code>histogram</code> for that.
+ * <p>
+ * A sample whose second is further than <code>ptp.aggregate.max_skew_s</code>
+ * from the current time, e.g. from a broken sampler clock, is folded into the
+ * {@link PtpLabelTable#OTHER_LABEL} bucket of the current second and counted
+ * as overflowed: the open seconds of a ring then always lie within twice that
+ * window, which bounds its growth.
+ */
+public class PtpStripedAccumulator {
+
+    private static final int RING_SECONDS = JMeterUtils.getPropDefault("ptp.aggregate.ring_seconds", 8); //$NON-NLS-1$
+
+    public static final String RT_DETAIL_KV = "kv"; //$NON-NLS-1$
+
+    public static final String RT_DETAIL_HISTOGRAM = "histogram"; //$NON-NLS-1$
+
+    /** Default maximum number of distinct labels */
+    public static final int MAX_LABELS = JMeterUtils.getPropDefault("ptp.aggregate.max_labels", 10000); //$NON-NLS-1$
+
+    /** Default maximum number of live label-second buckets, not counting the reserved other ones */
+    public static final int MAX_BUCKETS = JMeterUtils.getPropDefault("ptp.aggregate.max_buckets", 1000000); //$NON-NLS-1$
+
+    /** Skew window used when none is given, no bound */
+    public static final long NO_SKEW_LIMIT = Long.MAX_VALUE;
+
+    private final PtpLabelTable labelTable;
+
+    private final int maxBuckets;
+
+    private final AtomicInteger liveBuckets = new AtomicInteger(0);
+
+    // stripes of the threads which recorded samples, see PtpWatermark for the same pattern
+    private final Queue<Stripe> stripes = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<Stripe> threadStripe = new ThreadLocal<>();
+
+    // counters of the stripes dropped after their thread ended
+    //@GuardedBy("stripes")
+    private long retiredAdded;
+
+    //@GuardedBy("stripes")
+    private long retiredOverflowed;
+
+    private final int ringCapacity;
+
+    private final int histogramPrecision;
+
+    // maximum distance in seconds between the second of a new bucket and the current time
+    private final long maxSkewSeconds;
+
+    // Journals the samples for crash recovery, null when disabled
+    private volatile PtpAggregateJournal journal;
+
+    /**
+     * Per thread statistics, guarded by the stripe monitor.
+     */
+    private static final class Stripe {
+        final Thread owner;
+        // indexed by label id
+        PtpSecondRing[] rings = new PtpSecondRing[16];
+        // buckets open over all the rings
+        int open;
+        // samples added, including the overflowed ones
+        long added;
+        // samples of labels over the cap or folded at the bucket cap
+        long overflowed;
+
+        Stripe(Thread owner) {
+            this.owner = owner;
+        }
+    }
+
+    public PtpStripedAccumulator() {
+        this(JMeterUtils.getPropDefault("ptp.aggregate.max_lateness_ms", 5000L), //$NON-NLS-1$
+                RT_DETAIL_HISTOGRAM.equals(JMeterUtils.getPropDefault("ptp.aggregate.rt_detail", RT_DETAIL_KV)) //$NON-NLS-1$
+                    ? JMeterUtils.getPropDefault("ptp.aggregate.histogram.precision", PtpLatencyHistogram.DEFAULT_PRECISION) //$NON-NLS-1$
+                    : 0,
+                MAX_LABELS, MAX_BUCKETS);
+    }
+
+    private PtpStripedAccumulator(long maxLatenessMillis, int histogramPrecision, int maxLabels, int maxBuckets) {
+        this(histogramPrecision, maxLabels, maxBuckets, skewWindow(maxLatenessMillis));
+    }
+
+    /**
+     * @param histogramPrecision precision of the RT detail histogram,
+     *            0 to count each distinct RT value
+     */
+    public PtpStripedAccumulator(int histogramPrecision) {
+        this(histogramPrecision, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param histogramPrecision precision of the RT detail histogram,
+     *            0 to count each distinct RT value
+     * @param maxLabels maximum number of distinct labels
+     * @param maxBuckets maximum number of live label-second buckets, not counting
+     *            the reserved {@link PtpLabelTable#OTHER_LABEL} ones
+     */
+    public PtpStripedAccumulator(int histogramPrecision, int maxLabels, int maxBuckets) {
+        this(histogramPrecision, maxLabels, maxBuckets, NO_SKEW_LIMIT);
+    }
+
+    /**
+     * @param histogramPrecision precision of the RT detail histogram,
+     *            0 to count each distinct RT value
+     * @param maxLabels maximum number of distinct labels
+     * @param maxBuckets maximum number of live label-second buckets, not counting
+     *            the reserved {@link PtpLabelTable#OTHER_LABEL} ones
+     * @param maxSkewSeconds maximum distance between the second of a sample and
+     *            the current time, see {@link #skewWindow(long)}, or {@link #NO_SKEW_LIMIT}
+     */
+    public PtpStripedAccumulator(int histogramPrecision, int maxLabels, int maxBuckets, long maxSkewSeconds) {
+        if (maxBuckets < 1) {
+            throw new IllegalArgumentException("ptp.aggregate.max_buckets must be positive, got " + maxBuckets);
+        }
+        if (histogramPrecision > PtpLatencyHistogram.MAX_PRECISION) {
+            throw new IllegalArgumentException("ptp.aggregate.histogram.precision must not exceed "
+                    + PtpLatencyHistogram.MAX_PRECISION + ", got " + histogramPrecision);
+        }
+        this.histogramPrecision = histogramPrecision;
+        this.labelTable = new PtpLabelTable(maxLabels);
+        this.maxBuckets = maxBuckets;
+        this.maxSkewSeconds = maxSkewSeconds;
+        ringCapacity = powerOfTwo(RING_SECONDS);
+    }
+
+    /**
+     * Records a sample in the stripe of the calling thread.
+     *
+     * @param label the label of the sample
+     * @param second the second (epoch seconds) the sample belongs to
+     * @param record the sample to record
+     */
+    public void add(final String label, long second, final PtpSampleRecord record) {
+        int labelId = labelTable.idOf(label);
+        final Stripe stripe = threadStripe();
+        synchronized (stripe) {
+            stripe.added++;
+            final boolean overLabelCap = labelTable.isOther(labelId) && !PtpLabelTable.OTHER_LABEL.equals(label);
+            if (overLabelCap) {
+                stripe.overflowed++;
+            }
+            TestTimeSequenceStatistics bucket = ring(stripe, labelId).get(second);
+            if (bucket == null) {
+                final long now = System.currentTimeMillis() / 1000L;
+                if (maxSkewSeconds != NO_SKEW_LIMIT && Math.abs(second - now) > maxSkewSeconds) {
+                    // a wrong clock must not make the ring grow, counted but not at its second
+                    if (!overLabelCap) {
+                        stripe.overflowed++;
+                    }
+                    labelId = labelTable.otherId();
+                    second = now;
+                    bucket = ring(stripe, labelId).get(second);
+                }
+            }
+            if (bucket == null) {
+                if (labelTable.isOther(labelId)) {
+                    // reserved, outside the bucket cap
+                    bucket = open(stripe, labelId, second);
+                } else if (liveBuckets.incrementAndGet() <= maxBuckets) {
+                    bucket = open(stripe, labelId, second);
+                } else {
+                    liveBuckets.decrementAndGet();
+                    stripe.overflowed++;
+                    labelId = labelTable.otherId();
+                    bucket = ring(stripe, labelId).get(second);
+                    if (bucket == null) {
+                        bucket = open(stripe, labelId, second);
+                    }
+                }
+            }
+            bucket.combine(record);
+        }
+        final PtpAggregateJournal currentJournal = journal;
+        if (currentJournal != null) {
+            // After the bucket, so a journaled record is in a bucket before its slot is handed out
+            currentJournal.append(labelId, labelTable, second, record);
+        }
+    }
+
+    /**
+     * @param maxLatenessMillis maximum lateness of the samples, see {@link PtpWatermark}
+     * @return the skew window of the <code>ptp.aggregate.max_skew_s</code>
+     *         property, widened to keep every second the watermark may still
+     *         close and the initial ring
+     */
+    public static long skewWindow(long maxLatenessMillis) {
+        final long latenessSeconds = (maxLatenessMillis + 999L) / 1000L;
+        final long maxSkewSeconds = JMeterUtils.getPropDefault("ptp.aggregate.max_skew_s", 300L); //$NON-NLS-1$
+        return Math.max(maxSkewSeconds, latenessSeconds + powerOfTwo(RING_SECONDS));
+    }
+
+    /**
+     * Removes the statistics of a second from all the stripes and merges them.
+     *
+     * @param second the second (epoch seconds) to close
+     * @return the merged statistics indexed by label id, see {@link #getLabelTable()};
+     *         entries of labels without sample in this second are <code>null</code>
+     */
+    public TestTimeSequenceStatistics[] closeSecond(final long second) {
+        TestTimeSequenceStatistics[] merged = new TestTimeSequenceStatistics[labelTable.size()];
+        for (Iterator<Stripe> it = stripes.iterator(); it.hasNext();) {
+            final Stripe stripe = it.next();
+            // before the monitor, so an ended thread cannot add anything after the check
+            final boolean ended = !stripe.owner.isAlive();
+            final boolean drained;
+            synchronized (stripe) {
+                for (int labelId = 0; stripe.open > 0 && labelId < stripe.rings.length; labelId++) {
+                    final PtpSecondRing ring = stripe.rings[labelId];
+                    if (ring == null) {
+                        continue;
+                    }
+                    final TestTimeSequenceStatistics bucket = ring.take(second);
+                    if (bucket == null) {
+                        continue;
+                    }
+                    stripe.open--;
+                    if (!labelTable.isOther(labelId)) {
+                        liveBuckets.decrementAndGet();
+                    }
+                    if (labelId >= merged.length) {
+                        // label interned while closing
+                        merged = Arrays.copyOf(merged, labelTable.size());
+                    }
+                    if (merged[labelId] == null) {
+                        merged[labelId] = bucket;
+                    } else {
+                        merged[labelId].merge(bucket);
+                    }
+                }
+                drained = stripe.open == 0;
+            }
+            if (ended && drained) {
+                retire(stripe, it);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return the oldest second still open in any stripe,
+     *         {@link Long#MAX_VALUE} if nothing is open
+     */
+    public long oldestOpenSecond() {
+        long oldest = Long.MAX_VALUE;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.open == 0) {
+                    continue;
+                }
+                for (PtpSecondRing ring : stripe.rings) {
+                    if (ring != null) {
+                        oldest = Math.min(oldest, ring.oldestSecond());
+                    }
+                }
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * @return <code>true</code> if no stripe holds any open second
+     */
+    public boolean isEmpty() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.open > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of samples added, including the overflowed ones
+     */
+    public long getAddedCount() {
+        synchronized (stripes) {
+            long count = retiredAdded;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    count += stripe.added;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return the number of samples folded into {@link PtpLabelTable#OTHER_LABEL} by the caps
+     */
+    public long getOverflowCount() {
+        synchronized (stripes) {
+            long count = retiredOverflowed;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    count += stripe.overflowed;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return the number of live label-second buckets, not counting the
+     *         reserved {@link PtpLabelTable#OTHER_LABEL} ones
+     */
+    public int getLiveBucketCount() {
+        return liveBuckets.get();
+    }
+
+    /**
+     * @return the table resolving the label ids used by {@link #closeSecond(long)}
+     */
+    public PtpLabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    /**
+     * @param journal where to journal the samples added from now on,
+     *            <code>null</code> to stop journaling
+     */
+    public void setJournal(PtpAggregateJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return precision of the RT detail histogram, 0 if each distinct RT value is counted
+     */
+    public int getHistogramPrecision() {
+        return histogramPrecision;
+    }
+
+    private Stripe threadStripe() {
+        Stripe stripe = threadStripe.get();
+        if (stripe == null) {
+            stripe = new Stripe(Thread.currentThread());
+            threadStripe.set(stripe);
+            stripes.add(stripe);
+        }
+        return stripe;
+    }
+
+    /**
+     * Drops the empty stripe of a thread which ended, keeping its counters.
+     * Not called under the stripe monitor, the counters take the monitors in
+     * the opposite order.
+     */
+    private void retire(final Stripe stripe, final Iterator<Stripe> it) {
+        synchronized (stripes) {
+            retiredAdded += stripe.added;
+            retiredOverflowed += stripe.overflowed;
+            it.remove();
+        }
+    }
+
+    //@GuardedBy("stripe")
+    private TestTimeSequenceStatistics open(final Stripe stripe, final int labelId, final long second) {
+        stripe.open++;
+        return ring(stripe, labelId).bucket(second);
+    }
+
+    //@GuardedBy("stripe")
+    private PtpSecondRing ring(final Stripe stripe, final int labelId) {
+        if (labelId >= stripe.rings.length) {
+            stripe.rings = Arrays.copyOf(stripe.rings, Math.max(labelId + 1, stripe.rings.length * 2));
+        }
+        PtpSecondRing ring = stripe.rings[labelId];
+        if (ring == null) {
+            ring = new PtpSecondRing(ringCapacity, histogramPrecision);
+            stripe.rings[labelId] = ring;
+        }
+        return ring;
+    }
+
+    /**
+     * @return the number of stripes, one per thread which recorded samples
+     *         and did not end or still has open seconds
+     */
+    int getStripeCount() {
+        return stripes.size();
+    }
+
+    private static int powerOfTwo(int value) {
+        int size = 1;
+        while (size < value) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
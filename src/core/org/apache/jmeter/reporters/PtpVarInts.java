@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable length encoding of longs used by the binary agg format:
+ * 7 bits per byte, least significant group first, the high bit of a byte
+ * telling that another byte follows. Signed values are zigzag encoded first
+ * so that small negative deltas stay short.
+ */
+public final class PtpVarInts {
+
+    private PtpVarInts() {
+    }
+
+    /**
+     * @param out where to write
+     * @param value value to write, treated as unsigned
+     * @throws IOException if writing fails
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0L) {
+            out.writeByte((int) ((remaining & 0x7FL) | 0x80L));
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    /**
+     * @param in where to read
+     * @return the value written by {@link #writeVarLong(DataOutput, long)}
+     * @throws IOException if reading fails, {@link java.io.EOFException} at end of input
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length long");
+    }
+
+    /**
+     * @param out where to write
+     * @param value value to write
+     * @throws IOException if writing fails
+     */
+    public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * @param in where to read
+     * @return the value written by {@link #writeSignedVarLong(DataOutput, long)}
+     * @throws IOException if reading fails, {@link java.io.EOFException} at end of input
+     */
+    public static long readSignedVarLong(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    /**
+     * @param in where to read
+     * @return the value, which must fit in an int
+     * @throws IOException if reading fails or the value does not fit in an int
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        if (value < 0L || value > Integer.MAX_VALUE) {
+            throw new IOException("Value out of int range: " + value);
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event-time watermark of the per-second aggregation: a time in ms such that
+ * every sample still to be recorded has a timestamp at or after it.
+ * <p>
+ * Every sampler thread publishes the start time of the sample it is running,
+ * from the moment the sample starts until it has been recorded. The watermark
+ * is the oldest of these start times, or the current time when no sample is
+ * in flight, so a second is only closed once no running sample can still
+ * belong to it.
+ * <p>
+ * The watermark never lags the current time by more than the allowed lateness,
+ * so a hung sampler or a sample that is never recorded does not hold the
+ * output back forever. Samples recorded after their second was closed are
+ * late, they are written as correction rows by {@link PtpPrintResultlogTask}.
+ * Without any sampler thread (e.g. samples received from remote engines) the
+ * watermark is the current time minus the allowed lateness.
+ */
+public class PtpWatermark {
+
+    private static final long NOT_RUNNING = Long.MAX_VALUE;
+
+    private final long maxLatenessMillis;
+
+    private final Queue<Slot> slots = new ConcurrentLinkedQueue<>();
+
+    // only set for the threads running samples
+    private final ThreadLocal<Slot> threadSlot = new ThreadLocal<>();
+
+    private static final class Slot {
+        final Thread thread;
+
+        // start of the sample in flight, NOT_RUNNING if none
+        volatile long runningSince = NOT_RUNNING;
+
+        Slot(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * @param maxLatenessMillis maximum lag of the watermark behind the current time
+     */
+    public PtpWatermark(long maxLatenessMillis) {
+        if (maxLatenessMillis < 0) {
+            throw new IllegalArgumentException("Allowed lateness must not be negative, got " + maxLatenessMillis);
+        }
+        this.maxLatenessMillis = maxLatenessMillis;
+    }
+
+    /**
+     * Called by a sampler thread when it starts a sample.
+     *
+     * @param now current time in ms
+     */
+    public void sampleStarting(long now) {
+        Slot slot = threadSlot.get();
+        if (slot == null) {
+            slot = new Slot(Thread.currentThread());
+            threadSlot.set(slot);
+            slots.add(slot);
+        }
+        slot.runningSince = now;
+    }
+
+    /**
+     * Called by a sampler thread once its sample has been recorded.
+     */
+    public void sampleRecorded() {
+        Slot slot = threadSlot.get();
+        if (slot != null) {
+            slot.runningSince = NOT_RUNNING;
+        }
+    }
+
+    /**
+     * @param now current time in ms
+     * @return the watermark in ms, every second ending at or before it can be closed
+     */
+    public long getWatermark(long now) {
+        long oldest = NOT_RUNNING;
+        boolean sampling = false;
+        for (Iterator<Slot> it = slots.iterator(); it.hasNext();) {
+            Slot slot = it.next();
+            if (!slot.thread.isAlive()) {
+                it.remove();
+                continue;
+            }
+            sampling = true;
+            oldest = Math.min(oldest, slot.runningSince);
+        }
+        long lowest = now - maxLatenessMillis;
+        if (!sampling) {
+            return lowest;
+        }
+        return Math.max(lowest, Math.min(oldest, now));
+    }
+
+    /**
+     * @return <code>true</code> if no live thread has a sample in flight
+     */
+    public boolean isIdle() {
+        return getInFlightCount() == 0;
+    }
+
+    /**
+     * @return the number of live threads with a sample in flight
+     */
+    public int getInFlightCount() {
+        int count = 0;
+        for (Slot slot : slots) {
+            if (slot.thread.isAlive() && slot.runningSince != NOT_RUNNING) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Waits until no sample is in flight, at most for the allowed lateness.
+     *
+     * @return <code>true</code> if no sample is in flight
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIdle() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatenessMillis);
+        while (!isIdle()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+
+    public long getMaxLatenessMillis() {
+        return maxLatenessMillis;
+    }
+}
@@ -18,34 +18,29 @@
 
 package org.apache.jmeter.reporters;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicStampedReference;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.LockSupport;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jmeter.engine.util.NoThreadClone;
@@ -54,9 +49,17 @@ import org.apache.jmeter.samplers.Clearable;
 import org.apache.jmeter.samplers.Remoteable;
 import org.apache.jmeter.samplers.SampleEvent;
 import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.samplers.SampleMonitor;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.samplers.SampleSaveConfiguration;
+import org.apache.jmeter.samplers.Sampler;
 import org.apache.jmeter.save.CSVSaveService;
+import org.apache.jmeter.save.PtpBinaryResultReader;
+import org.apache.jmeter.save.PtpBinaryResultWriter;
+import org.apache.jmeter.save.PtpCSVSampleSerializer;
+import org.apache.jmeter.save.PtpGzipBlockInputStream;
+import org.apache.jmeter.save.PtpGzipBlockOutputStream;
+import org.apache.jmeter.save.PtpResultShards;
 import org.apache.jmeter.save.SaveService;
 import org.apache.jmeter.services.FileServer;
 import org.apache.jmeter.testelement.TestElement;
@@ -64,21 +67,19 @@ import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.property.BooleanProperty;
 import org.apache.jmeter.testelement.property.ObjectProperty;
 import org.apache.jmeter.util.JMeterUtils;
-import org.apache.jmeter.util.R;
 import org.apache.jmeter.visualizers.Visualizer;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.jorphan.util.JMeterError;
 import org.apache.jorphan.util.JOrphanUtils;
 import org.apache.log.Logger;
 
-import org.apache.jmeter.util.ExecCmdOwn;
 
 /**
  * This class handles all saving of samples.
  * The class must be thread-safe because it is shared between threads (NoThreadClone).
  */
 public class ResultCollector extends AbstractListenerElement implements SampleListener, Clearable, Serializable,
-        TestStateListener, Remoteable, NoThreadClone {
+        TestStateListener, Remoteable, NoThreadClone, SampleMonitor, PtpAggregateListener {
 
     private static final Logger log = LoggingManager.getLoggerForClass();
 
@@ -107,41 +108,65 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
     
     public static final String ROUNDID_PROP_NAME = "roundId";
     
-    private static final String NETEASE_INVALID_VALUE = "-1";
+    public static final String AGG_MODE = "agg-mode";
     
-    public static final String COMMA_DELIMITER = ",";
+    /**
+     * Former aggregation mode re-parsing the CSV line written to the raw result
+     * file, now the same as {@link #AGG_MODE_SAMPLE}: the fields of that line
+     * are those of the SampleResult, so they are read from it without building
+     * or splitting a line on the sampler thread. Result files are only parsed
+     * offline, by {@link PtpAggregateRebuild}.
+     */
+    public static final String AGG_MODE_CSV = "csv";
     
-    public static final String VERTICAL_DELIMITER = "|";
+    /** Aggregation mode reading the fields directly from the SampleResult, whatever the raw result format, the default */
+    public static final String AGG_MODE_SAMPLE = "sample";
     
-    private static final String SN_COMMAND = "cat /etc/nagent_sn";
+    private static final String AGG_MODE_DEFAULT = JMeterUtils.getPropDefault("ptp.aggregate.mode", AGG_MODE_SAMPLE); //$NON-NLS-1$
     
-    private static final String SN_RESULT_KEY = "stdout";
+    /** Samples written to the result file when aggregating, see {@link PtpRawResultPolicy} */
+    public static final String RAW_POLICY = "raw-policy";
     
-    private static volatile String MACHINE_ID = "-1";
+    private static final String RAW_POLICY_DEFAULT = JMeterUtils.getPropDefault("ptp.raw.policy", PtpRawResultPolicy.ALL); //$NON-NLS-1$
     
-    private static volatile String ROUND_ID = "-1";
+    /** Number of shards of a CSV result file, see {@link PtpResultShards}; 1 for a single file */
+    public static final String RESULT_SHARDS = "result-shards";
     
-    private static final int JMETER_RESULT_ROW_SIZE = 8;
+    private static final int RESULT_SHARDS_DEFAULT = JMeterUtils.getPropDefault("ptp.result.shards", 1); //$NON-NLS-1$
     
-    public static final ScheduledExecutorService exec = Executors.newScheduledThreadPool(10);
+    /** Whether the samples of a thread group all go to the same shard, rather than those of a thread */
+    private static final boolean RESULT_SHARD_BY_GROUP = "group".equals(JMeterUtils.getPropDefault("ptp.result.shard_by", "thread")); //$NON-NLS-1$
     
-    public static final ConcurrentHashMap<String, AtomicStampedReference<TestTimeSequenceStatistics>> m_testTimeSeqStatistics = new ConcurrentHashMap<String, AtomicStampedReference<TestTimeSequenceStatistics>>(400);
+    private static final String NETEASE_INVALID_VALUE = "-1";
     
-    private static final Lock lock = new ReentrantLock();
+    public static final String COMMA_DELIMITER = ",";
     
-    private static final AtomicInteger uploadLock = new AtomicInteger(0);
+    public static final String VERTICAL_DELIMITER = "|";
+
     
-    public static AtomicInteger requestCount = new AtomicInteger(0);
+    private static final boolean AGGREGATE_SAVING_AUTOFLUSH = true;
     
-    private static PtpPrintResultlogTask printResultlogTask;
+    private static final int AGGREGATE_FLUSH_SIZE = 2048;
     
-    private static final long PTP_WAIT_AGGREGATE = 2000000000L;
+    /** Window sizes in seconds of the rollups written next to the per-second agg file */
+    private static final int[] ROLLUP_WINDOWS = PtpRollupLevel.parseWindows(JMeterUtils.getPropDefault("ptp.aggregate.rollups", "")); //$NON-NLS-1$
     
-    private static final boolean AGGREGATE_SAVING_AUTOFLUSH = true;
+    /** Whether the agg files are written in the binary format of {@link PtpBinaryAggregateFormat} */
+    private static final boolean AGG_BINARY =
+            PtpBinaryAggregateFormat.NAME.equals(JMeterUtils.getPropDefault("ptp.aggregate.format", "csv")); //$NON-NLS-1$ //$NON-NLS-2$
     
-    private static final int AGGREGATE_FLUSH_SIZE = 2048;
+    /** Whether the samples of the open seconds are journaled by a {@link PtpAggregateJournal} */
+    private static final boolean AGG_JOURNAL = JMeterUtils.getPropDefault("ptp.aggregate.wal", false); //$NON-NLS-1$
+    
+    private static final int AGG_JOURNAL_SIZE_MB = JMeterUtils.getPropDefault("ptp.aggregate.wal.size_mb", 64); //$NON-NLS-1$
+    
+    /** Whether the buckets received from remote engines are merged into cluster-wide rows */
+    private static final boolean AGG_CLUSTER = JMeterUtils.getPropDefault("ptp.aggregate.cluster", false); //$NON-NLS-1$
     
-//    private static final AtomicLong ROUND_START_TIMESTAMP = new AtomicLong((System.currentTimeMillis() / 10000L) * 10L);
+    /** Port receiving the agg streams written to tcp://host:port by load generators, 0 for none */
+    private static final int AGG_CLUSTER_PORT = JMeterUtils.getPropDefault("ptp.aggregate.cluster.port", 0); //$NON-NLS-1$
+    
+    private static final String TCP_PREFIX = "tcp://"; //$NON-NLS-1$
 
     private static final String SAVE_CONFIG = "saveConfig"; // $NON-NLS-1$
 
@@ -152,6 +177,21 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
     /** AutoFlush on each line */
     private static final boolean SAVING_AUTOFLUSH = JMeterUtils.getPropDefault("jmeter.save.saveservice.autoflush", false); //$NON-NLS-1$
 
+    /** Whether the result and agg files are written through a {@link PtpAsyncFileWriter} */
+    private static final boolean ASYNC_WRITER = JMeterUtils.getPropDefault("ptp.writer.async", true); //$NON-NLS-1$
+
+    private static final int ASYNC_WRITER_QUEUE_SIZE = JMeterUtils.getPropDefault("ptp.writer.queue_size", 2048); //$NON-NLS-1$
+
+    private static final int ASYNC_WRITER_BUFFER_SIZE = JMeterUtils.getPropDefault("ptp.writer.buffer_size", 256 * 1024); //$NON-NLS-1$
+
+    private static final long ASYNC_WRITER_MAX_LAG_MS = JMeterUtils.getPropDefault("ptp.writer.max_lag_ms", 1000L); //$NON-NLS-1$
+
+    /** Whether sampler threads drop CSV result lines rather than wait for the disk when the writer is full */
+    private static final boolean ASYNC_WRITER_DROP_WHEN_FULL = JMeterUtils.getPropDefault("ptp.writer.drop_when_full", false); //$NON-NLS-1$
+
+    /** Compression level of the result and agg files named *.gz, see {@link PtpGzipBlockOutputStream} */
+    private static final int GZIP_LEVEL = JMeterUtils.getPropDefault("ptp.writer.gzip.level", Deflater.BEST_SPEED); //$NON-NLS-1$
+
     // Static variables
 
     // Lock used to guard static mutable variables
@@ -160,6 +200,21 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
     //@GuardedBy("LOCK")
     private static final Map<String, FileEntry> files = new HashMap<>();
 
+    //@GuardedBy("LOCK") binary agg files, shared like files by the collectors using the same name
+    private static final Map<String, PtpBinaryAggregateSink> binaryFiles = new HashMap<>();
+
+    //@GuardedBy("LOCK") binary result files, shared like files by the collectors using the same name
+    private static final Map<String, PtpBinaryResultWriter> binaryResultFiles = new HashMap<>();
+
+    //@GuardedBy("LOCK") asynchronous writers of the agg files, for their metrics
+    private static final Map<String, PtpAsyncFileWriter> aggWriters = new HashMap<>();
+
+    //@GuardedBy("LOCK") asynchronous writers of the text result files, for their dropped lines
+    private static final Map<String, PtpAsyncFileWriter> resultWriters = new HashMap<>();
+
+    //@GuardedBy("LOCK") aggregation of the running tests, by agg file
+    private static final Map<String, PtpAggregateSession> aggSessions = new HashMap<>();
+
     /**
      * Shutdown Hook that ensures PrintWriter is flushed is CTRL+C or kill is called during a test
      */
@@ -193,12 +248,36 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
 
     private transient volatile PrintWriter out;
     
+    // Writers of the shards of the result file, out being the first one; null if not sharded
+    private transient volatile PrintWriter[] outShards;
+    
+    // Writer of the result file saved in the binary format, out being null then
+    private transient volatile PtpBinaryResultWriter binaryOut;
+    
     private transient volatile PrintWriter agg_out;
+    
+    // Where the per-second rows are written, null if this collector does not aggregate
+    private transient volatile PtpAggregateSink agg_sink;
+    
+    // Aggregation of the running test, null if this collector does not aggregate
+    private transient volatile PtpAggregateSession aggSession;
+    
+    //@GuardedBy("LOCK") number of testStarted calls holding aggSession
+    private transient int aggSessionStarts;
+    
+    // Selects the samples written to the result file while aggregating, null to write them all
+    private transient volatile PtpRawResultPolicy rawPolicy;
+    
+    private transient PtpRawResultPolicy.Output rawOutput;
+    
+    // Writes the CSV lines of the result file, bound to the save configuration of the test
+    private transient volatile PtpCSVSampleSerializer csvSerializer;
 
     private volatile boolean inTest = false;
 
     private volatile boolean isStats = false;
 
+
     /** the summarizer to which this result collector will forward the samples */
     private volatile Summariser summariser;
 
@@ -208,7 +287,14 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
         public void run() {
             log.info("Shutdown hook started");
             synchronized (LOCK) {
+                // Emit the open seconds rather than leave them to the journal recovery
+                for (PtpAggregateSession session : aggSessions.values()) {
+                    session.printLast();
+                }
                 flushFileOutput();                    
+                for (PtpAggregateSession session : aggSessions.values()) {
+                    session.closeJournal();
+                }
             }
             log.info("Shutdown hook ended");
         }     
@@ -263,6 +349,34 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
     public String getAggFilename() {
         return getPropertyAsString(AGG_FILENAME);
     }
+    
+    /**
+     * Get the aggregation mode of this collector
+     * 
+     * @return {@link #AGG_MODE_CSV} or {@link #AGG_MODE_SAMPLE}
+     */
+    public String getAggMode() {
+        return getPropertyAsString(AGG_MODE, AGG_MODE_DEFAULT);
+    }
+    
+    /**
+     * Get the policy selecting the samples written to the result file while
+     * aggregating
+     * 
+     * @return the policy, see {@link PtpRawResultPolicy}
+     */
+    public String getRawPolicy() {
+        return getPropertyAsString(RAW_POLICY, RAW_POLICY_DEFAULT);
+    }
+    
+    /**
+     * Get the number of shards of the result file
+     * 
+     * @return the number of shards, 1 for a single file
+     */
+    public int getResultShards() {
+        return getPropertyAsInt(RESULT_SHARDS, RESULT_SHARDS_DEFAULT);
+    }
 
     /**
      * Get the state of error logging
@@ -364,10 +478,60 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
         }
         setAggFilenameProperty(f);
     }
+    
+    /**
+     * Sets the aggregation mode of this collector.
+     * 
+     * @param mode
+     *            {@link #AGG_MODE_SAMPLE}, or {@link #AGG_MODE_CSV} which now
+     *            also aggregates directly from the SampleResult
+     */
+    public void setAggMode(String mode) {
+        if (inTest) {
+            return;
+        }
+        setProperty(AGG_MODE, mode);
+    }
+    
+    /**
+     * Sets the policy selecting the samples written to the result file, only
+     * applied when this collector also aggregates them per second.
+     * 
+     * @param policy
+     *            e.g. <code>errors,slow:2000,exemplars</code>, see {@link PtpRawResultPolicy}
+     */
+    public void setRawPolicy(String policy) {
+        if (inTest) {
+            return;
+        }
+        setProperty(RAW_POLICY, policy);
+    }
+    
+    /**
+     * Sets the number of shards the result file is written to. Sharding lets
+     * the sampler threads write without all waiting on the same writer; the
+     * shards are read back as one file by the listeners and the report
+     * generator. XML result files are never sharded.
+     * 
+     * @param shards
+     *            number of shards, 1 for a single file
+     */
+    public void setResultShards(int shards) {
+        if (inTest) {
+            return;
+        }
+        setProperty(RESULT_SHARDS, shards);
+    }
 
     @Override
     public void testEnded(String host) {
+        final PtpAggregateSession session = aggSession;
+        if (session != null) {
+            session.sourceEnded(PtpNodeIdentity.getRemoteNodeId(host));
+        }
         synchronized(LOCK){
+            // Close the remaining seconds while the agg files are still open
+            aggReleaseSession();
             instanceCount--;
             if (instanceCount <= 0) {
                 // No need for the hook now
@@ -385,7 +549,6 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
         if(summariser != null) {
             summariser.testEnded(host);
         }
-        ptpClear();
     }
 
     @Override
@@ -396,12 +559,17 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
                 Runtime.getRuntime().addShutdownHook(shutdownHook);
             }
             instanceCount++;
+            // the save configuration may have been edited since the last test
+            csvSerializer = null;
             try {
                 initializeFileOutput();
                 aggInitializeFileOutput();
                 if (getVisualizer() != null) {
                     this.isStats = getVisualizer().isStats();
                 }
+                if (aggSession != null && rawPolicy == null) {
+                    rawPolicy = parseRawPolicy();
+                }
             } catch (Exception e) {
                 log.error("", e);
             }
@@ -429,6 +597,7 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
      * <ul>
      *   <li>XStream format</li>
      *   <li>CSV format</li>
+     *   <li>CSV format written in shards, read merged, see {@link PtpResultShards}</li>
      * </ul>
      *
      */
@@ -440,11 +609,19 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
         boolean parsedOK = false;
         String filename = getFilename();
         File file = new File(filename);
+        // a CSV file written in shards does not exist itself
+        File[] shards = file.exists() ? new File[0] : PtpResultShards.listShards(file);
         if (file.exists()) {
             BufferedReader dataReader = null;
-            BufferedInputStream bufferedInputStream = null;
+            InputStream inputStream = null;
             try {
-                dataReader = new BufferedReader(new FileReader(file)); // TODO Charset ?
+                if (PtpBinaryResultReader.isBinary(file)) {
+                    PtpBinaryResultReader.processSamples(file, visualizer, this);
+                    parsedOK = true;
+                    return;
+                }
+                // Compressed files are read whatever their name
+                dataReader = new BufferedReader(new InputStreamReader(PtpGzipBlockInputStream.open(file))); // TODO Charset ?
                 // Get the first line, and see if it is XML
                 String line = dataReader.readLine();
                 dataReader.close();
@@ -457,8 +634,8 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
                         parsedOK = true;
                     } else { // We are processing XML
                         try { // Assume XStream
-                            bufferedInputStream = new BufferedInputStream(new FileInputStream(file));
-                            SaveService.loadTestResults(bufferedInputStream,
+                            inputStream = PtpGzipBlockInputStream.open(file);
+                            SaveService.loadTestResults(inputStream,
                                     new ResultCollectorHelper(this, visualizer));
                             parsedOK = true;
                         } catch (Exception e) {
@@ -471,13 +648,22 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
                 log.warn("Problem reading JTL file: " + file);
             } finally {
                 JOrphanUtils.closeQuietly(dataReader);
-                JOrphanUtils.closeQuietly(bufferedInputStream);
+                JOrphanUtils.closeQuietly(inputStream);
                 if (!parsedOK) {
                     GuiPackage.showErrorMessage(
                                 "Error loading results file - see log file",
                                 "Result file loader");
                 }
             }
+        } else if (shards.length > 0) {
+            try {
+                CSVSaveService.processShards(shards, visualizer, this);
+            } catch (IOException | JMeterError | RuntimeException e) {
+                log.warn("Problem reading JTL shards of: " + file, e);
+                GuiPackage.showErrorMessage(
+                        "Error loading results file - see log file",
+                        "Result file loader");
+            }
         } else {
             GuiPackage.showErrorMessage(
                     "Error loading results file - could not open file",
@@ -526,7 +712,8 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
 
         if (fe == null) {
             if (saveConfig.saveAsXml()) {
-                trimmed = trimLastLine(filename);
+                // The end marker of a compressed file cannot be trimmed, the file is overwritten
+                trimmed = !PtpGzipBlockOutputStream.isCompressed(filename) && trimLastLine(filename);
             } else {
                 trimmed = new File(filename).exists();
             }
@@ -542,8 +729,13 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
                     log.warn("Error creating directories for "+pdir.toString());
                 }
             }
-            writer = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(filename,
-                    trimmed)), SaveService.getFileEncoding(StandardCharsets.UTF_8.name())), SAVING_AUTOFLUSH);
+            // A CSV line is a single write which can be dropped, an XML sample spans several
+            Writer fileWriter = openFileWriter(filename, trimmed, 8192, SAVING_AUTOFLUSH,
+                    ASYNC_WRITER_DROP_WHEN_FULL && !saveConfig.saveAsXml());
+            if (fileWriter instanceof PtpAsyncFileWriter) {
+                resultWriters.put(filename, (PtpAsyncFileWriter) fileWriter);
+            }
+            writer = new PrintWriter(fileWriter, SAVING_AUTOFLUSH && !ASYNC_WRITER);
             log.debug("Opened file: "+filename);
             files.put(filename, new FileEntry(writer, saveConfig));
         } else {
@@ -555,6 +747,96 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
         return writer;
     }
     
+    /**
+     * @param autoflush whether every write should reach the file as soon as possible
+     * @param dropWhenFull whether the asynchronous writer drops lines rather than wait when full
+     */
+    private static Writer openFileWriter(String filename, boolean append, int bufferSize, boolean autoflush,
+            boolean dropWhenFull) throws IOException {
+        if (ASYNC_WRITER) {
+            return newAsyncFileWriter(filename, append, autoflush, dropWhenFull);
+        }
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(filename, append), bufferSize);
+        if (PtpGzipBlockOutputStream.isCompressed(filename)) {
+            // Compressed by the writing threads, unlike the asynchronous writer
+            stream = new PtpGzipBlockOutputStream(stream, ASYNC_WRITER_BUFFER_SIZE, GZIP_LEVEL);
+        }
+        return new OutputStreamWriter(stream, SaveService.getFileEncoding(StandardCharsets.UTF_8.name()));
+    }
+
+    private static PtpAsyncFileWriter newAsyncFileWriter(String filename, boolean append, boolean autoflush,
+            boolean dropWhenFull) throws IOException {
+        return new PtpAsyncFileWriter(filename, append,
+                Charset.forName(SaveService.getFileEncoding(StandardCharsets.UTF_8.name())),
+                ASYNC_WRITER_QUEUE_SIZE, ASYNC_WRITER_BUFFER_SIZE, autoflush ? 0L : ASYNC_WRITER_MAX_LAG_MS,
+                PtpGzipBlockOutputStream.isCompressed(filename) ? GZIP_LEVEL : PtpAsyncFileWriter.UNCOMPRESSED,
+                dropWhenFull);
+    }
+    
+    private static PtpBinaryResultWriter getBinaryFileWriter(String filename, SampleSaveConfiguration saveConfig)
+            throws IOException {
+        if (filename == null || filename.length() == 0) {
+            return null;
+        }
+        filename = FileServer.resolveBaseRelativeName(filename);
+        PtpBinaryResultWriter writer = binaryResultFiles.get(filename);
+        if (writer == null) {
+            File pdir = new File(filename).getParentFile();
+            if (pdir != null && pdir.mkdirs()) {
+                log.info("Folder "+pdir.getAbsolutePath()+" was created");
+            }
+            // Appending starts a new segment, with its own schema and dictionary
+            OutputStream stream;
+            if (ASYNC_WRITER) {
+                stream = newAsyncFileWriter(filename, true, SAVING_AUTOFLUSH, false).getOutputStream();
+            } else {
+                stream = new BufferedOutputStream(new FileOutputStream(filename, true), 8192);
+                if (PtpGzipBlockOutputStream.isCompressed(filename)) {
+                    stream = new PtpGzipBlockOutputStream(stream, ASYNC_WRITER_BUFFER_SIZE, GZIP_LEVEL);
+                }
+            }
+            writer = new PtpBinaryResultWriter(stream, saveConfig, SAVING_AUTOFLUSH && !ASYNC_WRITER);
+            log.debug("Opened file: "+filename);
+            binaryResultFiles.put(filename, writer);
+        }
+        return writer;
+    }
+    
+    private static PtpBinaryAggregateSink getBinaryAggSink(String filename) throws IOException {
+        if (filename == null || filename.length() == 0) {
+            return null;
+        }
+        if (filename.startsWith(TCP_PREFIX)) {
+            // Streamed to the cluster merge of the controller, see PtpAggregateSocketReceiver
+            PtpBinaryAggregateSink sink = binaryFiles.get(filename);
+            if (sink == null) {
+                sink = new PtpBinaryAggregateSink(openAggSocket(filename.substring(TCP_PREFIX.length())));
+                log.debug("Opened stream: "+filename);
+                binaryFiles.put(filename, sink);
+            }
+            return sink;
+        }
+        filename = FileServer.resolveBaseRelativeName(filename);
+        PtpBinaryAggregateSink sink = binaryFiles.get(filename);
+        if (sink == null) {
+            File pdir = new File(filename).getParentFile();
+            if (pdir != null && pdir.mkdirs()) {
+                log.info("Folder "+pdir.getAbsolutePath()+" was created");
+            }
+            // Appending starts a new segment, with its own dictionary
+            if (ASYNC_WRITER) {
+                PtpAsyncFileWriter async = newAsyncFileWriter(filename, true, false, false);
+                aggWriters.put(filename, async);
+                sink = new PtpBinaryAggregateSink(async.getOutputStream());
+            } else {
+                sink = new PtpBinaryAggregateSink(new FileOutputStream(filename, true));
+            }
+            log.debug("Opened file: "+filename);
+            binaryFiles.put(filename, sink);
+        }
+        return sink;
+    }
+    
     private static PrintWriter getAggFileWriter(String filename, SampleSaveConfiguration saveConfig)
             throws IOException {
         if (filename == null || filename.length() == 0) {
@@ -564,12 +846,19 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
         FileEntry fe = files.get(filename);
         PrintWriter writer = null;
         boolean trimmed = true;
+        // Holds per-second rows whatever the format of the result file
+        if (saveConfig.saveAsXml()) {
+            saveConfig = (SampleSaveConfiguration) saveConfig.clone();
+            saveConfig.setAsXml(false);
+        }
 
+        boolean appendHeader = false;
         if (fe == null) {
-            if (saveConfig.saveAsXml()) {
-                trimmed = trimLastLine(filename);
-            } else {
-                trimmed = new File(filename).exists();
+            trimmed = new File(filename).length() > 0;
+            if (trimmed) {
+                // Rows of another layout may precede ours, mark where they start
+                appendHeader = PtpAggregateRowFormat.getDefault().getHeader() != null
+                        || hasAggHeader(new File(filename));
             }
             // Find the name of the directory containing the file
             // and create it - if there is one
@@ -583,21 +872,51 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
                     log.warn("Error creating directories for "+pdir.toString());
                 }
             }
-            writer = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(filename,
-                    trimmed), AGGREGATE_FLUSH_SIZE), SaveService.getFileEncoding(StandardCharsets.UTF_8.name())), AGGREGATE_SAVING_AUTOFLUSH);
-//            writer = new PrintWriter(new OutputStreamWriter(new FilterOutputStream(new FileOutputStream(filename,
-//                  trimmed)), SaveService.getFileEncoding(StandardCharsets.UTF_8.name())), AGGREGATE_SAVING_AUTOFLUSH);
+            // The asynchronous writer bounds the lag by itself, no need to flush every row.
+            // Written by the printing thread, not by the samplers, it may wait for the disk
+            Writer fileWriter = openFileWriter(filename, trimmed, AGGREGATE_FLUSH_SIZE, false, false);
+            if (fileWriter instanceof PtpAsyncFileWriter) {
+                aggWriters.put(filename, (PtpAsyncFileWriter) fileWriter);
+            }
+            writer = new PrintWriter(fileWriter, AGGREGATE_SAVING_AUTOFLUSH && !ASYNC_WRITER);
             log.debug("Opened file: "+filename);
             files.put(filename, new FileEntry(writer, saveConfig));
         } else {
             writer = fe.pw;
         }
         if (!trimmed) {
-            writeFileStart(writer, saveConfig);
+            String aggHeader = PtpAggregateRowFormat.getDefault().getHeader();
+            if (aggHeader != null) {
+                writer.println(aggHeader);
+            } else {
+                writeFileStart(writer, saveConfig);
+            }
+        } else if (appendHeader) {
+            writer.println(PtpAggregateRowFormat.getDefault().getSectionHeader());
         }
         return writer;
     }
 
+    /**
+     * @return true if some line of the agg file is a layout header, in which
+     *         case the rows appended to it must be preceded by theirs
+     */
+    private static boolean hasAggHeader(File file) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                PtpGzipBlockInputStream.open(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(PtpAggregateRowFormat.HEADER_PREFIX)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            log.warn("Could not read the layout of "+file+", writing a header before appending", e);
+            return true;
+        }
+    }
+
     // returns false if the file did not contain the terminator
     private static boolean trimLastLine(String filename) {
         RandomAccessFile raf = null;
@@ -653,6 +972,29 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
     public void sampleStopped(SampleEvent e) {
     }
 
+    /**
+     * Publishes the start of the sample to the watermark of the per-second aggregation.
+     */
+    @Override
+    public void sampleStarting(Sampler sampler) {
+        final PtpAggregateSession session = aggSession;
+        if (session != null) {
+            session.sampleStarting();
+        }
+    }
+
+    /**
+     * Ends the sample in flight in the watermark. The starts of all the
+     * samplers of the thread group are published, whether or not their result
+     * reaches this collector, so the slot is released here and not only when
+     * the result is aggregated. A sample crossing a second whose second closes
+     * between its end and its result is written as a correction row.
+     */
+    @Override
+    public void sampleEnded(Sampler sampler) {
+        releaseSampleSlot();
+    }
+
     /**
      * When a test result is received, display it and save it.
      *
@@ -665,32 +1007,93 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
 
         if (isSampleWanted(result.isSuccessful())) {
             sendToVisualizer(result);
-            if (out != null && !isResultMarked(result) && !this.isStats) {
-                SampleSaveConfiguration config = getSaveConfig();
-                result.setSaveConfig(config);
+            if ((out != null || binaryOut != null) && !isResultMarked(result) && !this.isStats) {
+                final PtpRawResultPolicy policy = rawPolicy;
+                if (policy == null) {
+                    writeResult(event);
+                } else {
+                    policy.offer(event, rawOutput);
+                }
+            }
+            // The agg file only gets per-second rows, whatever the format of the result file
+            if (aggSession != null && !this.isStats && !aggIsResultMarked(result)) {
                 try {
-                    if (config.saveAsXml()) {
-                        SaveService.saveSampleResult(event, out);
-                        if (agg_out!=null && !aggIsResultMarked(result)) {
-                            SaveService.saveSampleResult(event, agg_out);
-                        }
-                    } else { // !saveAsXml
-                        String savee = CSVSaveService.resultToDelimitedString(event);
-                        out.println(savee);
-                        requestCount.incrementAndGet();
-                        printAggregateResult(savee);
-                    }
+                    countRequest();
+                    printAggregateResult(result);
                 } catch (Exception err) {
-                    log.error("Error trying to record a sample", err); // should throw exception back to caller
+                    log.error("Error trying to aggregate a sample", err);
                 }
             }
         }
+        // Filtered out, not aggregated or failed: the sample is no longer in flight either,
+        // normally already done by sampleEnded
+        releaseSampleSlot();
 
         if(summariser != null) {
             summariser.sampleOccurred(event);
         }
     }
 
+    /**
+     * Writes a sample to the result file.
+     */
+    private void writeResult(SampleEvent event) {
+        final PtpBinaryResultWriter binary = binaryOut;
+        if (binary != null) {
+            binary.write(event);
+            return;
+        }
+        final PrintWriter[] shards = outShards;
+        final PrintWriter writer = shards == null ? out : shards[shardOf(event, shards.length)];
+        if (writer == null) {
+            return;
+        }
+        SampleResult result = event.getResult();
+        SampleSaveConfiguration config = getSaveConfig();
+        result.setSaveConfig(config);
+        try {
+            if (config.saveAsXml()) {
+                SaveService.saveSampleResult(event, writer);
+            } else { // !saveAsXml
+                PtpCSVSampleSerializer serializer = csvSerializer;
+                if (serializer == null || !serializer.isFor(config)) {
+                    serializer = new PtpCSVSampleSerializer(config);
+                    csvSerializer = serializer;
+                }
+                serializer.write(event, writer);
+            }
+        } catch (Exception err) {
+            log.error("Error trying to record a sample", err); // should throw exception back to caller
+        }
+    }
+    
+    private static int shardOf(SampleEvent event, int shards) {
+        if (RESULT_SHARD_BY_GROUP) {
+            final String group = event.getThreadGroup();
+            // samples without thread group, e.g. read back from a file, go together
+            return group == null ? 0 : (group.hashCode() & Integer.MAX_VALUE) % shards;
+        }
+        return (int) (Thread.currentThread().getId() % shards);
+    }
+    
+    private PtpRawResultPolicy parseRawPolicy() {
+        try {
+            final PtpRawResultPolicy policy = PtpRawResultPolicy.parse(getRawPolicy());
+            if (policy != null) {
+                rawOutput = new PtpRawResultPolicy.Output() {
+                    @Override
+                    public void write(SampleEvent event) {
+                        writeResult(event);
+                    }
+                };
+            }
+            return policy;
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid " + RAW_POLICY + ", writing all the samples: " + e.getMessage());
+            return null;
+        }
+    }
+
     protected final void sendToVisualizer(SampleResult r) {
         if (getVisualizer() != null) {
             getVisualizer().add(r);
@@ -735,11 +1138,26 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
 
         String filename = getFilename();
         if (filename != null) {
-            if (out == null) {
+            if (out == null && binaryOut == null) {
                 try {
-                    out = getFileWriter(filename, getSaveConfig());
+                    final SampleSaveConfiguration config = getSaveConfig();
+                    final int shards = getResultShards();
+                    if (config.saveAsBinary() && !config.saveAsXml()) {
+                        binaryOut = getBinaryFileWriter(filename, config);
+                    } else if (shards > 1 && filename.length() > 0 && !config.saveAsXml()) {
+                        PrintWriter[] writers = new PrintWriter[shards];
+                        for (int i = 0; i < shards; i++) {
+                            writers[i] = getFileWriter(PtpResultShards.shardName(filename, i), config);
+                        }
+                        outShards = writers;
+                        out = writers[0];
+                    } else {
+                        out = getFileWriter(filename, config);
+                    }
                 } catch (FileNotFoundException e) {
                     out = null;
+                    outShards = null;
+                    binaryOut = null;
                 }
             }
         }
@@ -748,26 +1166,123 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
     private void aggInitializeFileOutput() throws IOException {
         String filename = getAggFilename();
         if(filename != null) {
-            if(agg_out == null) {
-                try {
-                    agg_out = getAggFileWriter(filename, getSaveConfig());
-                    if (agg_out!=null) {
-                        printResultLogs(m_testTimeSeqStatistics);
+            try {
+                if(agg_sink == null) {
+                    if (AGG_BINARY) {
+                        agg_sink = getBinaryAggSink(filename);
+                    } else {
+                        agg_out = getAggFileWriter(filename, getSaveConfig());
+                        if (agg_out != null) {
+                            agg_sink = new PtpCsvAggregateSink(agg_out, PtpAggregateRowFormat.getDefault());
+                        }
                     }
-                } catch (Exception e) {
+                }
+                if (agg_sink!=null) {
+                    aggAcquireSession(filename);
+                }
+            } catch (Exception e) {
+                log.error("Error opening agg file " + filename, e);
+                if (aggSessionStarts == 0) {
                     agg_out = null;
+                    agg_sink = null;
                 }
             }
         }
     }
+    
+    /**
+     * Joins the aggregation of the agg file, starting it if this is the first
+     * collector of the test to use it.
+     */
+    private void aggAcquireSession(final String filename) throws IOException {
+        final String key = filename.startsWith(TCP_PREFIX) ? filename : FileServer.resolveBaseRelativeName(filename);
+        PtpAggregateSession session = aggSessions.get(key);
+        if (session == null) {
+            session = new PtpAggregateSession(key,
+                    StringUtils.defaultIfEmpty(getPropertyAsString(ROUNDID_PROP_NAME), NETEASE_INVALID_VALUE));
+            try {
+                startAggregation(session, filename);
+            } catch (IOException | RuntimeException e) {
+                session.close();
+                throw e;
+            }
+            aggSessions.put(key, session);
+        }
+        session.acquire();
+        // the result files of this collector were opened just before
+        session.getMetrics().addResultWriters(resultWriters.values());
+        aggSession = session;
+        aggSessionStarts++;
+    }
+    
+    /**
+     * Leaves the aggregation joined by the matching testStarted, closing it
+     * if this was the last collector using it.
+     */
+    private void aggReleaseSession() {
+        final PtpAggregateSession session = aggSession;
+        if (session == null || aggSessionStarts <= 0) {
+            return;
+        }
+        if (session.release()) {
+            aggSessions.remove(session.getName());
+            session.close();
+        }
+        if (--aggSessionStarts == 0) {
+            final PtpRawResultPolicy policy = rawPolicy;
+            rawPolicy = null;
+            if (policy != null) {
+                // the exemplars still held
+                policy.flush(rawOutput);
+            }
+            // The writers are shared with the other collectors, they are closed with the files
+            aggSession = null;
+            agg_out = null;
+            agg_sink = null;
+        }
+    }
+    
+    /**
+     * Ends the sample in flight of the calling thread, a no-op if the
+     * aggregation already did it when recording the sample.
+     */
+    private void releaseSampleSlot() {
+        final PtpAggregateSession session = aggSession;
+        if (session != null) {
+            session.sampleSkipped();
+        }
+    }
+
+    private void countRequest() {
+        final PtpAggregateSession session = aggSession;
+        if (session != null) {
+            session.requestCounted();
+        }
+    }
 
     /**
      * Flush PrintWriter to synchronize file contents
      */
     public void flushFile() {
+        final PtpBinaryResultWriter binary = binaryOut;
+        if (binary != null) {
+            log.info("forced flush through ResultCollector#flushFile");
+            try {
+                binary.flush();
+            } catch (IOException e) {
+                log.warn("Problem flushing binary result file", e);
+            }
+        }
         if (out != null) {
             log.info("forced flush through ResultCollector#flushFile");
-            out.flush();
+            final PrintWriter[] shards = outShards;
+            if (shards == null) {
+                out.flush();
+            } else {
+                for (PrintWriter shard : shards) {
+                    shard.flush();
+                }
+            }
         }
     }
     
@@ -790,6 +1305,24 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
                 log.warn("Problem detected during use of "+me.getKey());
             }
         }
+        for(Map.Entry<String, PtpBinaryResultWriter> me : binaryResultFiles.entrySet()){
+            log.debug("Flushing: "+me.getKey());
+            try {
+                me.getValue().flush();
+            } catch (IOException e) {
+                log.warn("Problem detected during use of "+me.getKey(), e);
+            }
+        }
+        // The binary streams only reach the file when closed
+        for(Map.Entry<String, PtpBinaryAggregateSink> me : binaryFiles.entrySet()){
+            log.debug("Closing: "+me.getKey());
+            try {
+                me.getValue().close();
+            } catch (IOException e) {
+                log.warn("Problem detected during use of "+me.getKey(), e);
+            }
+        }
+        binaryFiles.clear();
     }
     
     private void finalizeFileOutput() {
@@ -803,6 +1336,26 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
             }
         }
         files.clear();
+        aggWriters.clear();
+        resultWriters.clear();
+        for(Map.Entry<String, PtpBinaryResultWriter> me : binaryResultFiles.entrySet()){
+            log.debug("Closing: "+me.getKey());
+            try {
+                me.getValue().close();
+            } catch (IOException e) {
+                log.warn("Problem detected during use of "+me.getKey(), e);
+            }
+        }
+        binaryResultFiles.clear();
+        for(Map.Entry<String, PtpBinaryAggregateSink> me : binaryFiles.entrySet()){
+            log.debug("Closing: "+me.getKey());
+            try {
+                me.getValue().close();
+            } catch (IOException e) {
+                log.warn("Problem detected during use of "+me.getKey(), e);
+            }
+        }
+        binaryFiles.clear();
     }
 
     /**
@@ -832,136 +1385,206 @@ public class ResultCollector extends AbstractListenerElement implements SampleLi
     public void clearData() {
     }
     
-    private void printAggregateResult(String savee) {
-        if (agg_out == null || savee == null || savee.length() <= 0 || savee.split(COMMA_DELIMITER).length != JMETER_RESULT_ROW_SIZE) {
+    /**
+     * Aggregates a sample without building or parsing its CSV line.
+     * 
+     * @param result the sample to aggregate
+     */
+    private void printAggregateResult(SampleResult result) {
+        final PtpAggregateSession session = aggSession;
+        if (session == null || result == null) {
             return ;
         }
-        if (ROUND_ID == null || ROUND_ID.equals(NETEASE_INVALID_VALUE)) {
-            ROUND_ID = getPropertyAsString(ROUNDID_PROP_NAME);
-        }
-        if (MACHINE_ID == null || MACHINE_ID.equals(NETEASE_INVALID_VALUE)) {
-            MACHINE_ID = getMachineSnByCMD();
-        }
-        String testId = getTestIdFromSavee(savee);
-        String timestamp = savee.substring(0, savee.indexOf(COMMA_DELIMITER,0));
-//        String tenSecondTimestamp = String.valueOf((Long.parseLong(timestamp)/10000L)*10L);
-        if (ROUND_ID!=null && MACHINE_ID!=null && testId!=null) {
-            final String keyName = ROUND_ID+VERTICAL_DELIMITER+MACHINE_ID+VERTICAL_DELIMITER+testId+VERTICAL_DELIMITER+Long.parseLong(timestamp)/1000L;
-            aggregateTimeSequence(keyName, parseEveryResponseRow(savee, timestamp));
-//            final String keyName = ROUND_ID+VERTICAL_DELIMITER+MACHINE_ID+VERTICAL_DELIMITER+testId+VERTICAL_DELIMITER+tenSecondTimestamp;
-//            aggregateTimeSequence(keyName, parseEveryResponseRow(savee, tenSecondTimestamp));
+        String testId = result.getSampleLabel();
+        if (testId!=null) {
+            session.record(testId, PtpSampleRecord.fromSampleResult(result));
         }
     }
     
-    private String getMachineSnByCMD() {
-        try {
-            R result = ExecCmdOwn.execCmdReturnString(SN_COMMAND);
-            return ( result == null || result.get(SN_RESULT_KEY) == null || result.get(SN_RESULT_KEY).equals("") )  ? NETEASE_INVALID_VALUE : (String)result.get(SN_RESULT_KEY);
-        } catch (Exception e) {
-            return NETEASE_INVALID_VALUE;
-        } 
+    /**
+     * @return the machine id written in the agg rows of this JVM, see {@link PtpNodeIdentity}
+     */
+    static String getMachineId() {
+        return PtpNodeIdentity.get();
     }
     
-    private String getTestIdFromSavee(String savee) {
-        if (savee == null) {
-            return null;
+    /**
+     * Writes the buckets closed by a remote engine to the agg file, with the
+     * machine id of the engine and the round id of this test.
+     */
+    @Override
+    public void aggregatesReceived(final String host, final List<PtpBinaryAggregateReader.Row> rows) {
+        final PtpAggregateSession session = aggSession;
+        if (session != null) {
+            session.remoteRowsReceived(PtpNodeIdentity.getRemoteNodeId(host), rows);
         }
-        return savee.substring(savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1));
     }
     
-    private CopyOnWriteArrayList<Long> parseEveryResponseRow(String savee, String timestamp) {
-        CopyOnWriteArrayList<Long> longStatics = new CopyOnWriteArrayList<Long>();
-        
-        if (timestamp!=null) {
-            longStatics.add(Long.parseLong(timestamp.trim()));
-        }
-        String elapsed = savee.substring(savee.indexOf(COMMA_DELIMITER,0)+1, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,0)+1));
-        if (elapsed!=null) {
-            longStatics.add(Long.parseLong(elapsed.trim()));
+    /**
+     * Merges the buckets of the load generators into <code>agg.cluster.csv</code>
+     * for <code>agg.csv</code>, from RMI and, if <code>ptp.aggregate.cluster.port</code>
+     * is set, from the agg streams written to <code>tcp://host:port</code>.
+     */
+    private void startClusterMerge(final PtpAggregateSession session, final String aggFilename) throws IOException {
+        final String filename = getClusterFilename(aggFilename);
+        final PtpAggregateSink sink;
+        if (AGG_BINARY) {
+            sink = getBinaryAggSink(filename);
+        } else {
+            PrintWriter writer = getAggFileWriter(filename, getSaveConfig());
+            sink = writer == null ? null : new PtpCsvAggregateSink(writer, PtpAggregateRowFormat.getDefault());
         }
-        String statusCode = savee.substring(savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1));
-        if(statusCode!=null) {
-            if (StringUtils.isNumeric(statusCode.trim())) {
-                longStatics.add(Long.parseLong(statusCode.trim()));
-            }else {
-                longStatics.add(504L);
-            }
+        if (sink == null) {
+            return;
         }
-        String successCode = savee.substring(savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1)+1, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1)+1));
-        if (successCode!=null) {
-            longStatics.add(Boolean.parseBoolean(successCode.trim()) ? 0L : 1L);
+        final PtpClusterMerger merger = new PtpClusterMerger(sink,
+                JMeterUtils.getPropDefault("ptp.aggregate.cluster.precision", PtpLatencyHistogram.DEFAULT_PRECISION), //$NON-NLS-1$
+                JMeterUtils.getPropDefault("ptp.aggregate.cluster.max_delay_ms", 10000L), //$NON-NLS-1$
+                JMeterUtils.getPropDefault("ptp.aggregate.cluster.source_timeout_ms", 30000L)); //$NON-NLS-1$
+        session.startClusterMerge(merger,
+                AGG_CLUSTER_PORT > 0 ? new PtpAggregateSocketReceiver(AGG_CLUSTER_PORT, merger) : null);
+    }
+    
+    private static OutputStream openAggSocket(final String address) throws IOException {
+        final int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IOException("Expected tcp://host:port, got " + TCP_PREFIX + address);
         }
-        String bytes = savee.substring(savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1)+1)+1, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1)+1)+1));
-        if (bytes!=null) {
-            longStatics.add(Long.parseLong(bytes.trim()));
+        @SuppressWarnings("resource") // closed with the sink
+        final Socket socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        return socket.getOutputStream();
+    }
+    
+    /**
+     * Opens the cluster merge, the journal and the rollups of a new session
+     * and starts its printing to the agg sink of this collector.
+     */
+    private void startAggregation(final PtpAggregateSession session, final String aggFilename) throws IOException {
+        if (AGG_CLUSTER) {
+            startClusterMerge(session, aggFilename);
         }
-        String latency = savee.substring(savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1)+1)+1)+1, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1)+1)+1)+1));
-        if (latency!=null) {
-            longStatics.add(Long.parseLong(latency.trim()));
+        if (AGG_JOURNAL && !aggFilename.startsWith(TCP_PREFIX)) {
+            session.setJournal(openJournal(session, aggFilename));
         }
-        String connect = savee.substring(savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER, savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,savee.indexOf(COMMA_DELIMITER,1)+1)+1)+1)+1)+1)+1)+1);
-        if(connect!=null) {
-            longStatics.add(Long.parseLong(connect.trim()));
+        session.getMetrics().setWriter(aggWriters.get(session.getName()));
+        session.startPrinting(agg_sink, createRollupLevels(session, aggFilename));
+    }
+    
+    /**
+     * Opens one file per rollup window listed in <code>ptp.aggregate.rollups</code>,
+     * named by <code>ptp.aggregate.rollup.&lt;seconds&gt;.filename</code> or else
+     * derived from the agg filename, e.g. <code>agg.10s.csv</code> for <code>agg.csv</code>.
+     */
+    private List<PtpRollupLevel> createRollupLevels(final PtpAggregateSession session, final String aggFilename) throws IOException {
+        List<PtpRollupLevel> levels = new ArrayList<>(ROLLUP_WINDOWS.length);
+        for (int windowSeconds : ROLLUP_WINDOWS) {
+            // A stream has no name to derive from, its rollups need an explicit one
+            String filename = JMeterUtils.getPropDefault("ptp.aggregate.rollup." + windowSeconds + ".filename", //$NON-NLS-1$
+                    aggFilename.startsWith(TCP_PREFIX) ? null : getRollupFilename(aggFilename, windowSeconds));
+            PtpAggregateSink sink;
+            if (AGG_BINARY) {
+                sink = getBinaryAggSink(filename);
+            } else {
+                PrintWriter writer = getAggFileWriter(filename, getSaveConfig());
+                sink = writer == null ? null : new PtpCsvAggregateSink(writer, PtpAggregateRowFormat.getDefault());
+            }
+            if (sink != null) {
+                levels.add(new PtpRollupLevel(windowSeconds, sink, session.getRoundId()));
+            }
         }
-//        System.out.println("-----------longStatics:" + longStatics);
-        return longStatics;
+        return levels;
     }
     
-    private void aggregateTimeSequence(final String keyName, final CopyOnWriteArrayList<Long> longStatics) {
+    /**
+     * Opens the journal <code>&lt;agg filename&gt;.wal</code>, writes the
+     * buckets it recovers from a previous run killed before writing them to
+     * <code>agg.partial.csv</code> for <code>agg.csv</code>, then journals the
+     * samples of this run.
+     */
+    private static PtpAggregateJournal openJournal(final PtpAggregateSession session, final String aggFilename) {
+        final String filename = FileServer.resolveBaseRelativeName(aggFilename);
         try {
-            lock.lockInterruptibly();
-            if (longStatics == null) {
-                return;
+            // Commits wait until the rows they cover have left the asynchronous writer
+            final PtpAggregateJournal journal = new PtpAggregateJournal(new File(filename + ".wal"), //$NON-NLS-1$
+                    AGG_JOURNAL_SIZE_MB * 1024L * 1024L, session.getAccumulator().getHistogramPrecision(),
+                    ASYNC_WRITER ? 2 * ASYNC_WRITER_MAX_LAG_MS : 0L);
+            writeRecoveredRows(journal.takeRecovered(), getPartialFilename(filename));
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            log.error("Error opening aggregate journal of " + filename + ", open seconds will not survive a crash", e);
+            return null;
+        }
+    }
+    
+    private static void writeRecoveredRows(final List<PtpBinaryAggregateReader.Row> rows, final String filename)
+            throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        final boolean exists = new File(filename).exists();
+        final Closeable file;
+        final PtpAggregateSink sink;
+        if (AGG_BINARY) {
+            PtpBinaryAggregateSink binary = new PtpBinaryAggregateSink(new FileOutputStream(filename, true));
+            file = binary;
+            sink = binary;
+        } else {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(filename, true),
+                    SaveService.getFileEncoding(StandardCharsets.UTF_8.name())));
+            String aggHeader = PtpAggregateRowFormat.getDefault().getHeader();
+            if (!exists && aggHeader != null) {
+                writer.println(aggHeader);
             }
-            if(!m_testTimeSeqStatistics.containsKey(keyName)) {
-                m_testTimeSeqStatistics.put(keyName, new AtomicStampedReference<TestTimeSequenceStatistics>(new TestTimeSequenceStatistics(longStatics), 0));
-                return;
+            file = writer;
+            sink = new PtpCsvAggregateSink(writer, PtpAggregateRowFormat.getDefault());
+        }
+        try {
+            for (PtpBinaryAggregateReader.Row row : rows) {
+                sink.write(row.getRound(), row.getMachine(), row.getLabel(), row.getSecond(), row.getStatistics());
             }
-            timeSequenceStatisticsWork(longStatics, m_testTimeSeqStatistics.get(keyName).getReference());
-        } catch (Exception e) {
-            log.error("ptp aggregate occur exception:"+e);
+            sink.flush();
         } finally {
-            lock.unlock();
+            file.close();
         }
+        log.warn("Wrote " + rows.size() + " partial rows recovered from the aggregate journal to " + filename);
     }
     
-    private synchronized void timeSequenceStatisticsWork(final CopyOnWriteArrayList<Long> longStaticsArray, final TestTimeSequenceStatistics testTimeSequenceStatistics) {
-        if(testTimeSequenceStatistics==null || longStaticsArray.size() < 2) {
-            return;
-        }
-        final PtpStatisticTask statisticTask = new PtpStatisticTask(longStaticsArray, testTimeSequenceStatistics, lock);
-        exec.execute(statisticTask); 
+    static String getClusterFilename(final String aggFilename) {
+        return insertSuffix(aggFilename, ".cluster"); //$NON-NLS-1$
     }
     
-    private synchronized void printResultLogs(final Map<String, AtomicStampedReference<TestTimeSequenceStatistics>> m_testTimeSeqStatistics) {
-        if(uploadLock.get() == 0) {
-            printResultlogTask = new PtpPrintResultlogTask(m_testTimeSeqStatistics, agg_out, lock);
-            exec.scheduleAtFixedRate(printResultlogTask, 3, 1, TimeUnit.SECONDS);
-//            printResultlogTask = new PtpPrintResultlogTask(m_testTimeSeqStatistics, agg_out, lock, ROUND_START_TIMESTAMP);
-//            exec.scheduleAtFixedRate(printResultlogTask, 12, 10, TimeUnit.SECONDS);
-            uploadLock.incrementAndGet();
-        }
+    static String getPartialFilename(final String aggFilename) {
+        return insertSuffix(aggFilename, ".partial"); //$NON-NLS-1$
     }
     
-    public synchronized void lastPrintResultLogTask() {
-        final PtpPrintResultlogTask printResultlogTask = new PtpPrintResultlogTask(m_testTimeSeqStatistics, agg_out, lock);
-//        final PtpPrintResultlogTask printResultlogTask = new PtpPrintResultlogTask(m_testTimeSeqStatistics, agg_out, lock, ROUND_START_TIMESTAMP);
-        printResultlogTask.run();
+    static String getRollupFilename(final String aggFilename, final int windowSeconds) {
+        return insertSuffix(aggFilename, "." + windowSeconds + "s"); //$NON-NLS-1$
     }
     
-    private void ptpClear() {
-        LockSupport.parkNanos(PTP_WAIT_AGGREGATE);
-        if (m_testTimeSeqStatistics != null && m_testTimeSeqStatistics.size() > 0) {
-            lastPrintResultLogTask();
-        }
-        System.out.println("ptp----------total request: "+ResultCollector.requestCount.get());
-        System.out.println("ptp----------aggregate total request: "+PtpPrintResultlogTask.aggregateCount.get());
-        if (agg_out != null) {
-            agg_out.flush();
-            agg_out.close();
+    private static String insertSuffix(final String aggFilename, final String suffix) {
+        int separator = Math.max(aggFilename.lastIndexOf('/'), aggFilename.lastIndexOf('\\'));
+        int dot = aggFilename.lastIndexOf('.');
+        if (dot <= separator + 1) {
+            return aggFilename + suffix;
         }
-        if (exec != null) {
-            exec.shutdown();
+        return aggFilename.substring(0, dot) + suffix + aggFilename.substring(dot);
+    }
+    
+    /**
+     * Prints the open seconds of the running test, which goes on.
+     */
+    public void lastPrintResultLogTask() {
+        // Reuses the scheduled task so both never print concurrently
+        final PtpAggregateSession session = aggSession;
+        if (session != null) {
+            session.printLast();
         }
     }
+    
+    /**
+     * @return the aggregation of the running test, <code>null</code> if this collector does not aggregate
+     */
+    PtpAggregateSession getAggregateSession() {
+        return aggSession;
+    }
 }
@@ -1,205 +1,518 @@
 package org.apache.jmeter.reporters;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.mutable.MutableInt;
 
 /**
  * 
  * TestTimeSequenceStatistics.
- * 
- * @author jiangshaoyu
+ * <p>
+ * Statistics of one label during one second. Instances are not thread-safe:
+ * each one is owned by a single stripe of {@link PtpStripedAccumulator} and
+ * only touched while holding that stripe, the stripes being merged with
+ * {@link #merge(TestTimeSequenceStatistics)} once the second is closed.
+ * <p>
+ * The RT detail is either kept as one counter per distinct millisecond value
+ * or, when built with a histogram precision, in a {@link PtpLatencyHistogram}
+ * whose size does not depend on the number of distinct values.
  */
 public class TestTimeSequenceStatistics implements Serializable{
 
-    private static final long serialVersionUID = 1L;
-    private static final int JMETER_RESULT_ROW_SIZE = 7;
-    
-    private final AtomicLong testTime = new AtomicLong(0L);
-    private final AtomicLong maxTestTime = new AtomicLong(0L);
-    private final AtomicLong errors = new AtomicLong(0L);
-    private final AtomicLong status1xx = new AtomicLong(0L);
-    private final AtomicLong status2xx = new AtomicLong(0L);
-    private final AtomicLong status3xx = new AtomicLong(0L);
-    private final AtomicLong status4xx = new AtomicLong(0L);
-    private final AtomicLong status5xx = new AtomicLong(0L);
-    private final AtomicLong httpResponseLen = new AtomicLong(0L);
-    private final AtomicLong httpResponseErrors = new AtomicLong(0L);
-    private final AtomicLong timeToResolveHost = new AtomicLong(0L);
-    private final AtomicLong maxTimeToResolveHost = new AtomicLong(0L);
-    private final AtomicLong timeToEstabishConn = new AtomicLong(0L);
-    private final AtomicLong maxTimeToEstabishConn = new AtomicLong(0L);
-    private final AtomicLong timeToFirstByte = new AtomicLong(0L);
-    private final AtomicLong maxTimeToFirstByte = new AtomicLong(0L);
-    private final AtomicLong newConnections = new AtomicLong(0L);
-    private final AtomicInteger requestCount = new AtomicInteger(0);
-    private final Map<Long, AtomicInteger> allTestTime = new ConcurrentHashMap<Long, AtomicInteger>();
-    
-    public TestTimeSequenceStatistics(final CopyOnWriteArrayList<Long> longStatics) {
-        if(longStatics.size() == JMETER_RESULT_ROW_SIZE) {
-            this.errors.set(longStatics.get(3));
-            this.requestCount.incrementAndGet();
-            this.allTestTime.clear();
-            this.allTestTime.put(longStatics.get(1), new AtomicInteger(1));
-            countHttpRespCode(longStatics.get(2));
-            this.testTime.set(longStatics.get(1));
-            this.maxTestTime.set(longStatics.get(1));
-            if(longStatics.get(3) == 0L) {
-                this.httpResponseLen.set(longStatics.get(4));
-                this.httpResponseErrors.set(longStatics.get(3));
-                this.timeToEstabishConn.set(longStatics.get(6));
-                this.maxTimeToEstabishConn.set(longStatics.get(6));
-                this.timeToFirstByte.set(longStatics.get(5));
-                this.maxTimeToFirstByte.set(longStatics.get(5));
-            }
+    private static final long serialVersionUID = 2L;
+    
+    private long testTime;
+    private double testTimeSquares;
+    private long maxTestTime;
+    private long errors;
+    private long status1xx;
+    private long status2xx;
+    private long status3xx;
+    private long status4xx;
+    private long status5xx;
+    private long httpResponseLen;
+    private long httpResponseErrors;
+    private long timeToResolveHost;
+    private long maxTimeToResolveHost;
+    private long timeToEstabishConn;
+    private long maxTimeToEstabishConn;
+    private long timeToFirstByte;
+    private long maxTimeToFirstByte;
+    private long newConnections;
+    private int requestCount;
+    private final Map<Long, MutableInt> allTestTime;
+    private final PtpLatencyHistogram histogram;
+    
+    // RT detail markers of the binary form
+    private static final int BINARY_KV = 'K';
+    private static final int BINARY_HISTOGRAM = 'H';
+    
+    public TestTimeSequenceStatistics() {
+        this(0);
+    }
+    
+    /**
+     * @param histogramPrecision precision of the RT detail histogram,
+     *            0 or less to count each distinct RT value exactly
+     */
+    public TestTimeSequenceStatistics(final int histogramPrecision) {
+        if (histogramPrecision > 0) {
+            this.histogram = new PtpLatencyHistogram(histogramPrecision);
+            this.allTestTime = null;
+        } else {
+            this.histogram = null;
+            this.allTestTime = new HashMap<>();
         }
     }
+    
+    private TestTimeSequenceStatistics(final PtpLatencyHistogram histogram) {
+        this.histogram = histogram;
+        this.allTestTime = null;
+    }
+    
+    public TestTimeSequenceStatistics(final PtpSampleRecord record) {
+        this();
+        combine(record);
+    }
        
-    public synchronized void combine(final CopyOnWriteArrayList<Long> longStatics){
-        this.errors.addAndGet(longStatics.get(3));
-        this.requestCount.incrementAndGet();
-        countHttpRespCode(longStatics.get(2));
-        this.testTime.addAndGet(longStatics.get(1));
-        if(allTestTime.containsKey(longStatics.get(1))) {
-            allTestTime.get(longStatics.get(1)).incrementAndGet();
+    public void combine(final PtpSampleRecord record){
+        this.errors += record.getErrors();
+        this.requestCount++;
+        countHttpRespCode(record.getResponseCode());
+        this.testTime += record.getElapsed();
+        this.testTimeSquares += (double) record.getElapsed() * record.getElapsed();
+        addTestTimes(record.getElapsed(), 1);
+        calMaxTestTime(record.getElapsed());
+        
+        if(record.getErrors() == 0L) {
+            this.httpResponseLen += record.getBytes();
+            this.httpResponseErrors += record.getErrors();
+            this.timeToEstabishConn += record.getConnectTime();
+            calMaxTimeToEstabishConn(record.getConnectTime());
+            this.timeToFirstByte += record.getLatency();
+            calMaxTimeToFirstByte(record.getLatency());
+        }
+    }
+    
+    /**
+     * Adds the statistics of another stripe, window or engine for the same label.
+     * Exact RT details and histograms of any precision can be merged into a
+     * histogram, see {@link PtpLatencyHistogram#mergeRebinned(PtpLatencyHistogram)}.
+     * 
+     * @param other the statistics to add, left unchanged
+     * @throws IllegalArgumentException if <code>other</code> has a histogram and this has not
+     */
+    public void merge(final TestTimeSequenceStatistics other) {
+        this.testTime += other.testTime;
+        this.testTimeSquares += other.testTimeSquares;
+        calMaxTestTime(other.maxTestTime);
+        this.errors += other.errors;
+        this.status1xx += other.status1xx;
+        this.status2xx += other.status2xx;
+        this.status3xx += other.status3xx;
+        this.status4xx += other.status4xx;
+        this.status5xx += other.status5xx;
+        this.httpResponseLen += other.httpResponseLen;
+        this.httpResponseErrors += other.httpResponseErrors;
+        this.timeToResolveHost += other.timeToResolveHost;
+        calMaxTimeToResolveHost(other.maxTimeToResolveHost);
+        this.timeToEstabishConn += other.timeToEstabishConn;
+        calMaxTimeToEstabishConn(other.maxTimeToEstabishConn);
+        this.timeToFirstByte += other.timeToFirstByte;
+        calMaxTimeToFirstByte(other.maxTimeToFirstByte);
+        this.newConnections += other.newConnections;
+        this.requestCount += other.requestCount;
+        if (other.histogram != null) {
+            if (histogram == null) {
+                throw new IllegalArgumentException("Cannot merge a histogram RT detail into an exact one");
+            }
+            histogram.mergeRebinned(other.histogram);
         } else {
-            allTestTime.put(longStatics.get(1), new AtomicInteger(1));
+            for (Entry<Long, MutableInt> entry : other.allTestTime.entrySet()) {
+                addTestTimes(entry.getKey(), entry.getValue().intValue());
+            }
         }
-        calMaxTestTime(longStatics.get(1));
-        
-        if(longStatics.get(3) == 0L) {
-            this.httpResponseLen.addAndGet(longStatics.get(4));
-            this.httpResponseErrors.addAndGet(longStatics.get(3));
-            this.timeToEstabishConn.addAndGet(longStatics.get(6));
-            calMaxTimeToEstabishConn(longStatics.get(6));
-            this.timeToFirstByte.addAndGet(longStatics.get(5));
-            calMaxTimeToFirstByte(longStatics.get(5));
+    }
+    
+    /**
+     * Writes the binary form used by the binary agg file: the kind of RT
+     * detail and the histogram precision if any, every counter as a variable
+     * length long, then the RT detail: either the RT values in ascending order
+     * as deltas with their counts, or the sum of the squared RT, which the
+     * histogram cannot give back, followed by the histogram buckets.
+     * 
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        if (histogram != null) {
+            out.writeByte(BINARY_HISTOGRAM);
+            PtpVarInts.writeVarLong(out, histogram.getPrecision());
+        } else {
+            out.writeByte(BINARY_KV);
+        }
+        PtpVarInts.writeVarLong(out, requestCount);
+        PtpVarInts.writeSignedVarLong(out, testTime);
+        PtpVarInts.writeSignedVarLong(out, maxTestTime);
+        PtpVarInts.writeVarLong(out, errors);
+        PtpVarInts.writeVarLong(out, status1xx);
+        PtpVarInts.writeVarLong(out, status2xx);
+        PtpVarInts.writeVarLong(out, status3xx);
+        PtpVarInts.writeVarLong(out, status4xx);
+        PtpVarInts.writeVarLong(out, status5xx);
+        PtpVarInts.writeSignedVarLong(out, httpResponseLen);
+        PtpVarInts.writeVarLong(out, httpResponseErrors);
+        PtpVarInts.writeSignedVarLong(out, timeToResolveHost);
+        PtpVarInts.writeSignedVarLong(out, maxTimeToResolveHost);
+        PtpVarInts.writeSignedVarLong(out, timeToEstabishConn);
+        PtpVarInts.writeSignedVarLong(out, maxTimeToEstabishConn);
+        PtpVarInts.writeSignedVarLong(out, timeToFirstByte);
+        PtpVarInts.writeSignedVarLong(out, maxTimeToFirstByte);
+        PtpVarInts.writeVarLong(out, newConnections);
+        if (histogram != null) {
+            out.writeDouble(testTimeSquares);
+            histogram.writeBucketsTo(out);
+            return;
+        }
+        final long[] values = new long[allTestTime.size()];
+        int i = 0;
+        for (Long value : allTestTime.keySet()) {
+            values[i++] = value.longValue();
+        }
+        Arrays.sort(values);
+        PtpVarInts.writeVarLong(out, values.length);
+        long previous = 0L;
+        for (long value : values) {
+            PtpVarInts.writeSignedVarLong(out, value - previous);
+            PtpVarInts.writeVarLong(out, allTestTime.get(value).intValue());
+            previous = value;
+        }
+    }
+    
+    /**
+     * Reads the binary form written by {@link #writeTo(DataOutput)}.
+     * 
+     * @param in where to read
+     * @return the statistics
+     * @throws IOException if reading fails or the data is not valid
+     */
+    public static TestTimeSequenceStatistics readFrom(final DataInput in) throws IOException {
+        final int detail = in.readUnsignedByte();
+        if (detail != BINARY_HISTOGRAM && detail != BINARY_KV) {
+            throw new IOException("Unknown RT detail marker: " + detail);
+        }
+        final TestTimeSequenceStatistics statistics;
+        if (detail == BINARY_HISTOGRAM) {
+            statistics = new TestTimeSequenceStatistics(PtpLatencyHistogram.newHistogram(PtpVarInts.readVarInt(in)));
+        } else {
+            statistics = new TestTimeSequenceStatistics();
+        }
+        statistics.requestCount = PtpVarInts.readVarInt(in);
+        statistics.testTime = PtpVarInts.readSignedVarLong(in);
+        statistics.maxTestTime = PtpVarInts.readSignedVarLong(in);
+        statistics.errors = PtpVarInts.readVarLong(in);
+        statistics.status1xx = PtpVarInts.readVarLong(in);
+        statistics.status2xx = PtpVarInts.readVarLong(in);
+        statistics.status3xx = PtpVarInts.readVarLong(in);
+        statistics.status4xx = PtpVarInts.readVarLong(in);
+        statistics.status5xx = PtpVarInts.readVarLong(in);
+        statistics.httpResponseLen = PtpVarInts.readSignedVarLong(in);
+        statistics.httpResponseErrors = PtpVarInts.readVarLong(in);
+        statistics.timeToResolveHost = PtpVarInts.readSignedVarLong(in);
+        statistics.maxTimeToResolveHost = PtpVarInts.readSignedVarLong(in);
+        statistics.timeToEstabishConn = PtpVarInts.readSignedVarLong(in);
+        statistics.maxTimeToEstabishConn = PtpVarInts.readSignedVarLong(in);
+        statistics.timeToFirstByte = PtpVarInts.readSignedVarLong(in);
+        statistics.maxTimeToFirstByte = PtpVarInts.readSignedVarLong(in);
+        statistics.newConnections = PtpVarInts.readVarLong(in);
+        if (detail == BINARY_HISTOGRAM) {
+            statistics.testTimeSquares = in.readDouble();
+            statistics.histogram.readBucketsFrom(in);
+            return statistics;
+        }
+        final int size = PtpVarInts.readVarInt(in);
+        long value = 0L;
+        for (int i = 0; i < size; i++) {
+            value += PtpVarInts.readSignedVarLong(in);
+            final int count = PtpVarInts.readVarInt(in);
+            statistics.addTestTimes(value, count);
+            statistics.testTimeSquares += (double) value * value * count;
         }
-    }    
+        return statistics;
+    }
+    
+    /**
+     * Parses the statistics columns of a text agg row, see {@link PtpAggregateRowFormat}.
+     * The sum of the squared RT is rebuilt from the RT values, or else from the
+     * standard deviation column if present (rounded), or else taken as if
+     * every RT was the mean.
+     * 
+     * @param columns the columns of the row
+     * @param start index of the sumRt column
+     * @return the statistics
+     * @throws IllegalArgumentException if a column is missing or not valid
+     */
+    static TestTimeSequenceStatistics parseColumns(final String[] columns, final int start) {
+        if (columns.length < start + 5) {
+            throw new IllegalArgumentException("Missing columns, got " + columns.length);
+        }
+        final String detail = columns[start + 2];
+        final TestTimeSequenceStatistics statistics;
+        if (PtpLatencyHistogram.isCompactString(detail)) {
+            statistics = new TestTimeSequenceStatistics(PtpLatencyHistogram.fromCompactString(detail));
+        } else {
+            statistics = new TestTimeSequenceStatistics();
+            for (String pair : StringUtils.split(detail, '|')) {
+                final int colon = pair.indexOf(':');
+                final long value = Long.parseLong(pair.substring(0, colon));
+                final int count = Integer.parseInt(pair.substring(colon + 1));
+                statistics.addTestTimes(value, count);
+                statistics.testTimeSquares += (double) value * value * count;
+            }
+        }
+        statistics.testTime = Long.parseLong(columns[start]);
+        statistics.maxTestTime = Long.parseLong(columns[start + 1]);
+        statistics.errors = Long.parseLong(columns[start + 3]);
+        statistics.requestCount = Integer.parseInt(columns[start + 4]);
+        if (columns.length >= start + 19) {
+            statistics.status1xx = Long.parseLong(columns[start + 5]);
+            statistics.status2xx = Long.parseLong(columns[start + 6]);
+            statistics.status3xx = Long.parseLong(columns[start + 7]);
+            statistics.status4xx = Long.parseLong(columns[start + 8]);
+            statistics.status5xx = Long.parseLong(columns[start + 9]);
+            statistics.httpResponseLen = Long.parseLong(columns[start + 10]);
+            statistics.httpResponseErrors = Long.parseLong(columns[start + 11]);
+            statistics.timeToResolveHost = Long.parseLong(columns[start + 12]);
+            statistics.maxTimeToResolveHost = Long.parseLong(columns[start + 13]);
+            statistics.timeToEstabishConn = Long.parseLong(columns[start + 14]);
+            statistics.maxTimeToEstabishConn = Long.parseLong(columns[start + 15]);
+            statistics.timeToFirstByte = Long.parseLong(columns[start + 16]);
+            statistics.maxTimeToFirstByte = Long.parseLong(columns[start + 17]);
+            statistics.newConnections = Long.parseLong(columns[start + 18]);
+        }
+        if (statistics.histogram != null && statistics.requestCount > 0) {
+            final double mean = (double) statistics.testTime / statistics.requestCount;
+            final double deviation = columns.length > start + 19 ? Double.parseDouble(columns[start + 19]) : 0d;
+            statistics.testTimeSquares = statistics.requestCount * (deviation * deviation + mean * mean);
+        }
+        return statistics;
+    }
+    
+    private void addTestTimes(final long testTime, final int count) {
+        if (histogram != null) {
+            histogram.record(testTime, count);
+            return;
+        }
+        final MutableInt elapsedCount = allTestTime.get(testTime);
+        if(elapsedCount != null) {
+            elapsedCount.add(count);
+        } else {
+            allTestTime.put(testTime, new MutableInt(count));
+        }
+    }
     
     private void calMaxTestTime(final long testTime) {
-        if (testTime > this.maxTestTime.get() ) {
-            this.maxTestTime.set(testTime);
+        if (testTime > this.maxTestTime) {
+            this.maxTestTime = testTime;
         }
     }
     
     private void calMaxTimeToResolveHost(final long timeToResolveHost) {
-        if(timeToResolveHost > this.maxTimeToResolveHost.get()) {
-            this.maxTimeToResolveHost.set(timeToResolveHost);
+        if(timeToResolveHost > this.maxTimeToResolveHost) {
+            this.maxTimeToResolveHost = timeToResolveHost;
         }
     }
     
     private void countHttpRespCode(final long httpRespCode) {
         if(httpRespCode<200L) {
-            this.status1xx.incrementAndGet();
+            this.status1xx++;
         }else if (httpRespCode<300L) {
-            this.status2xx.incrementAndGet();
+            this.status2xx++;
         }else if (httpRespCode<400L) {
-            this.status3xx.incrementAndGet();
+            this.status3xx++;
         }else if (httpRespCode<500L) {
-            this.status4xx.incrementAndGet();
+            this.status4xx++;
         }else if (httpRespCode<600L) {
-            this.status5xx.incrementAndGet();
+            this.status5xx++;
         }
     }
     
     private void calMaxTimeToEstabishConn(final long timeToEstablishConn) {
-        if (timeToEstablishConn > this.maxTimeToEstabishConn.get()) {
-            this.maxTimeToEstabishConn.set(timeToEstablishConn);
+        if (timeToEstablishConn > this.maxTimeToEstabishConn) {
+            this.maxTimeToEstabishConn = timeToEstablishConn;
         }
     }
     
     private void calMaxTimeToFirstByte(final long maxTimeToFirstByte) {
-        if(maxTimeToFirstByte > this.maxTimeToFirstByte.get()) {
-            this.maxTimeToFirstByte.set(maxTimeToFirstByte);
+        if(maxTimeToFirstByte > this.maxTimeToFirstByte) {
+            this.maxTimeToFirstByte = maxTimeToFirstByte;
         }
     }
 
-    public AtomicLong getTestTime() {
+    public long getTestTime() {
         return testTime;
     }
 
-    public AtomicLong getMaxTestTime() {
+    public long getMaxTestTime() {
         return maxTestTime;
     }
 
-    public AtomicLong getErrors() {
+    public long getErrors() {
         return errors;
     }
 
-    public AtomicLong getStatus1xx() {
+    public long getStatus1xx() {
         return status1xx;
     }
 
-    public AtomicLong getStatus2xx() {
+    public long getStatus2xx() {
         return status2xx;
     }
 
-    public AtomicLong getStatus3xx() {
+    public long getStatus3xx() {
         return status3xx;
     }
 
-    public AtomicLong getStatus4xx() {
+    public long getStatus4xx() {
         return status4xx;
     }
 
-    public AtomicLong getStatus5xx() {
+    public long getStatus5xx() {
         return status5xx;
     }
 
-    public AtomicLong getHttpResponseLen() {
+    public long getHttpResponseLen() {
         return httpResponseLen;
     }
 
-    public AtomicLong getHttpResponseErrors() {
+    public long getHttpResponseErrors() {
         return httpResponseErrors;
     }
 
-    public AtomicLong getTimeToResolveHost() {
+    public long getTimeToResolveHost() {
         return timeToResolveHost;
     }
 
-    public AtomicLong getMaxTimeToResolveHost() {
+    public long getMaxTimeToResolveHost() {
         return maxTimeToResolveHost;
     }
 
-    public AtomicLong getTimeToEstabishConn() {
+    public long getTimeToEstabishConn() {
         return timeToEstabishConn;
     }
 
-    public AtomicLong getMaxTimeToEstabishConn() {
+    public long getMaxTimeToEstabishConn() {
         return maxTimeToEstabishConn;
     }
 
-    public AtomicLong getTimeToFirstByte() {
+    public long getTimeToFirstByte() {
         return timeToFirstByte;
     }
 
-    public AtomicLong getMaxTimeToFirstByte() {
+    public long getMaxTimeToFirstByte() {
         return maxTimeToFirstByte;
     }
     
-    public AtomicLong getNewConnections() {
+    public long getNewConnections() {
         return newConnections;
     }
 
-    public AtomicInteger getRequestCount() {
+    public int getRequestCount() {
         return requestCount;
     }
     
+    /**
+     * @return the RT detail histogram, <code>null</code> if the RT values are counted exactly
+     */
+    public PtpLatencyHistogram getHistogram() {
+        return histogram;
+    }
+    
+    /**
+     * @return the precision of the RT detail histogram, 0 if the RT values are counted exactly
+     */
+    public int getHistogramPrecision() {
+        return histogram == null ? 0 : histogram.getPrecision();
+    }
+    
+    /**
+     * @return the population standard deviation of the RT, 0 without request
+     */
+    public double getStandardDeviation() {
+        if (requestCount == 0) {
+            return 0d;
+        }
+        final double mean = (double) testTime / requestCount;
+        return Math.sqrt(Math.max(0d, testTimeSquares / requestCount - mean * mean));
+    }
+    
+    /**
+     * Computes RT percentiles with the nearest-rank method. They are exact
+     * with the per-value RT detail; with a histogram the upper bound of the
+     * bucket is returned, capped by the max RT.
+     * 
+     * @param percents percentiles in ascending order, each in ]0,100]
+     * @return the RT of each percentile, 0 without request
+     */
+    public long[] getPercentiles(final double[] percents) {
+        final long[] result = new long[percents.length];
+        if (requestCount == 0 || percents.length == 0) {
+            return result;
+        }
+        int next = 0;
+        long cumulated = 0L;
+        if (histogram != null) {
+            for (int index = 0; index < histogram.getBucketCount() && next < percents.length; index++) {
+                cumulated += histogram.getCountAt(index);
+                while (next < percents.length && cumulated >= rank(percents[next])) {
+                    result[next++] = Math.min(histogram.highestValueAt(index), maxTestTime);
+                }
+            }
+        } else {
+            final long[] values = new long[allTestTime.size()];
+            int i = 0;
+            for (Long value : allTestTime.keySet()) {
+                values[i++] = value.longValue();
+            }
+            Arrays.sort(values);
+            for (i = 0; i < values.length && next < percents.length; i++) {
+                cumulated += allTestTime.get(values[i]).intValue();
+                while (next < percents.length && cumulated >= rank(percents[next])) {
+                    result[next++] = values[i];
+                }
+            }
+        }
+        while (next < percents.length) {
+            result[next++] = maxTestTime;
+        }
+        return result;
+    }
+    
+    private long rank(final double percent) {
+        // the epsilon keeps e.g. 99.9% of 1000 at rank 999 despite the binary rounding of 99.9
+        return Math.max(1L, (long) Math.ceil(percent / 100d * requestCount - 1e-9d));
+    }
+    
     public String getTestTimes() {
-    	final StringBuffer sb = new StringBuffer();
-    	final Iterator<Entry<Long, AtomicInteger>> it = allTestTime.entrySet().iterator();
+        if (histogram != null) {
+            return histogram.toCompactString();
+        }
+    	final StringBuilder sb = new StringBuilder();
+    	final Iterator<Entry<Long, MutableInt>> it = allTestTime.entrySet().iterator();
     	while(it.hasNext()) {
-    		final Entry<Long, AtomicInteger> entry = it.next();
+    		final Entry<Long, MutableInt> entry = it.next();
     		sb.append(entry.getKey());
     		sb.append(':');
-    		sb.append(entry.getValue());
+    		sb.append(entry.getValue().intValue());
     		sb.append('|');
     	}
     	if(sb.length() > 0) {
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.samplers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.reporters.PtpAggregateMetrics;
+import org.apache.jmeter.reporters.PtpAggregateSink;
+import org.apache.jmeter.reporters.PtpBinaryAggregateSink;
+import org.apache.jmeter.reporters.PtpLabelTable;
+import org.apache.jmeter.reporters.PtpLatencyHistogram;
+import org.apache.jmeter.reporters.PtpNodeIdentity;
+import org.apache.jmeter.reporters.PtpPrintResultlogTask;
+import org.apache.jmeter.reporters.PtpRollupLevel;
+import org.apache.jmeter.reporters.PtpSampleRecord;
+import org.apache.jmeter.reporters.PtpStripedAccumulator;
+import org.apache.jmeter.reporters.PtpWatermark;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.reporters.TestTimeSequenceStatistics;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Aggregates the samples per label and second on the server, as the agg file
+ * of {@link ResultCollector} does, and only returns the closed seconds.
+ * <p>
+ * Once per second the seconds older than <code>ptp.aggregate.max_lateness_ms</code>
+ * are closed and sent in one call, encoded in the binary agg format, with the
+ * RT detail kept as a histogram of precision
+ * <code>ptp.aggregate.histogram.precision</code> so the controller can merge
+ * them. The RMI traffic thus depends on the number of labels, not on the
+ * throughput, and no sample reaches the listeners of the client.
+ */
+public class PerSecondAggregateSampleSender extends AbstractSampleSender implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final long DEFAULT_MAX_LATENESS_MS = 5000L;
+
+    private static final long serverConfiguredMaxLatenessMs = JMeterUtils.getPropDefault(
+            "ptp.aggregate.max_lateness_ms", DEFAULT_MAX_LATENESS_MS); // $NON-NLS-1$
+
+    private static final int serverConfiguredPrecision = JMeterUtils.getPropDefault(
+            "ptp.aggregate.histogram.precision", PtpLatencyHistogram.DEFAULT_PRECISION); // $NON-NLS-1$
+
+    private final long clientConfiguredMaxLatenessMs = JMeterUtils.getPropDefault(
+            "ptp.aggregate.max_lateness_ms", DEFAULT_MAX_LATENESS_MS); // $NON-NLS-1$
+
+    private final int clientConfiguredPrecision = JMeterUtils.getPropDefault(
+            "ptp.aggregate.histogram.precision", PtpLatencyHistogram.DEFAULT_PRECISION); // $NON-NLS-1$
+
+    // created by client
+    private final RemoteSampleListener listener;
+
+    // created by server in readResolve method
+    private transient PtpStripedAccumulator accumulator;
+
+    private transient PtpPrintResultlogTask printer;
+
+    private transient ScheduledExecutorService scheduler;
+
+    /**
+     * @deprecated only for use by test code
+     */
+    @Deprecated
+    public PerSecondAggregateSampleSender(){
+        this(null);
+        log.warn("Constructor only intended for use in testing"); // $NON-NLS-1$
+    }
+
+    // Created by SampleSenderFactory
+    PerSecondAggregateSampleSender(RemoteSampleListener listener) {
+        this.listener = listener;
+        log.info("Using PerSecondAggregate Remote Sampler for this test run"); // client log file
+    }
+
+    /**
+     * Processed by the RMI server code.
+     *
+     * @return this
+     * @throws ObjectStreamException never
+     */
+    private Object readResolve() throws ObjectStreamException {
+        final long maxLatenessMs = isClientConfigured() ? clientConfiguredMaxLatenessMs : serverConfiguredMaxLatenessMs;
+        final int precision = isClientConfigured() ? clientConfiguredPrecision : serverConfiguredPrecision;
+        final String host = JMeterUtils.getLocalHostName();
+        // Resolved before the first sample, the rows are written with the id of this server
+        PtpNodeIdentity.get();
+        accumulator = new PtpStripedAccumulator(precision, PtpStripedAccumulator.MAX_LABELS, PtpStripedAccumulator.MAX_BUCKETS,
+                PtpStripedAccumulator.skewWindow(maxLatenessMs));
+        printer = new PtpPrintResultlogTask(accumulator, new RemoteAggregateSink(listener, host),
+                Collections.<PtpRollupLevel>emptyList(), new PtpWatermark(maxLatenessMs));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PerSecondAggregateSampleSender"); // $NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(printer, 1, 1, TimeUnit.SECONDS);
+        log.info("Using PerSecondAggregate Remote Sampler, max lateness " + maxLatenessMs // server log file
+                + " ms, histogram precision " + precision);
+        return this;
+    }
+
+    @Override
+    public void testEnded(String host) {
+        log.info("Test Ended on " + host);
+        scheduler.shutdown();
+        printer.printLastResultLog();
+        if (printer.getLateSampleCount() > 0 || accumulator.getOverflowCount() > 0) {
+            // sent before the end of the test, the controller writes them to its agg file
+            printer.printMetrics(PtpAggregateMetrics.INTERNAL_LABEL, System.currentTimeMillis() / 1000L,
+                    PtpAggregateMetrics.lossCounters(printer.getLateSampleCount(), accumulator.getOverflowCount(), 0L, 0L));
+        }
+        if (accumulator.getOverflowCount() > 0) {
+            log.warn("Aggregation caps reached on " + host + ": " + accumulator.getOverflowCount()
+                    + " samples folded into " + PtpLabelTable.OTHER_LABEL);
+        }
+        try {
+            listener.testEnded(host);
+        } catch (RemoteException err) {
+            log.warn("testEnded(hostname)", err);
+        }
+    }
+
+    @Override
+    public void sampleOccurred(SampleEvent e) {
+        SampleResult result = e.getResult();
+        String label = result.getSampleLabel();
+        if (label == null) {
+            return;
+        }
+        accumulator.add(label, result.getTimeStamp() / 1000L, PtpSampleRecord.fromSampleResult(result));
+    }
+
+    /**
+     * Encodes the rows of a printing round and sends them in one call when
+     * the round is flushed.
+     */
+    private static final class RemoteAggregateSink implements PtpAggregateSink {
+
+        private final RemoteSampleListener listener;
+
+        private final String host;
+
+        private ByteArrayOutputStream bytes;
+
+        private PtpBinaryAggregateSink segment;
+
+        private int rows;
+
+        RemoteAggregateSink(RemoteSampleListener listener, String host) {
+            this.listener = listener;
+            this.host = host;
+        }
+
+        @Override
+        public void write(String round, String machine, String label, long second,
+                TestTimeSequenceStatistics statistics) {
+            try {
+                if (segment == null) {
+                    bytes = new ByteArrayOutputStream();
+                    segment = new PtpBinaryAggregateSink(bytes);
+                }
+                segment.write(round, machine, label, second, statistics);
+                rows++;
+            } catch (IOException e) {
+                // not thrown by a ByteArrayOutputStream
+                log.error("Could not encode bucket of " + label, e);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (segment == null) {
+                return;
+            }
+            try {
+                segment.close();
+                listener.processAggregates(host, bytes.toByteArray());
+            } catch (IOException e) {
+                log.warn("Could not send " + rows + " buckets", e);
+            } finally {
+                segment = null;
+                bytes = null;
+                rows = 0;
+            }
+        }
+    }
+}
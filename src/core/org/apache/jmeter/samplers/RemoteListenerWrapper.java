@@ -22,6 +22,7 @@ import java.io.Serializable;
 import java.rmi.RemoteException;
 
 import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.reporters.PtpNodeIdentity;
 import org.apache.jmeter.testelement.AbstractTestElement;
 import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jorphan.logging.LoggingManager;
@@ -82,6 +83,7 @@ public class RemoteListenerWrapper extends AbstractTestElement implements Sample
     public void testStarted(String host) {
         log.debug("Test Started on " + host);
         try {
+            listener.nodeIdentified(host, PtpNodeIdentity.get());
             listener.testStarted(host);
         } catch (Throwable ex) {
             log.error("testStarted(host)", ex);
@@ -35,6 +35,20 @@ public interface RemoteSampleListener extends java.rmi.Remote {
 
     void testEnded() throws RemoteException;
 
+    /**
+     * Called remotely when the test starts on an engine, before
+     * {@link #testStarted(String)}, so that the controller knows the rows
+     * and buckets of the engine by the identity the engine writes itself.
+     *
+     * @param host
+     *            the host name of the engine
+     * @param nodeId
+     *            the identity of the engine, see
+     *            {@link org.apache.jmeter.reporters.PtpNodeIdentity}
+     * @throws RemoteException when calling the remote method fails
+     */
+    void nodeIdentified(String host, String nodeId) throws RemoteException;
+
     void testEnded(String host) throws RemoteException;
 
     // Not currently needed by any Remoteable classes
@@ -53,6 +67,19 @@ public interface RemoteSampleListener extends java.rmi.Remote {
      */
     void processBatch(List<SampleEvent> samples) throws RemoteException;
 
+    /**
+     * This method is called remotely by the PerSecondAggregate sample sender
+     * with the per-second buckets it has closed, instead of the samples.
+     *
+     * @param host
+     *            the host the samples were aggregated on
+     * @param buckets
+     *            one segment of the binary agg format, see
+     *            {@link org.apache.jmeter.reporters.PtpBinaryAggregateFormat}
+     * @throws RemoteException when calling the remote method fails
+     */
+    void processAggregates(String host, byte[] buckets) throws RemoteException;
+
     /**
      * A sample has started and stopped.
      * 
@@ -18,11 +18,19 @@
 
 package org.apache.jmeter.samplers;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.jmeter.reporters.PtpAggregateListener;
+import org.apache.jmeter.reporters.PtpBinaryAggregateReader;
+import org.apache.jmeter.reporters.PtpNodeIdentity;
 import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
 
 /**
  * Implementation of remote sampler listener, also supports TestStateListener
@@ -32,9 +40,13 @@ public class RemoteSampleListenerImpl extends java.rmi.server.UnicastRemoteObjec
 
     private static final long serialVersionUID = 240L;
 
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
     private final TestStateListener testListener;
 
     private final SampleListener sampleListener;
+
+    private final PtpAggregateListener aggregateListener;
     
     private static final int DEFAULT_LOCAL_PORT = 
         JMeterUtils.getPropDefault("client.rmi.localport", 0); // $NON-NLS-1$
@@ -51,6 +63,11 @@ public class RemoteSampleListenerImpl extends java.rmi.server.UnicastRemoteObjec
         } else {
             sampleListener = null;
         }
+        if (listener instanceof PtpAggregateListener) {
+            aggregateListener = (PtpAggregateListener) listener;
+        } else {
+            aggregateListener = null;
+        }
     }
 
     @Override
@@ -67,6 +84,11 @@ public class RemoteSampleListenerImpl extends java.rmi.server.UnicastRemoteObjec
         }
     }
 
+    @Override
+    public void nodeIdentified(String host, String nodeId) {
+        PtpNodeIdentity.remoteNodeIdentified(host, nodeId);
+    }
+
     @Override
     public void testEnded() {
         if (testListener != null) {
@@ -98,6 +120,32 @@ public class RemoteSampleListenerImpl extends java.rmi.server.UnicastRemoteObjec
         }
     }
 
+    /**
+     * Decodes the per-second buckets closed by a remote engine and hands
+     * them to the listener.
+     *
+     * @param host
+     *            the host the samples were aggregated on
+     * @param buckets
+     *            one segment of the binary agg format
+     */
+    @Override
+    public void processAggregates(String host, byte[] buckets) {
+        if (buckets == null || aggregateListener == null) {
+            return;
+        }
+        List<PtpBinaryAggregateReader.Row> rows = new ArrayList<>();
+        try (PtpBinaryAggregateReader reader = new PtpBinaryAggregateReader(new ByteArrayInputStream(buckets))) {
+            PtpBinaryAggregateReader.Row row;
+            while ((row = reader.next()) != null) {
+                rows.add(row);
+            }
+        } catch (IOException e) {
+            log.error("Invalid buckets received from " + host + ", " + rows.size() + " rows decoded", e);
+        }
+        aggregateListener.aggregatesReceived(host, rows);
+    }
+
     @Override
     public void sampleOccurred(SampleEvent e) {
         if (sampleListener != null) {
@@ -84,6 +84,9 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
     /** Indicates that the results file should be in CSV format. * */
     private static final String CSV = "csv"; // $NON_NLS-1$
 
+    /** Indicates that the results file should be in binary format, see PtpBinaryResultFormat. * */
+    private static final String BINARY = "binary"; // $NON_NLS-1$
+
     /** Indicates that the results should be stored in a database. * */
     //NOTUSED private static final String DATABASE = "db"; // $NON_NLS-1$
 
@@ -126,7 +129,7 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
 
     /***************************************************************************
      * The name of the property indicating which format should be used when
-     * saving the results, e.g., xml or csv.
+     * saving the results, e.g., xml, csv or binary.
      **************************************************************************/
     private static final String OUTPUT_FORMAT_PROP = "jmeter.save.saveservice.output_format"; // $NON_NLS-1$
 
@@ -238,6 +241,8 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
 
     private boolean hostname = _hostname;
 
+    private boolean binary = _binary;
+
     private boolean threadCounts = _threadCounts;
 
     private boolean sampleCount = _sampleCount;
@@ -265,6 +270,8 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
 
     private static final boolean _responseDataOnError;
 
+    private static final boolean _binary;
+
     private static final boolean _saveAssertionResultsFailureMessage;
 
     private static final String _timeStampFormat;
@@ -396,11 +403,16 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
 
         if (XML.equals(howToSave)) {
             _xml = true;
+            _binary = false;
+        } else if (BINARY.equals(howToSave)) {
+            _xml = false;
+            _binary = true;
         } else {
             if (!CSV.equals(howToSave)) {
                 log.warn(OUTPUT_FORMAT_PROP + " has unexepected value: '" + howToSave + "' - assuming 'csv' format");
             }
             _xml = false;
+            _binary = false;
         }
 
         _threadCounts=TRUE.equalsIgnoreCase(props.getProperty(SAVE_THREAD_COUNTS, TRUE));
@@ -492,6 +504,7 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
         "ResponseData", // XML
         "Subresults", // XML
         "Assertions", // XML
+        "AsBinary",
     }));
     
     public SampleSaveConfiguration() {
@@ -533,6 +546,7 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
         timestamp = value;
         url = value;
         xml = value;
+        binary = value;
     }
 
     private Object readResolve(){
@@ -580,6 +594,7 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
             s.responseData == responseData &&
             s.samplerData == samplerData &&
             s.xml == xml &&
+            s.binary == binary &&
             s.fieldNames == fieldNames &&
             s.responseHeaders == responseHeaders &&
             s.requestHeaders == requestHeaders &&
@@ -627,6 +642,7 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
         hash = 31 * hash + (responseData ? 1 : 0);
         hash = 31 * hash + (samplerData ? 1 : 0);
         hash = 31 * hash + (xml ? 1 : 0);
+        hash = 31 * hash + (binary ? 1 : 0);
         hash = 31 * hash + (fieldNames ? 1 : 0);
         hash = 31 * hash + (responseHeaders ? 1 : 0);
         hash = 31 * hash + (requestHeaders ? 1 : 0);
@@ -805,6 +821,18 @@ public class SampleSaveConfiguration implements Cloneable, Serializable {
         this.xml = xml;
     }
 
+    /**
+     * @return <code>true</code> if the results are saved in the binary
+     *         format, ignored when they are saved as XML
+     */
+    public boolean saveAsBinary() {
+        return binary;
+    }
+
+    public void setAsBinary(boolean binary) {
+        this.binary = binary;
+    }
+
     public boolean saveFieldNames() {
         return fieldNames;
     }
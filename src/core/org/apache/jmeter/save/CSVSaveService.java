@@ -20,7 +20,8 @@ package org.apache.jmeter.save;
 
 import java.io.BufferedReader;
 import java.io.CharArrayWriter;
-import java.io.FileInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -121,7 +122,8 @@ public final class CSVSaveService {
     }
 
     /**
-     * Read Samples from a file; handles quoted strings.
+     * Read Samples from a file; handles quoted strings and gzip compressed
+     * files, see {@link PtpGzipBlockInputStream}.
      * 
      * @param filename
      *            input file
@@ -135,31 +137,118 @@ public final class CSVSaveService {
      */
     public static void processSamples(String filename, Visualizer visualizer,
             ResultCollector resultCollector) throws IOException {
-        BufferedReader dataReader = null;
         final boolean errorsOnly = resultCollector.isErrorLogging();
         final boolean successOnly = resultCollector.isSuccessOnlyLogging();
+        try (ResultFileReader reader = new ResultFileReader(filename, resultCollector)) {
+            SampleEvent event;
+            while ((event = reader.next()) != null) {
+                final SampleResult result = event.getResult();
+                if (ResultCollector.isSampleWanted(result.isSuccessful(),
+                        errorsOnly, successOnly)) {
+                    visualizer.add(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the Samples of the shards of a result file, see
+     * {@link PtpResultShards}, as a single file: the shards are merged on
+     * their time stamps, so the samples come in the order of a single file
+     * written by the same threads.
+     * 
+     * @param shards
+     *            the shard files, empty ones are skipped
+     * @param visualizer
+     *            where to send the results
+     * @param resultCollector
+     *            the parent collector
+     * @throws IOException
+     *             when a shard can't be read correctly
+     */
+    public static void processShards(File[] shards, Visualizer visualizer,
+            ResultCollector resultCollector) throws IOException {
+        final boolean errorsOnly = resultCollector.isErrorLogging();
+        final boolean successOnly = resultCollector.isSuccessOnlyLogging();
+        final List<ResultFileReader> readers = new ArrayList<>(shards.length);
         try {
-            dataReader = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(filename), SaveService.getFileEncoding(StandardCharsets.UTF_8.name())));
-            dataReader.mark(400);// Enough to read the header column names
-            // Get the first line, and see if it is the header
-            String line = dataReader.readLine();
-            if (line == null) {
-                throw new IOException(filename + ": unable to read header line");
+            for (File shard : shards) {
+                if (shard.length() == 0) {
+                    continue;
+                }
+                readers.add(new ResultFileReader(shard.getPath(), resultCollector));
+            }
+            PtpResultShards.Merge<SampleEvent> merge = new PtpResultShards.Merge<SampleEvent>(readers.size()) {
+                @Override
+                protected SampleEvent read(int shard) throws IOException {
+                    return readers.get(shard).next();
+                }
+
+                @Override
+                protected long timeStampOf(SampleEvent event) {
+                    return event.getResult().getTimeStamp();
+                }
+            };
+            SampleEvent event;
+            while ((event = merge.next()) != null) {
+                final SampleResult result = event.getResult();
+                if (ResultCollector.isSampleWanted(result.isSuccessful(),
+                        errorsOnly, successOnly)) {
+                    visualizer.add(result);
+                }
+            }
+        } finally {
+            for (ResultFileReader reader : readers) {
+                JOrphanUtils.closeQuietly(reader);
             }
-            long lineNumber = 1;
-            SampleSaveConfiguration saveConfig = CSVSaveService
-                    .getSampleSaveConfiguration(line, filename);
-            if (saveConfig == null) {// not a valid header
-                log.info(filename
-                        + " does not appear to have a valid header. Using default configuration.");
-                saveConfig = (SampleSaveConfiguration) resultCollector
-                        .getSaveConfig().clone(); // may change the format later
-                dataReader.reset(); // restart from beginning
-                lineNumber = 0;
+        }
+    }
+
+    /*
+     * Reads the samples of a CSV result file, using its header line if it has
+     * one, otherwise the configuration of the collector.
+     */
+    private static final class ResultFileReader implements Closeable {
+        private final BufferedReader dataReader;
+        private final SampleSaveConfiguration saveConfig;
+        private final char delim;
+        private long lineNumber;
+
+        ResultFileReader(String filename, ResultCollector resultCollector) throws IOException {
+            // Compressed files are read whatever their name
+            dataReader = new BufferedReader(new InputStreamReader(
+                    PtpGzipBlockInputStream.open(new File(filename)), SaveService.getFileEncoding(StandardCharsets.UTF_8.name())));
+            try {
+                dataReader.mark(400);// Enough to read the header column names
+                // Get the first line, and see if it is the header
+                String line = dataReader.readLine();
+                if (line == null) {
+                    throw new IOException(filename + ": unable to read header line");
+                }
+                lineNumber = 1;
+                SampleSaveConfiguration config = CSVSaveService
+                        .getSampleSaveConfiguration(line, filename);
+                if (config == null) {// not a valid header
+                    log.info(filename
+                            + " does not appear to have a valid header. Using default configuration.");
+                    config = (SampleSaveConfiguration) resultCollector
+                            .getSaveConfig().clone(); // may change the format later
+                    dataReader.reset(); // restart from beginning
+                    lineNumber = 0;
+                }
+                saveConfig = config;
+                delim = saveConfig.getDelimiter().charAt(0);
+            } catch (IOException | RuntimeException e) {
+                JOrphanUtils.closeQuietly(dataReader);
+                throw e;
             }
+        }
+
+        /**
+         * @return the next sample, <code>null</code> at the end of the file
+         */
+        SampleEvent next() throws IOException {
             String[] parts;
-            final char delim = saveConfig.getDelimiter().charAt(0);
             // TODO: does it matter that an empty line will terminate the loop?
             // CSV output files should never contain empty lines, so probably
             // not
@@ -168,15 +257,15 @@ public final class CSVSaveService {
                 lineNumber++;
                 SampleEvent event = CSVSaveService.makeResultFromDelimitedString(parts, saveConfig, lineNumber);
                 if (event != null) {
-                    final SampleResult result = event.getResult();
-                    if (ResultCollector.isSampleWanted(result.isSuccessful(),
-                            errorsOnly, successOnly)) {
-                        visualizer.add(result);
-                    }
+                    return event;
                 }
             }
-        } finally {
-            JOrphanUtils.closeQuietly(dataReader);
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            dataReader.close();
         }
     }
 
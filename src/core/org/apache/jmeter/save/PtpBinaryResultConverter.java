@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.save;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Command line converter of a binary result file to a CSV result file, with
+ * the header line of the save configuration it was written with:
+ * <pre>
+ * jtlconvert.sh results.bin [results.csv [;]]
+ * </pre>
+ * Lines go to the standard output when no output file (or <code>-</code>) is
+ * given; the delimiter is a comma unless given. Time stamps are written in
+ * milliseconds. A header line is written again when a segment appended with
+ * other columns starts, see {@link PtpBinaryResultFormat}.
+ */
+public class PtpBinaryResultConverter {
+
+    private static final String DEFAULT_DELIMITER = ","; //$NON-NLS-1$
+
+    private PtpBinaryResultConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            throw new IllegalArgumentException("Usage: jtlconvert <binary result file> [<csv result file>|- [<delimiter>]]");
+        }
+        char delimiter = (args.length > 2 ? args[2] : DEFAULT_DELIMITER).charAt(0);
+        boolean toFile = args.length > 1 && !"-".equals(args[1]); //$NON-NLS-1$
+        try (PtpBinaryResultReader reader = PtpBinaryResultReader.open(new File(args[0]));
+                OutputStream out = toFile ? new FileOutputStream(args[1]) : System.out) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            long samples = convert(reader, writer, delimiter);
+            writer.flush();
+            if (toFile) {
+                System.out.println("Converted " + samples + " samples to " + args[1]);
+            }
+        }
+    }
+
+    /**
+     * Converts the samples of a binary result file to CSV lines.
+     *
+     * @param reader binary result file content, not closed
+     * @param out where to write the CSV lines, flushed but not closed
+     * @param delimiter delimiter of the fields
+     * @return the number of samples converted
+     * @throws IOException if reading or writing fails
+     */
+    public static long convert(PtpBinaryResultReader reader, Writer out, char delimiter) throws IOException {
+        final char[] specials = new char[] { delimiter, CSVSaveService.QUOTING_CHAR, '\r', '\n' };
+        PrintWriter writer = new PrintWriter(out);
+        StringBuilder sb = new StringBuilder();
+        int segment = 0;
+        long samples = 0;
+        String[] fields;
+        while ((fields = reader.nextFields()) != null) {
+            if (segment != reader.getSegmentCount()) {
+                segment = reader.getSegmentCount();
+                appendLine(sb, reader.getColumnNames(), delimiter, null);
+                writer.println(sb.toString());
+                sb.setLength(0);
+            }
+            appendLine(sb, fields, delimiter, specials);
+            writer.println(sb.toString());
+            sb.setLength(0);
+            samples++;
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw new IOException("Error writing the CSV result lines");
+        }
+        return samples;
+    }
+
+    // The column names are written as they are, like the header of CSV files
+    private static void appendLine(StringBuilder sb, String[] fields, char delimiter, char[] specials) {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append(delimiter);
+            }
+            sb.append(specials == null ? fields[i] : CSVSaveService.quoteDelimiters(fields[i], specials));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.save;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jmeter.reporters.PtpVarInts;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleSaveConfiguration;
+
+/**
+ * Constants of the binary result file format, selected with
+ * <code>jmeter.save.saveservice.output_format=binary</code> or the
+ * "Save As Binary" option of the save configuration.
+ * <p>
+ * The file is a sequence of segments, a new one being started every time the
+ * file is opened for writing. A segment starts with the {@link #MAGIC} bytes,
+ * the format {@link #VERSION} and the schema of its samples: the number of
+ * columns followed by their names, the names of the header line of a CSV file
+ * written with the same save configuration. Records follow, each starting
+ * with a tag byte:
+ * <pre>
+ * {@link #TAG_STRING} string       next entry of the string dictionary
+ * {@link #TAG_SAMPLE} value*       one value per column of the schema
+ * </pre>
+ * The values are typed by their column:
+ * <ul>
+ * <li>the time stamp, in milliseconds whatever the time stamp format, as the
+ * difference with the time stamp of the previous sample of the segment (0 for
+ * the first one)</li>
+ * <li>the durations, sizes and counts as they are</li>
+ * <li>the success as a byte, 1 for <code>true</code></li>
+ * <li>the label, thread name, response code and message, data type,
+ * encoding, host name and sample variables as an index in the string
+ * dictionary of the segment: 0 for <code>null</code>, 1 for a string written
+ * inline once the dictionary holds {@link #MAX_DICTIONARY_SIZE} strings,
+ * <code>index + 2</code> otherwise</li>
+ * <li>the failure message, URL and file name, rarely repeated, inline:
+ * 0 for <code>null</code>, otherwise the length of the string plus one
+ * followed by the string</li>
+ * </ul>
+ * Integers are variable length longs, see {@link PtpVarInts}, signed ones
+ * zigzag encoded; strings are their UTF-8 bytes preceded by their length.
+ * <p>
+ * Use {@link PtpBinaryResultWriter} to write a file,
+ * {@link PtpBinaryResultReader} to read it and
+ * {@link PtpBinaryResultConverter} to convert it to CSV.
+ */
+public final class PtpBinaryResultFormat {
+
+    /** Value of jmeter.save.saveservice.output_format selecting this format */
+    public static final String NAME = "binary"; //$NON-NLS-1$
+
+    static final byte[] MAGIC = { 'P', 'T', 'P', 'R' };
+
+    static final int VERSION = 1;
+
+    static final int TAG_STRING = 1;
+
+    static final int TAG_SAMPLE = 2;
+
+    /** Maximum number of strings of the dictionary of a segment */
+    static final int MAX_DICTIONARY_SIZE = 65536;
+
+    static final int NULL_STRING = 0;
+
+    static final int INLINE_STRING = 1;
+
+    static final int FIRST_INDEX = 2;
+
+    private static final String VARIABLE_QUOTE = "\""; //$NON-NLS-1$
+
+    /**
+     * How the values of a column are written.
+     */
+    enum Type {
+        TIMESTAMP, NUMBER, BOOLEAN, DICTIONARY, TEXT
+    }
+
+    /**
+     * The columns, in the order of the CSV files.
+     */
+    enum Column {
+        TIMESTAMP(CSVSaveService.TIME_STAMP, Type.TIMESTAMP),
+        ELAPSED(CSVSaveService.CSV_ELAPSED, Type.NUMBER),
+        LABEL(CSVSaveService.LABEL, Type.DICTIONARY),
+        CODE(CSVSaveService.RESPONSE_CODE, Type.DICTIONARY),
+        MESSAGE(CSVSaveService.RESPONSE_MESSAGE, Type.DICTIONARY),
+        THREAD_NAME(CSVSaveService.THREAD_NAME, Type.DICTIONARY),
+        DATA_TYPE(CSVSaveService.DATA_TYPE, Type.DICTIONARY),
+        SUCCESS(CSVSaveService.SUCCESSFUL, Type.BOOLEAN),
+        FAILURE_MESSAGE(CSVSaveService.FAILURE_MESSAGE, Type.TEXT),
+        BYTES(CSVSaveService.CSV_BYTES, Type.NUMBER),
+        SENT_BYTES(CSVSaveService.CSV_SENT_BYTES, Type.NUMBER),
+        GROUP_THREADS(CSVSaveService.CSV_THREAD_COUNT1, Type.NUMBER),
+        ALL_THREADS(CSVSaveService.CSV_THREAD_COUNT2, Type.NUMBER),
+        URL(CSVSaveService.CSV_URL, Type.TEXT),
+        FILE_NAME(CSVSaveService.CSV_FILENAME, Type.TEXT),
+        LATENCY(CSVSaveService.CSV_LATENCY, Type.NUMBER),
+        ENCODING(CSVSaveService.CSV_ENCODING, Type.DICTIONARY),
+        SAMPLE_COUNT(CSVSaveService.CSV_SAMPLE_COUNT, Type.NUMBER),
+        ERROR_COUNT(CSVSaveService.CSV_ERROR_COUNT, Type.NUMBER),
+        HOSTNAME(CSVSaveService.CSV_HOSTNAME, Type.DICTIONARY),
+        IDLE_TIME(CSVSaveService.CSV_IDLETIME, Type.NUMBER),
+        CONNECT_TIME(CSVSaveService.CSV_CONNECT_TIME, Type.NUMBER),
+        /** A sample variable, its name is quoted */
+        VARIABLE(null, Type.DICTIONARY);
+
+        final String header;
+
+        final Type type;
+
+        Column(String header, Type type) {
+            this.header = header;
+            this.type = type;
+        }
+    }
+
+    private PtpBinaryResultFormat() {
+    }
+
+    /**
+     * @param saveConfig the configuration selecting the columns
+     * @return the names of the columns saved, those of the header line of a
+     *         CSV file written with <code>saveConfig</code>
+     */
+    static String[] columnNames(SampleSaveConfiguration saveConfig) {
+        List<String> names = new ArrayList<>();
+        addIf(names, saveConfig.saveTimestamp(), Column.TIMESTAMP);
+        addIf(names, saveConfig.saveTime(), Column.ELAPSED);
+        addIf(names, saveConfig.saveLabel(), Column.LABEL);
+        addIf(names, saveConfig.saveCode(), Column.CODE);
+        addIf(names, saveConfig.saveMessage(), Column.MESSAGE);
+        addIf(names, saveConfig.saveThreadName(), Column.THREAD_NAME);
+        addIf(names, saveConfig.saveDataType(), Column.DATA_TYPE);
+        addIf(names, saveConfig.saveSuccess(), Column.SUCCESS);
+        addIf(names, saveConfig.saveAssertionResultsFailureMessage(), Column.FAILURE_MESSAGE);
+        addIf(names, saveConfig.saveBytes(), Column.BYTES);
+        addIf(names, saveConfig.saveSentBytes(), Column.SENT_BYTES);
+        addIf(names, saveConfig.saveThreadCounts(), Column.GROUP_THREADS);
+        addIf(names, saveConfig.saveThreadCounts(), Column.ALL_THREADS);
+        addIf(names, saveConfig.saveUrl(), Column.URL);
+        addIf(names, saveConfig.saveFileName(), Column.FILE_NAME);
+        addIf(names, saveConfig.saveLatency(), Column.LATENCY);
+        addIf(names, saveConfig.saveEncoding(), Column.ENCODING);
+        addIf(names, saveConfig.saveSampleCount(), Column.SAMPLE_COUNT);
+        addIf(names, saveConfig.saveSampleCount(), Column.ERROR_COUNT);
+        addIf(names, saveConfig.saveHostname(), Column.HOSTNAME);
+        addIf(names, saveConfig.saveIdleTime(), Column.IDLE_TIME);
+        addIf(names, saveConfig.saveConnectTime(), Column.CONNECT_TIME);
+        for (int i = 0; i < SampleEvent.getVarCount(); i++) {
+            names.add(VARIABLE_QUOTE + SampleEvent.getVarName(i) + VARIABLE_QUOTE);
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    private static void addIf(List<String> names, boolean saved, Column column) {
+        if (saved) {
+            names.add(column.header);
+        }
+    }
+
+    /**
+     * @param name name of a column of a schema
+     * @return the column of this name
+     * @throws IOException if <code>name</code> is not a known column
+     */
+    static Column columnNamed(String name) throws IOException {
+        if (name.length() > 2 && name.startsWith(VARIABLE_QUOTE) && name.endsWith(VARIABLE_QUOTE)) {
+            return Column.VARIABLE;
+        }
+        for (Column column : Column.values()) {
+            if (name.equals(column.header)) {
+                return column;
+            }
+        }
+        throw new IOException("Unknown column in binary result file: " + name);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of a string preceded by their length.
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        PtpVarInts.writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     */
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[PtpVarInts.readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.save;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jmeter.reporters.PtpVarInts;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.SampleSaveConfiguration;
+import org.apache.jmeter.samplers.StatisticalSampleResult;
+import org.apache.jmeter.save.PtpBinaryResultFormat.Column;
+import org.apache.jmeter.visualizers.Visualizer;
+
+/**
+ * Streaming reader of the binary result format described in
+ * {@link PtpBinaryResultFormat}, one sample at a time, whatever the size of
+ * the file. A sample can be read as a {@link SampleEvent}, restored like the
+ * samples of a CSV file, or as the fields of the line of a CSV file written
+ * with the same save configuration, time stamps in milliseconds, without
+ * any parsing.
+ * <pre>
+ * try (PtpBinaryResultReader reader = PtpBinaryResultReader.open(file)) {
+ *     SampleEvent event;
+ *     while ((event = reader.next()) != null) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * Gzip compressed files are decompressed, see {@link PtpGzipBlockInputStream}.
+ */
+public class PtpBinaryResultReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+
+    private final List<String> dictionary = new ArrayList<>();
+
+    private String[] columnNames;
+
+    private Column[] columns;
+
+    // Values of the last sample read, by column
+    private long[] numbers;
+
+    private String[] strings;
+
+    private long previousTimestamp;
+
+    // Number of segments started so far
+    private int segments;
+
+    // Built on demand, the converter runs without the JMeter properties it needs
+    private SampleSaveConfiguration saveConfig;
+
+    /**
+     * @param stream binary result file content, closed by {@link #close()}
+     * @throws IOException if the content does not start with a segment header
+     */
+    public PtpBinaryResultReader(InputStream stream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+        int first = in.read();
+        if (first < 0 || !readSegmentHeader(first)) {
+            in.close();
+            throw new IOException("Not a binary result file");
+        }
+    }
+
+    /**
+     * @param file a binary result file, compressed or not
+     * @return a reader of the file
+     * @throws IOException if the file cannot be opened or is not a binary result file
+     */
+    public static PtpBinaryResultReader open(File file) throws IOException {
+        return new PtpBinaryResultReader(PtpGzipBlockInputStream.open(file));
+    }
+
+    /**
+     * @param file a result file, compressed or not
+     * @return <code>true</code> if <code>file</code> starts like a binary result file
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isBinary(File file) throws IOException {
+        try (InputStream stream = PtpGzipBlockInputStream.open(file)) {
+            for (byte expected : PtpBinaryResultFormat.MAGIC) {
+                if (stream.read() != expected) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Read the samples of a binary result file, the binary counterpart of
+     * {@link CSVSaveService#processSamples(String, Visualizer, ResultCollector)}.
+     *
+     * @param file the binary result file
+     * @param visualizer where to send the results
+     * @param resultCollector the parent collector
+     * @throws IOException when the file can't be read correctly
+     */
+    public static void processSamples(File file, Visualizer visualizer,
+            ResultCollector resultCollector) throws IOException {
+        final boolean errorsOnly = resultCollector.isErrorLogging();
+        final boolean successOnly = resultCollector.isSuccessOnlyLogging();
+        try (PtpBinaryResultReader reader = open(file)) {
+            SampleEvent event;
+            while ((event = reader.next()) != null) {
+                final SampleResult result = event.getResult();
+                if (ResultCollector.isSampleWanted(result.isSuccessful(),
+                        errorsOnly, successOnly)) {
+                    visualizer.add(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the names of the columns of the current segment, those of the
+     *         header line of a CSV file written with the same save configuration
+     */
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    /**
+     * @return the save configuration of the columns of the current segment
+     */
+    public SampleSaveConfiguration getSaveConfig() {
+        if (saveConfig == null) {
+            SampleSaveConfiguration config = new SampleSaveConfiguration(false);
+            int varCount = 0;
+            for (Column column : columns) {
+                switch (column) {
+                case TIMESTAMP:
+                    config.setTimestamp(true);
+                    break;
+                case ELAPSED:
+                    config.setTime(true);
+                    break;
+                case LABEL:
+                    config.setLabel(true);
+                    break;
+                case CODE:
+                    config.setCode(true);
+                    break;
+                case MESSAGE:
+                    config.setMessage(true);
+                    break;
+                case THREAD_NAME:
+                    config.setThreadName(true);
+                    break;
+                case DATA_TYPE:
+                    config.setDataType(true);
+                    break;
+                case SUCCESS:
+                    config.setSuccess(true);
+                    break;
+                case FAILURE_MESSAGE:
+                    config.setAssertionResultsFailureMessage(true);
+                    break;
+                case BYTES:
+                    config.setBytes(true);
+                    break;
+                case SENT_BYTES:
+                    config.setSentBytes(true);
+                    break;
+                case GROUP_THREADS:
+                case ALL_THREADS:
+                    config.setThreadCounts(true);
+                    break;
+                case URL:
+                    config.setUrl(true);
+                    break;
+                case FILE_NAME:
+                    config.setFileName(true);
+                    break;
+                case LATENCY:
+                    config.setLatency(true);
+                    break;
+                case ENCODING:
+                    config.setEncoding(true);
+                    break;
+                case SAMPLE_COUNT:
+                case ERROR_COUNT:
+                    config.setSampleCount(true);
+                    break;
+                case HOSTNAME:
+                    config.setHostname(true);
+                    break;
+                case IDLE_TIME:
+                    config.setIdleTime(true);
+                    break;
+                case CONNECT_TIME:
+                    config.setConnectTime(true);
+                    break;
+                case VARIABLE:
+                    varCount++;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown column " + column);
+                }
+            }
+            config.setAsBinary(true);
+            config.setVarCount(varCount);
+            saveConfig = config;
+        }
+        return saveConfig;
+    }
+
+    /**
+     * Reads the next sample, restoring the same fields as the CSV reader.
+     *
+     * @return the next sample, <code>null</code> at end of input
+     * @throws IOException if reading fails or the content is corrupted
+     */
+    public SampleEvent next() throws IOException {
+        if (!readSample()) {
+            return null;
+        }
+        long timeStamp = 0L;
+        long elapsed = 0L;
+        boolean statistical = false;
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == Column.TIMESTAMP) {
+                timeStamp = numbers[i];
+            } else if (columns[i] == Column.ELAPSED) {
+                elapsed = numbers[i];
+            } else if (columns[i] == Column.SAMPLE_COUNT) {
+                statistical = true;
+            }
+        }
+        SampleResult result = statistical
+                ? new StatisticalSampleResult(timeStamp, elapsed)
+                : new SampleResult(timeStamp, elapsed);
+        String hostname = ""; // $NON-NLS-1$
+        for (int i = 0; i < columns.length; i++) {
+            switch (columns[i]) {
+            case LABEL:
+                result.setSampleLabel(strings[i]);
+                break;
+            case CODE:
+                result.setResponseCode(strings[i]);
+                break;
+            case MESSAGE:
+                result.setResponseMessage(strings[i]);
+                break;
+            case THREAD_NAME:
+                result.setThreadName(strings[i]);
+                break;
+            case DATA_TYPE:
+                result.setDataType(strings[i]);
+                break;
+            case SUCCESS:
+                result.setSuccessful(numbers[i] != 0L);
+                break;
+            case BYTES:
+                result.setBytes(numbers[i]);
+                break;
+            case SENT_BYTES:
+                result.setSentBytes(numbers[i]);
+                break;
+            case GROUP_THREADS:
+                result.setGroupThreads((int) numbers[i]);
+                break;
+            case ALL_THREADS:
+                result.setAllThreads((int) numbers[i]);
+                break;
+            case FILE_NAME:
+                result.setResultFileName(strings[i]);
+                break;
+            case LATENCY:
+                result.setLatency(numbers[i]);
+                break;
+            case ENCODING:
+                result.setEncodingAndType(strings[i]);
+                break;
+            case SAMPLE_COUNT:
+                result.setSampleCount((int) numbers[i]);
+                break;
+            case ERROR_COUNT:
+                result.setErrorCount((int) numbers[i]);
+                break;
+            case HOSTNAME:
+                hostname = strings[i];
+                break;
+            case IDLE_TIME:
+                result.setIdleTime(numbers[i]);
+                break;
+            case CONNECT_TIME:
+                result.setConnectTime(numbers[i]);
+                break;
+            default:
+                // time stamp and elapsed already used; failure message, URL
+                // and variables not restored, as from CSV
+                break;
+            }
+        }
+        return new SampleEvent(result, "", hostname);
+    }
+
+    /**
+     * Reads the next sample as the fields of the line of a CSV file written
+     * with the same save configuration, unquoted, with the time stamp in
+     * milliseconds and "null" for missing strings.
+     *
+     * @return the fields of the next sample, one per column of its segment,
+     *         <code>null</code> at end of input
+     * @throws IOException if reading fails or the content is corrupted
+     */
+    public String[] nextFields() throws IOException {
+        if (!readSample()) {
+            return null;
+        }
+        String[] fields = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            fields[i] = getField(i);
+        }
+        return fields;
+    }
+
+    /**
+     * Reads the next sample, its values being then read column by column, the
+     * numeric ones without formatting them.
+     *
+     * @return <code>false</code> at end of input
+     * @throws IOException if reading fails or the content is corrupted
+     */
+    public boolean nextSample() throws IOException {
+        return readSample();
+    }
+
+    /**
+     * @return the number of columns of the current segment
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column index of a column of the current segment
+     * @return <code>true</code> if the column holds numbers, the success being 1 or 0
+     */
+    public boolean isNumeric(int column) {
+        PtpBinaryResultFormat.Type type = columns[column].type;
+        return type == PtpBinaryResultFormat.Type.TIMESTAMP
+                || type == PtpBinaryResultFormat.Type.NUMBER
+                || type == PtpBinaryResultFormat.Type.BOOLEAN;
+    }
+
+    /**
+     * @param column index of a numeric column of the current segment
+     * @return its value in the last sample read
+     */
+    public long getLong(int column) {
+        return numbers[column];
+    }
+
+    /**
+     * @param column index of a column of the current segment
+     * @return its value in the last sample read as the field of a CSV line,
+     *         see {@link #nextFields()}
+     */
+    public String getField(int column) {
+        switch (columns[column].type) {
+        case TIMESTAMP:
+        case NUMBER:
+            return Long.toString(numbers[column]);
+        case BOOLEAN:
+            return numbers[column] != 0L ? "true" : "false"; // $NON-NLS-1$ $NON-NLS-2$
+        default:
+            return String.valueOf(strings[column]);
+        }
+    }
+
+    /**
+     * @return the number of segments started so far, changed when the
+     *         columns of the samples may have changed
+     */
+    int getSegmentCount() {
+        return segments;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean readSample() throws IOException {
+        while (true) {
+            int tag = in.read();
+            if (tag < 0) {
+                return false;
+            }
+            try {
+                if (tag == PtpBinaryResultFormat.TAG_SAMPLE) {
+                    readValues();
+                    return true;
+                } else if (tag == PtpBinaryResultFormat.TAG_STRING) {
+                    dictionary.add(PtpBinaryResultFormat.readString(in));
+                } else if (!readSegmentHeader(tag)) {
+                    throw new IOException("Unknown record tag: " + tag);
+                }
+            } catch (EOFException e) {
+                throw new IOException("Truncated binary result file", e);
+            }
+        }
+    }
+
+    private void readValues() throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            switch (columns[i].type) {
+            case TIMESTAMP:
+                previousTimestamp += PtpVarInts.readSignedVarLong(in);
+                numbers[i] = previousTimestamp;
+                break;
+            case NUMBER:
+                numbers[i] = PtpVarInts.readSignedVarLong(in);
+                break;
+            case BOOLEAN:
+                numbers[i] = in.readUnsignedByte();
+                break;
+            case DICTIONARY:
+                strings[i] = readDictionary();
+                break;
+            case TEXT:
+                strings[i] = readText();
+                break;
+            default:
+                throw new IllegalStateException("Unknown type " + columns[i].type);
+            }
+        }
+    }
+
+    private String readDictionary() throws IOException {
+        int value = PtpVarInts.readVarInt(in);
+        if (value == PtpBinaryResultFormat.NULL_STRING) {
+            return null;
+        }
+        if (value == PtpBinaryResultFormat.INLINE_STRING) {
+            return PtpBinaryResultFormat.readString(in);
+        }
+        int index = value - PtpBinaryResultFormat.FIRST_INDEX;
+        if (index >= dictionary.size()) {
+            throw new IOException("Unknown string index: " + index);
+        }
+        return dictionary.get(index);
+    }
+
+    private String readText() throws IOException {
+        int length = PtpVarInts.readVarInt(in);
+        if (length == PtpBinaryResultFormat.NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A new segment starts with its own schema, dictionary and time stamp base
+    private boolean readSegmentHeader(int first) throws IOException {
+        if (first != PtpBinaryResultFormat.MAGIC[0]) {
+            return false;
+        }
+        for (int i = 1; i < PtpBinaryResultFormat.MAGIC.length; i++) {
+            if (in.read() != PtpBinaryResultFormat.MAGIC[i]) {
+                return false;
+            }
+        }
+        int version = in.read();
+        if (version != PtpBinaryResultFormat.VERSION) {
+            throw new IOException("Unsupported binary result file version: " + version);
+        }
+        int count = PtpVarInts.readVarInt(in);
+        columnNames = new String[count];
+        columns = new Column[count];
+        for (int i = 0; i < count; i++) {
+            columnNames[i] = PtpBinaryResultFormat.readString(in);
+            columns[i] = PtpBinaryResultFormat.columnNamed(columnNames[i]);
+        }
+        numbers = new long[count];
+        strings = new String[count];
+        saveConfig = null;
+        dictionary.clear();
+        previousTimestamp = 0L;
+        segments++;
+        return true;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.save;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.reporters.PtpVarInts;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.SampleSaveConfiguration;
+import org.apache.jmeter.save.PtpBinaryResultFormat.Column;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes samples in the binary result format described in
+ * {@link PtpBinaryResultFormat}. The columns are selected once from the save
+ * configuration and written as the schema of a new segment; the strings
+ * repeated from sample to sample are written once and referenced by index.
+ * <p>
+ * Each sample is encoded into a reused buffer, then handed to the stream in a
+ * single write, so the stream may be shared with an asynchronous writer.
+ * Thread-safe.
+ */
+public class PtpBinaryResultWriter implements Closeable, Flushable {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpBinaryResultWriter.class);
+
+    // Buffers larger than this after a sample are dropped rather than kept
+    private static final int MAX_RETAINED_BYTES = 16384;
+
+    private final OutputStream out;
+
+    private final boolean autoflush;
+
+    private final Column[] columns;
+
+    //@GuardedBy("this")
+    private final Map<String, Integer> dictionary = new HashMap<>();
+
+    //@GuardedBy("this") the dictionary entries added by the sample, then the sample
+    private Buffer record = new Buffer();
+
+    //@GuardedBy("this")
+    private Buffer values = new Buffer();
+
+    //@GuardedBy("this")
+    private long previousTimestamp;
+
+    //@GuardedBy("this")
+    private boolean failed;
+
+    /** Byte array stream telling its capacity, so that large buffers are not kept */
+    private static final class Buffer extends ByteArrayOutputStream {
+        final DataOutputStream data = new DataOutputStream(this);
+
+        Buffer() {
+            super(256);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * Starts a new segment.
+     *
+     * @param stream where to write, closed by {@link #close()}
+     * @param saveConfig the configuration selecting the columns
+     * @param autoflush whether every sample should be flushed to the stream
+     * @throws IOException if the segment header cannot be written
+     */
+    public PtpBinaryResultWriter(OutputStream stream, SampleSaveConfiguration saveConfig, boolean autoflush)
+            throws IOException {
+        this.out = stream;
+        this.autoflush = autoflush;
+        String[] names = PtpBinaryResultFormat.columnNames(saveConfig);
+        this.columns = new Column[names.length];
+        DataOutputStream header = record.data;
+        header.write(PtpBinaryResultFormat.MAGIC);
+        header.writeByte(PtpBinaryResultFormat.VERSION);
+        PtpVarInts.writeVarLong(header, names.length);
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = PtpBinaryResultFormat.columnNamed(names[i]);
+            PtpBinaryResultFormat.writeString(header, names[i]);
+        }
+        record.writeTo(out);
+        record.reset();
+        out.flush();
+    }
+
+    /**
+     * Writes a sample. An I/O error is logged once, the following samples
+     * are discarded.
+     *
+     * @param event the sample to write
+     */
+    public synchronized void write(SampleEvent event) {
+        if (failed) {
+            return;
+        }
+        try {
+            encode(event);
+            record.data.writeByte(PtpBinaryResultFormat.TAG_SAMPLE);
+            values.writeTo(record);
+            record.writeTo(out);
+            if (autoflush) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            failed = true;
+            log.error("Error writing binary results, the following samples are lost", e);
+        } finally {
+            record.reset();
+            values.reset();
+            if (record.capacity() > MAX_RETAINED_BYTES) {
+                record = new Buffer();
+            }
+            if (values.capacity() > MAX_RETAINED_BYTES) {
+                values = new Buffer();
+            }
+        }
+    }
+
+    // Writes the values of the sample to values, the new dictionary entries to record
+    //@GuardedBy("this")
+    private void encode(SampleEvent event) throws IOException {
+        final SampleResult sample = event.getResult();
+        final DataOutputStream data = values.data;
+        int variable = 0;
+        for (Column column : columns) {
+            switch (column) {
+            case TIMESTAMP:
+                final long timestamp = sample.getTimeStamp();
+                PtpVarInts.writeSignedVarLong(data, timestamp - previousTimestamp);
+                previousTimestamp = timestamp;
+                break;
+            case ELAPSED:
+                PtpVarInts.writeSignedVarLong(data, sample.getTime());
+                break;
+            case LABEL:
+                writeDictionary(sample.getSampleLabel());
+                break;
+            case CODE:
+                writeDictionary(sample.getResponseCode());
+                break;
+            case MESSAGE:
+                writeDictionary(sample.getResponseMessage());
+                break;
+            case THREAD_NAME:
+                writeDictionary(sample.getThreadName());
+                break;
+            case DATA_TYPE:
+                writeDictionary(sample.getDataType());
+                break;
+            case SUCCESS:
+                data.writeByte(sample.isSuccessful() ? 1 : 0);
+                break;
+            case FAILURE_MESSAGE:
+                writeText(firstFailureMessage(sample));
+                break;
+            case BYTES:
+                PtpVarInts.writeSignedVarLong(data, sample.getBytesAsLong());
+                break;
+            case SENT_BYTES:
+                PtpVarInts.writeSignedVarLong(data, sample.getSentBytes());
+                break;
+            case GROUP_THREADS:
+                PtpVarInts.writeSignedVarLong(data, sample.getGroupThreads());
+                break;
+            case ALL_THREADS:
+                PtpVarInts.writeSignedVarLong(data, sample.getAllThreads());
+                break;
+            case URL:
+                URL url = sample.getURL();
+                writeText(url == null ? null : url.toString());
+                break;
+            case FILE_NAME:
+                writeText(sample.getResultFileName());
+                break;
+            case LATENCY:
+                PtpVarInts.writeSignedVarLong(data, sample.getLatency());
+                break;
+            case ENCODING:
+                writeDictionary(sample.getDataEncodingWithDefault());
+                break;
+            case SAMPLE_COUNT:
+                PtpVarInts.writeSignedVarLong(data, sample.getSampleCount());
+                break;
+            case ERROR_COUNT:
+                PtpVarInts.writeSignedVarLong(data, sample.getErrorCount());
+                break;
+            case HOSTNAME:
+                writeDictionary(event.getHostname());
+                break;
+            case IDLE_TIME:
+                PtpVarInts.writeSignedVarLong(data, sample.getIdleTime());
+                break;
+            case CONNECT_TIME:
+                PtpVarInts.writeSignedVarLong(data, sample.getConnectTime());
+                break;
+            case VARIABLE:
+                writeDictionary(event.getVarValue(variable++));
+                break;
+            default:
+                throw new IllegalStateException("Unknown column " + column);
+            }
+        }
+    }
+
+    //@GuardedBy("this")
+    private void writeDictionary(String value) throws IOException {
+        if (value == null) {
+            values.data.writeByte(PtpBinaryResultFormat.NULL_STRING);
+            return;
+        }
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            if (dictionary.size() >= PtpBinaryResultFormat.MAX_DICTIONARY_SIZE) {
+                values.data.writeByte(PtpBinaryResultFormat.INLINE_STRING);
+                PtpBinaryResultFormat.writeString(values.data, value);
+                return;
+            }
+            index = Integer.valueOf(dictionary.size());
+            record.data.writeByte(PtpBinaryResultFormat.TAG_STRING);
+            PtpBinaryResultFormat.writeString(record.data, value);
+            dictionary.put(value, index);
+        }
+        PtpVarInts.writeVarLong(values.data, index.intValue() + PtpBinaryResultFormat.FIRST_INDEX);
+    }
+
+    //@GuardedBy("this")
+    private void writeText(String value) throws IOException {
+        if (value == null) {
+            values.data.writeByte(PtpBinaryResultFormat.NULL_STRING);
+            return;
+        }
+        // the length is shifted by one to tell an empty string from null
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        PtpVarInts.writeVarLong(values.data, bytes.length + 1L);
+        values.data.write(bytes);
+    }
+
+    private static String firstFailureMessage(SampleResult sample) {
+        AssertionResult[] results = sample.getAssertionResults();
+        if (results != null) {
+            for (AssertionResult result : results) {
+                String message = result.getFailureMessage();
+                if (message != null) {
+                    return message;
+                }
+            }
+        }
+        return ""; // as in the CSV files
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
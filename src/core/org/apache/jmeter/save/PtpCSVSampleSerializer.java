@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.save;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang3.CharUtils;
+import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.SampleSaveConfiguration;
+
+/**
+ * Writes samples in the CSV layout of
+ * {@link CSVSaveService#resultToDelimitedString(SampleEvent)}, with the same
+ * characters, but without the per sample garbage: the columns are selected
+ * once from the save configuration, and each thread formats its lines into
+ * its own reused buffers, quoting fields and formatting time stamps in place.
+ * <p>
+ * An instance is bound to the save configuration it was created from; create
+ * a new one if the configuration changes. Thread-safe.
+ */
+public final class PtpCSVSampleSerializer {
+
+    // Buffers larger than this after a line are dropped rather than kept by the thread
+    private static final int MAX_RETAINED_CHARS = 16384;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private enum Column {
+        TIMESTAMP_MILLIS, TIMESTAMP_FORMATTED, TIME, LABEL, CODE, MESSAGE, THREAD_NAME, DATA_TYPE, SUCCESS,
+        ASSERTION_MESSAGE, BYTES, SENT_BYTES, THREAD_COUNTS, URL, FILE_NAME, LATENCY, ENCODING, SAMPLE_COUNT,
+        HOSTNAME, IDLE_TIME, CONNECT_TIME
+    }
+
+    /** Per thread buffers */
+    private static final class Buffers {
+        StringBuilder line = new StringBuilder(256);
+        char[] chars = new char[256];
+        final DateFormat formatter;
+        final Date date = new Date(0L);
+        final StringBuffer stamp = new StringBuffer(32);
+        final FieldPosition position = new FieldPosition(0);
+
+        Buffers(DateFormat formatter) {
+            // DateFormat is not thread-safe
+            this.formatter = formatter == null ? null : (DateFormat) formatter.clone();
+        }
+    }
+
+    private final SampleSaveConfiguration saveConfig;
+
+    private final Column[] columns;
+
+    private final char delimiter;
+
+    private final ThreadLocal<Buffers> buffers;
+
+    /**
+     * @param saveConfig the configuration selecting the columns, must not be
+     *            changed while this serializer is used
+     */
+    public PtpCSVSampleSerializer(final SampleSaveConfiguration saveConfig) {
+        this.saveConfig = saveConfig;
+        this.delimiter = saveConfig.getDelimiter().charAt(0);
+        this.columns = columnsOf(saveConfig);
+        this.buffers = new ThreadLocal<Buffers>() {
+            @Override
+            protected Buffers initialValue() {
+                return new Buffers(saveConfig.formatter());
+            }
+        };
+    }
+
+    // Same order as CSVSaveService.resultToDelimitedString
+    private static Column[] columnsOf(SampleSaveConfiguration saveConfig) {
+        List<Column> columns = new ArrayList<>();
+        if (saveConfig.saveTimestamp()) {
+            if (saveConfig.printMilliseconds()) {
+                columns.add(Column.TIMESTAMP_MILLIS);
+            } else if (saveConfig.formatter() != null) {
+                columns.add(Column.TIMESTAMP_FORMATTED);
+            }
+        }
+        addIf(columns, saveConfig.saveTime(), Column.TIME);
+        addIf(columns, saveConfig.saveLabel(), Column.LABEL);
+        addIf(columns, saveConfig.saveCode(), Column.CODE);
+        addIf(columns, saveConfig.saveMessage(), Column.MESSAGE);
+        addIf(columns, saveConfig.saveThreadName(), Column.THREAD_NAME);
+        addIf(columns, saveConfig.saveDataType(), Column.DATA_TYPE);
+        addIf(columns, saveConfig.saveSuccess(), Column.SUCCESS);
+        addIf(columns, saveConfig.saveAssertionResultsFailureMessage(), Column.ASSERTION_MESSAGE);
+        addIf(columns, saveConfig.saveBytes(), Column.BYTES);
+        addIf(columns, saveConfig.saveSentBytes(), Column.SENT_BYTES);
+        addIf(columns, saveConfig.saveThreadCounts(), Column.THREAD_COUNTS);
+        addIf(columns, saveConfig.saveUrl(), Column.URL);
+        addIf(columns, saveConfig.saveFileName(), Column.FILE_NAME);
+        addIf(columns, saveConfig.saveLatency(), Column.LATENCY);
+        addIf(columns, saveConfig.saveEncoding(), Column.ENCODING);
+        addIf(columns, saveConfig.saveSampleCount(), Column.SAMPLE_COUNT);
+        addIf(columns, saveConfig.saveHostname(), Column.HOSTNAME);
+        addIf(columns, saveConfig.saveIdleTime(), Column.IDLE_TIME);
+        addIf(columns, saveConfig.saveConnectTime(), Column.CONNECT_TIME);
+        return columns.toArray(new Column[columns.size()]);
+    }
+
+    private static void addIf(List<Column> columns, boolean saved, Column column) {
+        if (saved) {
+            columns.add(column);
+        }
+    }
+
+    /**
+     * @param config a save configuration
+     * @return <code>true</code> if this serializer was created from <code>config</code>
+     */
+    public boolean isFor(SampleSaveConfiguration config) {
+        return saveConfig == config;
+    }
+
+    /**
+     * @param event the sample to convert
+     * @return the same line as {@link CSVSaveService#resultToDelimitedString(SampleEvent)}
+     */
+    public String toDelimitedString(SampleEvent event) {
+        Buffers local = buffers.get();
+        StringBuilder sb = local.line;
+        sb.setLength(0);
+        appendTo(event, sb, local);
+        String line = sb.toString();
+        release(local);
+        return line;
+    }
+
+    /**
+     * Writes the line of a sample followed by the line separator, in a single
+     * write so lines written by several threads do not interleave.
+     *
+     * @param event the sample to write
+     * @param writer where to write
+     * @throws IOException if writing fails
+     */
+    public void write(SampleEvent event, Writer writer) throws IOException {
+        Buffers local = buffers.get();
+        StringBuilder sb = local.line;
+        sb.setLength(0);
+        appendTo(event, sb, local);
+        sb.append(LINE_SEPARATOR);
+        final int length = sb.length();
+        if (local.chars.length < length) {
+            local.chars = new char[Math.max(length, local.chars.length * 2)];
+        }
+        sb.getChars(0, length, local.chars, 0);
+        writer.write(local.chars, 0, length);
+        release(local);
+    }
+
+    private static void release(Buffers local) {
+        if (local.line.capacity() > MAX_RETAINED_CHARS) {
+            local.line = new StringBuilder(256);
+        }
+        if (local.chars.length > MAX_RETAINED_CHARS) {
+            local.chars = new char[256];
+        }
+    }
+
+    /**
+     * Appends the line of a sample, without line separator.
+     *
+     * @param event the sample to convert
+     * @param sb where to append
+     */
+    public void appendTo(SampleEvent event, StringBuilder sb) {
+        appendTo(event, sb, buffers.get());
+    }
+
+    private void appendTo(SampleEvent event, StringBuilder sb, Buffers local) {
+        final int start = sb.length();
+        final SampleResult sample = event.getResult();
+        for (Column column : columns) {
+            switch (column) {
+            case TIMESTAMP_MILLIS:
+                sb.append(delimiter).append(sample.getTimeStamp());
+                break;
+            case TIMESTAMP_FORMATTED:
+                local.date.setTime(sample.getTimeStamp());
+                local.stamp.setLength(0);
+                local.formatter.format(local.date, local.stamp, local.position);
+                appendQuoted(sb.append(delimiter), local.stamp);
+                break;
+            case TIME:
+                sb.append(delimiter).append(sample.getTime());
+                break;
+            case LABEL:
+                appendQuoted(sb.append(delimiter), sample.getSampleLabel());
+                break;
+            case CODE:
+                appendQuoted(sb.append(delimiter), sample.getResponseCode());
+                break;
+            case MESSAGE:
+                appendQuoted(sb.append(delimiter), sample.getResponseMessage());
+                break;
+            case THREAD_NAME:
+                appendQuoted(sb.append(delimiter), sample.getThreadName());
+                break;
+            case DATA_TYPE:
+                appendQuoted(sb.append(delimiter), sample.getDataType());
+                break;
+            case SUCCESS:
+                sb.append(delimiter).append(sample.isSuccessful());
+                break;
+            case ASSERTION_MESSAGE:
+                appendQuoted(sb.append(delimiter), firstFailureMessage(sample));
+                break;
+            case BYTES:
+                sb.append(delimiter).append(sample.getBytesAsLong());
+                break;
+            case SENT_BYTES:
+                sb.append(delimiter).append(sample.getSentBytes());
+                break;
+            case THREAD_COUNTS:
+                sb.append(delimiter).append(sample.getGroupThreads());
+                sb.append(delimiter).append(sample.getAllThreads());
+                break;
+            case URL:
+                URL url = sample.getURL();
+                appendQuoted(sb.append(delimiter), url == null ? null : url.toString());
+                break;
+            case FILE_NAME:
+                appendQuoted(sb.append(delimiter), sample.getResultFileName());
+                break;
+            case LATENCY:
+                sb.append(delimiter).append(sample.getLatency());
+                break;
+            case ENCODING:
+                appendQuoted(sb.append(delimiter), sample.getDataEncodingWithDefault());
+                break;
+            case SAMPLE_COUNT:
+                // Need both sample and error count to be any use
+                sb.append(delimiter).append(sample.getSampleCount());
+                sb.append(delimiter).append(sample.getErrorCount());
+                break;
+            case HOSTNAME:
+                appendQuoted(sb.append(delimiter), event.getHostname());
+                break;
+            case IDLE_TIME:
+                sb.append(delimiter).append(sample.getIdleTime());
+                break;
+            case CONNECT_TIME:
+                sb.append(delimiter).append(sample.getConnectTime());
+                break;
+            default:
+                throw new IllegalStateException("Unknown column " + column);
+            }
+        }
+        for (int i = 0; i < SampleEvent.getVarCount(); i++) {
+            appendQuoted(sb.append(delimiter), event.getVarValue(i));
+        }
+        if (sb.length() > start) {
+            // every field was preceded by the delimiter, the first one must not be
+            sb.deleteCharAt(start);
+        }
+    }
+
+    private static String firstFailureMessage(SampleResult sample) {
+        AssertionResult[] results = sample.getAssertionResults();
+        if (results != null) {
+            for (AssertionResult result : results) {
+                String message = result.getFailureMessage();
+                if (message != null) {
+                    return message;
+                }
+            }
+        }
+        return ""; // Need to append something so delimiter is added
+    }
+
+    /**
+     * Appends a field as {@link CSVSaveService#quoteDelimiters(String, char[])}
+     * would quote it, "null" for <code>null</code>.
+     */
+    private void appendQuoted(StringBuilder sb, CharSequence value) {
+        if (value == null) {
+            sb.append((String) null);
+            return;
+        }
+        final int length = value.length();
+        boolean special = false;
+        for (int i = 0; i < length && !special; i++) {
+            special = isSpecial(value.charAt(i));
+        }
+        if (!special) {
+            sb.append(value);
+            return;
+        }
+        final char quote = CSVSaveService.QUOTING_CHAR;
+        sb.append(quote);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == quote) {
+                sb.append(quote); // double the quote char
+            }
+            sb.append(c);
+        }
+        sb.append(quote);
+    }
+
+    private boolean isSpecial(char c) {
+        return c == delimiter || c == CSVSaveService.QUOTING_CHAR || c == CharUtils.CR || c == CharUtils.LF;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.save;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads gzip files, single or multi-member such as the ones written by
+ * {@link PtpGzipBlockOutputStream}, tolerating a file cut by a crash: when
+ * the data ends in the middle of a member, the stream ends after the last
+ * complete line read, so the reader of a text file never sees a partial line.
+ * <p>
+ * The checksum and size of every complete member are checked.
+ * <p>
+ * Not thread-safe.
+ */
+public class PtpGzipBlockInputStream extends InputStream {
+
+    private static final Logger log = LoggerFactory.getLogger(PtpGzipBlockInputStream.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    // results of readHeader
+    private static final int CLEAN_END = -1;
+
+    private static final int CUT_END = -2;
+
+    private final InputStream in;
+
+    private final String name;
+
+    private final Inflater inflater = new Inflater(true);
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] input = new byte[BUFFER_SIZE];
+
+    private int inputPosition;
+
+    private int inputLimit;
+
+    // decompressed data, [start, end) not read yet, of which [start, available) can be
+    private byte[] output = new byte[BUFFER_SIZE];
+
+    private int start;
+
+    private int available;
+
+    private int end;
+
+    private boolean inMember;
+
+    private long memberSize;
+
+    private int members;
+
+    private boolean finished;
+
+    /**
+     * @param in the compressed data
+     * @param name name of the data, for the messages
+     */
+    public PtpGzipBlockInputStream(InputStream in, String name) {
+        this.in = in;
+        this.name = name;
+    }
+
+    /**
+     * Opens a file, decompressing it if it is gzip compressed whatever its name.
+     *
+     * @param file the file to read
+     * @return the buffered content of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream open(File file) throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            stream.mark(2);
+            int id1 = stream.read();
+            int id2 = stream.read();
+            stream.reset();
+            if (id1 == 0x1f && id2 == 0x8b) {
+                return new PtpGzipBlockInputStream(stream, file.getPath());
+            }
+            return stream;
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (start == available) {
+            if (finished) {
+                return -1;
+            }
+            fill();
+        }
+        int length = Math.min(len, available - start);
+        System.arraycopy(output, start, b, off, length);
+        start += length;
+        return length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return available - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    // Decompresses more data, or finishes the stream
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(output, start, output, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == output.length) {
+            // a line longer than the buffer, nothing to hold back
+            available = end;
+            return;
+        }
+        while (true) {
+            if (!inMember) {
+                int status = readHeader();
+                if (status < 0) {
+                    finish(status == CLEAN_END);
+                    return;
+                }
+                inMember = true;
+                memberSize = 0;
+                crc.reset();
+                inflater.reset();
+            }
+            if (inflater.needsInput()) {
+                if (!fillInput()) {
+                    finish(false);
+                    return;
+                }
+                inflater.setInput(input, inputPosition, inputLimit - inputPosition);
+            }
+            int length;
+            try {
+                length = inflater.inflate(output, end, output.length - end);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt gzip data in " + name, e);
+            }
+            inputPosition = inputLimit - inflater.getRemaining();
+            crc.update(output, end, length);
+            end += length;
+            memberSize += length;
+            if (inflater.finished()) {
+                if (!readTrailer()) {
+                    finish(false);
+                    return;
+                }
+                inMember = false;
+                members++;
+            } else if (length == 0 && inflater.needsDictionary()) {
+                throw new IOException("Corrupt gzip data in " + name);
+            }
+            if (length > 0) {
+                available = lastLineEnd();
+                if (available > start || end == output.length) {
+                    if (available == start) {
+                        available = end;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    // Returns 0 once the header is read, CLEAN_END at the end of the data, CUT_END if cut or not gzip
+    private int readHeader() throws IOException {
+        int id1 = readByte();
+        if (id1 < 0) {
+            return CLEAN_END;
+        }
+        int id2 = readByte();
+        if (id1 != 0x1f || id2 != 0x8b) {
+            if (members == 0) {
+                throw new IOException("Not in gzip format: " + name);
+            }
+            if (id2 >= 0) {
+                log.warn("Garbage after the last gzip member of {} ignored", name);
+            }
+            return CUT_END;
+        }
+        try {
+            int method = readByteOrFail();
+            if (method != 8) {
+                throw new IOException("Unsupported compression method " + method + " in " + name);
+            }
+            int flags = readByteOrFail();
+            skip(6); // MTIME, XFL, OS
+            if ((flags & FEXTRA) != 0) {
+                skip(readByteOrFail() | readByteOrFail() << 8);
+            }
+            if ((flags & FNAME) != 0) {
+                while (readByteOrFail() != 0) {
+                    // skip the zero terminated name
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readByteOrFail() != 0) {
+                    // skip the zero terminated comment
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                skip(2);
+            }
+            return 0;
+        } catch (EOFException e) {
+            return CUT_END;
+        }
+    }
+
+    // Returns false if the data is cut
+    private boolean readTrailer() throws IOException {
+        try {
+            long expectedCrc = readIntLE();
+            long expectedSize = readIntLE();
+            if (expectedCrc != crc.getValue() || expectedSize != (memberSize & 0xffffffffL)) {
+                throw new IOException("Corrupt gzip member in " + name + ", checksum or size mismatch");
+            }
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private void finish(boolean clean) {
+        finished = true;
+        if (clean) {
+            available = end;
+        } else {
+            available = lastLineEnd();
+            log.warn("{} is cut, the data after the last complete line is ignored", name);
+        }
+    }
+
+    // End of the last complete line of the data not read yet, start if none
+    private int lastLineEnd() {
+        for (int i = end - 1; i >= start; i--) {
+            if (output[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return start;
+    }
+
+    private boolean fillInput() throws IOException {
+        if (inputPosition < inputLimit) {
+            return true;
+        }
+        int length = in.read(input, 0, input.length);
+        if (length <= 0) {
+            return false;
+        }
+        inputPosition = 0;
+        inputLimit = length;
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (!fillInput()) {
+            return -1;
+        }
+        return input[inputPosition++] & 0xff;
+    }
+
+    private int readByteOrFail() throws IOException {
+        int b = readByte();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private void skip(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            readByteOrFail();
+        }
+    }
+
+    private long readIntLE() throws IOException {
+        return readByteOrFail() | readByteOrFail() << 8 | readByteOrFail() << 16 | (long) readByteOrFail() << 24;
+    }
+}
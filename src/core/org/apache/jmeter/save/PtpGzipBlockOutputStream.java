@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.save;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output made of independent blocks: the data is compressed one block
+ * at a time, each written as a complete gzip member. The file is a standard
+ * multi-member gzip file (<code>zcat</code> reads it), and everything up to
+ * the last block written stays readable if the process dies, where a single
+ * gzip stream would keep its pending compressed data in memory until closed.
+ * <p>
+ * A block is written once <code>blockSize</code> bytes are pending, and by
+ * {@link #flush()}; flushing after every line therefore compresses poorly.
+ * {@link PtpGzipBlockInputStream} reads the result, including a file cut in
+ * the middle of a block.
+ * <p>
+ * Not thread-safe.
+ */
+public class PtpGzipBlockOutputStream extends FilterOutputStream {
+
+    /** Suffix of the names of the result and agg files written compressed */
+    public static final String SUFFIX = ".gz"; //$NON-NLS-1$
+
+    // ID1, ID2, CM=deflate, FLG=0, MTIME=0, XFL=0, OS=unknown
+    private static final byte[] HEADER = {
+        (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final Deflater deflater;
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] block;
+
+    private final byte[] compressed = new byte[64 * 1024];
+
+    private int pending;
+
+    private boolean closed;
+
+    /**
+     * @param out where to write the gzip members, should be buffered
+     * @param blockSize number of bytes compressed in each member
+     * @param level compression level, see {@link Deflater}
+     */
+    public PtpGzipBlockOutputStream(OutputStream out, int blockSize, int level) {
+        super(out);
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive, got " + blockSize);
+        }
+        this.block = new byte[blockSize];
+        this.deflater = new Deflater(level, true);
+    }
+
+    /**
+     * @param filename name of a result or agg file
+     * @return <code>true</code> if the file is written compressed
+     */
+    public static boolean isCompressed(String filename) {
+        return filename != null && filename.endsWith(SUFFIX);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (pending == block.length) {
+            writeBlock();
+        }
+        block[pending++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (pending == 0 && len >= block.length) {
+            // no need to copy a full block
+            writeMember(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            if (pending == block.length) {
+                writeBlock();
+            }
+            int length = Math.min(len, block.length - pending);
+            System.arraycopy(b, off, block, pending, length);
+            pending += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * Writes the pending data as a block, then flushes the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (pending > 0) {
+            writeMember(block, 0, pending);
+            pending = 0;
+        }
+    }
+
+    private void writeMember(byte[] b, int off, int len) throws IOException {
+        crc.reset();
+        crc.update(b, off, len);
+        deflater.reset();
+        deflater.setInput(b, off, len);
+        deflater.finish();
+        out.write(HEADER);
+        while (!deflater.finished()) {
+            int length = deflater.deflate(compressed, 0, compressed.length);
+            out.write(compressed, 0, length);
+        }
+        writeIntLE(crc.getValue());
+        writeIntLE(len);
+    }
+
+    private void writeIntLE(long value) throws IOException {
+        out.write((int) (value & 0xff));
+        out.write((int) ((value >> 8) & 0xff));
+        out.write((int) ((value >> 16) & 0xff));
+        out.write((int) ((value >> 24) & 0xff));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.save;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Names of the shards of a result file.
+ * <p>
+ * A result file written in shards, so that sampler threads do not all wait
+ * on the lock of a single writer, is split into files named after it:
+ * <code>results.jtl</code> gives <code>results.shard0.jtl</code>,
+ * <code>results.shard1.jtl</code>, ... Each shard is a complete CSV result
+ * file with its own header; readers given the name of the result file read
+ * its shards merged on their time stamps when the file itself does not exist,
+ * see {@link Merge}.
+ */
+public final class PtpResultShards {
+
+    private static final String SHARD_INFIX = ".shard"; //$NON-NLS-1$
+
+    private PtpResultShards() {
+    }
+
+    /**
+     * Merge of the samples of the shards of a result file, as they would be
+     * in a single file: by time stamp, then by shard index for samples of the
+     * same millisecond. Each shard is read one sample ahead.
+     *
+     * @param <S> type of the samples
+     */
+    public abstract static class Merge<S> {
+
+        private final int shardCount;
+
+        private PriorityQueue<Head<S>> heads;
+
+        /**
+         * @param shardCount number of shards, indexed from 0
+         */
+        protected Merge(int shardCount) {
+            this.shardCount = shardCount;
+        }
+
+        /**
+         * @param shard index of the shard
+         * @return the next sample of <code>shard</code>, <code>null</code> at its end
+         * @throws IOException if the shard can't be read
+         */
+        protected abstract S read(int shard) throws IOException;
+
+        /**
+         * @param sample a sample returned by {@link #read(int)}
+         * @return its time stamp in ms
+         */
+        protected abstract long timeStampOf(S sample);
+
+        /**
+         * @return the next sample over all the shards, <code>null</code> at their end
+         * @throws IOException if a shard can't be read
+         */
+        public S next() throws IOException {
+            if (heads == null) {
+                heads = new PriorityQueue<>(Math.max(1, shardCount));
+                for (int shard = 0; shard < shardCount; shard++) {
+                    advance(new Head<S>(shard));
+                }
+            }
+            final Head<S> head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            final S sample = head.sample;
+            advance(head);
+            return sample;
+        }
+
+        private void advance(Head<S> head) throws IOException {
+            final S sample = read(head.shard);
+            if (sample != null) {
+                head.sample = sample;
+                head.timeStamp = timeStampOf(sample);
+                heads.add(head);
+            }
+        }
+    }
+
+    private static final class Head<S> implements Comparable<Head<S>> {
+        final int shard;
+        S sample;
+        long timeStamp;
+
+        Head(int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public int compareTo(Head<S> other) {
+            int byTime = Long.compare(timeStamp, other.timeStamp);
+            return byTime != 0 ? byTime : Integer.compare(shard, other.shard);
+        }
+    }
+
+    /**
+     * @param filename name of the result file
+     * @param shard index of the shard, from 0
+     * @return the name of the shard
+     */
+    public static String shardName(String filename, int shard) {
+        int slash = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf(File.separatorChar));
+        int dot = filename.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return filename + SHARD_INFIX + shard;
+        }
+        return filename.substring(0, dot) + SHARD_INFIX + shard + filename.substring(dot);
+    }
+
+    /**
+     * @param file the result file
+     * @return the shards of <code>file</code> found in its directory, ordered
+     *         by index, empty if there are none
+     */
+    public static File[] listShards(File file) {
+        final File absolute = file.getAbsoluteFile();
+        final File directory = absolute.getParentFile();
+        if (directory == null) {
+            return new File[0];
+        }
+        final String name = absolute.getName();
+        int dot = name.lastIndexOf('.');
+        final Pattern pattern;
+        if (dot <= 0) {
+            pattern = Pattern.compile(Pattern.quote(name + SHARD_INFIX) + "([0-9]+)"); //$NON-NLS-1$
+        } else {
+            pattern = Pattern.compile(Pattern.quote(name.substring(0, dot) + SHARD_INFIX) + "([0-9]+)" //$NON-NLS-1$
+                    + Pattern.quote(name.substring(dot)));
+        }
+        File[] shards = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.isFile() && pattern.matcher(pathname.getName()).matches();
+            }
+        });
+        if (shards == null) {
+            return new File[0];
+        }
+        Arrays.sort(shards, new Comparator<File>() {
+            @Override
+            public int compare(File left, File right) {
+                return Long.compare(indexOf(pattern, left), indexOf(pattern, right));
+            }
+        });
+        return shards;
+    }
+
+    private static long indexOf(Pattern pattern, File shard) {
+        Matcher matcher = pattern.matcher(shard.getName());
+        matcher.matches();
+        String index = matcher.group(1);
+        // too many digits for a long only happens with files not written by JMeter
+        return index.length() > 18 ? Long.MAX_VALUE : Long.parseLong(index);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.report.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SampleTest {
+
+    private static final SampleMetadata METADATA = new SampleMetadata(',', "timeStamp", "elapsed", "label",
+            "responseCode", "success", "bytes", "sentBytes", "grpThreads", "allThreads", "Latency", "Connect");
+
+    @Test
+    public void testParsedFields() {
+        Sample sample = new Sample(0, METADATA, "1490000000042", "42", "label", "200", "true", "1234", "56", "3",
+                "7", "12", "3");
+        assertEquals(1490000000042L, sample.getTimestamp());
+        assertEquals(42L, sample.getElapsedTime());
+        assertEquals("label", sample.getName());
+        assertEquals("200", sample.getResponseCode());
+        assertTrue(sample.getSuccess());
+        assertEquals(1234L, sample.getReceivedBytes());
+        assertEquals(56L, sample.getSentBytes());
+        assertEquals(3, sample.getGroupThreads());
+        assertEquals(7, sample.getAllThreads());
+        assertEquals(12L, sample.getLatency());
+        assertEquals(3L, sample.getConnectTime());
+        assertEquals(1490000000042L, sample.getLong(0, "timeStamp"));
+        assertEquals("label", sample.getData("label"));
+    }
+
+    @Test
+    public void testMissingOptionalColumns() {
+        SampleMetadata metadata = new SampleMetadata(',', "timeStamp", "elapsed", "success");
+        Sample sample = new Sample(0, metadata, "1490000000042", "42", "false");
+        assertFalse(sample.getSuccess());
+        assertEquals(0L, sample.getSentBytes());
+        assertEquals(0L, sample.getConnectTime());
+        try {
+            sample.getLatency();
+            fail("Expected SampleException for a missing column");
+        } catch (SampleException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnparsableValueReportedWhenRead() {
+        SampleMetadata metadata = new SampleMetadata(',', "timeStamp", "elapsed");
+        Sample sample = new Sample(0, metadata, "2017/03/20 12:00:00.000", "42");
+        assertEquals(42L, sample.getElapsedTime());
+        assertEquals("2017/03/20 12:00:00.000", sample.getData(0));
+        try {
+            sample.getTimestamp();
+            fail("Expected SampleException for a date time stamp");
+        } catch (SampleException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBuiltFromValues() {
+        SampleMetadata metadata = new SampleMetadata(',', "timeStamp", "elapsed", "label", "success");
+        long[] values = new long[Sample.NUMERIC_FIELDS];
+        values[Sample.TIMESTAMP] = 1490000000042L;
+        values[Sample.ELAPSED] = 42L;
+        values[Sample.SUCCESS] = 1L;
+        int parsed = (1 << Sample.TIMESTAMP) | (1 << Sample.ELAPSED) | (1 << Sample.SUCCESS);
+        Sample sample = new Sample(0, metadata, new String[] { null, null, "label", null }, values, parsed);
+        assertEquals(1490000000042L, sample.getTimestamp());
+        assertTrue(sample.getSuccess());
+        assertEquals("42", sample.getData(1));
+        assertEquals("1490000000042,42,label,true", sample.toString());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPtpAggregateJournal {
+
+    private static final long SIZE = 64 * 1024L;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("TestPtpAggregateJournal", ".wal");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static PtpSampleRecord sample(long second, long elapsed, boolean success) {
+        return new PtpSampleRecord(second * 1000L, elapsed, success ? 200L : 500L, success, 100L, 2L, 1L);
+    }
+
+    @Test
+    public void testUncommittedSamplesRecovered() throws Exception {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0);
+        PtpAggregateJournal journal = new PtpAggregateJournal(file, SIZE, 0, 0L);
+        assertTrue(journal.takeRecovered().isEmpty());
+        accumulator.setJournal(journal);
+        accumulator.add("a", 100L, sample(100L, 10L, true));
+        accumulator.add("a", 100L, sample(100L, 30L, false));
+        accumulator.add("b", 101L, sample(101L, 20L, true));
+        // Killed: neither committed nor marked clean
+        journal.close();
+
+        journal = new PtpAggregateJournal(file, SIZE, 0, 0L);
+        List<PtpBinaryAggregateReader.Row> rows = journal.takeRecovered();
+        assertEquals(2, rows.size());
+        assertEquals("a", rows.get(0).getLabel());
+        assertEquals(100L, rows.get(0).getSecond());
+        assertEquals(2L, rows.get(0).getStatistics().getRequestCount());
+        assertEquals(40L, rows.get(0).getStatistics().getTestTime());
+        assertEquals(1L, rows.get(0).getStatistics().getErrors());
+        assertEquals(1L, rows.get(0).getStatistics().getStatus5xx());
+        assertEquals("b", rows.get(1).getLabel());
+        assertEquals(101L, rows.get(1).getSecond());
+        assertTrue(journal.takeRecovered().isEmpty());
+        journal.close();
+
+        // The records of the previous epoch are not recovered twice
+        journal = new PtpAggregateJournal(file, SIZE, 0, 0L);
+        assertTrue(journal.takeRecovered().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testCommittedSamplesSkipped() throws Exception {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0);
+        PtpAggregateJournal journal = new PtpAggregateJournal(file, SIZE, 0, 0L);
+        accumulator.setJournal(journal);
+        accumulator.add("a", 100L, sample(100L, 10L, true));
+        accumulator.add("a", 101L, sample(101L, 20L, true));
+        long slot = journal.nextSlot();
+        // Appended after the slot was read, may have missed the closing
+        accumulator.add("a", 100L, sample(100L, 30L, true));
+        journal.commit(slot, 101L, "r1", "m1", 0L);
+        journal.close();
+
+        journal = new PtpAggregateJournal(file, SIZE, 0, 0L);
+        List<PtpBinaryAggregateReader.Row> rows = journal.takeRecovered();
+        assertEquals(2, rows.size());
+        assertEquals(100L, rows.get(0).getSecond());
+        assertEquals(30L, rows.get(0).getStatistics().getTestTime());
+        assertEquals("r1", rows.get(0).getRound());
+        assertEquals("m1", rows.get(0).getMachine());
+        assertEquals(101L, rows.get(1).getSecond());
+        journal.close();
+    }
+
+    @Test
+    public void testCommitDelayed() throws Exception {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0);
+        PtpAggregateJournal journal = new PtpAggregateJournal(file, SIZE, 0, 1000L);
+        accumulator.setJournal(journal);
+        accumulator.add("a", 100L, sample(100L, 10L, true));
+        journal.commit(journal.nextSlot(), 101L, "r", "m", 5000L);
+        journal.close();
+        journal = new PtpAggregateJournal(file, SIZE, 0, 1000L);
+        assertEquals(1, journal.takeRecovered().size());
+        accumulator.setJournal(journal);
+        accumulator.add("a", 100L, sample(100L, 10L, true));
+        journal.commit(journal.nextSlot(), 101L, "r", "m", 5000L);
+        journal.commit(journal.nextSlot(), 102L, "r", "m", 6000L);
+        journal.close();
+        journal = new PtpAggregateJournal(file, SIZE, 0, 1000L);
+        assertTrue(journal.takeRecovered().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testMarkClean() throws Exception {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(5);
+        PtpAggregateJournal journal = new PtpAggregateJournal(file, SIZE, 5, 0L);
+        accumulator.setJournal(journal);
+        accumulator.add("a", 100L, sample(100L, 10L, true));
+        journal.markClean();
+        journal.close();
+        journal = new PtpAggregateJournal(file, SIZE, 5, 0L);
+        assertTrue(journal.takeRecovered().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testRingOverwritesOldestRecords() throws Exception {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0);
+        PtpAggregateJournal journal = new PtpAggregateJournal(file, SIZE, 0, 0L);
+        accumulator.setJournal(journal);
+        int capacity = journal.getCapacity();
+        for (int i = 0; i < capacity + 10; i++) {
+            accumulator.add("a", 100L + i / capacity, sample(100L, 1L, true));
+        }
+        journal.close();
+        journal = new PtpAggregateJournal(file, SIZE, 0, 0L);
+        List<PtpBinaryAggregateReader.Row> rows = journal.takeRecovered();
+        assertEquals(2, rows.size());
+        assertEquals(capacity - 10L, rows.get(0).getStatistics().getRequestCount());
+        assertEquals(10L, rows.get(1).getStatistics().getRequestCount());
+        journal.close();
+    }
+
+    @Test
+    public void testGetPartialFilename() {
+        assertEquals("agg.partial.csv", ResultCollector.getPartialFilename("agg.csv"));
+        assertEquals("/tmp/run.1/agg.partial", ResultCollector.getPartialFilename("/tmp/run.1/agg"));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPtpAggregateRebuild {
+
+    private static final long START = 1500000000000L;
+
+    private File jtl;
+
+    private File other;
+
+    @Before
+    public void setUp() throws IOException {
+        jtl = File.createTempFile("result", ".jtl");
+        other = File.createTempFile("result", ".jtl");
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(jtl.delete());
+        assertTrue(other.delete());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+
+    // The exact RT detail lists the values in hash order, which depends on the merge order
+    private static String rows(PtpAggregateSinkWriter writer) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : writer.text.toString().split("\r?\n")) {
+            String[] columns = line.split(",", -1);
+            String[] detail = columns[columns.length - 14 - 3].split("\\|");
+            Arrays.sort(detail);
+            columns[columns.length - 14 - 3] = StringUtils.join(detail, '|');
+            sb.append(StringUtils.join(columns, ',')).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Text sink also used to build the expected rows.
+     */
+    private static final class PtpAggregateSinkWriter {
+        final StringWriter text = new StringWriter();
+        final PtpCsvAggregateSink sink = new PtpCsvAggregateSink(new PrintWriter(text), new PtpAggregateRowFormat());
+    }
+
+    private static String expected(int histogramPrecision, String[] labels, PtpSampleRecord[] records) {
+        TreeMap<Long, TreeMap<String, TestTimeSequenceStatistics>> seconds = new TreeMap<>();
+        for (int i = 0; i < records.length; i++) {
+            Long second = Long.valueOf(records[i].getTimeStamp() / 1000L);
+            if (!seconds.containsKey(second)) {
+                seconds.put(second, new TreeMap<String, TestTimeSequenceStatistics>());
+            }
+            TreeMap<String, TestTimeSequenceStatistics> byLabel = seconds.get(second);
+            if (!byLabel.containsKey(labels[i])) {
+                byLabel.put(labels[i], new TestTimeSequenceStatistics(histogramPrecision));
+            }
+            byLabel.get(labels[i]).combine(records[i]);
+        }
+        PtpAggregateSinkWriter writer = new PtpAggregateSinkWriter();
+        for (Map.Entry<Long, TreeMap<String, TestTimeSequenceStatistics>> second : seconds.entrySet()) {
+            for (Map.Entry<String, TestTimeSequenceStatistics> label : second.getValue().entrySet()) {
+                writer.sink.write("r1", "m1", label.getKey(), second.getKey().longValue(), label.getValue());
+            }
+        }
+        writer.sink.flush();
+        return rows(writer);
+    }
+
+    @Test
+    public void testDefaultColumnsAcrossRanges() throws Exception {
+        String[] labels = new String[200];
+        PtpSampleRecord[] records = new PtpSampleRecord[labels.length];
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < records.length; i++) {
+            labels[i] = "label" + (i % 3);
+            boolean success = i % 7 != 0;
+            String code = i % 11 == 0 ? "Non HTTP response code: java.net.SocketException" : (success ? "200" : "500");
+            records[i] = new PtpSampleRecord(START + 37L * i, i % 50, PtpSampleRecord.parseResponseCode(code),
+                    success, 1000L + i, i % 20, i % 5);
+            content.append(records[i].getTimeStamp()).append(',').append(records[i].getElapsed()).append(',')
+                .append(labels[i]).append(',').append(code).append(',').append(success).append(',')
+                .append(records[i].getBytes()).append(',').append(records[i].getLatency()).append(',')
+                .append(records[i].getConnectTime()).append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        write(jtl, content.toString());
+        String expected = expected(0, labels, records);
+        for (int rangeSize : new int[] { 1, 7, 64, 1 << 20 }) {
+            PtpAggregateSinkWriter writer = new PtpAggregateSinkWriter();
+            PtpAggregateRebuild.Result result = PtpAggregateRebuild.rebuild(Collections.singletonList(jtl),
+                    writer.sink, "r1", "m1", 0, 3, rangeSize);
+            assertEquals("range size " + rangeSize, expected, rows(writer));
+            assertEquals(records.length, result.getSamples());
+            assertEquals(0L, result.getSkippedLines());
+        }
+    }
+
+    @Test
+    public void testHeaderAndQuotedFields() throws Exception {
+        String header = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,dataType,success,"
+                + "failureMessage,bytes,sentBytes,grpThreads,allThreads,URL,Latency,IdleTime,Connect\r\n";
+        write(jtl, header
+                + START + ",12,\"a,\"\"b\"\"\",200,\"OK, fine\",t 1-1,text,true,,100,10,1,1,http://x,5,0,2\r\n"
+                + (START + 10) + ",30,plain,404,Not Found,t 1-2,text,false,\"Test failed, code 404\",50,10,1,1,,8,0,3\r\n"
+                + "not,a,sample\r\n"
+                + (START + 1000) + ",7,plain,200,OK,t 1-1,text,true,,100,10,1,1,,4,0,0\r\n");
+        write(other, (START + 20) + ",40,plain,200,true,60,9,1\n");
+        String[] labels = { "a,\"b\"", "plain", "plain", "plain" };
+        PtpSampleRecord[] records = {
+            new PtpSampleRecord(START, 12L, 200L, true, 100L, 5L, 2L),
+            new PtpSampleRecord(START + 10, 30L, 404L, false, 50L, 8L, 3L),
+            new PtpSampleRecord(START + 1000, 7L, 200L, true, 100L, 4L, 0L),
+            new PtpSampleRecord(START + 20, 40L, 200L, true, 60L, 9L, 1L),
+        };
+        for (int precision : new int[] { 0, 5 }) {
+            PtpAggregateSinkWriter writer = new PtpAggregateSinkWriter();
+            PtpAggregateRebuild.Result result = PtpAggregateRebuild.rebuild(Arrays.asList(jtl, other),
+                    writer.sink, "r1", "m1", precision, 2, 16);
+            assertEquals(expected(precision, labels, records), rows(writer));
+            assertEquals(4L, result.getSamples());
+            assertEquals(1L, result.getSkippedLines());
+            assertEquals(3L, result.getRows());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testHeaderWithoutRequiredColumns() throws Exception {
+        write(jtl, "timeStamp,label\n" + START + ",a\n");
+        PtpAggregateRebuild.rebuild(Collections.singletonList(jtl), new PtpAggregateSinkWriter().sink,
+                "r1", "m1", 0, 1, 1024);
+    }
+}
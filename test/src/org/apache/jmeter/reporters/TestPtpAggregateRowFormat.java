@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class TestPtpAggregateRowFormat {
+
+    private static TestTimeSequenceStatistics statistics(int histogramPrecision) {
+        TestTimeSequenceStatistics statistics = new TestTimeSequenceStatistics(histogramPrecision);
+        for (int elapsed = 1; elapsed <= 1000; elapsed++) {
+            statistics.combine(new PtpSampleRecord(0L, elapsed, 200L, true, 10L, 1L, 0L));
+        }
+        return statistics;
+    }
+
+    @Test
+    public void testExactPercentiles() {
+        TestTimeSequenceStatistics statistics = statistics(0);
+        assertArrayEquals(new long[] { 500L, 900L, 990L, 999L, 1000L },
+                statistics.getPercentiles(new double[] { 50d, 90d, 99d, 99.9d, 100d }));
+        assertEquals(288.67d, statistics.getStandardDeviation(), 0.01d);
+    }
+
+    @Test
+    public void testHistogramPercentilesWithinError() {
+        TestTimeSequenceStatistics statistics = statistics(5);
+        long[] values = statistics.getPercentiles(new double[] { 50d, 90d, 99.9d });
+        assertEquals(500d, values[0], 500d / 32);
+        assertEquals(900d, values[1], 900d / 32);
+        assertEquals(999d, values[2], 999d / 32);
+        assertEquals(288.67d, statistics.getStandardDeviation(), 0.01d);
+    }
+
+    @Test
+    public void testVersion1Row() {
+        PtpAggregateRowFormat format = new PtpAggregateRowFormat();
+        assertNull(format.getHeader());
+        TestTimeSequenceStatistics statistics = new TestTimeSequenceStatistics();
+        statistics.combine(new PtpSampleRecord(0L, 12L, 500L, false, 0L, 0L, 0L));
+        StringBuilder sb = new StringBuilder();
+        format.appendRow(sb, "r", "m", "l", 42L, statistics);
+        assertEquals("r,m,l,42,12,12,12:1,1,1", sb.toString());
+    }
+
+    @Test
+    public void testVersion2Row() {
+        PtpAggregateRowFormat format = new PtpAggregateRowFormat(99.9d, 50d);
+        assertEquals("#v2,round,machine,label,second,sumRt,maxRt,rtDetail,errors,requests,"
+                + "1xx,2xx,3xx,4xx,5xx,bytes,byteErrors,dns,maxDns,connect,maxConnect,latency,maxLatency,newConnections,"
+                + "stddev,p50,p99.9", format.getHeader());
+        TestTimeSequenceStatistics statistics = new TestTimeSequenceStatistics();
+        statistics.combine(new PtpSampleRecord(0L, 10L, 500L, false, 0L, 0L, 0L));
+        statistics.combine(new PtpSampleRecord(0L, 20L, 500L, false, 0L, 0L, 0L));
+        StringBuilder sb = new StringBuilder();
+        format.appendRow(sb, "r", "m", "l", 42L, statistics);
+        String row = sb.toString();
+        assertEquals(9 + 14 + 1 + 2, row.split(",").length);
+        assertEquals(true, row.endsWith(",0,0,0,0,2,0,0,0,0,0,0,0,0,0,5.00,10,20"));
+    }
+
+    @Test
+    public void testReadAppendedSections() throws IOException {
+        PtpAggregateRowFormat version1 = new PtpAggregateRowFormat();
+        PtpAggregateRowFormat version2 = new PtpAggregateRowFormat(50d);
+        assertEquals("#v1", version1.getSectionHeader());
+        assertEquals(version2.getHeader(), version2.getSectionHeader());
+        TestTimeSequenceStatistics statistics = new TestTimeSequenceStatistics();
+        statistics.combine(new PtpSampleRecord(0L, 12L, 500L, false, 0L, 0L, 0L));
+        // a version 1 run, then a version 2 run and a version 1 run appending to it
+        StringBuilder sb = new StringBuilder();
+        version1.appendRow(sb, "r1", "m", "a,b", 1L, statistics);
+        sb.append('\n').append(version2.getSectionHeader()).append('\n');
+        version2.appendRow(sb, "r2", "m", "a,b", 2L, statistics);
+        sb.append('\n').append(version1.getSectionHeader()).append('\n');
+        version1.appendRow(sb, "r3", "m", "a,b", 3L, statistics);
+        try (PtpCsvAggregateReader reader = new PtpCsvAggregateReader(new StringReader(sb.toString()))) {
+            for (long second = 1L; second <= 3L; second++) {
+                PtpBinaryAggregateReader.Row row = reader.next();
+                assertEquals("r" + second, row.getRound());
+                assertEquals("a,b", row.getLabel());
+                assertEquals(second, row.getSecond());
+                assertEquals(1L, row.getStatistics().getRequestCount());
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new PtpAggregateRowFormat(0d);
+    }
+
+    @Test
+    public void testParsePercentiles() {
+        assertArrayEquals(new double[] { 50d, 99.9d }, PtpAggregateRowFormat.parsePercentiles(" 50, 99.9 ,"), 0d);
+        assertEquals(0, PtpAggregateRowFormat.parsePercentiles("").length);
+    }
+}
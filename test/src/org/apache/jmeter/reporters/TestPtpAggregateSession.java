@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.jmeter.junit.JMeterTestCase;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPtpAggregateSession extends JMeterTestCase {
+
+    private File dir;
+
+    private static class ListSink implements PtpAggregateSink {
+        final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void write(String round, String machine, String label, long second, TestTimeSequenceStatistics statistics) {
+            rows.add(round + ":" + label + "@" + second + ":" + statistics.getRequestCount());
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("session").toFile();
+        // the samples are timed in 1970
+        JMeterUtils.setProperty("ptp.aggregate.max_skew_s", Long.toString(Long.MAX_VALUE));
+    }
+
+    @After
+    public void tearDown() {
+        JMeterUtils.getJMeterProperties().remove("ptp.aggregate.max_skew_s");
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private ResultCollector newCollector(String aggName, String roundId) {
+        ResultCollector collector = new ResultCollector();
+        collector.setFilename(new File(dir, aggName + ".jtl").getPath());
+        collector.setAggFilename(new File(dir, aggName).getPath());
+        collector.setAggMode(ResultCollector.AGG_MODE_SAMPLE);
+        collector.setProperty(ResultCollector.ROUNDID_PROP_NAME, roundId);
+        return collector;
+    }
+
+    private static void sample(ResultCollector collector, String label, long timeStamp) {
+        SampleResult result = SampleResult.createTestSample(timeStamp, timeStamp + 5L);
+        result.setSampleLabel(label);
+        result.setSuccessful(true);
+        result.setResponseCode("200");
+        collector.sampleOccurred(new SampleEvent(result, "tg"));
+    }
+
+    // the rows without the header written for the result file configuration
+    private List<String> rows(String aggName) throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(dir, aggName).toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith("r")) {
+                rows.add(line);
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    public void testBackToBackRounds() throws IOException {
+        ResultCollector first = newCollector("agg.csv", "r1");
+        first.testStarted();
+        PtpAggregateSession session = first.getAggregateSession();
+        assertNotNull(session);
+        assertEquals("r1", session.getRoundId());
+        sample(first, "a", 10000L);
+        sample(first, "a", 10200L);
+        assertEquals(2L, session.getRequestCount());
+        first.testEnded();
+        assertNull(first.getAggregateSession());
+        assertEquals(2L, session.getPrinter().getAggregateCount());
+
+        ResultCollector second = newCollector("agg.csv", "r2");
+        second.testStarted();
+        PtpAggregateSession next = second.getAggregateSession();
+        assertNotSame(session, next);
+        assertEquals("r2", next.getRoundId());
+        assertEquals(0L, next.getRequestCount());
+        sample(second, "b", 20000L);
+        second.testEnded();
+        assertEquals(1L, next.getPrinter().getAggregateCount());
+
+        List<String> rows = rows("agg.csv");
+        assertEquals(2, rows.size());
+        assertTrue(rows.get(0), rows.get(0).startsWith("r1,"));
+        assertTrue(rows.get(0), rows.get(0).contains(",a,10,"));
+        assertTrue(rows.get(1), rows.get(1).startsWith("r2,"));
+        assertTrue(rows.get(1), rows.get(1).contains(",b,20,"));
+    }
+
+    @Test
+    public void testCsvModeKeepsLabelsWithCommas() throws IOException {
+        ResultCollector collector = newCollector("agg.csv", "r1");
+        collector.setAggMode(ResultCollector.AGG_MODE_CSV);
+        collector.testStarted();
+        sample(collector, "search, page 2", 10000L);
+        collector.testEnded();
+
+        List<String> rows = rows("agg.csv");
+        assertEquals(1, rows.size());
+        assertTrue(rows.get(0), rows.get(0).contains(",search, page 2,10,"));
+    }
+
+    @Test
+    public void testXmlResultFileGetsPerSecondRows() throws IOException {
+        ResultCollector collector = newCollector("agg.csv", "r1");
+        collector.setAggMode(ResultCollector.AGG_MODE_CSV);
+        collector.getSaveConfig().setAsXml(true);
+        collector.testStarted();
+        sample(collector, "a", 10000L);
+        sample(collector, "a", 10100L);
+        collector.testEnded();
+
+        String agg = new String(Files.readAllBytes(new File(dir, "agg.csv").toPath()), StandardCharsets.UTF_8);
+        assertFalse(agg, agg.contains("<"));
+        List<String> rows = rows("agg.csv");
+        assertEquals(1, rows.size());
+        assertTrue(rows.get(0), rows.get(0).startsWith("r1,"));
+        assertTrue(rows.get(0), rows.get(0).contains(",a,10,"));
+        String jtl = new String(Files.readAllBytes(new File(dir, "agg.csv.jtl").toPath()), StandardCharsets.UTF_8);
+        assertTrue(jtl, jtl.contains("<testResults"));
+    }
+
+    @Test
+    public void testRawPolicyKeepsAggregateExact() throws IOException {
+        ResultCollector collector = newCollector("agg.csv", "r1");
+        collector.setRawPolicy(PtpRawResultPolicy.ERRORS);
+        collector.testStarted();
+        sample(collector, "a", 10000L);
+        sample(collector, "a", 10100L);
+        SampleResult failed = SampleResult.createTestSample(10200L, 10205L);
+        failed.setSampleLabel("failed");
+        failed.setSuccessful(false);
+        failed.setResponseCode("500");
+        collector.sampleOccurred(new SampleEvent(failed, "tg"));
+        collector.testEnded();
+
+        assertEquals(2, rows("agg.csv").size());
+        List<String> jtl = Files.readAllLines(new File(dir, "agg.csv.jtl").toPath(), StandardCharsets.UTF_8);
+        // field names and the failed sample
+        assertEquals(jtl.toString(), 2, jtl.size());
+        assertTrue(jtl.get(1), jtl.get(1).contains(",failed,"));
+    }
+
+    @Test
+    public void testOverlappingRounds() throws IOException {
+        ResultCollector first = newCollector("agg1.csv", "r1");
+        ResultCollector second = newCollector("agg2.csv", "r2");
+        first.testStarted();
+        second.testStarted();
+        assertNotSame(first.getAggregateSession(), second.getAggregateSession());
+        sample(first, "a", 10000L);
+        sample(second, "b", 10000L);
+        first.testEnded();
+        sample(second, "b", 11000L);
+        second.testEnded();
+
+        List<String> rows = rows("agg1.csv");
+        assertEquals(1, rows.size());
+        assertTrue(rows.get(0), rows.get(0).startsWith("r1,"));
+        rows = rows("agg2.csv");
+        assertEquals(2, rows.size());
+        assertTrue(rows.get(0), rows.get(0).startsWith("r2,"));
+        assertTrue(rows.get(1), rows.get(1).startsWith("r2,"));
+    }
+
+    @Test
+    public void testSharedByCollectorsOfTheSameFile() {
+        ResultCollector first = newCollector("agg.csv", "r1");
+        ResultCollector second = newCollector("agg.csv", "r1");
+        first.testStarted();
+        second.testStarted();
+        PtpAggregateSession session = first.getAggregateSession();
+        assertSame(session, second.getAggregateSession());
+        sample(first, "a", 10000L);
+        sample(second, "a", 10000L);
+        first.testEnded();
+        // still open for the other collector
+        assertEquals(0L, session.getPrinter().getAggregateCount());
+        second.testEnded();
+        assertEquals(2L, session.getPrinter().getAggregateCount());
+    }
+
+    @Test
+    public void testSamplesNotAggregatedLeaveTheWatermark() {
+        ResultCollector collector = newCollector("agg.csv", "r1");
+        collector.setErrorLogging(true);
+        collector.testStarted();
+        PtpWatermark watermark = collector.getAggregateSession().getWatermark();
+        collector.sampleStarting(null);
+        assertEquals(1, watermark.getInFlightCount());
+        // successful, so filtered out by the errors only logging
+        sample(collector, "a", 10000L);
+        assertEquals(0, watermark.getInFlightCount());
+        collector.testEnded();
+    }
+
+    @Test
+    public void testOutOfScopeSampleLeavesTheWatermark() {
+        ResultCollector collector = newCollector("agg.csv", "r1");
+        collector.testStarted();
+        PtpAggregateSession session = collector.getAggregateSession();
+        // the thread group publishes the start of a sampler whose result goes to other listeners
+        collector.sampleStarting(null);
+        assertEquals(1, session.getWatermark().getInFlightCount());
+        collector.sampleEnded(null);
+        assertEquals(0, session.getWatermark().getInFlightCount());
+        long start = System.nanoTime();
+        collector.testEnded();
+        assertTrue("no wait for the sample", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000L);
+        assertEquals(0L, session.getUnflushedCount());
+    }
+
+    @Test
+    public void testCloseWaitsOnceForHungSamples() throws InterruptedException {
+        final PtpAggregateSession session = new PtpAggregateSession("hung", "r1",
+                new PtpStripedAccumulator(0), new PtpWatermark(400L));
+        session.startPrinting(new ListSink(), Collections.<PtpRollupLevel>emptyList());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                session.sampleStarting();
+                started.countDown();
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    // ends the thread
+                }
+            }
+        });
+        sampler.start();
+        started.await();
+        long start = System.nanoTime();
+        session.close();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        closed.countDown();
+        sampler.join();
+        assertTrue("waited " + elapsed + " ms", elapsed >= 400L && elapsed < 800L);
+        assertEquals(1L, session.getUnflushedCount());
+    }
+
+    @Test
+    public void testCloseDrainsThenRefusesSamples() throws InterruptedException {
+        ListSink sink = new ListSink();
+        final PtpAggregateSession session = new PtpAggregateSession("drain", "r1",
+                new PtpStripedAccumulator(0), new PtpWatermark(5000L));
+        session.startPrinting(sink, Collections.<PtpRollupLevel>emptyList());
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                session.sampleStarting();
+                started.countDown();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                session.record("a", new PtpSampleRecord(10000L, 5L, 200L, true, 0L, 0L, 0L));
+            }
+        });
+        sampler.start();
+        started.await();
+        session.close();
+        sampler.join();
+        // the sample in flight was waited for, not dropped
+        assertTrue(session.getDrainMillis() >= 100L);
+        assertEquals(Collections.singletonList("r1:a@10:1"), sink.rows);
+        assertEquals(0L, session.getUnflushedCount());
+
+        session.record("a", new PtpSampleRecord(11000L, 5L, 200L, true, 0L, 0L, 0L));
+        assertEquals(1L, session.getUnflushedCount());
+        assertEquals(1, sink.rows.size());
+    }
+
+    @Test
+    public void testDrainTimeoutCountsSamplesInFlight() throws InterruptedException {
+        final PtpAggregateSession session = new PtpAggregateSession("timeout", "r1",
+                new PtpStripedAccumulator(0), new PtpWatermark(50L));
+        session.startPrinting(new ListSink(), Collections.<PtpRollupLevel>emptyList());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                session.sampleStarting();
+                started.countDown();
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                session.record("a", new PtpSampleRecord(10000L, 5L, 200L, true, 0L, 0L, 0L));
+            }
+        });
+        sampler.start();
+        started.await();
+        session.close();
+        assertEquals(1L, session.getUnflushedCount());
+        closed.countDown();
+        sampler.join();
+    }
+
+    @Test
+    public void testMetricsRegisteredWhileRunning() throws Exception {
+        ListSink sink = new ListSink();
+        PtpAggregateSession session = new PtpAggregateSession("metrics", "r1",
+                new PtpStripedAccumulator(0), new PtpWatermark(0L));
+        session.startPrinting(sink, Collections.<PtpRollupLevel>emptyList());
+        session.record("a", new PtpSampleRecord(10000L, 5L, 200L, true, 0L, 0L, 0L));
+        session.record("a", new PtpSampleRecord(10500L, 5L, 200L, true, 0L, 0L, 0L));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.apache.jmeter.reporters:type=PtpAggregate,name=\"metrics\"");
+        assertEquals(Long.valueOf(2L), server.getAttribute(name, "SamplesIngested"));
+        assertEquals(Integer.valueOf(1), server.getAttribute(name, "OpenBucketCount"));
+        assertEquals("r1", server.getAttribute(name, "RoundId"));
+        session.close();
+        assertFalse(server.isRegistered(name));
+        assertEquals(0, session.getMetrics().getOpenBucketCount());
+        assertTrue(session.getMetrics().getCloseCount() > 0);
+    }
+
+    @Test
+    public void testInternalRows() {
+        ListSink sink = new ListSink();
+        PtpAggregateSession session = new PtpAggregateSession("internal", "r1",
+                new PtpStripedAccumulator(0), new PtpWatermark(0L));
+        session.startPrinting(sink, Collections.<PtpRollupLevel>emptyList());
+        session.record("a", new PtpSampleRecord(10000L, 5L, 200L, true, 0L, 0L, 0L));
+        PtpAggregateMetrics metrics = new PtpAggregateMetrics(session, true);
+        metrics.update(20000L);
+        session.close();
+        assertTrue(sink.rows.toString(), sink.rows.contains("r1:" + PtpAggregateMetrics.INTERNAL_LABEL + ".ingested@20:1"));
+        assertTrue(sink.rows.toString(), sink.rows.contains("r1:" + PtpAggregateMetrics.INTERNAL_LABEL + ".openBuckets@20:1"));
+        assertEquals(11, sink.rows.size() - 1);
+    }
+
+    @Test
+    public void testLossCounterRows() {
+        ListSink sink = new ListSink();
+        PtpAggregateSession session = new PtpAggregateSession("losses", "r1",
+                new PtpStripedAccumulator(0, Integer.MAX_VALUE, 1), new PtpWatermark(0L));
+        session.startPrinting(sink, Collections.<PtpRollupLevel>emptyList());
+        PtpAggregateMetrics metrics = new PtpAggregateMetrics(session, false);
+        metrics.update(20000L);
+        assertEquals("no row while nothing is lost", 0, sink.rows.size());
+        session.record("a", new PtpSampleRecord(10000L, 5L, 200L, true, 0L, 0L, 0L));
+        // over the bucket cap, folded into the other bucket
+        session.record("b", new PtpSampleRecord(10000L, 5L, 200L, true, 0L, 0L, 0L));
+        metrics.update(21000L);
+        assertTrue(sink.rows.toString(), sink.rows.contains("r1:" + PtpAggregateMetrics.INTERNAL_LABEL + ".overflow@21:1"));
+        assertTrue(sink.rows.toString(), sink.rows.contains("r1:" + PtpAggregateMetrics.INTERNAL_LABEL + ".late@21:1"));
+        assertEquals(4, sink.rows.size());
+        metrics.update(22000L);
+        assertEquals("unchanged counters", 4, sink.rows.size());
+        session.close();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPtpAsyncFileWriter {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("TestPtpAsyncFileWriter", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private PtpAsyncFileWriter newWriter(boolean append, int queueSize, int bufferSize, long maxLagMillis) throws IOException {
+        return new PtpAsyncFileWriter(file.getPath(), append, StandardCharsets.UTF_8, queueSize, bufferSize, maxLagMillis);
+    }
+
+    @Test
+    public void testConcurrentLinesKeptWhole() throws Exception {
+        final PtpAsyncFileWriter writer = newWriter(false, 16, 64, 60000L);
+        final PrintWriter out = new PrintWriter(writer);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        out.println(thread + ",\u00e9t\u00e9," + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        out.close();
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(4000, lines.size());
+        assertEquals(4000, new HashSet<>(lines).size());
+        assertTrue(lines.contains("3,\u00e9t\u00e9,999"));
+        assertEquals(file.length(), writer.getBytesWritten());
+        assertTrue(writer.getWriteCount() > 1);
+    }
+
+    @Test
+    public void testFewChunksReused() throws IOException {
+        PtpAsyncFileWriter writer = newWriter(false, 2, 4096, 60000L);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            String line = i + ",\u00e9t\u00e9\n";
+            writer.write(line);
+            expected.append(line);
+        }
+        // a surrogate pair split across writes
+        writer.write('\ud83d');
+        writer.write('\ude00');
+        expected.append("\ud83d\ude00");
+        char[] large = new char[3 * PtpAsyncFileWriter.CHUNK_SIZE];
+        Arrays.fill(large, 'x');
+        writer.write(large, 1, large.length - 1);
+        expected.append(large, 1, large.length - 1);
+        writer.close();
+        assertEquals(expected.toString(), new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertTrue(writer.getProducerWaits() > 0);
+    }
+
+    @Test
+    public void testDropsWholeLinesWhenFull() throws Exception {
+        // a pipe nobody reads yet stands for a disk which cannot keep up
+        final File fifo = new File(file.getPath() + ".fifo");
+        boolean created;
+        try {
+            created = new ProcessBuilder("mkfifo", fifo.getPath()).start().waitFor() == 0;
+        } catch (IOException e) {
+            created = false;
+        }
+        Assume.assumeTrue("mkfifo not available", created);
+        try {
+            final CountDownLatch read = new CountDownLatch(1);
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    try (FileInputStream in = new FileInputStream(fifo)) {
+                        read.await();
+                        byte[] bytes = new byte[8192];
+                        int count;
+                        while ((count = in.read(bytes)) > 0) {
+                            content.write(bytes, 0, count);
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            reader.start();
+            PtpAsyncFileWriter writer = new PtpAsyncFileWriter(fifo.getPath(), false, StandardCharsets.UTF_8, 2, 4096,
+                    60000L, PtpAsyncFileWriter.UNCOMPRESSED, true);
+            final int lines = 50000;
+            for (int i = 0; i < lines; i++) {
+                writer.write("line " + i + ",\u00e9t\u00e9\n");
+            }
+            read.countDown();
+            writer.close();
+            reader.join();
+            assertTrue(writer.getDroppedLines() > 0);
+            assertEquals(0L, writer.getProducerWaits());
+            String[] written = new String(content.toByteArray(), StandardCharsets.UTF_8).split("\n");
+            assertEquals(lines, written.length + writer.getDroppedLines());
+            for (String line : written) {
+                assertTrue(line, line.matches("line \\d+,\u00e9t\u00e9"));
+            }
+        } finally {
+            fifo.delete();
+        }
+    }
+
+    @Test
+    public void testFlushWaitsForTheFile() throws IOException {
+        PtpAsyncFileWriter writer = newWriter(true, 1024, 4096, 60000L);
+        writer.write("abc\n");
+        writer.flush();
+        assertEquals(4L, file.length());
+        writer.close();
+    }
+
+    @Test
+    public void testMaxLag() throws Exception {
+        PtpAsyncFileWriter writer = newWriter(true, 1024, 4096, 50L);
+        writer.write("abc\n");
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (file.length() < 4L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(4L, file.length());
+        writer.close();
+    }
+
+    @Test
+    public void testOutputStream() throws IOException {
+        PtpAsyncFileWriter writer = newWriter(false, 1024, 8, 60000L);
+        try (OutputStream out = writer.getOutputStream()) {
+            out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 }, 1, 9);
+            out.write(11);
+        }
+        byte[] content = Files.readAllBytes(file.toPath());
+        assertEquals(10, content.length);
+        assertEquals(2, content[0]);
+        assertEquals(11, content[9]);
+    }
+
+    @Test
+    public void testWriteAfterClose() throws IOException {
+        PtpAsyncFileWriter writer = newWriter(false, 1024, 4096, 0L);
+        writer.close();
+        writer.close();
+        writer.flush();
+        try {
+            writer.write("late");
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+        Set<String> empty = new HashSet<>(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        assertTrue(empty.isEmpty());
+    }
+
+    @Test
+    public void testCompressedByTheWriterThread() throws IOException {
+        PtpAsyncFileWriter writer = new PtpAsyncFileWriter(file.getPath(), false, StandardCharsets.UTF_8, 16, 64,
+                60000L, Deflater.BEST_SPEED);
+        PrintWriter out = new PrintWriter(writer);
+        for (int i = 0; i < 100; i++) {
+            out.println("line " + i);
+        }
+        out.flush();
+        long flushed = writer.getBytesWritten();
+        assertTrue(flushed > 0);
+        out.close();
+        assertEquals(file.length(), writer.getBytesWritten());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals("line " + i, reader.readLine());
+            }
+            assertNull(reader.readLine());
+        }
+    }
+}
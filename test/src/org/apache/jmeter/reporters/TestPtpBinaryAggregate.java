@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestPtpBinaryAggregate {
+
+    private static TestTimeSequenceStatistics statistics(int histogramPrecision, long... elapsed) {
+        TestTimeSequenceStatistics statistics = new TestTimeSequenceStatistics(histogramPrecision);
+        int i = 0;
+        for (long rt : elapsed) {
+            statistics.combine(new PtpSampleRecord(1000L, rt, i % 3 == 0 ? 200L : 503L, i % 4 != 0, 100L * i, i, i % 2));
+            i++;
+        }
+        return statistics;
+    }
+
+    @Test
+    public void testVarLongs() throws IOException {
+        long[] values = { 0L, 1L, -1L, 63L, -64L, 64L, 300L, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) {
+            PtpVarInts.writeSignedVarLong(out, value);
+            PtpVarInts.writeVarLong(out, value);
+        }
+        PtpVarInts.writeVarLong(out, 127L);
+        out.flush();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (long value : values) {
+            assertEquals(value, PtpVarInts.readSignedVarLong(in));
+            assertEquals(value, PtpVarInts.readVarLong(in));
+        }
+        assertEquals(127L, in.readUnsignedByte());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testStatisticsRoundTrip() throws IOException {
+        PtpAggregateRowFormat format = new PtpAggregateRowFormat(50d, 99d);
+        for (int precision : new int[] { 0, 5 }) {
+            TestTimeSequenceStatistics statistics = statistics(precision, 12L, 3L, 250L, 12L, 7000L);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            statistics.writeTo(new DataOutputStream(bytes));
+            TestTimeSequenceStatistics read = TestTimeSequenceStatistics.readFrom(
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            StringBuilder expected = new StringBuilder();
+            format.appendRow(expected, "r", "m", "l", 1L, statistics);
+            StringBuilder actual = new StringBuilder();
+            format.appendRow(actual, "r", "m", "l", 1L, read);
+            assertEquals(expected.toString(), actual.toString());
+            assertEquals(precision, read.getHistogramPrecision());
+        }
+    }
+
+    @Test
+    public void testConvertMatchesTextRows() throws IOException {
+        PtpAggregateRowFormat format = new PtpAggregateRowFormat();
+        StringWriter text = new StringWriter();
+        PtpCsvAggregateSink csv = new PtpCsvAggregateSink(new PrintWriter(text), format);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PtpBinaryAggregateSink binary = new PtpBinaryAggregateSink(bytes);
+        long[] seconds = { 1500000000L, 1500000000L, 1500000001L, 1499999990L };
+        String[] labels = { "home", "login", "home", "home" };
+        for (int i = 0; i < seconds.length; i++) {
+            TestTimeSequenceStatistics statistics = statistics(0, 10L + i, 20L, 30L * i);
+            csv.write("r1", "m1", labels[i], seconds[i], statistics);
+            binary.write("r1", "m1", labels[i], seconds[i], statistics);
+        }
+        binary.flush();
+        // a second segment, as when the file is opened again in append mode
+        PtpBinaryAggregateSink appended = new PtpBinaryAggregateSink(bytes);
+        appended.write("r2", "m1", "other", 1500000100L, statistics(0, 1L));
+        appended.close();
+        csv.write("r2", "m1", "other", 1500000100L, statistics(0, 1L));
+
+        StringWriter converted = new StringWriter();
+        assertEquals(5L, PtpAggregateConverter.convert(new ByteArrayInputStream(bytes.toByteArray()), converted, format));
+        assertEquals(text.toString(), converted.toString());
+        assertTrue(bytes.size() < text.toString().length());
+    }
+
+    @Test
+    public void testReaderRows() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PtpBinaryAggregateSink binary = new PtpBinaryAggregateSink(bytes);
+        binary.write("r", "m", "a", 42L, statistics(4, 5L, 6L));
+        binary.close();
+        try (PtpBinaryAggregateReader reader = new PtpBinaryAggregateReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            PtpBinaryAggregateReader.Row row = reader.next();
+            assertEquals("a", row.getLabel());
+            assertEquals(42L, row.getSecond());
+            assertEquals(2, row.getStatistics().getRequestCount());
+            assertEquals(4, row.getStatistics().getHistogramPrecision());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testLongLabelTruncated() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 40000) {
+            sb.append("\u00e9"); // 2 bytes each
+        }
+        String label = sb.toString();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PtpBinaryAggregateSink binary = new PtpBinaryAggregateSink(bytes);
+        binary.write("r", "m", label, 42L, statistics(4, 5L));
+        binary.write("r", "m", label, 43L, statistics(4, 6L));
+        binary.close();
+        try (PtpBinaryAggregateReader reader = new PtpBinaryAggregateReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(label.substring(0, 32767), reader.next().getLabel());
+            assertEquals(43L, reader.next().getSecond());
+            assertNull(reader.next());
+        }
+        assertEquals("a", PtpBinaryAggregateSink.truncateUtf("a"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotBinary() throws IOException {
+        new PtpBinaryAggregateReader(new ByteArrayInputStream("1,2,label".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PtpBinaryAggregateSink binary = new PtpBinaryAggregateSink(bytes);
+        binary.write("r", "m", "a", 42L, statistics(0, 5L, 6L));
+        binary.close();
+        byte[] content = bytes.toByteArray();
+        try (PtpBinaryAggregateReader reader = new PtpBinaryAggregateReader(
+                new ByteArrayInputStream(Arrays.copyOf(content, content.length - 2)))) {
+            reader.next();
+        }
+    }
+}
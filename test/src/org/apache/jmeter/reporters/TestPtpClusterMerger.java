@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestPtpClusterMerger {
+
+    private static final long SECOND = 1500000000L;
+
+    private static final class Written {
+        final String machine;
+        final String label;
+        final long second;
+        final TestTimeSequenceStatistics statistics;
+
+        Written(String machine, String label, long second, TestTimeSequenceStatistics statistics) {
+            this.machine = machine;
+            this.label = label;
+            this.second = second;
+            this.statistics = statistics;
+        }
+    }
+
+    private static final class ListSink implements PtpAggregateSink {
+        final List<Written> rows = new ArrayList<>();
+
+        @Override
+        public synchronized void write(String round, String machine, String label, long second,
+                TestTimeSequenceStatistics statistics) {
+            rows.add(new Written(machine, label, second, statistics));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        synchronized int size() {
+            return rows.size();
+        }
+    }
+
+    private static TestTimeSequenceStatistics statistics(int histogramPrecision, long... elapsed) {
+        TestTimeSequenceStatistics statistics = new TestTimeSequenceStatistics(histogramPrecision);
+        for (long rt : elapsed) {
+            statistics.combine(new PtpSampleRecord(1000L, rt, rt > 1000L ? 503L : 200L, rt <= 1000L, 100L, 1L, 0L));
+        }
+        return statistics;
+    }
+
+    private static List<PtpBinaryAggregateReader.Row> rows(String machine, String label, long second,
+            TestTimeSequenceStatistics statistics) {
+        return Collections.singletonList(new PtpBinaryAggregateReader.Row("r1", machine, label, second, statistics));
+    }
+
+    @Test
+    public void testCountersAreExact() {
+        ListSink sink = new ListSink();
+        PtpClusterMerger merger = new PtpClusterMerger(sink, 5, 10000L, 30000L);
+        merger.add("a", rows("a", "home", SECOND, statistics(0, 10L, 20L, 2000L)), 0L);
+        merger.add("b", rows("b", "home", SECOND, statistics(5, 30L)), 0L);
+        merger.add("c", rows("c", "home", SECOND, statistics(3, 40L, 5000L)), 0L);
+        merger.flush();
+
+        assertEquals(1, sink.rows.size());
+        Written row = sink.rows.get(0);
+        assertEquals(PtpClusterMerger.CLUSTER_MACHINE, row.machine);
+        assertEquals(6, row.statistics.getRequestCount());
+        assertEquals(2L, row.statistics.getErrors());
+        assertEquals(10L + 20L + 2000L + 30L + 40L + 5000L, row.statistics.getTestTime());
+        assertEquals(5000L, row.statistics.getMaxTestTime());
+        assertEquals("bytes of the successful samples", 400L, row.statistics.getHttpResponseLen());
+        assertEquals(4L, row.statistics.getStatus2xx());
+        assertEquals(2L, row.statistics.getStatus5xx());
+        assertEquals(5, row.statistics.getHistogramPrecision());
+        // precision 3 of source c bounds the error to 1/8
+        long p99 = row.statistics.getPercentiles(new double[] { 99d })[0];
+        assertTrue("p99 " + p99, Math.abs(p99 - 5000L) <= 5000L / 8);
+    }
+
+    @Test
+    public void testInternalRowsNotMerged() {
+        ListSink sink = new ListSink();
+        PtpClusterMerger merger = new PtpClusterMerger(sink, 5, 10000L, 30000L);
+        merger.add("a", rows("a", PtpAggregateMetrics.INTERNAL_LABEL + ".lateSamples", SECOND,
+                statistics(0, 7L)), 0L);
+        merger.add("a", rows("a", "home", SECOND, statistics(0, 10L)), 0L);
+        merger.flush();
+
+        assertEquals(1, sink.rows.size());
+        assertEquals("home", sink.rows.get(0).label);
+        assertEquals(1, sink.rows.get(0).statistics.getRequestCount());
+    }
+
+    @Test
+    public void testWaitsForAllSources() {
+        ListSink sink = new ListSink();
+        PtpClusterMerger merger = new PtpClusterMerger(sink, 5, 10000L, 30000L);
+        long now = SECOND * 1000L + 1500L;
+        merger.add("a", rows("a", "home", SECOND, statistics(5, 10L)), now);
+        merger.add("b", rows("b", "home", SECOND, statistics(5, 20L)), now);
+        merger.add("a", rows("a", "home", SECOND + 1, statistics(5, 10L)), now);
+        merger.advance(now);
+        assertEquals("b may still send the first second", 0, sink.size());
+
+        merger.add("b", rows("b", "home", SECOND + 1, statistics(5, 20L)), now);
+        merger.advance(now);
+        assertEquals(1, sink.size());
+        assertEquals(SECOND, sink.rows.get(0).second);
+        assertEquals(2, sink.rows.get(0).statistics.getRequestCount());
+    }
+
+    @Test
+    public void testMaxDelay() {
+        ListSink sink = new ListSink();
+        PtpClusterMerger merger = new PtpClusterMerger(sink, 5, 10000L, 30000L);
+        long end = (SECOND + 1) * 1000L;
+        merger.add("a", rows("a", "home", SECOND, statistics(5, 10L)), end);
+        merger.advance(end + 9999L);
+        assertEquals(0, sink.size());
+        merger.advance(end + 10000L);
+        assertEquals(1, sink.size());
+    }
+
+    @Test
+    public void testSourcesJoinAndLeave() {
+        ListSink sink = new ListSink();
+        PtpClusterMerger merger = new PtpClusterMerger(sink, 5, Long.MAX_VALUE, 30000L);
+        merger.add("a", rows("a", "home", SECOND, statistics(5, 10L)), 0L);
+        merger.add("b", rows("b", "home", SECOND + 1, statistics(5, 10L)), 0L);
+        assertEquals(2, merger.getSourceCount());
+        merger.advance(0L);
+        assertEquals("a has moved past nothing yet", 0, sink.size());
+
+        merger.sourceEnded("a");
+        merger.advance(0L);
+        assertEquals(1, sink.size());
+        assertEquals(SECOND, sink.rows.get(0).second);
+
+        merger.add("c", rows("c", "home", SECOND + 2, statistics(5, 10L)), 20000L);
+        merger.advance(40000L);
+        assertEquals("b timed out, c holds its second", 1, merger.getSourceCount());
+        assertEquals(2, sink.size());
+        assertEquals(SECOND + 1, sink.rows.get(1).second);
+    }
+
+    @Test
+    public void testCorrectionRows() {
+        ListSink sink = new ListSink();
+        PtpClusterMerger merger = new PtpClusterMerger(sink, 5, 10000L, 30000L);
+        merger.add("a", rows("a", "home", SECOND, statistics(5, 10L)), 0L);
+        merger.flush();
+        merger.add("b", rows("b", "home", SECOND, statistics(5, 20L, 30L)), 0L);
+        assertEquals(2, sink.size());
+        Written correction = sink.rows.get(1);
+        assertEquals(SECOND, correction.second);
+        assertEquals(2, correction.statistics.getRequestCount());
+        assertEquals(PtpClusterMerger.CLUSTER_MACHINE, correction.machine);
+    }
+
+    @Test
+    public void testCsvReader() throws IOException {
+        TestTimeSequenceStatistics kv = statistics(0, 10L, 10L, 2000L);
+        TestTimeSequenceStatistics histogram = statistics(4, 10L, 300L);
+        for (PtpAggregateRowFormat format : Arrays.asList(new PtpAggregateRowFormat(), new PtpAggregateRowFormat(50d, 99d))) {
+            StringWriter text = new StringWriter();
+            PrintWriter writer = new PrintWriter(text);
+            if (format.getHeader() != null) {
+                writer.println(format.getHeader());
+            }
+            PtpCsvAggregateSink sink = new PtpCsvAggregateSink(writer, format);
+            sink.write("r1", "m1", "a,b", SECOND, kv);
+            sink.write("r1", "m1", "c", SECOND + 1, histogram);
+            sink.write("r1", "m1", "empty", SECOND + 2, statistics(0, 5L));
+            sink.flush();
+
+            StringWriter reread = new StringWriter();
+            PtpCsvAggregateSink copy = new PtpCsvAggregateSink(new PrintWriter(reread), format);
+            if (format.getHeader() != null) {
+                reread.write(format.getHeader() + System.lineSeparator());
+            }
+            try (PtpCsvAggregateReader reader = new PtpCsvAggregateReader(new StringReader(text.toString()))) {
+                PtpBinaryAggregateReader.Row row;
+                while ((row = reader.next()) != null) {
+                    copy.write(row.getRound(), row.getMachine(), row.getLabel(), row.getSecond(), row.getStatistics());
+                }
+            }
+            copy.flush();
+            assertEquals(text.toString(), reread.toString());
+        }
+    }
+
+    @Test
+    public void testMergeFiles() throws IOException {
+        File text = File.createTempFile("agg", ".csv");
+        File binary = File.createTempFile("agg", ".bin");
+        try {
+            try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(text), StandardCharsets.UTF_8))) {
+                PtpCsvAggregateSink sink = new PtpCsvAggregateSink(writer, new PtpAggregateRowFormat());
+                sink.write("r1", "m1", "home", SECOND, statistics(0, 10L, 20L));
+                sink.write("r1", "m1", "home", SECOND + 2, statistics(0, 30L));
+                sink.flush();
+            }
+            try (OutputStream out = new FileOutputStream(binary)) {
+                PtpBinaryAggregateSink sink = new PtpBinaryAggregateSink(out);
+                sink.write("r1", "m2", "home", SECOND, statistics(5, 40L));
+                sink.write("r1", "m2", "home", SECOND + 1, statistics(5, 50L));
+                sink.write("r1", "m2", "login", SECOND + 1, statistics(5, 60L));
+                sink.close();
+            }
+            ListSink sink = new ListSink();
+            assertEquals(5L, PtpAggregateMerge.merge(Arrays.asList(text.getPath(), binary.getPath()), sink, 5));
+            assertEquals(4, sink.rows.size());
+            long previous = Long.MIN_VALUE;
+            int requests = 0;
+            for (Written row : sink.rows) {
+                assertTrue(row.second >= previous);
+                previous = row.second;
+                requests += row.statistics.getRequestCount();
+            }
+            assertEquals(6, requests);
+            assertEquals(3, sink.rows.get(0).statistics.getRequestCount());
+        } finally {
+            assertTrue(text.delete());
+            assertTrue(binary.delete());
+        }
+    }
+
+    @Test
+    public void testSocketReceiver() throws Exception {
+        ListSink sink = new ListSink();
+        PtpClusterMerger merger = new PtpClusterMerger(sink, 5, 10000L, 30000L);
+        try (PtpAggregateSocketReceiver receiver = new PtpAggregateSocketReceiver(0, merger)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PtpBinaryAggregateSink segment = new PtpBinaryAggregateSink(bytes);
+            segment.write("r1", "m1", "home", SECOND, statistics(5, 10L, 20L));
+            segment.close();
+            try (Socket socket = new Socket("localhost", receiver.getLocalPort())) {
+                socket.getOutputStream().write(bytes.toByteArray());
+            }
+            for (int i = 0; i < 100 && sink.size() == 0; i++) {
+                Thread.sleep(50L);
+                merger.flush();
+            }
+        }
+        assertEquals(1, sink.rows.size());
+        assertEquals(2, sink.rows.get(0).statistics.getRequestCount());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestPtpLatencyHistogram {
+
+    @Test
+    public void testBucketBoundsWithinRelativeError() {
+        PtpLatencyHistogram histogram = new PtpLatencyHistogram(5);
+        for (long value = 0; value < 5000000L; value = value * 3 / 2 + 1) {
+            int index = histogram.indexOf(value);
+            long low = histogram.lowestValueAt(index);
+            long high = histogram.highestValueAt(index);
+            assertTrue(value + " below " + low, value >= low);
+            assertTrue(value + " above " + high, value <= high);
+            assertTrue((high - low) <= Math.max(0L, low / 32));
+        }
+        assertEquals(63, histogram.indexOf(63));
+        assertEquals(64, histogram.indexOf(64));
+        assertEquals(64, histogram.indexOf(65));
+    }
+
+    @Test
+    public void testMemoryIsBounded() {
+        PtpLatencyHistogram histogram = new PtpLatencyHistogram(5);
+        for (long value = 0; value < 100000L; value++) {
+            histogram.record(value);
+        }
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(100001L, histogram.getTotalCount());
+        assertTrue(histogram.getBucketCount() <= 32 * (PtpLatencyHistogram.MAX_EXPONENT - 5 + 1));
+    }
+
+    @Test
+    public void testCompactStringRoundTrip() {
+        PtpLatencyHistogram histogram = new PtpLatencyHistogram(5);
+        histogram.record(3L);
+        histogram.record(5L, 4);
+        assertEquals("H5|3|2:4", histogram.toCompactString());
+
+        histogram.record(1234L, 2);
+        histogram.record(987654L);
+        PtpLatencyHistogram parsed = PtpLatencyHistogram.fromCompactString(histogram.toCompactString());
+        assertEquals(histogram.toCompactString(), parsed.toCompactString());
+        assertEquals(8L, parsed.getTotalCount());
+        assertTrue(PtpLatencyHistogram.isCompactString("H5"));
+        assertFalse(PtpLatencyHistogram.isCompactString("12:3|40:1"));
+        assertEquals(0L, PtpLatencyHistogram.fromCompactString("H7").getTotalCount());
+    }
+
+    @Test
+    public void testMerge() {
+        PtpLatencyHistogram a = new PtpLatencyHistogram(4);
+        PtpLatencyHistogram b = new PtpLatencyHistogram(4);
+        a.record(10L);
+        b.record(10L);
+        b.record(100000L);
+        a.merge(b);
+        assertEquals(3L, a.getTotalCount());
+        assertEquals(2, a.getCountAt(a.indexOf(10L)));
+        assertEquals(1, a.getCountAt(a.indexOf(100000L)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecision() {
+        new PtpLatencyHistogram(4).merge(new PtpLatencyHistogram(5));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.jmeter.junit.JMeterTestCase;
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPtpNodeIdentity extends JMeterTestCase {
+
+    private File file;
+
+    public static class FixedSource implements PtpNodeIdentity.Source {
+        @Override
+        public String getNodeId() {
+            return "fixed";
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("node", ".id");
+        assertTrue(file.delete());
+        JMeterUtils.setProperty("ptp.node.id.file", file.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        JMeterUtils.getJMeterProperties().remove("ptp.node.id.file");
+        JMeterUtils.getJMeterProperties().remove("ptp.node.id");
+        JMeterUtils.getJMeterProperties().remove("ptp.node.id.sources");
+        file.delete();
+        PtpNodeIdentity.resolve();
+    }
+
+    private void writeFile(String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+
+    @Test
+    public void testSourcesInOrder() throws IOException {
+        String[] sources = { "property", "file", FixedSource.class.getName() };
+        assertEquals("fixed", PtpNodeIdentity.resolve(sources));
+        writeFile(" sn-42 \nignored\n");
+        assertEquals("sn-42", PtpNodeIdentity.resolve(sources));
+        JMeterUtils.setProperty("ptp.node.id", "from-property");
+        assertEquals("from-property", PtpNodeIdentity.resolve(sources));
+        JMeterUtils.setProperty("ptp.node.id", " ");
+        assertEquals("sn-42", PtpNodeIdentity.resolve(sources));
+    }
+
+    @Test
+    public void testUnknown() {
+        assertEquals(PtpNodeIdentity.UNKNOWN, PtpNodeIdentity.resolve(new String[] { "file" }));
+        assertEquals(PtpNodeIdentity.UNKNOWN, PtpNodeIdentity.resolve(new String[0]));
+        assertEquals(JMeterUtils.getLocalHostName(), PtpNodeIdentity.resolve(new String[] { "file", "hostname" }));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSource() {
+        PtpNodeIdentity.createSource("no.such.Source");
+    }
+
+    @Test
+    public void testNegativeResultCachedUntilNextStart() throws IOException {
+        JMeterUtils.setProperty("ptp.node.id.sources", "file");
+        assertEquals(PtpNodeIdentity.UNKNOWN, PtpNodeIdentity.resolve());
+        writeFile("sn-1");
+        assertEquals(PtpNodeIdentity.UNKNOWN, PtpNodeIdentity.get());
+        assertEquals("sn-1", PtpNodeIdentity.resolve());
+        assertTrue(file.delete());
+        assertEquals("sn-1", PtpNodeIdentity.get());
+        assertEquals("sn-1", ResultCollector.getMachineId());
+    }
+
+    @Test
+    public void testRemoteNodes() {
+        assertEquals("host-a", PtpNodeIdentity.getRemoteNodeId("host-a"));
+        PtpNodeIdentity.remoteNodeIdentified("host-a", "sn-a");
+        PtpNodeIdentity.remoteNodeIdentified("host-b", PtpNodeIdentity.UNKNOWN);
+        assertEquals("sn-a", PtpNodeIdentity.getRemoteNodeId("host-a"));
+        assertEquals("host-b", PtpNodeIdentity.getRemoteNodeId("host-b"));
+    }
+}
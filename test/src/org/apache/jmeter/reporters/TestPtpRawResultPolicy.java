@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.Test;
+
+public class TestPtpRawResultPolicy {
+
+    private final List<SampleResult> written = new ArrayList<>();
+
+    private final PtpRawResultPolicy.Output output = new PtpRawResultPolicy.Output() {
+        @Override
+        public void write(SampleEvent event) {
+            written.add(event.getResult());
+        }
+    };
+
+    private static SampleEvent event(String label, long timeStamp, long elapsed, boolean success) {
+        SampleResult result = SampleResult.createTestSample(timeStamp, timeStamp + elapsed);
+        result.setSampleLabel(label);
+        result.setSuccessful(success);
+        return new SampleEvent(result, "tg");
+    }
+
+    @Test
+    public void testParse() {
+        assertNull(PtpRawResultPolicy.parse(""));
+        assertNull(PtpRawResultPolicy.parse("all"));
+        assertNull(PtpRawResultPolicy.parse("errors, all"));
+        try {
+            PtpRawResultPolicy.parse("errors,unknown");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("unknown"));
+        }
+        try {
+            PtpRawResultPolicy.parse("slow:abc");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testErrorsOrSlow() {
+        PtpRawResultPolicy policy = PtpRawResultPolicy.parse("errors,slow:100");
+        policy.offer(event("a", 1000L, 10L, true), output);
+        policy.offer(event("a", 1000L, 10L, false), output);
+        policy.offer(event("a", 1000L, 500L, true), output);
+        policy.offer(event("a", 1000L, 500L, false), output);
+        policy.flush(output);
+        assertEquals(3, written.size());
+    }
+
+    @Test
+    public void testSampleOneOutOfOne() {
+        PtpRawResultPolicy policy = PtpRawResultPolicy.parse("sample:1");
+        for (int i = 0; i < 10; i++) {
+            policy.offer(event("a", 1000L, 10L, true), output);
+        }
+        assertEquals(10, written.size());
+    }
+
+    @Test
+    public void testExemplarsPerLabelSecond() {
+        PtpRawResultPolicy policy = PtpRawResultPolicy.parse("exemplars");
+        for (int i = 0; i < 100; i++) {
+            policy.offer(event("a", 1000L + i, 10L + i, true), output);
+        }
+        policy.offer(event("b", 1000L, 5L, true), output);
+        assertEquals(0, written.size());
+        // a later second of a writes the exemplars of its first second
+        policy.offer(event("a", 2000L, 7L, true), output);
+        assertTrue(written.toString(), written.size() >= 2 && written.size() <= 3);
+        assertEquals(10L, written.get(0).getTime());
+        assertEquals(109L, written.get(1).getTime());
+        written.clear();
+        policy.flush(output);
+        assertEquals(2, written.size());
+    }
+}
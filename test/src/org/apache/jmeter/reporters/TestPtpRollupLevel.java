@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestPtpRollupLevel {
+
+    private static class ListSink implements PtpAggregateSink {
+        final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void write(String round, String machine, String label, long second, TestTimeSequenceStatistics statistics) {
+            rows.add(label + "@" + second + ":" + statistics.getRequestCount() + "/" + statistics.getTestTime()
+                    + "/" + statistics.getMaxTestTime());
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    private static TestTimeSequenceStatistics[] second(PtpLabelTable labels, String label, long second, long... elapsed) {
+        TestTimeSequenceStatistics[] closed = new TestTimeSequenceStatistics[labels.idOf(label) + 1];
+        TestTimeSequenceStatistics statistics = new TestTimeSequenceStatistics();
+        for (long rt : elapsed) {
+            statistics.combine(new PtpSampleRecord(second * 1000L, rt, 200L, true, 0L, 0L, 0L));
+        }
+        closed[labels.idOf(label)] = statistics;
+        return closed;
+    }
+
+    @Test
+    public void testParseWindows() {
+        assertArrayEquals(new int[] { 10, 60 }, PtpRollupLevel.parseWindows(" 60,10,,60 "));
+        assertEquals(0, PtpRollupLevel.parseWindows("").length);
+        assertEquals(0, PtpRollupLevel.parseWindows(null).length);
+        // typos and too small windows are skipped rather than thrown
+        assertArrayEquals(new int[] { 10 }, PtpRollupLevel.parseWindows("10,6O,1,-5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowOfOneSecond() {
+        new PtpRollupLevel(1, new ListSink());
+    }
+
+    @Test
+    public void testWindowWrittenOnceClosed() {
+        PtpLabelTable labels = new PtpLabelTable();
+        ListSink sink = new ListSink();
+        PtpRollupLevel level = new PtpRollupLevel(10, sink);
+        level.secondClosed(18L, second(labels, "a", 18L, 5L, 7L), labels);
+        level.secondClosed(19L, second(labels, "a", 19L, 9L), labels);
+        level.advance(20L, labels);
+        assertEquals(1, sink.rows.size());
+        assertEquals("a@10:3/21/9", sink.rows.get(0));
+
+        level.secondClosed(21L, second(labels, "b", 21L, 4L), labels);
+        level.advance(22L, labels);
+        assertEquals(1, sink.rows.size());
+        level.secondClosed(25L, second(labels, "a", 25L, 1L), labels);
+        // the window is complete once second 29 is closed
+        level.advance(30L, labels);
+        assertEquals(3, sink.rows.size());
+        assertEquals("a@20:1/1/1", sink.rows.get(1));
+        assertEquals("b@20:1/4/4", sink.rows.get(2));
+    }
+
+    @Test
+    public void testNextWindowWritesPrevious() {
+        PtpLabelTable labels = new PtpLabelTable();
+        ListSink sink = new ListSink();
+        PtpRollupLevel level = new PtpRollupLevel(60, sink);
+        level.secondClosed(59L, second(labels, "a", 59L, 2L), labels);
+        level.secondClosed(60L, second(labels, "a", 60L, 3L), labels);
+        assertEquals(1, sink.rows.size());
+        assertEquals("a@0:1/2/2", sink.rows.get(0));
+        level.flush(labels);
+        assertEquals(2, sink.rows.size());
+        assertEquals("a@60:1/3/3", sink.rows.get(1));
+        level.flush(labels);
+        assertEquals(2, sink.rows.size());
+    }
+
+    @Test
+    public void testLateSecondWrittenAsCorrection() {
+        PtpLabelTable labels = new PtpLabelTable();
+        ListSink sink = new ListSink();
+        PtpRollupLevel level = new PtpRollupLevel(10, sink);
+        level.secondClosed(5L, second(labels, "a", 5L, 2L), labels);
+        level.advance(10L, labels);
+        level.secondClosed(12L, second(labels, "a", 12L, 3L), labels);
+        // late second of the window already written
+        level.secondClosed(7L, second(labels, "a", 7L, 4L), labels);
+        // late second of the open window
+        level.secondClosed(11L, second(labels, "a", 11L, 6L), labels);
+        level.flush(labels);
+        assertEquals(3, sink.rows.size());
+        assertEquals("a@0:1/2/2", sink.rows.get(0));
+        assertEquals("a@0:1/4/4", sink.rows.get(1));
+        assertEquals("a@10:2/9/6", sink.rows.get(2));
+    }
+
+    @Test
+    public void testClosedSecondsAreNotModified() {
+        PtpLabelTable labels = new PtpLabelTable();
+        PtpRollupLevel tens = new PtpRollupLevel(10, new ListSink());
+        PtpRollupLevel minutes = new PtpRollupLevel(60, new ListSink());
+        TestTimeSequenceStatistics[] closed = second(labels, "a", 3L, 5L);
+        tens.secondClosed(3L, closed, labels);
+        minutes.secondClosed(3L, closed, labels);
+        tens.secondClosed(4L, second(labels, "a", 4L, 5L), labels);
+        assertEquals(1, closed[0].getRequestCount());
+    }
+
+    @Test
+    public void testRollupFilename() {
+        assertEquals("dir/agg.10s.csv", ResultCollector.getRollupFilename("dir/agg.csv", 10));
+        assertEquals("d.ir/agg.60s", ResultCollector.getRollupFilename("d.ir/agg", 60));
+        assertEquals("dir/.agg.60s", ResultCollector.getRollupFilename("dir/.agg", 60));
+    }
+}
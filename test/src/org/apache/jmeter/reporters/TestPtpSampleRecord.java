@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.Test;
+
+public class TestPtpSampleRecord {
+
+    @Test
+    public void testParseResponseCode() {
+        assertEquals(200L, PtpSampleRecord.parseResponseCode("200"));
+        assertEquals(404L, PtpSampleRecord.parseResponseCode(" 404 "));
+        assertEquals(504L, PtpSampleRecord.parseResponseCode("Non HTTP response code: java.net.SocketException"));
+        assertEquals(504L, PtpSampleRecord.parseResponseCode(""));
+        assertEquals(504L, PtpSampleRecord.parseResponseCode(null));
+        assertEquals(504L, PtpSampleRecord.parseResponseCode("1234567890123456789012"));
+    }
+
+    @Test
+    public void testFromSampleResult() {
+        SampleResult result = SampleResult.createTestSample(1000L, 1250L);
+        result.setResponseCode("302");
+        result.setSuccessful(false);
+        result.setBytes(512L);
+        result.setLatency(40L);
+        result.setConnectTime(7L);
+        PtpSampleRecord record = PtpSampleRecord.fromSampleResult(result);
+        assertEquals(result.getTimeStamp(), record.getTimeStamp());
+        assertEquals(250L, record.getElapsed());
+        assertEquals(302L, record.getResponseCode());
+        assertEquals(1L, record.getErrors());
+        assertEquals(512L, record.getBytes());
+        assertEquals(40L, record.getLatency());
+        assertEquals(7L, record.getConnectTime());
+    }
+}
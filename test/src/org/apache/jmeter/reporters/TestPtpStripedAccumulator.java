@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TestPtpStripedAccumulator {
+
+    @Test
+    public void testOneStripePerThread() throws Exception {
+        final PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0);
+        final int threads = 500;
+        final int samples = 200;
+        final CountDownLatch recorded = new CountDownLatch(threads);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < samples; j++) {
+                        accumulator.add("label", 10L, new PtpSampleRecord(10000L, 1L, 200L, true, 0L, 0L, 0L));
+                    }
+                    recorded.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // ends the thread
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        recorded.await();
+        assertEquals(threads, accumulator.getStripeCount());
+        assertEquals(threads * samples, accumulator.closeSecond(10L)[0].getRequestCount());
+        // live threads keep their stripe
+        assertEquals(threads, accumulator.getStripeCount());
+        release.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // the stripes of the ended threads are dropped by the next close, not their counts
+        accumulator.closeSecond(11L);
+        assertEquals(0, accumulator.getStripeCount());
+        assertEquals((long) threads * samples, accumulator.getAddedCount());
+    }
+
+    @Test
+    public void testMergeStripesOnClose() throws Exception {
+        final PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0);
+        final int threads = 8;
+        final int samples = 1000;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < samples; j++) {
+                        accumulator.add("label", 10L, new PtpSampleRecord(10000L + j % 1000, j % 50, 200L, j % 10 != 0, 100L, 5L, 1L));
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        accumulator.add("other", 11L, new PtpSampleRecord(11000L, 3L, 500L, false, 0L, 0L, 0L));
+
+        assertEquals(10L, accumulator.oldestOpenSecond());
+        TestTimeSequenceStatistics[] closed = accumulator.closeSecond(10L);
+        PtpLabelTable labels = accumulator.getLabelTable();
+        assertEquals(2, closed.length);
+        TestTimeSequenceStatistics statistics = closed[labels.idOf("label")];
+        assertEquals(threads * samples, statistics.getRequestCount());
+        assertEquals(threads * samples / 10, statistics.getErrors());
+        assertEquals(threads * samples, statistics.getStatus2xx());
+        assertEquals(49L, statistics.getMaxTestTime());
+        assertNull(closed[labels.idOf("other")]);
+        assertNull(accumulator.closeSecond(10L)[labels.idOf("label")]);
+
+        assertEquals(11L, accumulator.oldestOpenSecond());
+        assertEquals(1, accumulator.closeSecond(11L)[labels.idOf("other")].getStatus5xx());
+        assertTrue(accumulator.isEmpty());
+    }
+
+    @Test
+    public void testRingGrowsForDistantSeconds() {
+        PtpSecondRing ring = new PtpSecondRing(4, 0);
+        ring.bucket(100L).combine(new PtpSampleRecord(100000L, 1L, 200L, true, 1L, 1L, 1L));
+        ring.bucket(104L).combine(new PtpSampleRecord(104000L, 2L, 200L, true, 1L, 1L, 1L));
+        ring.bucket(164L).combine(new PtpSampleRecord(164000L, 3L, 200L, true, 1L, 1L, 1L));
+        assertTrue(ring.capacity() > 4);
+        assertEquals(3, ring.openCount());
+        assertEquals(100L, ring.oldestSecond());
+        assertEquals(1L, ring.take(100L).getTestTime());
+        assertEquals(2L, ring.take(104L).getTestTime());
+        assertNull(ring.take(104L));
+        assertEquals(3L, ring.take(164L).getTestTime());
+        assertEquals(Long.MAX_VALUE, ring.oldestSecond());
+    }
+
+    @Test
+    public void testLabelsOverTheCapFoldIntoOther() {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0, 2, Integer.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            accumulator.add("/item/" + i, 10L, new PtpSampleRecord(10000L, 1L, 200L, true, 0L, 0L, 0L));
+        }
+        PtpLabelTable labels = accumulator.getLabelTable();
+        assertEquals(3, labels.size());
+        assertEquals(3L, accumulator.getOverflowCount());
+        TestTimeSequenceStatistics[] closed = accumulator.closeSecond(10L);
+        assertEquals(1, closed[labels.idOf("/item/0")].getRequestCount());
+        assertEquals(1, closed[labels.idOf("/item/1")].getRequestCount());
+        assertEquals(PtpLabelTable.OTHER_LABEL, labels.getLabel(labels.idOf("/item/4")));
+        assertEquals(3, closed[labels.otherId()].getRequestCount());
+        assertEquals(0, accumulator.getLiveBucketCount());
+    }
+
+    @Test
+    public void testBucketCapFoldsIntoOther() {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0, Integer.MAX_VALUE, 3);
+        PtpSampleRecord record = new PtpSampleRecord(10000L, 1L, 200L, true, 0L, 0L, 0L);
+        accumulator.add("a", 10L, record);
+        accumulator.add(PtpLabelTable.OTHER_LABEL, 10L, record);
+        accumulator.add("b", 10L, record);
+        accumulator.add("c", 10L, record);
+        // the other bucket is reserved outside the cap
+        assertEquals(3, accumulator.getLiveBucketCount());
+        // no new bucket: folded into the other bucket of second 10
+        accumulator.add("d", 10L, record);
+        assertEquals(1L, accumulator.getOverflowCount());
+        // the other bucket of second 11 is opened for the overflow
+        accumulator.add("a", 11L, record);
+        assertEquals(2L, accumulator.getOverflowCount());
+        // existing buckets still record
+        accumulator.add("a", 10L, record);
+        assertEquals(3, accumulator.getLiveBucketCount());
+        assertEquals(7L, accumulator.getAddedCount());
+
+        PtpLabelTable labels = accumulator.getLabelTable();
+        TestTimeSequenceStatistics[] closed = accumulator.closeSecond(10L);
+        assertEquals(2, closed[labels.idOf("a")].getRequestCount());
+        assertEquals(2, closed[labels.otherId()].getRequestCount());
+        assertEquals(0, accumulator.getLiveBucketCount());
+        closed = accumulator.closeSecond(11L);
+        assertEquals(1, closed[labels.otherId()].getRequestCount());
+        assertEquals(0, accumulator.getLiveBucketCount());
+        accumulator.add("a", 11L, record);
+        assertEquals(1, accumulator.getLiveBucketCount());
+    }
+
+    @Test
+    public void testFarSecondsFoldIntoOtherOfNow() {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0, Integer.MAX_VALUE, 100, 60L);
+        PtpSampleRecord record = new PtpSampleRecord(10000L, 1L, 200L, true, 0L, 0L, 0L);
+        final long before = System.currentTimeMillis() / 1000L;
+        accumulator.add("a", before, record);
+        // a zero and a far future time stamp do not open their seconds
+        accumulator.add("a", 0L, record);
+        accumulator.add("b", before + 1000000000L, record);
+        final long after = System.currentTimeMillis() / 1000L;
+        assertEquals(3L, accumulator.getAddedCount());
+        assertEquals(2L, accumulator.getOverflowCount());
+        assertTrue(accumulator.oldestOpenSecond() >= before);
+
+        PtpLabelTable labels = accumulator.getLabelTable();
+        long a = 0;
+        long other = 0;
+        for (long second = before; second <= after; second++) {
+            TestTimeSequenceStatistics[] closed = accumulator.closeSecond(second);
+            if (labels.idOf("a") < closed.length && closed[labels.idOf("a")] != null) {
+                a += closed[labels.idOf("a")].getRequestCount();
+            }
+            if (labels.otherId() < closed.length && closed[labels.otherId()] != null) {
+                other += closed[labels.otherId()].getRequestCount();
+            }
+        }
+        assertEquals(1L, a);
+        assertEquals(2L, other);
+        assertTrue(accumulator.isEmpty());
+    }
+}
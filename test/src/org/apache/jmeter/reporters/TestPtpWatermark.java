@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.reporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TestPtpWatermark {
+
+    private static class ListSink implements PtpAggregateSink {
+        final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void write(String round, String machine, String label, long second, TestTimeSequenceStatistics statistics) {
+            rows.add(label + "@" + second + ":" + statistics.getRequestCount());
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    @Test
+    public void testNoSamplerThread() {
+        PtpWatermark watermark = new PtpWatermark(5000L);
+        assertEquals(5000L, watermark.getWatermark(10000L));
+        assertTrue(watermark.isIdle());
+    }
+
+    @Test
+    public void testRunningSampleHoldsWatermark() {
+        PtpWatermark watermark = new PtpWatermark(5000L);
+        watermark.sampleStarting(8000L);
+        assertFalse(watermark.isIdle());
+        assertEquals(8000L, watermark.getWatermark(10000L));
+        // bounded by the allowed lateness
+        assertEquals(15000L, watermark.getWatermark(20000L));
+        watermark.sampleRecorded();
+        assertTrue(watermark.isIdle());
+        assertEquals(20000L, watermark.getWatermark(20000L));
+    }
+
+    @Test
+    public void testOldestThreadWins() throws Exception {
+        final PtpWatermark watermark = new PtpWatermark(60000L);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread sampler = new Thread() {
+            @Override
+            public void run() {
+                watermark.sampleStarting(3000L);
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // end of the test
+                }
+            }
+        };
+        sampler.start();
+        started.await();
+        watermark.sampleStarting(7000L);
+        assertEquals(3000L, watermark.getWatermark(9000L));
+        release.countDown();
+        sampler.join();
+        // dead threads no longer hold the watermark
+        assertEquals(7000L, watermark.getWatermark(9000L));
+        watermark.sampleRecorded();
+    }
+
+    @Test
+    public void testLateSamplesWrittenAsCorrection() {
+        PtpStripedAccumulator accumulator = new PtpStripedAccumulator(0);
+        ListSink sink = new ListSink();
+        PtpPrintResultlogTask task = new PtpPrintResultlogTask(accumulator, sink,
+                Collections.<PtpRollupLevel>emptyList(), new PtpWatermark(0L));
+        accumulator.add("a", 10L, new PtpSampleRecord(10000L, 5L, 200L, true, 0L, 0L, 0L));
+        accumulator.add("a", 12L, new PtpSampleRecord(12000L, 5L, 200L, true, 0L, 0L, 0L));
+        task.printResultLog(12L);
+        assertEquals(Collections.singletonList("a@10:1"), sink.rows);
+
+        accumulator.add("a", 10L, new PtpSampleRecord(10500L, 5L, 200L, true, 0L, 0L, 0L));
+        accumulator.add("a", 10L, new PtpSampleRecord(10700L, 5L, 200L, true, 0L, 0L, 0L));
+        task.printResultLog(13L);
+        assertEquals(3, sink.rows.size());
+        assertEquals("a@10:2", sink.rows.get(1));
+        assertEquals("a@12:1", sink.rows.get(2));
+        assertEquals(2L, task.getLateSampleCount());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.apache.jmeter.samplers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.jmeter.reporters.PtpAggregateListener;
+import org.apache.jmeter.reporters.PtpBinaryAggregateReader;
+import org.junit.Test;
+
+public class TestPerSecondAggregateSampleSender {
+
+    private static final ConcurrentLinkedQueue<byte[]> SENT = new ConcurrentLinkedQueue<>();
+
+    /** Stands for the RMI stub of the client listener */
+    private static class CapturingListener implements RemoteSampleListener, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void testStarted() {
+        }
+
+        @Override
+        public void testStarted(String host) {
+        }
+
+        @Override
+        public void testEnded() {
+        }
+
+        @Override
+        public void nodeIdentified(String host, String nodeId) {
+        }
+
+        @Override
+        public void testEnded(String host) {
+        }
+
+        @Override
+        public void processBatch(List<SampleEvent> samples) {
+            throw new AssertionError("No sample must be sent");
+        }
+
+        @Override
+        public void processAggregates(String host, byte[] buckets) {
+            SENT.add(buckets);
+        }
+
+        @Override
+        public void sampleOccurred(SampleEvent e) {
+            throw new AssertionError("No sample must be sent");
+        }
+
+        @Override
+        public void sampleStarted(SampleEvent e) {
+        }
+
+        @Override
+        public void sampleStopped(SampleEvent e) {
+        }
+    }
+
+    private static SampleEvent event(String label, long timeStamp, long elapsed, boolean success) {
+        SampleResult result = SampleResult.createTestSample(timeStamp, timeStamp + elapsed);
+        result.setSampleLabel(label);
+        result.setResponseCode(success ? "200" : "500");
+        result.setSuccessful(success);
+        return new SampleEvent(result, "tg");
+    }
+
+    // What happens when the client sends the sender to the server
+    private static SampleSender toServer(SampleSender sender) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(sender);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (SampleSender) in.readObject();
+        }
+    }
+
+    @Test
+    public void testSendsClosedBucketsOnly() throws Exception {
+        SENT.clear();
+        SampleSender sender = toServer(new PerSecondAggregateSampleSender(new CapturingListener()));
+        // near the current time, far seconds are folded into __other__
+        long second = System.currentTimeMillis() / 1000L - 2L;
+        sender.sampleOccurred(event("a", second * 1000L + 10L, 100L, true));
+        sender.sampleOccurred(event("a", second * 1000L + 600L, 300L, false));
+        sender.sampleOccurred(event("b", (second + 1) * 1000L, 50L, true));
+        sender.testEnded("host");
+
+        final List<PtpBinaryAggregateReader.Row> rows = new ArrayList<>();
+        RemoteSampleListenerImpl client = new RemoteSampleListenerImpl(new PtpAggregateListener() {
+            @Override
+            public void aggregatesReceived(String host, List<PtpBinaryAggregateReader.Row> received) {
+                assertEquals("server", host);
+                rows.addAll(received);
+            }
+        });
+        try {
+            for (byte[] buckets : SENT) {
+                client.processAggregates("server", buckets);
+            }
+        } finally {
+            UnicastRemoteObject.unexportObject(client, true);
+        }
+        assertEquals(2, rows.size());
+        assertEquals("a", rows.get(0).getLabel());
+        assertEquals(second, rows.get(0).getSecond());
+        assertEquals(2, rows.get(0).getStatistics().getRequestCount());
+        assertEquals(1L, rows.get(0).getStatistics().getErrors());
+        assertEquals(400L, rows.get(0).getStatistics().getTestTime());
+        assertEquals(300L, rows.get(0).getStatistics().getMaxTestTime());
+        // Mergeable RT detail
+        assertEquals(2L, rows.get(0).getStatistics().getHistogram().getTotalCount());
+        assertEquals("b", rows.get(1).getLabel());
+        assertEquals(second + 1, rows.get(1).getSecond());
+    }
+}
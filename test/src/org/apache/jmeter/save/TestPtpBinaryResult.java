@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.save;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.junit.JMeterTestCase;
+import org.apache.jmeter.report.core.CsvSampleReader;
+import org.apache.jmeter.report.core.Sample;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.SampleSaveConfiguration;
+import org.junit.Test;
+
+public class TestPtpBinaryResult extends JMeterTestCase {
+
+    private static SampleEvent event(SampleSaveConfiguration config, long timeStamp, String label, boolean success)
+            throws IOException {
+        SampleResult result = SampleResult.createTestSample(timeStamp, timeStamp + 42L);
+        result.setSampleLabel(label);
+        result.setResponseCode(success ? "200" : "500");
+        result.setResponseMessage("a,b \"quoted\"");
+        result.setThreadName("tg 1-" + (timeStamp % 3));
+        result.setSuccessful(success);
+        result.setURL(new URL("http://localhost/a?b=c"));
+        result.setBytes(1234L);
+        result.setSentBytes(56L);
+        result.setLatency(12L);
+        result.setConnectTime(3L);
+        result.setSaveConfig(config);
+        return new SampleEvent(result, "tg", "host");
+    }
+
+    private static SampleSaveConfiguration csvConfig() {
+        SampleSaveConfiguration config = new SampleSaveConfiguration();
+        config.setFormatter(null);
+        config.setFieldNames(true);
+        config.setHostname(true);
+        return config;
+    }
+
+    private static byte[] write(SampleSaveConfiguration config, int count, long firstTimeStamp) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PtpBinaryResultWriter writer = new PtpBinaryResultWriter(bytes, config, false)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(event(config, firstTimeStamp + i * 7L, "label " + (i % 4), i % 5 != 0));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testSamplesReadBack() throws IOException {
+        SampleSaveConfiguration config = csvConfig();
+        try (PtpBinaryResultReader reader = new PtpBinaryResultReader(
+                new ByteArrayInputStream(write(config, 100, 1490000000000L)))) {
+            assertEquals(CSVSaveService.printableFieldNamesToString(config),
+                    StringUtils.join(reader.getColumnNames(), config.getDelimiter()));
+            for (int i = 0; i < 100; i++) {
+                SampleResult expected = event(config, 1490000000000L + i * 7L, "label " + (i % 4), i % 5 != 0)
+                        .getResult();
+                SampleEvent event = reader.next();
+                SampleResult result = event.getResult();
+                assertEquals(expected.getTimeStamp(), result.getTimeStamp());
+                assertEquals(expected.getTime(), result.getTime());
+                assertEquals(expected.getSampleLabel(), result.getSampleLabel());
+                assertEquals(expected.getResponseCode(), result.getResponseCode());
+                assertEquals(expected.getResponseMessage(), result.getResponseMessage());
+                assertEquals(expected.getThreadName(), result.getThreadName());
+                assertEquals(expected.isSuccessful(), result.isSuccessful());
+                assertEquals(expected.getBytesAsLong(), result.getBytesAsLong());
+                assertEquals(expected.getSentBytes(), result.getSentBytes());
+                assertEquals(expected.getLatency(), result.getLatency());
+                assertEquals(expected.getConnectTime(), result.getConnectTime());
+                assertEquals("host", event.getHostname());
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testSmallerThanCsv() throws IOException {
+        SampleSaveConfiguration config = csvConfig();
+        byte[] binary = write(config, 1000, 1490000000000L);
+        StringWriter csv = new StringWriter();
+        try (PtpBinaryResultReader reader = new PtpBinaryResultReader(new ByteArrayInputStream(binary))) {
+            assertEquals(1000L, PtpBinaryResultConverter.convert(reader, csv, ','));
+        }
+        assertTrue(binary.length * 3 < csv.toString().length());
+    }
+
+    @Test
+    public void testConvertedToCsvLines() throws IOException {
+        SampleSaveConfiguration config = csvConfig();
+        StringBuilder expected = new StringBuilder();
+        expected.append(CSVSaveService.printableFieldNamesToString(config)).append(System.lineSeparator());
+        for (int i = 0; i < 20; i++) {
+            expected.append(CSVSaveService.resultToDelimitedString(
+                    event(config, 1490000000000L + i * 7L, "label " + (i % 4), i % 5 != 0)))
+                    .append(System.lineSeparator());
+        }
+        StringWriter csv = new StringWriter();
+        try (PtpBinaryResultReader reader = new PtpBinaryResultReader(
+                new ByteArrayInputStream(write(config, 20, 1490000000000L)))) {
+            assertEquals(20L, PtpBinaryResultConverter.convert(reader, csv, ','));
+        }
+        assertEquals(expected.toString(), csv.toString());
+    }
+
+    @Test
+    public void testAppendedSegmentsReadByReportReader() throws IOException {
+        SampleSaveConfiguration config = csvConfig();
+        File dir = Files.createTempDirectory("binary").toFile();
+        File file = new File(dir, "results.bin");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(write(config, 30, 1490000000000L));
+                // a new segment starts over with its own dictionary and time stamps
+                out.write(write(config, 30, 1490000001000L));
+            }
+            assertTrue(PtpBinaryResultReader.isBinary(file));
+            try (CsvSampleReader reader = new CsvSampleReader(file, ',', true)) {
+                assertEquals(PtpBinaryResultFormat.columnNames(config).length,
+                        reader.getMetadata().getColumnCount());
+                for (int i = 0; i < 60; i++) {
+                    Sample sample = reader.readSample();
+                    long first = i < 30 ? 1490000000000L : 1490000001000L - 30 * 7L;
+                    assertEquals(event(config, first + i * 7L, "", true).getResult().getTimeStamp(),
+                            sample.getTimestamp());
+                    assertEquals(42L, sample.getElapsedTime());
+                    assertEquals("label " + (i % 30 % 4), sample.getName());
+                    assertEquals(i % 30 % 5 != 0, sample.getSuccess());
+                    assertEquals(12L, sample.getLatency());
+                }
+                assertFalse(reader.hasNext());
+            }
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+}
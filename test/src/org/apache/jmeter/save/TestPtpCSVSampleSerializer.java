@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.save;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+
+import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.junit.JMeterTestCase;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.SampleSaveConfiguration;
+import org.junit.Test;
+
+public class TestPtpCSVSampleSerializer extends JMeterTestCase {
+
+    private static SampleEvent event(SampleSaveConfiguration config, String label, String message) throws IOException {
+        SampleResult result = SampleResult.createTestSample(1490000000123L, 1490000000456L);
+        result.setSampleLabel(label);
+        result.setResponseMessage(message);
+        result.setResponseCode("200");
+        result.setSuccessful(false);
+        result.setURL(new URL("http://localhost/a?b=c,d"));
+        result.setBytes(1234L);
+        result.setLatency(12L);
+        AssertionResult assertion = new AssertionResult("assertion");
+        assertion.setFailureMessage("expected \"ok\"");
+        result.addAssertionResult(assertion);
+        result.setSaveConfig(config);
+        return new SampleEvent(result, "tg");
+    }
+
+    private static void assertSameLine(SampleSaveConfiguration config, String label, String message)
+            throws IOException {
+        SampleEvent event = event(config, label, message);
+        String expected = CSVSaveService.resultToDelimitedString(event);
+        PtpCSVSampleSerializer serializer = new PtpCSVSampleSerializer(config);
+        assertEquals(expected, serializer.toDelimitedString(event));
+        StringWriter writer = new StringWriter();
+        serializer.write(event, writer);
+        serializer.write(event, writer);
+        String line = expected + System.lineSeparator();
+        assertEquals(line + line, writer.toString());
+    }
+
+    @Test
+    public void testAllColumns() throws IOException {
+        SampleSaveConfiguration config = new SampleSaveConfiguration(true);
+        config.setFormatter(null);
+        assertSameLine(config, "label", "OK");
+        assertSameLine(config, "a,b", "line\nbreak \"quoted\"");
+        assertSameLine(config, "", null);
+    }
+
+    @Test
+    public void testDefaultColumns() throws IOException {
+        SampleSaveConfiguration config = new SampleSaveConfiguration();
+        assertSameLine(config, "label", "OK, fine");
+    }
+
+    @Test
+    public void testFormattedTimestampAndDelimiter() throws IOException {
+        SampleSaveConfiguration config = new SampleSaveConfiguration(true);
+        config.setFormatter(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS"));
+        assertSameLine(config, "label", "OK");
+        config.setDelimiter("\t");
+        assertSameLine(config, "tab\tseparated", "comma,is plain");
+    }
+
+    @Test
+    public void testNoColumn() throws IOException {
+        SampleSaveConfiguration config = new SampleSaveConfiguration(false);
+        config.setTimestamp(false);
+        config.setLabel(false);
+        assertSameLine(config, "label", "OK");
+    }
+
+    @Test
+    public void testLongLineDoesNotCorruptNextOne() throws IOException {
+        SampleSaveConfiguration config = new SampleSaveConfiguration();
+        PtpCSVSampleSerializer serializer = new PtpCSVSampleSerializer(config);
+        StringBuilder longMessage = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            longMessage.append("message ");
+        }
+        SampleEvent big = event(config, "big", longMessage.toString());
+        SampleEvent small = event(config, "small", "OK");
+        assertEquals(CSVSaveService.resultToDelimitedString(big), serializer.toDelimitedString(big));
+        StringWriter writer = new StringWriter();
+        serializer.write(big, writer);
+        serializer.write(small, writer);
+        assertTrue(writer.toString().endsWith(CSVSaveService.resultToDelimitedString(small) + System.lineSeparator()));
+        assertTrue(serializer.isFor(config));
+        assertTrue(!serializer.isFor(new SampleSaveConfiguration()));
+    }
+}
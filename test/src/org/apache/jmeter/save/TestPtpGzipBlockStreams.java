@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.save;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jmeter.junit.JMeterTestCase;
+import org.apache.jmeter.report.core.CsvSampleReader;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPtpGzipBlockStreams extends JMeterTestCase {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gzip").toFile();
+        // the samples are timed in 1970
+        JMeterUtils.setProperty("ptp.aggregate.max_skew_s", Long.toString(Long.MAX_VALUE));
+    }
+
+    @After
+    public void tearDown() {
+        JMeterUtils.getJMeterProperties().remove("ptp.aggregate.max_skew_s");
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static String lines(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("1490000000").append(i).append(",12,label ").append(i % 7).append(",true\n");
+        }
+        return sb.toString();
+    }
+
+    private static byte[] compress(String text, int blockSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new PtpGzipBlockOutputStream(bytes, blockSize, Deflater.BEST_SPEED)) {
+            byte[] data = text.getBytes(StandardCharsets.UTF_8);
+            // odd sized writes, across the blocks
+            for (int offset = 0; offset < data.length; offset += 100) {
+                out.write(data, offset, Math.min(100, data.length - offset));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testRoundTripInBlocks() throws IOException {
+        String text = lines(2000);
+        byte[] compressed = compress(text, 1024);
+        assertTrue(compressed.length < text.length());
+        assertEquals(text, read(new PtpGzipBlockInputStream(new ByteArrayInputStream(compressed), "blocks")));
+        // a standard multi-member gzip file
+        assertEquals(text, read(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void testReadsStandardGzip() throws IOException {
+        String text = lines(500);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(text, read(new PtpGzipBlockInputStream(new ByteArrayInputStream(bytes.toByteArray()), "gzip")));
+    }
+
+    @Test
+    public void testCutFileEndsAtLastCompleteLine() throws IOException {
+        String text = lines(2000);
+        byte[] compressed = compress(text, 1024);
+        for (int cut : new int[] { compressed.length - 1, compressed.length - 9, compressed.length / 2, 15, 3 }) {
+            String read = read(new PtpGzipBlockInputStream(
+                    new ByteArrayInputStream(Arrays.copyOf(compressed, cut)), "cut"));
+            assertTrue(text.startsWith(read));
+            assertTrue(read.isEmpty() || read.endsWith("\n"));
+        }
+        // only the last block is lost
+        String read = read(new PtpGzipBlockInputStream(
+                new ByteArrayInputStream(Arrays.copyOf(compressed, compressed.length - 1)), "cut"));
+        assertTrue(read.length() >= text.length() - 1024 - 40);
+    }
+
+    @Test
+    public void testCorruptMemberDetected() throws IOException {
+        byte[] compressed = compress(lines(100), 1024 * 1024);
+        // the size in the trailer
+        compressed[compressed.length - 4]++;
+        try {
+            read(new PtpGzipBlockInputStream(new ByteArrayInputStream(compressed), "corrupt"));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("corrupt"));
+        }
+    }
+
+    @Test
+    public void testOpenSniffsCompression() throws IOException {
+        String text = lines(10);
+        File plain = new File(dir, "plain.csv");
+        Files.write(plain.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        File compressed = new File(dir, "compressed.csv");
+        try (OutputStream out = new FileOutputStream(compressed)) {
+            out.write(compress(text, 64));
+        }
+        assertEquals(text, read(PtpGzipBlockInputStream.open(plain)));
+        assertEquals(text, read(PtpGzipBlockInputStream.open(compressed)));
+    }
+
+    @Test
+    public void testCompressedResultAndAggFiles() throws IOException {
+        File results = new File(dir, "results.jtl.gz");
+        File agg = new File(dir, "agg.csv.gz");
+        ResultCollector collector = new ResultCollector();
+        collector.setFilename(results.getPath());
+        collector.setAggFilename(agg.getPath());
+        collector.setAggMode(ResultCollector.AGG_MODE_SAMPLE);
+        collector.testStarted();
+        for (int i = 0; i < 100; i++) {
+            SampleResult result = SampleResult.createTestSample(10000L + i * 10L, 10000L + i * 10L + 5L);
+            result.setSampleLabel("a");
+            result.setSuccessful(true);
+            result.setResponseCode("200");
+            collector.sampleOccurred(new SampleEvent(result, "tg"));
+        }
+        collector.testEnded();
+
+        int count = 0;
+        try (CsvSampleReader reader = new CsvSampleReader(results, ',', true)) {
+            while (reader.readSample() != null) {
+                count++;
+            }
+        }
+        assertEquals(100, count);
+
+        List<String> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(agg.toPath())), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("timeStamp")) {
+                    rows.add(line);
+                }
+            }
+        }
+        assertEquals(rows.toString(), 1, rows.size());
+        assertTrue(rows.get(0), rows.get(0).contains(",a,10,") && rows.get(0).endsWith(",100"));
+        assertArrayEquals(new byte[] { (byte) 0x1f, (byte) 0x8b },
+                Arrays.copyOf(Files.readAllBytes(results.toPath()), 2));
+    }
+}
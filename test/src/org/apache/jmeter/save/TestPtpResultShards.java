@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.save;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jmeter.junit.JMeterTestCase;
+import org.apache.jmeter.report.core.CsvSampleReader;
+import org.apache.jmeter.report.core.Sample;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.Visualizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPtpResultShards extends JMeterTestCase {
+
+    private static final int THREADS = 4;
+
+    private static final int SAMPLES = 50;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("shards").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testShardName() {
+        assertEquals("results.shard2.jtl", PtpResultShards.shardName("results.jtl", 2));
+        assertEquals("out/results.shard0", PtpResultShards.shardName("out/results", 0));
+        assertEquals("out.v1/results.shard0", PtpResultShards.shardName("out.v1/results", 0));
+    }
+
+    @Test
+    public void testListShardsInIndexOrder() throws IOException {
+        for (int i : new int[] { 10, 2, 0, 1 }) {
+            assertTrue(new File(dir, PtpResultShards.shardName("results.jtl", i)).createNewFile());
+        }
+        assertTrue(new File(dir, "results.jtl.shard3").createNewFile());
+        assertTrue(new File(dir, "other.shard4.jtl").createNewFile());
+        File[] shards = PtpResultShards.listShards(new File(dir, "results.jtl"));
+        assertEquals(4, shards.length);
+        assertEquals("results.shard0.jtl", shards[0].getName());
+        assertEquals("results.shard1.jtl", shards[1].getName());
+        assertEquals("results.shard2.jtl", shards[2].getName());
+        assertEquals("results.shard10.jtl", shards[3].getName());
+    }
+
+    @Test
+    public void testShardsReadAsOneFile() throws Exception {
+        final ResultCollector collector = new ResultCollector();
+        File results = new File(dir, "results.jtl");
+        collector.setFilename(results.getPath());
+        collector.setResultShards(3);
+        collector.testStarted();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < SAMPLES; i++) {
+                        long start = 1000000L + i * 10L + offset;
+                        SampleResult result = SampleResult.createTestSample(start, start + 5L);
+                        result.setSampleLabel("t" + offset);
+                        result.setSuccessful(true);
+                        collector.sampleOccurred(new SampleEvent(result, "tg"));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        collector.testEnded();
+
+        assertFalse(results.exists());
+        assertEquals(3, PtpResultShards.listShards(results).length);
+
+        // samples of different threads sharing a shard are not in time stamp order
+        int count = 0;
+        try (CsvSampleReader reader = new CsvSampleReader(results, ',', true)) {
+            while (reader.readSample() != null) {
+                count++;
+            }
+        }
+        assertEquals(THREADS * SAMPLES, count);
+        assertEquals(THREADS * SAMPLES, load(results, collector).size());
+    }
+
+    private static List<SampleResult> load(File results, ResultCollector collector) throws IOException {
+        final List<SampleResult> loaded = new ArrayList<>();
+        CSVSaveService.processShards(PtpResultShards.listShards(results), new Visualizer() {
+            @Override
+            public void add(SampleResult sample) {
+                loaded.add(sample);
+            }
+
+            @Override
+            public boolean isStats() {
+                return false;
+            }
+        }, collector);
+        return loaded;
+    }
+
+    private void writeShard(int shard, long... timeStamps) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("timeStamp,elapsed,label,success");
+        for (long timeStamp : timeStamps) {
+            lines.add(timeStamp + ",5,s" + shard + ",true");
+        }
+        Files.write(new File(dir, PtpResultShards.shardName("results.csv", shard)).toPath(), lines,
+                StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testShardsMergedOnTimeStamps() throws IOException {
+        writeShard(0, 1000L, 1004L, 1004L, 1010L);
+        writeShard(1);
+        writeShard(2, 999L, 1005L);
+        writeShard(3, 1003L, 1020L, 1021L);
+        File results = new File(dir, "results.csv");
+        long[] expected = { 999L, 1000L, 1003L, 1004L, 1004L, 1005L, 1010L, 1020L, 1021L };
+
+        List<Long> read = new ArrayList<>();
+        try (CsvSampleReader reader = new CsvSampleReader(results, ',', true)) {
+            Sample sample;
+            while ((sample = reader.readSample()) != null) {
+                read.add(Long.valueOf(sample.getTimestamp()));
+            }
+        }
+        assertEquals(expected.length, read.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], read.get(i).longValue());
+        }
+
+        List<SampleResult> loaded = load(results, new ResultCollector());
+        assertEquals(expected.length, loaded.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], loaded.get(i).getTimeStamp());
+        }
+    }
+
+    @Test
+    public void testTiesReadInShardOrderByBothReaders() throws IOException {
+        writeShard(0, 1000L, 1000L);
+        writeShard(1, 1000L);
+        writeShard(2, 999L, 1000L);
+        File results = new File(dir, "results.csv");
+        String[] expected = { "s2", "s0", "s0", "s1", "s2" };
+
+        List<String> read = new ArrayList<>();
+        try (CsvSampleReader reader = new CsvSampleReader(results, ',', true)) {
+            Sample sample;
+            while ((sample = reader.readSample()) != null) {
+                read.add(sample.getName());
+            }
+        }
+        List<String> loaded = new ArrayList<>();
+        for (SampleResult result : load(results, new ResultCollector())) {
+            loaded.add(result.getSampleLabel());
+        }
+        assertEquals(Arrays.asList(expected), read);
+        assertEquals(Arrays.asList(expected), loaded);
+    }
+}